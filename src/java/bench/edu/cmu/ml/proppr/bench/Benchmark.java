@@ -0,0 +1,75 @@
+package edu.cmu.ml.proppr.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * One operation to be timed by BenchmarkRunner, with the parameters it was set up with.
+ *
+ * Subclasses do their expensive preparation in setup(), which is not timed, and
+ * one unit of work in op(). op() should return something computed from its
+ * result, so the JIT can't throw the work away.
+ *
+ * Benchmarks can also count things their ops do with count(), which are
+ * reported per op and per second, and report fixed measurements (like accuracy)
+ * made during setup with report().
+ */
+public abstract class Benchmark {
+	protected final String name;
+	protected final Map<String,String> params;
+	protected final Map<String,double[]> counters = new LinkedHashMap<String,double[]>();
+	protected final Map<String,Double> metrics = new LinkedHashMap<String,Double>();
+
+	public Benchmark(String name, Map<String,String> params) {
+		this.name = name;
+		this.params = new LinkedHashMap<String,String>(params);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Map<String,String> getParams() {
+		return params;
+	}
+
+	/** Prepare to run op(); not timed. Throw Skipped if the benchmark doesn't apply to its parameters. */
+	public void setup() throws Exception {}
+
+	/** One operation */
+	public abstract Object op() throws Exception;
+
+	/** Add n to a counter */
+	protected void count(String counter, double n) {
+		double[] c = counters.get(counter);
+		if (c == null) counters.put(counter, c = new double[1]);
+		c[0] += n;
+	}
+
+	/** Record a measurement which doesn't depend on the timed ops */
+	protected void report(String metric, double value) {
+		metrics.put(metric, value);
+	}
+
+	public Map<String,double[]> getCounters() {
+		return counters;
+	}
+
+	public Map<String,Double> getMetrics() {
+		return metrics;
+	}
+
+	/** Zero the counters, after warmup */
+	public void resetCounters() {
+		for (double[] c : counters.values()) c[0] = 0;
+	}
+
+	@Override
+	public String toString() {
+		return name+params;
+	}
+
+	public static class Skipped extends Exception {
+		public Skipped(String why) { super(why); }
+	}
+}
@@ -0,0 +1,300 @@
+package edu.cmu.ml.proppr.bench;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs benchmarks in the current thread, JMH-style: each is run untimed for a
+ * warmup period, then for a number of timed iterations.
+ *
+ * For each benchmark we report throughput (ops/s, mean and 99.9% confidence
+ * interval over the iterations), bytes allocated per op and allocation rate
+ * (from the thread's allocation counter), and collector runs and time during
+ * the timed iterations, along with any counters and metrics the benchmark
+ * keeps (see Benchmark.count() and Benchmark.report()). Results can be written as JSON in the layout JMH uses
+ * for its -rf json reports, so they can be diffed across versions with the
+ * same tools.
+ *
+ * Usage: BenchmarkRunner [--suite class,...] [--filter regex] [--json file]
+ *   [--warmup seconds] [--time seconds] [--iterations n] [-p key=v1,v2,...]...
+ *
+ * Each -p sets the values of one benchmark parameter; benchmarks are run for
+ * every combination of the values given (see Parameters). The default suites
+ * are listed in SUITES.
+ */
+public class BenchmarkRunner {
+	public static final String[] SUITES = {
+		"edu.cmu.ml.proppr.learn.LearningBenchmarks",
+		"edu.cmu.ml.proppr.prove.ProverBenchmarks",
+		"edu.cmu.ml.proppr.prove.wam.WamBenchmarks",
+		"edu.cmu.ml.proppr.util.SymbolTableBenchmarks"
+	};
+	public static final double DEFAULT_WARMUP_SECONDS = 2;
+	public static final double DEFAULT_ITERATION_SECONDS = 2;
+	public static final int DEFAULT_ITERATIONS = 5;
+	private static final com.sun.management.ThreadMXBean THREADS = threadBean();
+
+	protected double warmupSeconds = DEFAULT_WARMUP_SECONDS;
+	protected double iterationSeconds = DEFAULT_ITERATION_SECONDS;
+	protected int iterations = DEFAULT_ITERATIONS;
+	protected Pattern filter = Pattern.compile(".*");
+	protected List<Result> results = new ArrayList<Result>();
+	/** keeps op() results reachable so they aren't optimized away */
+	public volatile int sink;
+
+	public void setWarmupSeconds(double s) { this.warmupSeconds = s; }
+	public void setIterationSeconds(double s) { this.iterationSeconds = s; }
+	public void setIterations(int n) { this.iterations = n; }
+	public void setFilter(String regex) { this.filter = Pattern.compile(regex); }
+
+	public List<Result> getResults() {
+		return results;
+	}
+
+	/** Run each benchmark whose name matches the filter */
+	public void run(List<? extends Benchmark> benchmarks) throws Exception {
+		for (Benchmark b : benchmarks) {
+			if (!filter.matcher(b.getName()).find()) continue;
+			Result r;
+			try {
+				r = run(b);
+			} catch (Benchmark.Skipped e) {
+				System.out.println("Skipping "+b+": "+e.getMessage());
+				continue;
+			}
+			results.add(r);
+			System.out.println(r);
+		}
+	}
+
+	public Result run(Benchmark b) throws Exception {
+		b.setup();
+		measure(b, warmupSeconds);
+		b.resetCounters();
+		Result r = new Result(b);
+		long gcCount = gcCount(), gcTime = gcTime();
+		for (int i=0; i<iterations; i++) {
+			double[] m = measure(b, iterationSeconds);
+			r.opsPerSecond[i] = m[0] / m[1];
+			r.ops += m[0];
+			r.seconds += m[1];
+			r.bytes += m[2];
+		}
+		r.gcCount = gcCount() - gcCount;
+		r.gcTime = gcTime() - gcTime;
+		return r;
+	}
+
+	/** Run op() for at least the given time, and return {ops, seconds, bytes allocated} */
+	private double[] measure(Benchmark b, double seconds) throws Exception {
+		long tid = Thread.currentThread().getId();
+		long budget = (long) (seconds * 1e9);
+		long ops = 0;
+		int h = 0;
+		long bytes = allocated(tid);
+		long start = System.nanoTime(), elapsed;
+		// check the clock every few ops, in case op() is very short, but
+		// start with one at a time, in case it's very long (like a training epoch)
+		int batch = 1;
+		do {
+			for (int k=0; k<batch; k++) {
+				Object o = b.op();
+				if (o != null) h += System.identityHashCode(o);
+			}
+			ops += batch;
+			if (batch < 16) batch *= 2;
+			elapsed = System.nanoTime() - start;
+		} while (elapsed < budget);
+		bytes = allocated(tid) - bytes;
+		sink += h;
+		return new double[] { ops, elapsed / 1e9, bytes };
+	}
+
+	private static com.sun.management.ThreadMXBean threadBean() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean) {
+			com.sun.management.ThreadMXBean t = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+			if (t.isThreadAllocatedMemorySupported()) {
+				t.setThreadAllocatedMemoryEnabled(true);
+				return t;
+			}
+		}
+		return null;
+	}
+	private static long allocated(long tid) {
+		return THREADS == null ? 0 : THREADS.getThreadAllocatedBytes(tid);
+	}
+	private static long gcCount() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionCount());
+		return n;
+	}
+	private static long gcTime() {
+		long n = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) n += Math.max(0, gc.getCollectionTime());
+		return n;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (System.getProperty("log4j.configuration") == null) {
+			BasicConfigurator.configure(); Logger.getRootLogger().setLevel(Level.WARN);
+		}
+		BenchmarkRunner runner = new BenchmarkRunner();
+		Parameters params = new Parameters();
+		String[] suites = SUITES;
+		File json = null;
+		for (int i=0; i<args.length; i++) {
+			String arg = args[i];
+			if (i+1 == args.length) usage("Missing value for "+arg);
+			String value = args[++i];
+			if ("--suite".equals(arg)) suites = value.split(Parameters.LIST_DELIM);
+			else if ("--filter".equals(arg)) runner.setFilter(value);
+			else if ("--json".equals(arg)) json = new File(value);
+			else if ("--warmup".equals(arg)) runner.setWarmupSeconds(Double.parseDouble(value));
+			else if ("--time".equals(arg)) runner.setIterationSeconds(Double.parseDouble(value));
+			else if ("--iterations".equals(arg)) runner.setIterations(Integer.parseInt(value));
+			else if ("-p".equals(arg)) params.set(value);
+			else usage("Unrecognized option "+arg);
+		}
+		for (String suite : suites) {
+			Suite s = (Suite) Class.forName(suite).getDeclaredConstructor().newInstance();
+			runner.run(s.benchmarks(params));
+		}
+		if (json != null) {
+			if (json.getParentFile() != null) json.getParentFile().mkdirs();
+			runner.writeJson(json);
+			System.out.println("Wrote "+runner.getResults().size()+" results to "+json);
+		}
+	}
+
+	private static void usage(String msg) {
+		System.err.println(msg);
+		System.err.println("Usage: BenchmarkRunner [--suite class,...] [--filter regex] [--json file]"
+				+" [--warmup seconds] [--time seconds] [--iterations n] [-p key=v1,v2,...]...");
+		System.exit(1);
+	}
+
+	/** Write the results as a JMH-style JSON report */
+	public void writeJson(File file) throws IOException {
+		Writer w = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		try {
+			w.write("[\n");
+			for (int i=0; i<results.size(); i++) {
+				if (i>0) w.write(",\n");
+				results.get(i).writeJson(w);
+			}
+			w.write("\n]\n");
+		} finally {
+			w.close();
+		}
+	}
+
+	public class Result {
+		final Benchmark benchmark;
+		final double[] opsPerSecond;
+		double ops, seconds, bytes;
+		long gcCount, gcTime;
+		Result(Benchmark b) {
+			this.benchmark = b;
+			this.opsPerSecond = new double[iterations];
+		}
+		public double score() {
+			return ops / seconds;
+		}
+		/** Half-width of the 99.9% confidence interval on the mean throughput */
+		public double scoreError() {
+			int n = opsPerSecond.length;
+			if (n < 2) return Double.NaN;
+			double mean = 0, var = 0;
+			for (double x : opsPerSecond) mean += x / n;
+			for (double x : opsPerSecond) var += (x-mean)*(x-mean) / (n-1);
+			return student999(n-1) * Math.sqrt(var / n);
+		}
+		public double bytesPerOp() {
+			return bytes / ops;
+		}
+		public double allocMBPerSecond() {
+			return bytes / seconds / (1<<20);
+		}
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder(String.format("%-40s %-50s %14.3f +- %10.3f ops/s %12.1f B/op %9.1f MB/s %4d gcs %6d ms",
+					benchmark.getName(), benchmark.getParams(), score(), scoreError(),
+					bytesPerOp(), allocMBPerSecond(), gcCount, gcTime));
+			for (Map.Entry<String,double[]> c : benchmark.getCounters().entrySet()) {
+				sb.append(String.format(" %.1f %s/op %.1f %s/s", c.getValue()[0]/ops, c.getKey(), c.getValue()[0]/seconds, c.getKey()));
+			}
+			for (Map.Entry<String,Double> m : benchmark.getMetrics().entrySet()) {
+				sb.append(String.format(" %s=%.3g", m.getKey(), m.getValue()));
+			}
+			return sb.toString();
+		}
+		void writeJson(Writer w) throws IOException {
+			w.write("  {\n");
+			w.write("    \"benchmark\" : "+quote(benchmark.getName())+",\n");
+			w.write("    \"mode\" : \"thrpt\",\n");
+			// benchmarks which run their ops on several threads say how many with a threads parameter
+			String threads = benchmark.getParams().get("threads");
+			w.write("    \"threads\" : "+(threads == null ? "1" : threads)+",\n");
+			w.write("    \"warmupTime\" : "+quote(warmupSeconds+" s")+",\n");
+			w.write("    \"measurementIterations\" : "+iterations+",\n");
+			w.write("    \"measurementTime\" : "+quote(iterationSeconds+" s")+",\n");
+			w.write("    \"params\" : {");
+			int k=0;
+			for (Map.Entry<String,String> p : benchmark.getParams().entrySet()) {
+				w.write((k++>0 ? ", " : " ")+quote(p.getKey())+" : "+quote(p.getValue()));
+			}
+			w.write(" },\n");
+			w.write("    \"primaryMetric\" : {\n");
+			w.write("      \"score\" : "+number(score())+",\n");
+			w.write("      \"scoreError\" : "+number(scoreError())+",\n");
+			w.write("      \"scoreUnit\" : \"ops/s\",\n");
+			w.write("      \"rawData\" : [ [");
+			for (int i=0; i<opsPerSecond.length; i++) w.write((i>0 ? ", " : " ")+number(opsPerSecond[i]));
+			w.write(" ] ]\n");
+			w.write("    },\n");
+			w.write("    \"secondaryMetrics\" : {\n");
+			w.write("      \"\u00b7gc.alloc.rate\" : { \"score\" : "+number(allocMBPerSecond())+", \"scoreUnit\" : \"MB/sec\" },\n");
+			w.write("      \"\u00b7gc.alloc.rate.norm\" : { \"score\" : "+number(bytesPerOp())+", \"scoreUnit\" : \"B/op\" },\n");
+			w.write("      \"\u00b7gc.count\" : { \"score\" : "+gcCount+", \"scoreUnit\" : \"counts\" },\n");
+			w.write("      \"\u00b7gc.time\" : { \"score\" : "+gcTime+", \"scoreUnit\" : \"ms\" }");
+			for (Map.Entry<String,double[]> c : benchmark.getCounters().entrySet()) {
+				w.write(",\n      "+quote("\u00b7"+c.getKey()+".norm")+" : { \"score\" : "+number(c.getValue()[0]/ops)+", \"scoreUnit\" : "+quote(c.getKey()+"/op")+" }");
+				w.write(",\n      "+quote("\u00b7"+c.getKey()+".rate")+" : { \"score\" : "+number(c.getValue()[0]/seconds)+", \"scoreUnit\" : "+quote(c.getKey()+"/s")+" }");
+			}
+			for (Map.Entry<String,Double> m : benchmark.getMetrics().entrySet()) {
+				w.write(",\n      "+quote("\u00b7"+m.getKey())+" : { \"score\" : "+number(m.getValue())+", \"scoreUnit\" : \"\" }");
+			}
+			w.write("\n");
+			w.write("    }\n");
+			w.write("  }");
+		}
+	}
+
+	private static String quote(String s) {
+		return "\""+s.replace("\\", "\\\\").replace("\"", "\\\"")+"\"";
+	}
+	private static String number(double d) {
+		return Double.isNaN(d) || Double.isInfinite(d) ? "\"NaN\"" : Double.toString(d);
+	}
+	/** Two-sided 99.9% quantile of Student's t distribution */
+	private static double student999(int df) {
+		final double[] t = { 636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587 };
+		if (df <= t.length) return t[df-1];
+		if (df <= 20) return 3.850;
+		if (df <= 60) return 3.460;
+		return 3.291;
+	}
+}
@@ -0,0 +1,129 @@
+package edu.cmu.ml.proppr.bench;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.Grounder;
+import edu.cmu.ml.proppr.graph.LearningGraphBuilder;
+import edu.cmu.ml.proppr.learn.tools.BinaryGroundedFile;
+import edu.cmu.ml.proppr.util.ParsedFile;
+import edu.cmu.ml.proppr.util.SimpleSymbolTable;
+import edu.cmu.ml.proppr.util.SymbolTable;
+
+/**
+ * Grounded examples for the learning benchmarks: lines of a text grounded file,
+ * with the master feature index they use, if any.
+ *
+ * Data sets are chosen with the data parameter, a list of grounded files and
+ * "synthetic". Synthetic examples are shaped by the nodes, degree, features,
+ * and featuresPerEdge parameters (see SyntheticGraph), and there is one data
+ * set for each combination of their values. Files which don't exist are
+ * skipped with a warning, since the bundled examples need to be grounded first
+ * (ant bench does textcattoy; cora needs its data downloaded).
+ */
+public class GroundedData {
+	private static final Logger log = Logger.getLogger(GroundedData.class);
+	public static final String SYNTHETIC = "synthetic";
+	public static final String[] DEFAULT_DATA = {
+		SYNTHETIC,
+		"examples/textcattoy/train.examples.grounded",
+		"examples/cora/train.examples.grounded"
+	};
+	public static final int DEFAULT_MAX_EXAMPLES = 1000;
+	public static final int DEFAULT_SYNTHETIC_EXAMPLES = 20;
+	public static final long SEED = 42;
+
+	private final Map<String,String> params;
+	private final List<String> lines;
+	private final SymbolTable<String> features;
+
+	public GroundedData(Map<String,String> params, List<String> lines, SymbolTable<String> features) {
+		this.params = params;
+		this.lines = lines;
+		this.features = features;
+	}
+
+	/** Parameters describing this data set, for reports */
+	public Map<String,String> getParams() {
+		return params;
+	}
+
+	public List<String> getLines() {
+		return lines;
+	}
+
+	/** Make this data set's feature index the master one, for graphs that don't have their own */
+	public void activate() {
+		LearningGraphBuilder.setFeatures(features);
+	}
+
+	public static List<GroundedData> fromParameters(Parameters p) {
+		List<GroundedData> ret = new ArrayList<GroundedData>();
+		int max = p.getInt("maxExamples", DEFAULT_MAX_EXAMPLES);
+		for (String data : p.get("data", DEFAULT_DATA)) {
+			if (SYNTHETIC.equals(data)) {
+				Map<String,String[]> shape = new LinkedHashMap<String,String[]>();
+				shape.put("nodes", new String[] {"1000"});
+				shape.put("degree", new String[] {"5"});
+				shape.put("features", new String[] {"100"});
+				shape.put("featuresPerEdge", new String[] {"2"});
+				for (Map<String,String> s : p.combinations(shape)) {
+					ret.add(synthetic(s, Math.min(max, p.getInt("examples", DEFAULT_SYNTHETIC_EXAMPLES))));
+				}
+				continue;
+			}
+			File file = new File(data);
+			if (!file.exists()) {
+				log.warn("Skipping "+data+": not found");
+				continue;
+			}
+			if (BinaryGroundedFile.isBinary(file)) {
+				log.warn("Skipping "+data+": benchmarks need a text grounded file");
+				continue;
+			}
+			ret.add(load(file, max));
+		}
+		return ret;
+	}
+
+	public static GroundedData synthetic(Map<String,String> shape, int examples) {
+		SyntheticGraph g = new SyntheticGraph(
+				Integer.parseInt(shape.get("nodes")),
+				Integer.parseInt(shape.get("degree")),
+				Integer.parseInt(shape.get("features")),
+				Integer.parseInt(shape.get("featuresPerEdge")),
+				SEED);
+		Map<String,String> params = new LinkedHashMap<String,String>();
+		params.put("data", SYNTHETIC);
+		params.putAll(shape);
+		return new GroundedData(params, g.examples(examples), null);
+	}
+
+	public static GroundedData load(File file, int maxExamples) {
+		List<String> lines = new ArrayList<String>();
+		ParsedFile in = new ParsedFile(file);
+		try {
+			for (String line : in) {
+				if (lines.size() >= maxExamples) break;
+				lines.add(line);
+			}
+		} finally {
+			in.close();
+		}
+		SymbolTable<String> features = null;
+		File featureIndex = new File(file.getParent(), file.getName()+Grounder.FEATURE_INDEX_EXTENSION);
+		if (featureIndex.exists()) {
+			features = new SimpleSymbolTable<String>();
+			for (String line : new ParsedFile(featureIndex)) features.insert(line.trim());
+		}
+		Map<String,String> params = new LinkedHashMap<String,String>();
+		params.put("data", file.getPath());
+		params.put("examples", String.valueOf(lines.size()));
+		return new GroundedData(params, lines, features);
+	}
+}
@@ -0,0 +1,58 @@
+package edu.cmu.ml.proppr.bench;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Benchmark parameters from the command line (-p key=v1,v2,...), over the
+ * defaults each suite declares.
+ */
+public class Parameters {
+	public static final String LIST_DELIM = ",";
+	private final Map<String,String[]> overrides = new HashMap<String,String[]>();
+
+	/** Parse one key=v1,v2,... setting */
+	public void set(String setting) {
+		int eq = setting.indexOf('=');
+		if (eq < 1) throw new IllegalArgumentException("Expected key=v1,v2,... but got "+setting);
+		overrides.put(setting.substring(0,eq), setting.substring(eq+1).split(LIST_DELIM));
+	}
+
+	/** The values given for key, or the defaults if there were none */
+	public String[] get(String key, String... defaults) {
+		return overrides.containsKey(key) ? overrides.get(key) : defaults;
+	}
+
+	public String get(String key, String defaultValue) {
+		return get(key, new String[] {defaultValue})[0];
+	}
+
+	public int getInt(String key, int defaultValue) {
+		return Integer.parseInt(get(key, String.valueOf(defaultValue)));
+	}
+
+	/**
+	 * Every combination of the values of the given keys, with the values given
+	 * on the command line taking the place of the defaults.
+	 * @param defaults Default values of each key, in the order they should vary (last fastest)
+	 */
+	public List<Map<String,String>> combinations(Map<String,String[]> defaults) {
+		List<Map<String,String>> ret = new ArrayList<Map<String,String>>();
+		ret.add(new LinkedHashMap<String,String>());
+		for (Map.Entry<String,String[]> e : defaults.entrySet()) {
+			List<Map<String,String>> next = new ArrayList<Map<String,String>>();
+			for (Map<String,String> partial : ret) {
+				for (String v : get(e.getKey(), e.getValue())) {
+					Map<String,String> m = new LinkedHashMap<String,String>(partial);
+					m.put(e.getKey(), v);
+					next.add(m);
+				}
+			}
+			ret = next;
+		}
+		return ret;
+	}
+}
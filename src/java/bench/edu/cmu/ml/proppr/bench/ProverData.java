@@ -0,0 +1,212 @@
+package edu.cmu.ml.proppr.bench;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.prove.wam.WamProgram;
+import edu.cmu.ml.proppr.prove.wam.plugins.WamPlugin;
+import edu.cmu.ml.proppr.util.Configuration;
+import edu.cmu.ml.proppr.util.ModuleConfiguration;
+import edu.cmu.ml.proppr.util.ParsedFile;
+
+/**
+ * A program and a fixed set of queries for the prover benchmarks.
+ *
+ * Programs are chosen with the programs parameter, a list of:
+ *
+ * textcattoy: examples/textcattoy, with queries from train.examples
+ * top-1M-near-beatles: examples/top-1M-near-X, with queries from the beatles train.examples
+ * recursion: a synthetic program, reach(X,Y) :- edge(X,Y). reach(X,Y) :- edge(X,Z),reach(Z,Y).
+ *   over a graph of chain nodes, each with edges to the next fanout nodes, so
+ *   that proofs are as deep as the walk goes. Queries start at the first nodes of
+ *   the chain.
+ *
+ * The first queries queries are used from each program. Programs whose files
+ * are missing are skipped with a warning.
+ *
+ * Each program also has defaults for the prover benchmarks: the --apr options
+ * to prove it with, and the reference prover (prover:apr) whose solutions count
+ * as exact. ippr to depth 100 is exact enough for the small programs, but on
+ * top-1M-near-beatles power iteration touches most of the graph well before it
+ * converges, so the ppr provers are held to depth 6 there and the reference is
+ * a fine-grained push, which is local and unbounded in depth.
+ */
+public class ProverData {
+	private static final Logger log = Logger.getLogger(ProverData.class);
+	public static final String RECURSION = "recursion";
+	public static final String[] DEFAULT_PROGRAMS = {"textcattoy", "top-1M-near-beatles", RECURSION};
+	public static final int DEFAULT_QUERIES = 10;
+	public static final String DEFAULT_REFERENCE = "ippr:depth=100";
+	// name, directory, program files, examples, apr, reference
+	private static final String[][] EXAMPLES = {
+		{"textcattoy", "examples/textcattoy", "textcat.wam:toylabels.cfacts:toywords.graph", "train.examples", "", DEFAULT_REFERENCE},
+		{"top-1M-near-beatles", "examples/top-1M-near-X", "top-1M-near-beatles-recursive.wam:top-1M-near-beatles-fact.graph", "top-1M-near-beatles.train.examples", "depth=6", "idpr:eps=1e-6"},
+	};
+
+	private final Map<String,String> params;
+	private final String programFiles;
+	private final List<String> queries;
+	private final String apr;
+	private final String reference;
+	private WamProgram program;
+	private WamPlugin[] plugins;
+
+	public ProverData(Map<String,String> params, String programFiles, List<String> queries, String apr, String reference) {
+		this.params = params;
+		this.programFiles = programFiles;
+		this.queries = queries;
+		this.apr = apr;
+		this.reference = reference;
+	}
+
+	/** Parameters describing this program, for reports */
+	public Map<String,String> getParams() {
+		return params;
+	}
+
+	public List<String> getQueries() {
+		return queries;
+	}
+
+	/** Default --apr options for proving this program */
+	public String getApr() {
+		return apr;
+	}
+
+	/** Default reference prover for this program, as prover:apr */
+	public String getReference() {
+		return reference;
+	}
+
+	/** Load the program and its plugins, the same way the command line tools do */
+	public void load() {
+		if (program != null) return;
+		ModuleConfiguration c = new ModuleConfiguration(
+				new String[] {"--programFiles", programFiles},
+				0, 0, Configuration.USE_WAM, 0);
+		this.program = c.program;
+		this.plugins = c.plugins;
+	}
+
+	public WamProgram getProgram() {
+		load();
+		return program;
+	}
+
+	public WamPlugin[] getPlugins() {
+		load();
+		return plugins;
+	}
+
+	public static List<ProverData> fromParameters(Parameters p) throws IOException {
+		List<ProverData> ret = new ArrayList<ProverData>();
+		int n = p.getInt("queries", DEFAULT_QUERIES);
+		for (String name : p.get("programs", DEFAULT_PROGRAMS)) {
+			if (RECURSION.equals(name)) {
+				ret.add(recursion(p.getInt("chain", 200), p.getInt("fanout", 2), n));
+				continue;
+			}
+			String[] example = null;
+			for (String[] e : EXAMPLES) if (e[0].equals(name)) example = e;
+			if (example == null) throw new IllegalArgumentException("Unknown program "+name);
+			File examples = new File(example[1], example[3]);
+			boolean missing = !examples.exists();
+			String programFiles = "";
+			for (String f : example[2].split(":")) {
+				File file = new File(example[1], f);
+				missing |= !file.exists();
+				programFiles += (programFiles.length()>0 ? ":" : "") + file.getPath();
+			}
+			if (missing) {
+				log.warn("Skipping "+name+": files not found in "+example[1]);
+				continue;
+			}
+			Map<String,String> params = new LinkedHashMap<String,String>();
+			params.put("program", name);
+			ret.add(new ProverData(params, programFiles, queries(examples, n), example[4], example[5]));
+		}
+		return ret;
+	}
+
+	/** The query part of the first n lines of an examples file */
+	public static List<String> queries(File examples, int n) {
+		List<String> ret = new ArrayList<String>();
+		ParsedFile in = new ParsedFile(examples);
+		try {
+			for (String line : in) {
+				if (ret.size() >= n) break;
+				ret.add(line.split("\t",2)[0]);
+			}
+		} finally {
+			in.close();
+		}
+		return ret;
+	}
+
+	/** Write the synthetic recursive program and its graph to temporary files */
+	public static ProverData recursion(int chain, int fanout, int n) throws IOException {
+		File wam = File.createTempFile("proppr-recursion", ".wam");
+		wam.deleteOnExit();
+		Writer w = new FileWriter(wam);
+		try {
+			String[] code = {
+				"comment\treach(-1,-2) :- edge(-1,-2) {base}  #v:['X', 'Y'].",
+				"reach/2\tallocate\t2\t['Y', 'X']",
+				"\tinitfreevar\t-1\t-2",
+				"\tinitfreevar\t-2\t-1",
+				"\tfclear",
+				"\tfpushstart\tbase\t0",
+				"\tfreport",
+				"\tpushboundvar\t-1",
+				"\tpushboundvar\t-2",
+				"\tcallp\tedge/2",
+				"\treturnp",
+				"comment\treach(-1,-2) :- edge(-1,-3),reach(-3,-2) {step}  #v:['X', 'Y', 'Z'].",
+				"reach/2\tallocate\t3\t['Z', 'Y', 'X']",
+				"\tinitfreevar\t-1\t-2",
+				"\tinitfreevar\t-2\t-1",
+				"\tfclear",
+				"\tfpushstart\tstep\t0",
+				"\tfreport",
+				"\tpushboundvar\t-1",
+				"\tpushfreevar\t-3",
+				"\tcallp\tedge/2",
+				"\tpushboundvar\t-3",
+				"\tpushboundvar\t-2",
+				"\tcallp\treach/2",
+				"\treturnp",
+			};
+			for (int i=0; i<code.length; i++) {
+				// comments have no label
+				w.write(i+"\t"+(code[i].startsWith("comment") ? "\t" : "")+code[i]+"\n");
+			}
+		} finally {
+			w.close();
+		}
+		File graph = File.createTempFile("proppr-recursion", ".graph");
+		graph.deleteOnExit();
+		w = new FileWriter(graph);
+		try {
+			for (int u=0; u<chain; u++) {
+				for (int k=1; k<=fanout && u+k<chain; k++) w.write("edge\tn"+u+"\tn"+(u+k)+"\n");
+			}
+		} finally {
+			w.close();
+		}
+		List<String> queries = new ArrayList<String>();
+		for (int i=0; i<n && i<chain; i++) queries.add("reach(n"+i+",Y)");
+		Map<String,String> params = new LinkedHashMap<String,String>();
+		params.put("program", RECURSION);
+		params.put("chain", String.valueOf(chain));
+		params.put("fanout", String.valueOf(fanout));
+		return new ProverData(params, wam.getPath()+":"+graph.getPath(), queries, "", DEFAULT_REFERENCE);
+	}
+}
@@ -0,0 +1,11 @@
+package edu.cmu.ml.proppr.bench;
+
+import java.util.List;
+
+/**
+ * A set of related benchmarks, which BenchmarkRunner sets up from the command
+ * line parameters. Implementations need a no-argument constructor.
+ */
+public interface Suite {
+	public List<Benchmark> benchmarks(Parameters params) throws Exception;
+}
@@ -0,0 +1,92 @@
+package edu.cmu.ml.proppr.bench;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import gnu.trove.set.TIntSet;
+import gnu.trove.set.hash.TIntHashSet;
+
+import edu.cmu.ml.proppr.graph.LearningGraphBuilder;
+import edu.cmu.ml.proppr.learn.tools.RWExampleParser;
+
+/**
+ * Random grounded examples of a given shape, as lines of a text grounded file.
+ *
+ * Each example has nodes nodes with degree outlinks each, to random nodes; each
+ * edge has featuresPerEdge distinct features out of a local feature index of
+ * size features. Node 1 is the query, and the next two nodes are a positive and
+ * negative answer, which the query links to so that they're always reachable.
+ */
+public class SyntheticGraph {
+	private final int nodes, degree, features, featuresPerEdge;
+	private final Random random;
+
+	public SyntheticGraph(int nodes, int degree, int features, int featuresPerEdge, long seed) {
+		if (nodes < 3) throw new IllegalArgumentException("Need at least 3 nodes for a query and answers");
+		if (degree < 2) throw new IllegalArgumentException("Need degree at least 2 to link the query to its answers");
+		if (featuresPerEdge > features) throw new IllegalArgumentException("Can't put "+featuresPerEdge+" of "+features+" features on one edge");
+		this.nodes = nodes;
+		this.degree = degree;
+		this.features = features;
+		this.featuresPerEdge = featuresPerEdge;
+		this.random = new Random(seed);
+	}
+
+	public List<String> examples(int n) {
+		List<String> ret = new ArrayList<String>(n);
+		for (int i=0; i<n; i++) ret.add(example("synthetic"+i));
+		return ret;
+	}
+
+	/** One line of a text grounded file */
+	public String example(String name) {
+		char tab = RWExampleParser.MAJOR_DELIM;
+		StringBuilder edges = new StringBuilder();
+		long dependencies = 0;
+		TIntSet union = new TIntHashSet();
+		int[] fids = new int[featuresPerEdge];
+		for (int u=1; u<=nodes; u++) {
+			union.clear();
+			for (int k=0; k<degree; k++) {
+				int v = u==1 && k<2 ? 2+k : 1 + random.nextInt(nodes);
+				pick(fids);
+				union.addAll(fids);
+				edges.append(tab).append(u).append(LearningGraphBuilder.SRC_DST_DELIM).append(v).append(LearningGraphBuilder.EDGE_DELIM);
+				for (int i=0; i<fids.length; i++) {
+					if (i>0) edges.append(LearningGraphBuilder.EDGE_FEATURE_DELIM);
+					edges.append(fids[i]).append(LearningGraphBuilder.FEATURE_WEIGHT_DELIM).append(1.0);
+				}
+			}
+			// each edge of u gets a gradient entry for every feature on any edge of u
+			dependencies += degree * union.size();
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(name).append(tab).append(1).append(tab).append(2).append(tab).append(3).append(tab);
+		sb.append(nodes).append(tab).append((long) nodes*degree).append(tab).append(dependencies).append(tab);
+		for (int f=1; f<=features; f++) {
+			if (f>1) sb.append(LearningGraphBuilder.FEATURE_INDEX_DELIM);
+			sb.append("f").append(f);
+		}
+		sb.append(edges);
+		return sb.toString();
+	}
+
+	/** Fill fids with distinct random feature ids */
+	private void pick(int[] fids) {
+		for (int i=0; i<fids.length; i++) {
+			int f;
+			do {
+				f = 1 + random.nextInt(features);
+			} while (contains(fids, i, f));
+			fids[i] = f;
+		}
+		Arrays.sort(fids);
+	}
+
+	private static boolean contains(int[] a, int n, int x) {
+		for (int i=0; i<n; i++) if (a[i]==x) return true;
+		return false;
+	}
+}
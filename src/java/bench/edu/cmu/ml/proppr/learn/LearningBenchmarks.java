@@ -0,0 +1,294 @@
+package edu.cmu.ml.proppr.learn;
+
+import gnu.trove.iterator.TIntDoubleIterator;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.cmu.ml.proppr.bench.Benchmark;
+import edu.cmu.ml.proppr.bench.GroundedData;
+import edu.cmu.ml.proppr.bench.Parameters;
+import edu.cmu.ml.proppr.bench.Suite;
+import edu.cmu.ml.proppr.Trainer;
+import edu.cmu.ml.proppr.examples.PosNegRWExample;
+import edu.cmu.ml.proppr.graph.ArrayLearningGraphBuilder;
+import edu.cmu.ml.proppr.graph.LearningGraphBuilder;
+import edu.cmu.ml.proppr.learn.tools.LossData;
+import edu.cmu.ml.proppr.learn.tools.RWExampleParser;
+import edu.cmu.ml.proppr.util.SRWOptions;
+import edu.cmu.ml.proppr.util.SimpleSymbolTable;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.SymbolTable;
+import edu.cmu.ml.proppr.util.math.ParamVector;
+import edu.cmu.ml.proppr.util.math.SimpleParamVector;
+import edu.cmu.ml.proppr.util.multithreading.Multithreading;
+
+/**
+ * Benchmarks for the learning hot path, one example per op, cycling through
+ * the examples of each data set (see GroundedData):
+ *
+ * learn.deserialize: LearningGraphBuilder.deserialize() on the graph part of a line
+ * learn.parseText: RWExampleParser.parse() on a line of a text grounded file
+ * learn.parseBinary: RWExampleParser.parse() on a binary grounded record
+ * learn.load: SRW.load(), filling M and dM
+ * learn.inferenceUpdate: one SRW.inferenceUpdate() step of p and dp
+ * learn.lossGradient: PosNegLoss.computeLossGradient() after inference
+ * learn.agd: AdaGradSRW.agd() after inference
+ * learn.train: one Trainer epoch over all the examples, parsing included, with
+ *   threads training threads (default 1,4,16,64) applying their steps in
+ *   minibatches of minibatch examples (default 1,16), for thread scaling
+ *
+ * Lives in the learn package to get at SRW's protected steps.
+ */
+public class LearningBenchmarks implements Suite {
+
+	@Override
+	public List<Benchmark> benchmarks(Parameters p) throws Exception {
+		List<Benchmark> ret = new ArrayList<Benchmark>();
+		for (GroundedData data : GroundedData.fromParameters(p)) {
+			ret.add(new Deserialize(data));
+			ret.add(new ParseText(data));
+			ret.add(new ParseBinary(data));
+			ret.add(new Load(data));
+			ret.add(new InferenceUpdate(data));
+			ret.add(new LossGradient(data));
+			ret.add(new Agd(data));
+			Map<String,String[]> shape = new LinkedHashMap<String,String[]>();
+			shape.put("threads", new String[] {"1", "4", "16", "64"});
+			shape.put("minibatch", new String[] {"1", "16"});
+			for (Map<String,String> s : p.combinations(shape)) ret.add(new Train(data, s));
+		}
+		return ret;
+	}
+
+	/** A benchmark over the examples of one data set, with a learner to parse them */
+	abstract static class LearningBenchmark extends Benchmark {
+		protected final GroundedData data;
+		protected SRW srw;
+		protected ParamVector<String,?> params;
+		protected StatusLogger status = new StatusLogger();
+		protected int next = 0;
+		LearningBenchmark(String name, GroundedData data) {
+			super(name, data.getParams());
+			this.data = data;
+		}
+		protected SRW newLearner() {
+			return new SRW(new SRWOptions());
+		}
+		@Override
+		public void setup() throws Exception {
+			data.activate();
+			srw = newLearner();
+			srw.setRegularizer(new RegularizationSchedule(srw, new RegularizeL2()));
+			// as Trainer does
+			if (LearningGraphBuilder.getFeatures() != null) srw.fixedWeightRules().compile(LearningGraphBuilder.getFeatures());
+			params = new SimpleParamVector<String>(new ConcurrentHashMap<String,Double>());
+		}
+		/** Parse every example, and initialize the parameters of their features */
+		protected List<PosNegRWExample> parseAll() throws Exception {
+			RWExampleParser parser = new RWExampleParser();
+			LearningGraphBuilder builder = new ArrayLearningGraphBuilder();
+			List<PosNegRWExample> ret = new ArrayList<PosNegRWExample>();
+			for (String line : data.getLines()) {
+				PosNegRWExample ex = parser.parse(line, builder, srw);
+				srw.initializeFeatures(params, ex.getGraph());
+				ret.add(ex);
+			}
+			return ret;
+		}
+		/** Index of the example to use for this op */
+		protected int next(int size) {
+			int i = next;
+			next = (next+1) % size;
+			return i;
+		}
+	}
+
+	static class Deserialize extends LearningBenchmark {
+		LearningGraphBuilder builder = new ArrayLearningGraphBuilder();
+		List<String> graphs = new ArrayList<String>();
+		Deserialize(GroundedData data) { super("learn.deserialize", data); }
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			for (String line : data.getLines()) {
+				// the graph starts after the name, query, pos, and neg fields
+				int start = 0;
+				for (int i=0; i<4; i++) start = line.indexOf(RWExampleParser.MAJOR_DELIM, start)+1;
+				graphs.add(line.substring(start));
+			}
+		}
+		@Override
+		public Object op() throws Exception {
+			return builder.deserialize(graphs.get(next(graphs.size())));
+		}
+	}
+
+	static class ParseText extends LearningBenchmark {
+		RWExampleParser parser = new RWExampleParser();
+		LearningGraphBuilder builder = new ArrayLearningGraphBuilder();
+		ParseText(GroundedData data) { super("learn.parseText", data); }
+		@Override
+		public Object op() throws Exception {
+			return parser.parse(data.getLines().get(next(data.getLines().size())), builder, srw);
+		}
+	}
+
+	static class ParseBinary extends LearningBenchmark {
+		RWExampleParser parser = new RWExampleParser();
+		List<ByteBuffer> records = new ArrayList<ByteBuffer>();
+		ParseBinary(GroundedData data) { super("learn.parseBinary", data); }
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			for (String line : data.getLines()) {
+				bytes.reset();
+				parser.encode(line, out);
+				out.flush();
+				records.add(ByteBuffer.wrap(bytes.toByteArray()));
+			}
+		}
+		@Override
+		public Object op() throws Exception {
+			return parser.parse(records.get(next(records.size())), srw);
+		}
+	}
+
+	static class Load extends LearningBenchmark {
+		List<PosNegRWExample> examples;
+		Load(GroundedData data) { super("learn.load", data); }
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			examples = parseAll();
+		}
+		@Override
+		public Object op() throws Exception {
+			PosNegRWExample ex = examples.get(next(examples.size()));
+			srw.load(params, ex);
+			return ex;
+		}
+	}
+
+	static class InferenceUpdate extends LearningBenchmark {
+		List<PosNegRWExample> examples;
+		int[] steps;
+		InferenceUpdate(GroundedData data) { super("learn.inferenceUpdate", data); }
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			examples = parseAll();
+			steps = new int[examples.size()];
+			for (PosNegRWExample ex : examples) {
+				srw.load(params, ex);
+				reset(ex);
+			}
+		}
+		/** Start p over at the query, so dp doesn't keep filling in past maxDepth steps */
+		void reset(PosNegRWExample ex) {
+			ex.p = new double[ex.getGraph().node_hi];
+			ex.dp = new TIntDoubleMap[ex.getGraph().node_hi];
+			for (TIntDoubleIterator it = ex.getQueryVec().iterator(); it.hasNext(); ) {
+				it.advance();
+				ex.p[it.key()] = it.value();
+			}
+		}
+		@Override
+		public Object op() throws Exception {
+			int i = next(examples.size());
+			PosNegRWExample ex = examples.get(i);
+			if (steps[i] == srw.c.apr.maxDepth) {
+				reset(ex);
+				steps[i] = 0;
+			}
+			srw.inferenceUpdate(ex, status);
+			steps[i]++;
+			return ex.p;
+		}
+	}
+
+	static class LossGradient extends LearningBenchmark {
+		List<PosNegRWExample> examples;
+		LossFunction loss = new PosNegLoss();
+		LossData lossdata = new LossData();
+		LossGradient(GroundedData data) { super("learn.lossGradient", data); }
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			examples = parseAll();
+			for (PosNegRWExample ex : examples) {
+				srw.load(params, ex);
+				srw.inference(params, ex, status);
+			}
+		}
+		@Override
+		public Object op() throws Exception {
+			TIntDoubleMap gradient = new TIntDoubleHashMap();
+			loss.computeLossGradient(params, examples.get(next(examples.size())), gradient, lossdata, srw.c);
+			return gradient;
+		}
+	}
+
+	static class Agd extends LearningBenchmark {
+		List<PosNegRWExample> examples;
+		Agd(GroundedData data) { super("learn.agd", data); }
+		@Override
+		protected SRW newLearner() {
+			return new AdaGradSRW(new SRWOptions());
+		}
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			examples = parseAll();
+			for (PosNegRWExample ex : examples) {
+				srw.load(params, ex);
+				srw.inference(params, ex, status);
+			}
+		}
+		@Override
+		public Object op() throws Exception {
+			// p and dp are left from setup, so this is the update step alone
+			((AdaGradSRW) srw).agd(params, examples.get(next(examples.size())));
+			return params;
+		}
+	}
+
+	static class Train extends LearningBenchmark {
+		final int nthreads;
+		LearningGraphBuilder builder = new ArrayLearningGraphBuilder();
+		Train(GroundedData data, Map<String,String> shape) {
+			super("learn.train", data);
+			getParams().putAll(shape);
+			this.nthreads = Integer.parseInt(shape.get("threads"));
+		}
+		@Override
+		protected SRW newLearner() {
+			SRWOptions options = new SRWOptions();
+			options.minibatch = Integer.parseInt(getParams().get("minibatch"));
+			return new SRW(options);
+		}
+		@Override
+		public Object op() throws Exception {
+			// a fresh trainer and params each op, so every op is the same first epoch
+			Trainer trainer = new Trainer(srw, nthreads, Multithreading.DEFAULT_THROTTLE);
+			SymbolTable<String> features = LearningGraphBuilder.getFeatures();
+			ParamVector<String,?> start = new SimpleParamVector<String>(new ConcurrentHashMap<String,Double>());
+			// Trainer checks the restart weight after each example, and synthetic graphs don't have one
+			start.put("id(restart)", 1.0);
+			ParamVector<String,?> trained = trainer.train(features == null ? new SimpleSymbolTable<String>() : features,
+					data.getLines(), builder, start, 1);
+			count("examples", data.getLines().size());
+			return trained;
+		}
+	}
+}
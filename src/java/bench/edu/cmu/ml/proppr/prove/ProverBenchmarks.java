@@ -0,0 +1,143 @@
+package edu.cmu.ml.proppr.prove;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import edu.cmu.ml.proppr.bench.Benchmark;
+import edu.cmu.ml.proppr.bench.Parameters;
+import edu.cmu.ml.proppr.bench.ProverData;
+import edu.cmu.ml.proppr.bench.Suite;
+import edu.cmu.ml.proppr.examples.InferenceExample;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.ProofGraph;
+import edu.cmu.ml.proppr.prove.wam.Query;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.Configuration;
+import edu.cmu.ml.proppr.util.Dictionary;
+import edu.cmu.ml.proppr.util.ModuleConfiguration;
+import edu.cmu.ml.proppr.util.StatusLogger;
+
+/**
+ * Benchmarks for each prover on each program of ProverData, one query per op:
+ * building the proof graph and proving it.
+ *
+ * Besides queries/s and bytes allocated per query, reports the states in the
+ * answer distribution (per query and per second), and the L1 distance of the
+ * normalized solutions from those of a reference prover run to near-exact PPR
+ * (see ProverData). l1 is the mean over the queries, and l1.max the worst.
+ *
+ * Parameters: provers (default every prover we pick between; names as for
+ * --prover), apr (as for --apr, e.g. eps=1e-5:alph=0.1:depth=20; default per
+ * program), reference (prover:apr; default per program), and those of
+ * ProverData.
+ */
+public class ProverBenchmarks implements Suite {
+	public static final String[] DEFAULT_PROVERS = {"dpr", "idpr", "p_idpr", "qpr", "ppr", "ippr", "dfs", "cppr"};
+
+	@Override
+	public List<Benchmark> benchmarks(Parameters p) throws Exception {
+		List<Benchmark> ret = new ArrayList<Benchmark>();
+		for (ProverData data : ProverData.fromParameters(p)) {
+			String apr = p.get("apr", data.getApr());
+			Reference reference = new Reference(data, p.get("reference", data.getReference()));
+			for (String prover : p.get("provers", DEFAULT_PROVERS)) {
+				ret.add(new Prove(data, prover, apr, reference));
+			}
+		}
+		return ret;
+	}
+
+	/** Configure a prover the way the command line tools do */
+	static ModuleConfiguration configure(String prover, String apr) {
+		ModuleConfiguration c = new ModuleConfiguration(new String[] {"--prover", prover}, 0, 0, 0, Configuration.USE_PROVER);
+		// --apr is only read along with a program, so set the prover's options directly
+		if (apr.length()>0) for (String o : apr.split(":")) c.apr.set(o.split("="));
+		return c;
+	}
+
+	/** Build a proof graph for the query and get its normalized solutions */
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	static Map<String,Double> solutions(Prover prover, APROptions apr, ProverData data, String query) throws LogicProgramException {
+		ProofGraph pg = prover.makeProofGraph(new InferenceExample(Query.parse(query),null,null), apr, data.getProgram(), data.getPlugins());
+		return prover.solutions(pg, new StatusLogger());
+	}
+
+	static double l1(Map<String,Double> a, Map<String,Double> b) {
+		Set<String> keys = new HashSet<String>(a.keySet());
+		keys.addAll(b.keySet());
+		double d = 0;
+		for (String k : keys) d += Math.abs(Dictionary.safeGet(a, k, 0.0) - Dictionary.safeGet(b, k, 0.0));
+		return d;
+	}
+
+	/** Solutions of each query from the reference prover, computed on first use */
+	static class Reference {
+		final ProverData data;
+		final String spec;
+		Map<String,Map<String,Double>> solutions;
+		Reference(ProverData data, String spec) {
+			this.data = data;
+			this.spec = spec;
+		}
+		Map<String,Double> get(String query) throws LogicProgramException {
+			if (solutions == null) {
+				solutions = new HashMap<String,Map<String,Double>>();
+				String[] parts = spec.split(":",2);
+				ModuleConfiguration c = configure(parts[0], parts.length>1 ? parts[1] : "");
+				for (String q : data.getQueries()) solutions.put(q, solutions(c.prover, c.apr, data, q));
+			}
+			return solutions.get(query);
+		}
+	}
+
+	static class Prove extends Benchmark {
+		final ProverData data;
+		final String name;
+		final String apr;
+		final Reference reference;
+		Prover<?> prover;
+		APROptions options;
+		StatusLogger status = new StatusLogger();
+		int next = 0;
+		Prove(ProverData data, String prover, String apr, Reference reference) {
+			super("prove", data.getParams());
+			this.params.put("prover", prover);
+			if (apr.length()>0) this.params.put("apr", apr);
+			this.params.put("reference", reference.spec);
+			this.data = data;
+			this.name = prover;
+			this.apr = apr;
+			this.reference = reference;
+		}
+		@Override
+		public void setup() throws Exception {
+			data.load();
+			ModuleConfiguration c = configure(name, apr);
+			prover = c.prover;
+			options = c.apr;
+			double sum = 0, max = 0;
+			for (String q : data.getQueries()) {
+				double d = l1(solutions(prover, options, data, q), reference.get(q));
+				sum += d;
+				max = Math.max(max, d);
+			}
+			report("l1", sum / data.getQueries().size());
+			report("l1.max", max);
+		}
+		@SuppressWarnings({ "rawtypes", "unchecked" })
+		@Override
+		public Object op() throws Exception {
+			String q = data.getQueries().get(next);
+			next = (next+1) % data.getQueries().size();
+			ProofGraph pg = prover.makeProofGraph(new InferenceExample(Query.parse(q),null,null), options, data.getProgram(), data.getPlugins());
+			Map<State,Double> ans = ((Prover) prover).prove(pg, status);
+			count("states", ans.size());
+			return ans;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package edu.cmu.ml.proppr.prove.wam;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.cmu.ml.proppr.bench.Benchmark;
+import edu.cmu.ml.proppr.bench.Parameters;
+import edu.cmu.ml.proppr.bench.ProverData;
+import edu.cmu.ml.proppr.bench.Suite;
+import edu.cmu.ml.proppr.examples.InferenceExample;
+import edu.cmu.ml.proppr.prove.DprProver;
+import edu.cmu.ml.proppr.prove.wam.plugins.FactsPlugin;
+import edu.cmu.ml.proppr.prove.wam.plugins.GraphlikePlugin;
+import edu.cmu.ml.proppr.prove.wam.plugins.WamPlugin;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.StatusLogger;
+
+/**
+ * Microbenchmarks for the steps of WAM execution, one state per op, cycling
+ * through the states reached by proving the queries of each program of
+ * ProverData with dpr:
+ *
+ * wam.executeWithoutBranching: running one rule of the program from a state, as wamOutlinks() does
+ * wam.canonicalHash, wam.canonicalForm: the keys states are deduplicated by
+ * wam.factsOutlinks: FactsPlugin.outlinks() from states calling a facts predicate
+ * wam.graphOutlinks: GraphlikePlugin.outlinks() from states calling a graph predicate
+ *
+ * At most states states are sampled from each program.
+ */
+public class WamBenchmarks implements Suite {
+	public static final int DEFAULT_STATES = 1000;
+
+	@Override
+	public List<Benchmark> benchmarks(Parameters p) throws Exception {
+		List<Benchmark> ret = new ArrayList<Benchmark>();
+		int states = p.getInt("states", DEFAULT_STATES);
+		for (ProverData data : ProverData.fromParameters(p)) {
+			Samples samples = new Samples(data, states);
+			ret.add(new ExecuteWithoutBranching(samples));
+			ret.add(new CanonicalHash(samples));
+			ret.add(new CanonicalForm(samples));
+			ret.add(new PluginOutlinks("wam.factsOutlinks", samples, FactsPlugin.class));
+			ret.add(new PluginOutlinks("wam.graphOutlinks", samples, GraphlikePlugin.class));
+		}
+		return ret;
+	}
+
+	/** A state reached in a proof, with the interpreter and root state of its proof graph */
+	static class Sample {
+		final WamInterpreter interp;
+		final State root;
+		final State state;
+		Sample(WamInterpreter interp, State root, State state) {
+			this.interp = interp;
+			this.root = root;
+			this.state = state;
+		}
+	}
+
+	/** Unfinished states from proofs of the program's queries, collected on first use */
+	static class Samples {
+		final ProverData data;
+		final int max;
+		List<Sample> samples;
+		Samples(ProverData data, int max) {
+			this.data = data;
+			this.max = max;
+		}
+		List<Sample> get() throws LogicProgramException {
+			if (samples != null) return samples;
+			samples = new ArrayList<Sample>();
+			APROptions apr = new APROptions();
+			DprProver prover = new DprProver(apr);
+			for (String q : data.getQueries()) {
+				StateProofGraph pg = prover.makeProofGraph(new InferenceExample(Query.parse(q),null,null), apr, data.getProgram(), data.getPlugins());
+				for (State s : prover.prove(pg, new StatusLogger()).keySet()) {
+					if (samples.size() >= max) return samples;
+					if (s.isCompleted() || s.getJumpTo() == null) continue;
+					samples.add(new Sample(pg.getInterpreter(), pg.getStartState(), s));
+				}
+			}
+			return samples;
+		}
+	}
+
+	abstract static class WamBenchmark extends Benchmark {
+		final Samples samples;
+		List<Sample> used = new ArrayList<Sample>();
+		int next = 0;
+		WamBenchmark(String name, Samples samples) {
+			super(name, samples.data.getParams());
+			this.samples = samples;
+		}
+		/** True if this benchmark can run from s */
+		boolean accept(Sample s) { return true; }
+		@Override
+		public void setup() throws Exception {
+			for (Sample s : samples.get()) if (accept(s)) used.add(s);
+			if (used.isEmpty()) throw new Skipped("no states to run from");
+			report("states", used.size());
+		}
+		Sample next() {
+			Sample s = used.get(next);
+			next = (next+1) % used.size();
+			return s;
+		}
+	}
+
+	static class ExecuteWithoutBranching extends WamBenchmark {
+		List<Integer> addresses = new ArrayList<Integer>();
+		ExecuteWithoutBranching(Samples samples) { super("wam.executeWithoutBranching", samples); }
+		@Override
+		boolean accept(Sample s) {
+			int functor = s.state.getJumpToId();
+			for (WamPlugin plugin : samples.data.getPlugins()) if (plugin.claim(functor)) return false;
+			return s.interp.getProgram().getAddresses(functor) != null;
+		}
+		@Override
+		public void setup() throws Exception {
+			super.setup();
+			// one op per rule of each state's predicate
+			List<Sample> perRule = new ArrayList<Sample>();
+			for (Sample s : used) {
+				for (int address : s.interp.getProgram().getAddresses(s.state.getJumpToId())) {
+					perRule.add(s);
+					addresses.add(address);
+				}
+			}
+			used = perRule;
+		}
+		@Override
+		public Object op() throws Exception {
+			int i = next;
+			Sample s = next();
+			s.interp.restoreState(s.state);
+			return s.interp.executeWithoutBranching(addresses.get(i));
+		}
+	}
+
+	static class CanonicalHash extends WamBenchmark {
+		CanonicalHash(Samples samples) { super("wam.canonicalHash", samples); }
+		@Override
+		public Object op() throws Exception {
+			Sample s = next();
+			return s.interp.canonicalHash(s.root, s.state);
+		}
+	}
+
+	static class CanonicalForm extends WamBenchmark {
+		CanonicalForm(Samples samples) { super("wam.canonicalForm", samples); }
+		@Override
+		public Object op() throws Exception {
+			Sample s = next();
+			return s.interp.canonicalForm(s.root, s.state);
+		}
+	}
+
+	static class PluginOutlinks extends WamBenchmark {
+		final Class<? extends WamPlugin> type;
+		List<WamPlugin> plugins = new ArrayList<WamPlugin>();
+		PluginOutlinks(String name, Samples samples, Class<? extends WamPlugin> type) {
+			super(name, samples);
+			this.type = type;
+		}
+		@Override
+		boolean accept(Sample s) {
+			int functor = s.state.getJumpToId();
+			for (WamPlugin plugin : samples.data.getPlugins()) {
+				if (plugin.claim(functor)) {
+					if (!type.isInstance(plugin)) return false;
+					plugins.add(plugin);
+					return true;
+				}
+			}
+			return false;
+		}
+		@Override
+		public Object op() throws Exception {
+			int i = next;
+			Sample s = next();
+			s.interp.restoreState(s.state);
+			return plugins.get(i).outlinks(s.state, s.interp, true);
+		}
+	}
+}
@@ -0,0 +1,115 @@
+package edu.cmu.ml.proppr.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import edu.cmu.ml.proppr.bench.Benchmark;
+import edu.cmu.ml.proppr.bench.Parameters;
+import edu.cmu.ml.proppr.bench.Suite;
+
+/**
+ * Benchmarks for a ConcurrentSymbolTable shared by many threads, the way the
+ * grounder's worker threads share its feature table. Each op splits a fixed
+ * stream of symbols among the threads, which look them up with getId(). As with
+ * features across grounded examples, a few symbols of the vocabulary make up
+ * most of the stream.
+ *
+ * symbols.intern: into a fresh table each op, so the table fills up and is
+ *   migrated to bigger ones while the threads use it
+ * symbols.lookup: into a table which already has every symbol
+ *
+ * Parameters: threads (default 1,4,8), symbols (size of the vocabulary, default
+ * 10000), lookups (length of the stream, default 100000), and hashing (hashCode
+ * or identity, default identity as in Grounder).
+ *
+ * Bytes per op only counts the runner's thread, so it leaves out the workers.
+ */
+public class SymbolTableBenchmarks implements Suite {
+	public static final long SEED = 42;
+
+	@Override
+	public List<Benchmark> benchmarks(Parameters p) throws Exception {
+		Map<String,String[]> shape = new LinkedHashMap<String,String[]>();
+		shape.put("threads", new String[] {"1", "4", "8"});
+		shape.put("symbols", new String[] {"10000"});
+		shape.put("lookups", new String[] {"100000"});
+		shape.put("hashing", new String[] {ConcurrentSymbolTable.HASHING_STRATEGIES.identity.name()});
+		List<Benchmark> ret = new ArrayList<Benchmark>();
+		for (Map<String,String> s : p.combinations(shape)) {
+			ret.add(new Lookups("symbols.intern", s, true));
+			ret.add(new Lookups("symbols.lookup", s, false));
+		}
+		return ret;
+	}
+
+	static class Lookups extends Benchmark {
+		final boolean fresh;
+		final int nthreads;
+		final ConcurrentSymbolTable.HASHING_STRATEGIES hashing;
+		String[] stream;
+		ConcurrentSymbolTable<String> table;
+		ExecutorService pool;
+		Lookups(String name, Map<String,String> params, boolean fresh) {
+			super(name, params);
+			this.fresh = fresh;
+			this.nthreads = Integer.parseInt(params.get("threads"));
+			this.hashing = ConcurrentSymbolTable.HASHING_STRATEGIES.valueOf(params.get("hashing"));
+		}
+		@Override
+		public void setup() throws Exception {
+			int symbols = Integer.parseInt(params.get("symbols"));
+			stream = new String[Integer.parseInt(params.get("lookups"))];
+			Random r = new Random(SEED);
+			for (int i=0; i<stream.length; i++) {
+				// skewed toward the first symbols; a new String each time, like freshly parsed features
+				double u = r.nextDouble();
+				stream[i] = new String("w(word"+(int) (symbols*u*u*u)+",label)");
+			}
+			table = new ConcurrentSymbolTable<String>(hashing);
+			if (!fresh) for (String s : stream) table.insert(s);
+			report("distinct", distinct());
+			pool = Executors.newFixedThreadPool(nthreads, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "symbol-table-bench");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		int distinct() {
+			ConcurrentSymbolTable<String> t = new ConcurrentSymbolTable<String>(hashing);
+			for (String s : stream) t.insert(s);
+			return t.size();
+		}
+		@Override
+		public Object op() throws Exception {
+			final ConcurrentSymbolTable<String> t = fresh ? new ConcurrentSymbolTable<String>(hashing) : table;
+			List<Future<Integer>> parts = new ArrayList<Future<Integer>>(nthreads);
+			for (int k=0; k<nthreads; k++) {
+				final int lo = (int) ((long) stream.length * k / nthreads);
+				final int hi = (int) ((long) stream.length * (k+1) / nthreads);
+				parts.add(pool.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() {
+						int sum = 0;
+						for (int i=lo; i<hi; i++) sum += t.getId(stream[i]);
+						return sum;
+					}
+				}));
+			}
+			int sum = 0;
+			for (Future<Integer> f : parts) sum += f.get();
+			count("lookups", stream.length);
+			return sum;
+		}
+	}
+}
@@ -1,7 +1,6 @@
 package edu.cmu.ml.proppr;
 
-import java.util.ArrayList;
-import java.util.Collections;
+import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -16,6 +15,7 @@ import edu.cmu.ml.proppr.examples.PosNegRWExample;
 import edu.cmu.ml.proppr.graph.GraphFormatException;
 import edu.cmu.ml.proppr.graph.LearningGraphBuilder;
 import edu.cmu.ml.proppr.learn.SRW;
+import edu.cmu.ml.proppr.learn.tools.ExampleCache;
 import edu.cmu.ml.proppr.learn.tools.RWExampleParser;
 import edu.cmu.ml.proppr.learn.tools.LossData;
 import edu.cmu.ml.proppr.learn.tools.StoppingCriterion;
@@ -23,32 +23,47 @@ import edu.cmu.ml.proppr.util.StatusLogger;
 import edu.cmu.ml.proppr.util.SymbolTable;
 import edu.cmu.ml.proppr.util.math.ParamVector;
 import edu.cmu.ml.proppr.util.multithreading.NamedThreadFactory;
+import edu.cmu.ml.proppr.util.multithreading.Pipeline;
 
 public class CachingTrainer extends Trainer {
 	private static final Logger log = Logger.getLogger(CachingTrainer.class);
 	public static final boolean DEFAULT_SHUFFLE = true;
+	/** Keep every example in memory */
+	public static final long DEFAULT_CACHE_BUDGET = Long.MAX_VALUE;
 	private boolean shuffle;
+	private long cacheBudget;
 
 	public CachingTrainer(SRW learner, int nthreads, int throttle, boolean shuffle) {
+		this(learner, nthreads, throttle, shuffle, DEFAULT_CACHE_BUDGET);
+	}
+
+	/**
+	 * @param cacheBudget Bytes of parsed examples to keep in memory; the rest are spilled to disk (see ExampleCache)
+	 */
+	public CachingTrainer(SRW learner, int nthreads, int throttle, boolean shuffle, long cacheBudget) {
 		super(learner, nthreads, throttle);
 		this.shuffle = shuffle;
+		this.cacheBudget = cacheBudget;
 	}
 
 	@Override
-	public ParamVector<String,?> train(SymbolTable<String> masterFeatures, Iterable<String> exampleFile, LearningGraphBuilder builder, ParamVector<String,?> initialParamVec, int numEpochs) {
-		ArrayList<PosNegRWExample> examples = new ArrayList<PosNegRWExample>();
+	protected <T> ParamVector<String,?> train(SymbolTable<String> masterFeatures, Iterable<T> exampleFile, RecordFormat<T> format, LearningGraphBuilder builder, ParamVector<String,?> initialParamVec, int numEpochs) {
+		ExampleCache examples = new ExampleCache(masterLearner, cacheBudget);
 		RWExampleParser parser = new RWExampleParser();
-		if (masterFeatures.size()>0) LearningGraphBuilder.setFeatures(masterFeatures);
+		if (masterFeatures.size()>0) {
+			LearningGraphBuilder.setFeatures(masterFeatures);
+			masterLearner.fixedWeightRules().compile(masterFeatures);
+		}
 		int id=0;
 		StatusLogger stattime = new StatusLogger();
 		TrainingStatistics total = new TrainingStatistics();
 		boolean logged = false;
-		for (String s : exampleFile) {
+		for (T s : exampleFile) {
 			total.updateReadingStatistics(stattime.sinceLast());
 			id++;
 			try {
 				stattime.tick();
-				PosNegRWExample ex = parser.parse(s, builder, masterLearner);
+				PosNegRWExample ex = format.parse(parser, s, builder, masterLearner);
 				total.updateParsingStatistics(stattime.sinceLast());
 				examples.add(ex);
 				if (status.due()) {
@@ -57,15 +72,38 @@ public class CachingTrainer extends Trainer {
 				}
 			} catch (GraphFormatException e) {
 				log.error("Trouble with #"+id,e);
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't cache example #"+id,e);
 			}
 			stattime.tick();
 		}
 		if (logged) log.info("Total parsed: "+id);
-		return trainCached(examples,builder,initialParamVec,numEpochs,total);
+		try {
+			return trainCached(examples,builder,initialParamVec,numEpochs,total);
+		} finally {
+			examples.close();
+		}
 	}
 	
 	public ParamVector<String,?> trainCached(List<PosNegRWExample> examples, LearningGraphBuilder builder, ParamVector<String,?> initialParamVec, int numEpochs, TrainingStatistics total) {
+		ExampleCache cache = new ExampleCache(masterLearner, DEFAULT_CACHE_BUDGET);
+		try {
+			for (PosNegRWExample ex : examples) cache.add(ex);
+		} catch (IOException e) {
+			cache.close();
+			throw new IllegalStateException("Couldn't cache examples",e);
+		}
+		try {
+			return trainCached(cache,builder,initialParamVec,numEpochs,total);
+		} finally {
+			cache.close();
+		}
+	}
+
+	public ParamVector<String,?> trainCached(ExampleCache examples, LearningGraphBuilder builder, ParamVector<String,?> initialParamVec, int numEpochs, TrainingStatistics total) {
+		examples.freeze();
 		ParamVector<String,?> paramVec = this.masterLearner.setupParams(initialParamVec);
+		paramVec.setUpdateMode(this.updateMode);
 		NamedThreadFactory trainThreads = new NamedThreadFactory("work-");
 		ExecutorService trainPool;
 		ExecutorService cleanPool; 
@@ -90,16 +128,22 @@ public class CachingTrainer extends Trainer {
 
 			// run examples
 			int id=1;
-			if (this.shuffle) Collections.shuffle(examples);
-			for (PosNegRWExample s : examples) {
-				Future<ExampleStats> trained = trainPool.submit(new Train(new PretendParse(s), paramVec, id, null));
-				cleanPool.submit(new TraceLosses(trained, id));
+			if (this.shuffle) examples.shuffle();
+			Pipeline pipeline = newPipeline();
+			Pipeline.Stage train = pipeline.stage("train", this.nthreads);
+			Pipeline.Stage clean = pipeline.stage("cleanup", 1);
+			for (int i=0; i<examples.size(); i++) {
+				// wait for room in the pipeline, so spilled examples are only decoded as we're ready to train on them
+				pipeline.enter();
+				Future<ExampleStats> trained = trainPool.submit(train.wrap(new Train(new PretendParse(examples, i), paramVec, id)));
+				cleanPool.submit(clean.last(new TraceLosses(trained, id)));
 				id++;
 				if (log.isInfoEnabled() && status.due(1))
 					log.info("queued: "+id+" trained: "+statistics.exampleSetSize);
 			}
 
 			cleanEpoch(trainPool, cleanPool, paramVec, stopper, id, total);
+			log.info("Pipeline: "+pipeline.report());
 			if(graphSizesStatusLog) {
 				log.info("Dataset size stats: "+statistics.totalGraphSize+" total nodes / max "+statistics.maxGraphSize+" / avg "+(statistics.totalGraphSize / id));
 				graphSizesStatusLog = false;
@@ -110,10 +154,13 @@ public class CachingTrainer extends Trainer {
 		return paramVec;
 	}
 
+	/** Fetches an example from the cache when the trainer asks for it, so spilled examples are decoded on the worker thread */
 	private class PretendParse implements Future<PosNegRWExample> {
-		PosNegRWExample e;
-		public PretendParse(PosNegRWExample e) {
-			this.e=e;
+		ExampleCache examples;
+		int i;
+		public PretendParse(ExampleCache examples, int i) {
+			this.examples=examples;
+			this.i=i;
 		}
 		@Override
 		public boolean cancel(boolean mayInterruptIfRunning) {
@@ -133,14 +180,14 @@ public class CachingTrainer extends Trainer {
 		@Override
 		public PosNegRWExample get() throws InterruptedException,
 		ExecutionException {
-			return this.e;
+			return this.examples.get(i);
 		}
 
 		@Override
 		public PosNegRWExample get(long timeout, TimeUnit unit)
 				throws InterruptedException, ExecutionException,
 				TimeoutException {
-			return this.e;
+			return this.examples.get(i);
 		}
 
 	}
@@ -95,7 +95,7 @@ public class GradientFinder {
 			    log.info("Training for "+c.epochs+" epochs...");
 				params = c.trainer.train(
 						masterFeatures,
-						new ParsedFile(c.groundedFile), 
+						c.groundedFile, 
 						new ArrayLearningGraphBuilder(), 
 						c.initParamsFile, // create a parameter vector
 						c.epochs);
@@ -117,7 +117,7 @@ public class GradientFinder {
 			
 			ParamVector<String,?> batchGradient = c.trainer.findGradient(
 					masterFeatures,
-					new ParsedFile(c.groundedFile), 
+					c.groundedFile, 
 					new ArrayLearningGraphBuilder(), 
 					params);
 
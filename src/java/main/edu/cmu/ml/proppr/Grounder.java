@@ -21,6 +21,7 @@ import edu.cmu.ml.proppr.examples.GroundedExample;
 import edu.cmu.ml.proppr.examples.InferenceExample;
 import edu.cmu.ml.proppr.examples.InferenceExampleStreamer;
 import edu.cmu.ml.proppr.examples.PosNegRWExample;
+import edu.cmu.ml.proppr.learn.tools.BinaryGroundedFile;
 import edu.cmu.ml.proppr.learn.tools.SquashingFunction;
 import edu.cmu.ml.proppr.prove.InnerProductWeighter;
 import edu.cmu.ml.proppr.prove.Prover;
@@ -32,6 +33,7 @@ import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
 import edu.cmu.ml.proppr.prove.wam.ProofGraph;
 import edu.cmu.ml.proppr.prove.wam.Query;
 import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.prove.wam.plugins.CachingPlugin;
 import edu.cmu.ml.proppr.prove.wam.plugins.WamPlugin;
 import edu.cmu.ml.proppr.util.APROptions;
 import edu.cmu.ml.proppr.util.ConcurrentSymbolTable;
@@ -46,6 +48,7 @@ import edu.cmu.ml.proppr.util.math.ParamVector;
 import edu.cmu.ml.proppr.util.math.SimpleParamVector;
 import edu.cmu.ml.proppr.util.multithreading.Multithreading;
 import edu.cmu.ml.proppr.util.multithreading.Transformer;
+import edu.cmu.ml.proppr.util.multithreading.WritingCleanup;
 
 /**
  * Exports a grounded example for each inference example in a data file.
@@ -69,6 +72,7 @@ public class Grounder<P extends ProofGraph> {
 	protected int throttle=Multithreading.DEFAULT_THROTTLE;
 	private int empty;
 	protected boolean includeUnlabeledGraphs = false;
+	protected boolean binaryOutput = false;
 	protected SymbolTable<Feature> featureTable = new ConcurrentSymbolTable<Feature>(ConcurrentSymbolTable.HASHING_STRATEGIES.identity);
 	protected StatusLogger status=new StatusLogger();
 
@@ -91,6 +95,10 @@ public class Grounder<P extends ProofGraph> {
 	public void includeUnlabeledGraphs(boolean includeThem) {
 		this.includeUnlabeledGraphs = includeThem;
 	}
+	/** Write grounded examples in the binary format read by BinaryGroundedFile */
+	public void useBinaryFormat(boolean binary) {
+		this.binaryOutput = binary;
+	}
 
 	public class GroundingStatistics {
 		public GroundingStatistics() {
@@ -143,16 +151,28 @@ public class Grounder<P extends ProofGraph> {
 
 			Multithreading<InferenceExample,String> m = new Multithreading<InferenceExample,String>(log, this.status, maintainOrder);
 
-			m.executeJob(
-					this.nthreads, 
-					new InferenceExampleStreamer(dataFile).stream(), 
-					new Transformer<InferenceExample,String>(){
-						@Override
-						public Callable<String> transformer(InferenceExample in, int id) {
-							return new Ground(in,id);
-						}}, 
+			Transformer<InferenceExample,String> transformer = new Transformer<InferenceExample,String>(){
+				@Override
+				public Callable<String> transformer(InferenceExample in, int id) {
+					return new Ground(in,id);
+				}};
+			if (this.binaryOutput) {
+				Writer w = new BinaryGroundedFile.GroundedWriter(groundedFile);
+				m.executeJob(
+						this.nthreads, 
+						new InferenceExampleStreamer(dataFile).stream(), 
+						transformer, 
+						new WritingCleanup(w, log, this.status), 
+						this.throttle);
+				w.close();
+			} else {
+				m.executeJob(
+						this.nthreads, 
+						new InferenceExampleStreamer(dataFile).stream(), 
+						transformer, 
 						groundedFile, 
 						this.throttle);
+			}
 
 			reportStatistics(empty);
 
@@ -260,6 +280,7 @@ public class Grounder<P extends ProofGraph> {
 
 	public static class ExampleGrounderConfiguration extends CustomConfiguration {
 		private File keyFile;
+		private boolean binary;
 		public ExampleGrounderConfiguration(String[] args, int inputFiles, int outputFiles, int constants, int modules) {
 			super(args, inputFiles, outputFiles, constants, modules);
 		}
@@ -272,6 +293,10 @@ public class Grounder<P extends ProofGraph> {
 					.hasArg()
 					.withDescription("Save a key to the grounded graphs providing the LogicProgramState definitions of the numbered nodes")
 					.create());
+			options.addOption(OptionBuilder
+					.withLongOpt("binary")
+					.withDescription("Write grounded examples in binary format (faster to load for training)")
+					.create());
 			options.getOption(Configuration.PARAMS_FILE_OPTION).setRequired(false);
 		}
 
@@ -279,10 +304,12 @@ public class Grounder<P extends ProofGraph> {
 		protected void retrieveCustomSettings(CommandLine line, int[] flags,
 				Options options) {
 			if (line.hasOption("graphKey")) this.keyFile = new File(line.getOptionValue("graphKey"));
+			this.binary = line.hasOption("binary");
 		}
 
 		@Override
 		public Object getCustomSetting(String name) {
+			if ("binary".equals(name)) return binary;
 			return keyFile;
 		}
 	}
@@ -351,6 +378,7 @@ public class Grounder<P extends ProofGraph> {
 			System.out.println(c.toString());
 
 			if (c.getCustomSetting("graphKey") != null) c.grounder.useGraphKeyFile((File) c.getCustomSetting("graphKey"));
+			c.grounder.useBinaryFormat((Boolean) c.getCustomSetting("binary"));
 			if (c.paramsFile != null) {
 				ParamsFile file = new ParamsFile(c.paramsFile);
 				c.grounder.addParams(new SimpleParamVector<String>(Dictionary.load(file)), c.squashingFunction);
@@ -359,6 +387,7 @@ public class Grounder<P extends ProofGraph> {
 			long start = System.currentTimeMillis();
 			c.grounder.groundExamples(c.queryFile, c.groundedFile, c.maintainOrder);
 			System.out.println("Grounding time: "+(System.currentTimeMillis()-start));
+			System.out.print(CachingPlugin.report(c.plugins));
 			System.out.println("Done.");
 
 		} catch (Throwable t) {
@@ -19,6 +19,7 @@ import edu.cmu.ml.proppr.learn.tools.Exp;
 import edu.cmu.ml.proppr.learn.tools.SquashingFunction;
 import edu.cmu.ml.proppr.prove.InnerProductWeighter;
 import edu.cmu.ml.proppr.prove.Prover;
+import edu.cmu.ml.proppr.prove.TopKProver;
 import edu.cmu.ml.proppr.prove.wam.Feature;
 import edu.cmu.ml.proppr.prove.wam.Goal;
 import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
@@ -26,6 +27,7 @@ import edu.cmu.ml.proppr.prove.wam.ProofGraph;
 import edu.cmu.ml.proppr.prove.wam.Query;
 import edu.cmu.ml.proppr.prove.wam.State;
 import edu.cmu.ml.proppr.prove.wam.WamProgram;
+import edu.cmu.ml.proppr.prove.wam.plugins.CachingPlugin;
 import edu.cmu.ml.proppr.prove.wam.plugins.WamPlugin;
 import edu.cmu.ml.proppr.util.APROptions;
 import edu.cmu.ml.proppr.util.ConcurrentSymbolTable;
@@ -54,6 +56,9 @@ import edu.cmu.ml.proppr.util.multithreading.Transformer;
  * followed by one line for each solution, in the format:
  * 
  * RANK <TAB> SCORE <TAB> VARIABLE-BINDINGS
+ * 
+ * With --server stdin|port, instead keeps the program and params loaded
+ * and answers queries as they arrive; see QueryServer.
  */
 
 public class QueryAnswerer<P extends ProofGraph> {
@@ -82,6 +87,8 @@ public class QueryAnswerer<P extends ProofGraph> {
 	static class QueryAnswererConfiguration extends ModuleConfiguration {
 		boolean normalize;
 		int topk;
+		/** "stdin" or a local port number to answer queries on, or null to answer the queries file */
+		String server;
 
 		public QueryAnswererConfiguration(String[] args, int inputFiles, int outputFiles, int constants, int modules) {
 			super(args,  inputFiles,  outputFiles,  constants,  modules);
@@ -102,6 +109,13 @@ public class QueryAnswerer<P extends ProofGraph> {
 					.hasArg()
 					.withDescription("Print only the top k solutions for each query")
 					.create());
+			options.addOption(
+					OptionBuilder
+					.withLongOpt("server")
+					.withArgName("stdin|port")
+					.hasArg()
+					.withDescription("Stay resident and answer queries, one per line, from stdin or a local socket (see QueryServer)")
+					.create());
 		}
 
 		@Override
@@ -109,11 +123,14 @@ public class QueryAnswerer<P extends ProofGraph> {
 			super.retrieveSettings(line, flags, options);
 			this.normalize = true;
 			if (line.hasOption("unnormalized")) this.normalize = false;
-			if (!line.hasOption(Configuration.QUERIES_FILE_OPTION)) {
+			if (line.hasOption("server")) this.server = line.getOptionValue("server");
+			if (this.server == null && !line.hasOption(Configuration.QUERIES_FILE_OPTION)) {
 				usageOptions(options, flags,"Missing required option: "+Configuration.QUERIES_FILE_OPTION);
 			}
 			this.topk = -1;
 			if (line.hasOption("top")) this.topk = Integer.parseInt(line.getOptionValue("top"));
+			if (this.prover instanceof TopKProver && ((TopKProver) this.prover).getK() <= 0)
+				((TopKProver) this.prover).setK(this.topk);
 		}
 	}
 
@@ -146,7 +163,11 @@ public class QueryAnswerer<P extends ProofGraph> {
 		}
 		if (normalize) {
 			log.debug("normalizing");
-			solutions = Dictionary.normalize(solutions);
+			if (prover instanceof TopKProver) {
+				// only the top k are here; normalize by all the completed states
+				double z = ((TopKProver) prover).getCompletedMass();
+				if (z > 0) for (Map.Entry<Query,Double> e : solutions.entrySet()) e.setValue(e.getValue()/z);
+			} else solutions = Dictionary.normalize(solutions);
 		} else {
 			log.debug("not normalizing");
 		}
@@ -167,6 +188,11 @@ public class QueryAnswerer<P extends ProofGraph> {
 		return sb.toString();
 	}
 
+	/** Answer one query with a fresh copy of the prover */
+	public String findSolutions(Query query, int id) throws LogicProgramException {
+		return findSolutions(program, plugins, prover.copy(), query, normalize, id);
+	}
+
 	public void findSolutions(File queryFile, File outputFile, boolean maintainOrder) throws IOException 
 	{
 		Multithreading<Query,String> m = new Multithreading<Query,String>(log, status, maintainOrder);
@@ -199,7 +225,7 @@ public class QueryAnswerer<P extends ProofGraph> {
 		@Override
 		public String call() throws Exception {
 			try {
-				return findSolutions(program, plugins, prover.copy(), query, normalize, id);
+				return findSolutions(query, id);
 			} catch (LogicProgramException e) {
 				throw new LogicProgramException("on query "+id,e);
 			}
@@ -246,7 +272,9 @@ public class QueryAnswerer<P extends ProofGraph> {
 					args,
 					inputFiles, outputFiles, constants, modules);
 //			c.squashingFunction = new Exp();
-			System.out.println(c.toString());
+			// in stdin server mode, stdout is for answers only
+			if ("stdin".equals(c.server)) System.err.println(c.toString());
+			else System.out.println(c.toString());
 			QueryAnswerer qa = new QueryAnswerer(c.apr, c.program, c.plugins, c.prover, c.normalize, c.nthreads, c.topk);
 			if(log.isInfoEnabled()) log.info("Running queries from " + c.queryFile + "; saving results to " + c.solutionsFile);
 			if (c.paramsFile != null) {
@@ -254,6 +282,23 @@ public class QueryAnswerer<P extends ProofGraph> {
 				qa.addParams(c.prover, new SimpleParamVector<String>(Dictionary.load(file, new ConcurrentHashMap<String,Double>())), c.squashingFunction);
 				file.check(c);
 			}
+			if (c.server != null) {
+				final QueryServer server = new QueryServer(qa);
+				if ("stdin".equals(c.server)) {
+					server.serveStdin();
+					server.shutdown();
+				} else {
+					// listen until the process is told to stop
+					Runtime.getRuntime().addShutdownHook(new Thread() {
+						@Override
+						public void run() {
+							server.shutdown();
+						}
+					});
+					server.listen(Integer.parseInt(c.server));
+				}
+				return;
+			}
 			long start = System.currentTimeMillis();
 			qa.findSolutions(c.queryFile, c.solutionsFile, c.maintainOrder);
 			if (c.prover.getWeighter() instanceof InnerProductWeighter) {
@@ -266,6 +311,7 @@ public class QueryAnswerer<P extends ProofGraph> {
 					log.warn("Saw more unknown features ("+w.seenUnknownFeatures()+") than known features ("+w.seenKnownFeatures()+") -- test data may be too different from training data");
 			}
 			System.out.println("Query-answering time: "+(System.currentTimeMillis()-start));
+			System.out.print(CachingPlugin.report(c.plugins));
 
 		} catch (Throwable t) {
 			t.printStackTrace();
@@ -0,0 +1,237 @@
+package edu.cmu.ml.proppr;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.prove.wam.Query;
+import edu.cmu.ml.proppr.prove.wam.plugins.CachingPlugin;
+
+/**
+ * Resident query-answering server: keeps a QueryAnswerer (with its program,
+ * plugins, and trained weights) loaded, and answers queries as they arrive,
+ * on a fixed pool of worker threads.
+ *
+ * The protocol is line-based, over stdin/stdout or a local socket. Each line sent
+ * is a query (anything after a <TAB> is ignored, as in a queries file). Each
+ * answer is sent back in the QueryAnswerer output format, followed by a blank line:
+ *
+ * # proved Q# <TAB> QUERY <TAB> TIME-IN-MILLISEC msec
+ * RANK <TAB> SCORE <TAB> VARIABLE-BINDINGS
+ * ...
+ *
+ * Answers are sent as soon as they're done, so they may arrive out of order; Q#
+ * counts queries from 1 on each connection. A query that fails gets a
+ * "# error Q# <TAB> QUERY <TAB> MESSAGE" line instead. The line "#stats" gets
+ * a "# stats" line of latency statistics for all queries answered so far, and
+ * a "# cache" line of hit rates for each plugin with an outlink cache.
+ */
+public class QueryServer {
+	private static final Logger log = Logger.getLogger(QueryServer.class);
+	public static final String STATS_COMMAND = "#stats";
+	/** Queries waiting for a worker, per worker, before a connection stops reading */
+	private static final int QUEUE_PER_THREAD = 4;
+	protected QueryAnswerer<?> answerer;
+	protected ExecutorService pool;
+	protected Semaphore pending;
+	protected LatencyStats stats = new LatencyStats();
+	protected volatile ServerSocket server;
+
+	public QueryServer(QueryAnswerer<?> answerer) {
+		this.answerer = answerer;
+		this.pool = Executors.newFixedThreadPool(answerer.nthreads);
+		this.pending = new Semaphore(answerer.nthreads * (1+QUEUE_PER_THREAD));
+	}
+
+	/** Answer each query line from in on out, until in is closed and all answers are written. */
+	public void serve(Reader in, Writer out) throws IOException {
+		BufferedReader reader = new BufferedReader(in);
+		final Writer writer = out;
+		int id=0;
+		// one permit per query in flight on this connection, so we can wait for them all at the end
+		final Semaphore done = new Semaphore(0);
+		for (String line; (line = reader.readLine()) != null; ) {
+			line = line.trim();
+			if (line.length() == 0) continue;
+			if (line.equals(STATS_COMMAND)) {
+				StringBuilder sb = new StringBuilder("# stats\t").append(stats.toString()).append("\n");
+				for (String cache : CachingPlugin.report(answerer.plugins).split("\n")) {
+					if (cache.length() > 0) sb.append("# cache\t").append(cache).append("\n");
+				}
+				write(writer, sb.toString());
+				continue;
+			}
+			final int qid = ++id;
+			final String queryString = line.split("\t")[0];
+			final long submitted = System.currentTimeMillis();
+			pending.acquireUninterruptibly();
+			try {
+				pool.submit(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							String answer;
+							try {
+								Query query = Query.parse(queryString);
+								answer = answerer.findSolutions(query, qid);
+							} catch (Exception e) {
+								log.error("on query "+qid+": "+queryString, e);
+								answer = "# error "+qid+"\t"+queryString+"\t"+e+"\n";
+							}
+							stats.add(System.currentTimeMillis() - submitted);
+							write(writer, answer);
+						} catch (IOException e) {
+							log.error("Couldn't write answer to query "+qid, e);
+						} finally {
+							pending.release();
+							done.release();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				// shut down while this connection was still reading
+				pending.release();
+				done.release();
+				write(writer, "# error "+qid+"\t"+queryString+"\tserver is shutting down\n");
+			}
+		}
+		done.acquireUninterruptibly(id);
+		writer.flush();
+	}
+
+	private static void write(Writer writer, String answer) throws IOException {
+		synchronized(writer) {
+			writer.write(answer);
+			writer.write("\n");
+			writer.flush();
+		}
+	}
+
+	/** Answer queries from stdin on stdout */
+	public void serveStdin() throws IOException {
+		serve(new InputStreamReader(System.in, "UTF-8"), new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")));
+	}
+
+	/** Accept connections on a local port, serving each on its own thread, until the server is shut down. */
+	public void listen(int port) throws IOException {
+		listen(new ServerSocket(port, 50, InetAddress.getLoopbackAddress()));
+	}
+	/** Accept connections on a bound socket, serving each on its own thread, until the server is shut down. */
+	public void listen(ServerSocket server) throws IOException {
+		this.server = server;
+		log.info("Listening for queries on "+server.getLocalSocketAddress());
+		try {
+			while (!pool.isShutdown()) {
+				final Socket socket;
+				try {
+					socket = server.accept();
+				} catch (SocketException e) {
+					// shutdown() closes the socket to stop us
+					if (pool.isShutdown()) return;
+					throw e;
+				}
+				Thread t = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							serve(new InputStreamReader(socket.getInputStream(), "UTF-8"),
+									new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), "UTF-8")));
+						} catch (IOException e) {
+							log.error("Trouble on connection "+socket, e);
+						} finally {
+							try {
+								socket.close();
+							} catch (IOException e) {}
+						}
+					}
+				}, "query-connection-"+socket.getPort());
+				t.setDaemon(true);
+				t.start();
+			}
+		} finally {
+			server.close();
+		}
+	}
+
+	public LatencyStats getStats() {
+		return stats;
+	}
+
+	/** Stop accepting connections and queries, and wait for the queries in progress to finish */
+	public void shutdown() {
+		pool.shutdown();
+		ServerSocket listening = this.server;
+		if (listening != null) {
+			try {
+				listening.close();
+			} catch (IOException e) {
+				log.warn("Couldn't close "+listening, e);
+			}
+		}
+		try {
+			pool.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			log.warn("Interrupted waiting for queries to finish", e);
+		}
+		log.info("Query latency: "+stats);
+		String caches = CachingPlugin.report(answerer.plugins);
+		if (caches.length() > 0) log.info("Outlink caches:\n"+caches);
+	}
+
+	/**
+	 * Latency of answered queries, from when they were read to when the answer was
+	 * ready: count, mean, and max over all queries, and percentiles over the most
+	 * recent WINDOW queries.
+	 */
+	public static class LatencyStats {
+		public static final int WINDOW = 10000;
+		private long count = 0;
+		private long total = 0;
+		private long max = 0;
+		private long[] recent = new long[WINDOW];
+		public synchronized void add(long msec) {
+			recent[(int) (count % WINDOW)] = msec;
+			count++;
+			total += msec;
+			max = Math.max(max, msec);
+		}
+		public synchronized long getCount() {
+			return count;
+		}
+		public synchronized double getMean() {
+			return count == 0 ? 0 : (double) total / count;
+		}
+		public synchronized long getMax() {
+			return max;
+		}
+		/** The p-th percentile (0<p<=100) of the recent latencies */
+		public synchronized long getPercentile(double p) {
+			int n = (int) Math.min(count, WINDOW);
+			if (n == 0) return 0;
+			long[] sorted = Arrays.copyOf(recent, n);
+			Arrays.sort(sorted);
+			return sorted[Math.max(0, (int) Math.ceil(p / 100 * n) - 1)];
+		}
+		@Override
+		public synchronized String toString() {
+			return String.format("queries %d\tmean %.1f msec\tp50 %d msec\tp95 %d msec\tp99 %d msec\tmax %d msec",
+					count, getMean(), getPercentile(50), getPercentile(95), getPercentile(99), max);
+		}
+	}
+}
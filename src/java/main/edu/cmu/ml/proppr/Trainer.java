@@ -1,6 +1,7 @@
 package edu.cmu.ml.proppr;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -19,9 +20,11 @@ import org.apache.log4j.Logger;
 
 import edu.cmu.ml.proppr.examples.PosNegRWExample;
 import edu.cmu.ml.proppr.graph.ArrayLearningGraphBuilder;
+import edu.cmu.ml.proppr.graph.GraphFormatException;
 import edu.cmu.ml.proppr.graph.LearningGraphBuilder;
 import edu.cmu.ml.proppr.learn.SRW;
 import edu.cmu.ml.proppr.learn.SRW.ZeroGradientData;
+import edu.cmu.ml.proppr.learn.tools.BinaryGroundedFile;
 import edu.cmu.ml.proppr.learn.tools.FixedWeightRules;
 import edu.cmu.ml.proppr.learn.tools.LossData;
 import edu.cmu.ml.proppr.learn.tools.LossData.LOSS;
@@ -35,10 +38,12 @@ import edu.cmu.ml.proppr.util.ParsedFile;
 import edu.cmu.ml.proppr.util.SimpleSymbolTable;
 import edu.cmu.ml.proppr.util.StatusLogger;
 import edu.cmu.ml.proppr.util.SymbolTable;
+import edu.cmu.ml.proppr.util.math.ArrayParamVector;
 import edu.cmu.ml.proppr.util.math.ParamVector;
 import edu.cmu.ml.proppr.util.math.SimpleParamVector;
 import edu.cmu.ml.proppr.util.multithreading.Multithreading;
 import edu.cmu.ml.proppr.util.multithreading.NamedThreadFactory;
+import edu.cmu.ml.proppr.util.multithreading.Pipeline;
 
 public class Trainer {
 	private static final double MAX_PCT_ZERO_GRADIENT = 0.2;
@@ -56,6 +61,8 @@ public class Trainer {
 	protected StatusLogger status = new StatusLogger();
 	protected int stoppingEpoch = 3;
 	protected double stoppingPercent = 1.0;
+	protected ParamVector.UpdateMode updateMode = ParamVector.UpdateMode.safe;
+	protected boolean arrayParams = false;
 
 
 	public Trainer(SRW learner, int nthreads, int throttle) {
@@ -136,7 +143,9 @@ public class Trainer {
 		}
 	}
 
-	protected ParamVector<String,?> createParamVector() {
+	/** If array params are on and we have a master feature index, key the params by feature id; otherwise by feature name. */
+	protected ParamVector<String,?> createParamVector(SymbolTable<String> masterFeatures) {
+		if (this.arrayParams && masterFeatures != null && masterFeatures.size()>0) return new ArrayParamVector<String>(masterFeatures);
 		return new SimpleParamVector<String>(new ConcurrentHashMap<String,Double>(DEFAULT_CAPACITY,DEFAULT_LOAD,this.nthreads));
 	}
 
@@ -145,25 +154,57 @@ public class Trainer {
 	}
 
 	public ParamVector<String,?> train(SymbolTable<String> masterFeatures, Iterable<String> examples, LearningGraphBuilder builder, File initialParamVecFile, int numEpochs) {
-		ParamVector<String,?> initParams = null;
-		if (initialParamVecFile != null) {
-			log.info("loading initial params from "+initialParamVecFile);
-			initParams = new SimpleParamVector<String>(Dictionary.load(new ParsedFile(initialParamVecFile), new ConcurrentHashMap<String,Double>()));
-		} else {
-			initParams = createParamVector();
-		}
 		return train(
 				masterFeatures,
 				examples,
 				builder,
-				initParams,
+				loadParamVector(masterFeatures, initialParamVecFile),
 				numEpochs
 				);
 	}
 
+	/** Train on a grounded file in either the text or the binary format */
+	public ParamVector<String,?> train(SymbolTable<String> masterFeatures, File groundedFile, LearningGraphBuilder builder, File initialParamVecFile, int numEpochs) {
+		ParamVector<String,?> initParams = loadParamVector(masterFeatures, initialParamVecFile);
+		if (BinaryGroundedFile.isBinary(groundedFile))
+			return train(masterFeatures, new BinaryGroundedFile(groundedFile), builder, initParams, numEpochs);
+		return train(masterFeatures, new ParsedFile(groundedFile), builder, initParams, numEpochs);
+	}
+
+	protected ParamVector<String,?> loadParamVector(SymbolTable<String> masterFeatures, File paramVecFile) {
+		ParamVector<String,?> params = createParamVector(masterFeatures);
+		if (paramVecFile == null) return params;
+		log.info("loading initial params from "+paramVecFile);
+		Map<String,Double> init = Dictionary.load(new ParsedFile(paramVecFile), new ConcurrentHashMap<String,Double>());
+		if (masterFeatures == null || !params.isIndexedBy(masterFeatures)) {
+			params.putAll(init);
+			return params;
+		}
+		// look up ids without interning, so the file can't grow the master feature index
+		int unknown = 0;
+		for (Map.Entry<String,Double> e : init.entrySet()) {
+			if (masterFeatures.hasId(e.getKey())) params.put(masterFeatures, masterFeatures.getId(e.getKey()), e.getValue().doubleValue());
+			else unknown++;
+		}
+		if (unknown>0) log.warn("Skipped "+unknown+" initial params not in the feature index");
+		return params;
+	}
+
 	public ParamVector<String,?> train(SymbolTable<String> masterFeatures, Iterable<String> examples, LearningGraphBuilder builder, ParamVector<String,?> initialParamVec, int numEpochs) {
+		return train(masterFeatures, examples, TEXT, builder, initialParamVec, numEpochs);
+	}
+
+	public ParamVector<String,?> train(SymbolTable<String> masterFeatures, BinaryGroundedFile examples, LearningGraphBuilder builder, ParamVector<String,?> initialParamVec, int numEpochs) {
+		return train(masterFeatures, examples, BINARY, builder, initialParamVec, numEpochs);
+	}
+
+	protected <T> ParamVector<String,?> train(SymbolTable<String> masterFeatures, Iterable<T> examples, RecordFormat<T> format, LearningGraphBuilder builder, ParamVector<String,?> initialParamVec, int numEpochs) {
 		ParamVector<String,?> paramVec = this.masterLearner.setupParams(initialParamVec);
-		if (masterFeatures.size()>0) LearningGraphBuilder.setFeatures(masterFeatures);
+		paramVec.setUpdateMode(this.updateMode);
+		if (masterFeatures.size()>0) {
+			LearningGraphBuilder.setFeatures(masterFeatures);
+			this.masterLearner.fixedWeightRules().compile(masterFeatures);
+		}
 		NamedThreadFactory workingThreads = new NamedThreadFactory("work-");
 		NamedThreadFactory cleaningThreads = new NamedThreadFactory("cleanup-");
 		ThreadPoolExecutor workingPool;
@@ -193,61 +234,21 @@ public class Trainer {
 			// run examples
 			int id=1;
 			stattime.start();
-			int countdown=-1; Trainer notify = null;
-			for (String s : examples) {
+			Pipeline pipeline = newPipeline();
+			Pipeline.Stage read = pipeline.stage("read", 1);
+			Pipeline.Stage parse = pipeline.stage("parse", this.nthreads);
+			Pipeline.Stage train = pipeline.stage("train", this.nthreads);
+			Pipeline.Stage clean = pipeline.stage("cleanup", 1);
+			for (T s : examples) {
 				if (log.isDebugEnabled()) log.debug("Queue size "+(workingPool.getTaskCount()-workingPool.getCompletedTaskCount()));
-				statistics.updateReadingStatistics(stattime.sinceLast());
-				/*
-				 * Throttling behavior:
-				 * Once the number of unfinished tasks exceeds 1.5x the number of threads,
-				 * we add a 'notify' object to the next nthreads training tasks. Then, the
-				 * master thread gathers 'notify' signals until the number of unfinished tasks 
-				 * is no longer greater than the number of threads. Then we start adding tasks again.
-				 * 
-				 * This works more or less fine, since the master thread stops pulling examples
-				 * from disk when there are then a maximum of 2.5x training examples in the queue (that's
-				 * the original 1.5x, which could represent a maximum of 1.5x training examples,
-				 * plus the nthreads training tasks with active 'notify' objects. There's an 
-				 * additional nthreads parsing tasks in the queue but those don't take up much 
-				 * memory so we don't care). This lets us read in a good-sized buffer without
-				 * blowing up the heap.
-				 * 
-				 * Worst-case: None of the backlog is cleared before the master thread enters
-				 * the synchronized block. nthreads-1 threads will be training long jobs, and 
-				 * the one free thread works through the 0.5x backlog and all nthreads countdown 
-				 * examples. The notify() sent by the final countdown example will occur when 
-				 * there are nthreads unfinished tasks in the queue, and the master thread will exit
-				 * the synchronized block and proceed.
-				 * 
-				 * Best-case: The backlog is already cleared by the time the master thread enters
-				 * the synchronized block. The while() loop immediately exits, and the notify()
-				 * signals from the countdown examples have no effect.
-				 */
-				if (countdown>0) {
-					if (log.isDebugEnabled()) log.debug("Countdown "+countdown);
-					countdown--;
-				} else if (countdown == 0) {
-					if (log.isDebugEnabled()) log.debug("Countdown "+countdown +"; throttling:");
-					countdown--;
-					notify = null;
-					try {
-						synchronized(this) {
-							if (log.isDebugEnabled()) log.debug("Clearing training queue...");
-							while(workingPool.getTaskCount()-workingPool.getCompletedTaskCount() > this.nthreads)
-								this.wait();
-							if (log.isDebugEnabled()) log.debug("Queue cleared.");
-						}
-					} catch (InterruptedException e) {
-						e.printStackTrace();
-					}
-				} else if (workingPool.getTaskCount()-workingPool.getCompletedTaskCount() > 1.5*this.nthreads) {
-					if (log.isDebugEnabled()) log.debug("Starting countdown");
-					countdown=this.nthreads;
-					notify = this;
-				}
-				Future<PosNegRWExample> parsed = workingPool.submit(new Parse(s, builder, id));
-				Future<ExampleStats> trained = workingPool.submit(new Train(parsed, paramVec, id, notify));
-				cleanPool.submit(new TraceLosses(trained, id));
+				long readTime = stattime.sinceLast();
+				statistics.updateReadingStatistics(readTime);
+				read.add(readTime*1000000);
+				// wait for room in the pipeline, so we only read as fast as we can train
+				pipeline.enter();
+				Future<PosNegRWExample> parsed = workingPool.submit(parse.wrap(new Parse<T>(s, format, builder, id)));
+				Future<ExampleStats> trained = workingPool.submit(train.wrap(new Train(parsed, paramVec, id)));
+				cleanPool.submit(clean.last(new TraceLosses(trained, id)));
 				id++;
 				stattime.tick();
 				if (log.isInfoEnabled() && status.due(1))
@@ -255,6 +256,7 @@ public class Trainer {
 			}
 
 			cleanEpoch(workingPool, cleanPool, paramVec, stopper, id, total);
+			log.info("Pipeline: "+pipeline.report());
 			if(graphSizesStatusLog) {
 				log.info("Dataset size stats: "+statistics.totalGraphSize+" total nodes / max "+statistics.maxGraphSize+" / avg "+(statistics.totalGraphSize / id));
 				graphSizesStatusLog = false;
@@ -290,8 +292,14 @@ public class Trainer {
 			e.printStackTrace();
 		}
 		// finish any trailing updates for this epoch
-		// finish any trailing updates for this epoch
+		for (SRW learner : this.learners.values()) {
+			learner.flushBatch(paramVec);
+		}
 		this.masterLearner.cleanupParams(paramVec,paramVec);
+		paramVec.flush();
+		if (paramVec.getCollisions() > 0) 
+			log.info("Parameter updates: "+paramVec.getCollisions()+" collisions / "+paramVec.getRetries()+" retries");
+		paramVec.resetUpdateStatistics();
 
 			// loss status and signalling the stopper
 
@@ -343,13 +351,31 @@ public class Trainer {
 	}
 
 	public ParamVector<String,?> findGradient(SymbolTable<String> masterFeatures, Iterable<String> examples, LearningGraphBuilder builder, ParamVector<String,?> paramVec) {
+		return findGradient(masterFeatures, examples, TEXT, builder, paramVec);
+	}
+
+	public ParamVector<String,?> findGradient(SymbolTable<String> masterFeatures, BinaryGroundedFile examples, LearningGraphBuilder builder, ParamVector<String,?> paramVec) {
+		return findGradient(masterFeatures, examples, BINARY, builder, paramVec);
+	}
+
+	/** Find the gradient on a grounded file in either the text or the binary format */
+	public ParamVector<String,?> findGradient(SymbolTable<String> masterFeatures, File groundedFile, LearningGraphBuilder builder, ParamVector<String,?> paramVec) {
+		if (BinaryGroundedFile.isBinary(groundedFile))
+			return findGradient(masterFeatures, new BinaryGroundedFile(groundedFile), builder, paramVec);
+		return findGradient(masterFeatures, new ParsedFile(groundedFile), builder, paramVec);
+	}
+
+	protected <T> ParamVector<String,?> findGradient(SymbolTable<String> masterFeatures, Iterable<T> examples, RecordFormat<T> format, LearningGraphBuilder builder, ParamVector<String,?> paramVec) {
 		log.info("Computing gradient on cooked examples...");
 		ParamVector<String,?> sumGradient = new SimpleParamVector<String>();
 		if (paramVec==null) {
-			paramVec = createParamVector();
+			paramVec = createParamVector(masterFeatures);
 		}
 		paramVec = this.masterLearner.setupParams(paramVec);
-		if (masterFeatures != null && masterFeatures.size()>0) LearningGraphBuilder.setFeatures(masterFeatures);
+		if (masterFeatures != null && masterFeatures.size()>0) {
+			LearningGraphBuilder.setFeatures(masterFeatures);
+			this.masterLearner.fixedWeightRules().compile(masterFeatures);
+		}
 
 		//		
 		//		//WW: accumulate example-size normalized gradient
@@ -367,38 +393,18 @@ public class Trainer {
 
 		// run examples
 		int id=1;
-		int countdown=-1; Trainer notify = null;
 		status.start();
-		for (String s : examples) {
+		Pipeline pipeline = newPipeline();
+		Pipeline.Stage parse = pipeline.stage("parse", this.nthreads);
+		Pipeline.Stage grad = pipeline.stage("gradient", this.nthreads);
+		Pipeline.Stage clean = pipeline.stage("cleanup", 1);
+		for (T s : examples) {
 			if (log.isInfoEnabled() && status.due()) log.info(id+" examples read...");
-			long queueSize = (((ThreadPoolExecutor) workPool).getTaskCount()-((ThreadPoolExecutor) workPool).getCompletedTaskCount());
-			if (log.isDebugEnabled()) log.debug("Queue size "+queueSize);
-			if (countdown>0) {
-				if (log.isDebugEnabled()) log.debug("Countdown "+countdown);
-				countdown--;
-			} else if (countdown == 0) {
-				if (log.isDebugEnabled()) log.debug("Countdown "+countdown +"; throttling:");
-				countdown--;
-				notify = null;
-				try {
-					synchronized(this) {
-						if (log.isDebugEnabled()) log.debug("Clearing training queue...");
-						while((((ThreadPoolExecutor) workPool).getTaskCount()-((ThreadPoolExecutor) workPool).getCompletedTaskCount()) > this.nthreads)
-							this.wait();
-						if (log.isDebugEnabled()) log.debug("Queue cleared.");
-					}
-				} catch (InterruptedException e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
-			} else if (queueSize > 1.5*this.nthreads) {
-				if (log.isDebugEnabled()) log.debug("Starting countdown");
-				countdown=this.nthreads;
-				notify = this;
-			}
-			Future<PosNegRWExample> parsed = workPool.submit(new Parse(s, builder, id));
-			Future<ExampleStats> gradfound = workPool.submit(new Grad(parsed, paramVec, sumGradient, id, notify));
-			cleanPool.submit(new TraceLosses(gradfound, id));
+			// wait for room in the pipeline, so we only read as fast as we can compute gradients
+			pipeline.enter();
+			Future<PosNegRWExample> parsed = workPool.submit(parse.wrap(new Parse<T>(s, format, builder, id)));
+			Future<ExampleStats> gradfound = workPool.submit(grad.wrap(new Grad(parsed, paramVec, sumGradient, id)));
+			cleanPool.submit(clean.last(new TraceLosses(gradfound, id)));
 			id++;
 		}
 		workPool.shutdown();
@@ -409,6 +415,7 @@ public class Trainer {
 		} catch (InterruptedException e) {
 			log.error("Interrupted?",e);
 		}
+		log.info("Pipeline: "+pipeline.report());
 
 		this.masterLearner.cleanupParams(paramVec, sumGradient);
 
@@ -432,12 +439,49 @@ public class Trainer {
 
 	/////////////////////// Multithreading scaffold ///////////////////////
 
-	protected class Parse implements Callable<PosNegRWExample> {
-		String in;
+	/**
+	 * Bounds the examples between reading and cleanup at throttle, or
+	 * QUEUE_PER_THREAD per working thread if we're not throttling.
+	 */
+	protected Pipeline newPipeline() {
+		return new Pipeline(this.throttle > 0 ? this.throttle : this.nthreads * (1+Multithreading.QUEUE_PER_THREAD));
+	}
+
+	/** How to decode one record of a grounded file into an example */
+	protected interface RecordFormat<T> {
+		public PosNegRWExample parse(RWExampleParser parser, T in, LearningGraphBuilder builder, SRW learner) throws GraphFormatException;
+	}
+
+	/** A line of a text grounded file */
+	protected static final RecordFormat<String> TEXT = new RecordFormat<String>() {
+		@Override
+		public PosNegRWExample parse(RWExampleParser parser, String in, LearningGraphBuilder builder, SRW learner) throws GraphFormatException {
+			return parser.parse(in, builder, learner);
+		}
+	};
+
+	/** A record of a BinaryGroundedFile; these carry their own graph, so the builder isn't used */
+	protected static final RecordFormat<ByteBuffer> BINARY = new RecordFormat<ByteBuffer>() {
+		@Override
+		public PosNegRWExample parse(RWExampleParser parser, ByteBuffer in, LearningGraphBuilder builder, SRW learner) {
+			return parser.parse(in, learner);
+		}
+	};
+
+	protected class Parse<T> implements Callable<PosNegRWExample> {
+		T in;
+		RecordFormat<T> format;
 		LearningGraphBuilder builder;
 		int id;
-		public Parse(String in, LearningGraphBuilder builder, int id) {
+		/**
+		 * @param in A record of a grounded file
+		 * @param format How to decode in
+		 * @param builder
+		 * @param id
+		 */
+		public Parse(T in, RecordFormat<T> format, LearningGraphBuilder builder, int id) {
 			this.in=in;
+			this.format=format;
 			this.id=id;
 			this.builder = builder;
 		}
@@ -446,7 +490,7 @@ public class Trainer {
 			SRW learner = learners.get(Thread.currentThread().getName());
 			if (log.isDebugEnabled()) log.debug("Parsing start "+this.id);
 			long start = System.currentTimeMillis();
-			PosNegRWExample ex = new RWExampleParser().parse(in, builder.copy(), learner);
+			PosNegRWExample ex = format.parse(new RWExampleParser(), in, builder.copy(), learner);
 			statistics.updateParsingStatistics(System.currentTimeMillis()-start);
 			if (log.isDebugEnabled()) log.debug("Parsing done "+this.id);
 			return ex;
@@ -463,18 +507,15 @@ public class Trainer {
 		Future<PosNegRWExample> in;
 		ParamVector<String,?> paramVec;
 		int id;
-		Trainer notify;
-		public Train(Future<PosNegRWExample> parsed, ParamVector<String,?> paramVec, int id, Trainer notify) {
+		public Train(Future<PosNegRWExample> parsed, ParamVector<String,?> paramVec, int id) {
 			this.in = parsed;
 			this.id = id;
 			this.paramVec = paramVec;
-			this.notify = notify;
 		}
 		@Override
 		public ExampleStats call() throws Exception {
 			PosNegRWExample ex = in.get();
 			SRW learner = learners.get(Thread.currentThread().getName());
-			if (notify != null) synchronized(notify) { notify.notify(); }
 			if (log.isDebugEnabled()) log.debug("Training start "+this.id);
 			long start = System.currentTimeMillis();
 			learner.trainOnExample(paramVec, ex, status);
@@ -489,15 +530,14 @@ public class Trainer {
 
 	protected class Grad extends Train {
 		ParamVector<String,?> sumGradient;
-		public Grad(Future<PosNegRWExample> parsed, ParamVector<String,?> paramVec, ParamVector<String,?> sumGradient, int id, Trainer notify) {
-			super(parsed, paramVec, id, notify);
+		public Grad(Future<PosNegRWExample> parsed, ParamVector<String,?> paramVec, ParamVector<String,?> sumGradient, int id) {
+			super(parsed, paramVec, id);
 			this.sumGradient = sumGradient;
 		}
 		@Override
 		public ExampleStats call() throws Exception {
 			PosNegRWExample ex = in.get();
 			SRW learner = learners.get(Thread.currentThread().getName());
-			if (notify != null) synchronized(notify) { notify.notify(); }
 			if (log.isDebugEnabled()) log.debug("Gradient start "+this.id);
 			learner.accumulateGradient(paramVec, ex, sumGradient, status);
 			if (log.isDebugEnabled()) log.debug("Gradient done "+this.id);
@@ -551,6 +591,15 @@ public class Trainer {
 
 	}
 	
+	public void setUpdateMode(ParamVector.UpdateMode mode) {
+		this.updateMode = mode;
+	}
+
+	/** Key the params by master feature id (see ArrayParamVector) when there's a feature index */
+	public void setArrayParams(boolean arrayParams) {
+		this.arrayParams = arrayParams;
+	}
+	
 	public void setFixedWeightRules(FixedWeightRules f) {
 		this.masterLearner.setFixedWeightRules(f);
 		for (SRW el : this.learners.values()) el.setFixedWeightRules(f);
@@ -580,7 +629,7 @@ public class Trainer {
 			long start = System.currentTimeMillis();
 			ParamVector<String,?> params = c.trainer.train(
 					masterFeatures,
-					new ParsedFile(groundedFile), 
+					new File(groundedFile), 
 					new ArrayLearningGraphBuilder(), 
 					c.initParamsFile,
 					c.epochs);
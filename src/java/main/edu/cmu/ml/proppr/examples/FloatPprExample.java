@@ -0,0 +1,64 @@
+package edu.cmu.ml.proppr.examples;
+
+import edu.cmu.ml.proppr.graph.LearningGraph;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+/**
+ * A SparsePprExample which stores M, dM, and dp in single precision, for
+ * about half the memory per example.
+ *
+ * Only storage is single precision: SRW computes each value in double and
+ * rounds it when it's stored, and the loss and gradient are computed in double
+ * from p and the dp rows of the labeled nodes. p is one entry per node and
+ * is read directly by the loss functions, so it stays double.
+ *
+ * The label weights are read from the graph, which is left in double
+ * precision, so it can be shared with double-precision examples.
+ */
+public class FloatPprExample extends SparsePprExample {
+	// single-precision versions of M, dM_value, dp_value and dNext_value
+	public float[][] M_float;
+	public float[] dM_value_float;
+	public float[] dp_value_float;
+	public float[] dNext_value_float;
+
+	public FloatPprExample(String name, LearningGraph graph, TIntDoubleMap queryVec,
+			int[] pos, int[] neg) {
+		super(name, graph, queryVec, pos, neg);
+	}
+
+	@Override
+	protected void allocateValues() {
+		this.M_float = new float[graph.node_hi][];
+		for (int uid=0; uid<graph.node_hi; uid++) this.M_float[uid] = new float[this.dM_lo[uid].length];
+		this.dM_value_float = new float[graph.labelDependencySize()];
+	}
+
+	@Override
+	protected void allocateDp(int size) {
+		this.dp_value_float = new float[size];
+		this.dNext_value_float = new float[size];
+	}
+
+	@Override
+	public void swap() {
+		double[] tmp = p;
+		p = pNext;
+		pNext = tmp;
+		float[] ftmp = dp_value_float;
+		dp_value_float = dNext_value_float;
+		dNext_value_float = ftmp;
+	}
+
+	@Override
+	protected void exportDp(int[] nodes) {
+		for (int a : nodes) {
+			if (dp[a] == null) dp[a] = new TIntDoubleHashMap(dp_hi[a] - dp_lo[a]);
+			else dp[a].clear();
+			for (int k = dp_lo[a]; k < dp_hi[a]; k++) {
+				if (dp_value_float[k] != 0) dp[a].put(dp_feature_id[k], dp_value_float[k]);
+			}
+		}
+	}
+}
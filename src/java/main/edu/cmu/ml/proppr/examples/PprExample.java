@@ -21,16 +21,20 @@ public class PprExample extends PosNegRWExample {
 	@Override
 	protected void allocate() {
 		super.allocate();
-		this.M=new double[graph.node_hi][];
 		this.dM_lo = new int[graph.node_hi][];
 		this.dM_hi = new int[graph.node_hi][];
 		for (int uid=0; uid<graph.node_hi; uid++) {
 			int udeg = graph.node_near_hi[uid] - graph.node_near_lo[uid];
-			this.M[uid] = new double[udeg];
 			this.dM_lo[uid] = new int[udeg];
 			this.dM_hi[uid] = new int[udeg];
 		}
 		this.dM_feature_id = new int[graph.labelDependencySize()];
+		allocateValues();
+	}
+	/** Allocate M and dM_value, the parts of the example that depend on the params */
+	protected void allocateValues() {
+		this.M=new double[graph.node_hi][];
+		for (int uid=0; uid<graph.node_hi; uid++) this.M[uid] = new double[this.dM_lo[uid].length];
 		this.dM_value = new double[graph.labelDependencySize()];
 	}
 
@@ -23,6 +23,9 @@ public abstract class RWExample {
 		this.queryVec = queryVec;
 		this.graph = graph;
 	}
+	public String getName() {
+		return name;
+	}
 	public TIntDoubleMap getQueryVec() {
 		return queryVec;
 	}
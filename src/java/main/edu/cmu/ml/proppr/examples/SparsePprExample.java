@@ -0,0 +1,161 @@
+package edu.cmu.ml.proppr.examples;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import edu.cmu.ml.proppr.graph.LearningGraph;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+
+/**
+ * A PprExample which stores dp as a preallocated sparse matrix instead of
+ * one TIntDoubleMap per node.
+ *
+ * Row v of dp holds only those features which can be nonzero at v within
+ * maxDepth steps of the walk. The row layout depends only on the graph, so it is
+ * computed once and reused across epochs; dp and p are double-buffered so that
+ * steady-state inference allocates nothing.
+ */
+public class SparsePprExample extends PprExample {
+	// length = #nodes
+	public int[] dp_lo;
+	public int[] dp_hi;
+	// length = sum(nodes i) # features reachable at i
+	public int[] dp_feature_id;
+	public double[] dp_value;
+	public double[] dNext_value;
+	// length = #label dependencies; offset of dM_feature_id[i] in the dp row of the destination node
+	public int[] dM_slot;
+	public double[] pNext;
+	private int supportDepth=-1;
+
+	public SparsePprExample(String name, LearningGraph graph, TIntDoubleMap queryVec,
+			int[] pos, int[] neg) {
+		super(name, graph, queryVec, pos, neg);
+	}
+
+	@Override
+	protected void allocate() {
+		super.allocate();
+		this.pNext = new double[graph.node_hi];
+		this.dM_slot = new int[graph.labelDependencySize()];
+	}
+
+	/**
+	 * Build the dp row layout for walks of the given depth (if we haven't already),
+	 * and locate each entry of dM in the dp row of its edge's destination.
+	 *
+	 * Must be called after dM_feature_id has been filled.
+	 * @param depth
+	 */
+	public void index(int depth) {
+		if (depth != supportDepth) buildSupport(depth);
+		for (int uid = 0; uid < graph.node_hi; uid++) {
+			for(int eid = graph.node_near_lo[uid], xvi = 0; eid < graph.node_near_hi[uid]; eid++, xvi++) {
+				int vid = graph.edge_dest[eid];
+				for (int dmi = dM_lo[uid][xvi]; dmi < dM_hi[uid][xvi]; dmi++) {
+					dM_slot[dmi] = Arrays.binarySearch(dp_feature_id, dp_lo[vid], dp_hi[vid], dM_feature_id[dmi]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * dp_v^{t+1} draws its features from dM_uv and dp_u^t for each edge u->v, so
+	 * the features which can be nonzero at v after t steps are the union over u of
+	 * (features on edges leaving u) and (features nonzero at u after t-1 steps).
+	 * @param depth
+	 */
+	private void buildSupport(int depth) {
+		// local feature index, sorted by master feature id
+		int[] features = graph.label_feature_id.clone();
+		Arrays.sort(features);
+		int nfeatures = 0;
+		for (int i=0; i<features.length; i++) {
+			if (i==0 || features[i] != features[i-1]) features[nfeatures++] = features[i];
+		}
+		features = Arrays.copyOf(features, nfeatures);
+		TIntIntMap local = new TIntIntHashMap(nfeatures);
+		for (int i=0; i<nfeatures; i++) local.put(features[i], i);
+
+		BitSet[] outgoing = new BitSet[graph.node_hi];
+		for (int uid = 0; uid < graph.node_hi; uid++) {
+			outgoing[uid] = new BitSet(nfeatures);
+			for(int eid = graph.node_near_lo[uid]; eid < graph.node_near_hi[uid]; eid++) {
+				for (int lid = graph.edge_labels_lo[eid]; lid < graph.edge_labels_hi[eid]; lid++)
+					outgoing[uid].set(local.get(graph.label_feature_id[lid]));
+			}
+		}
+
+		BitSet[] support = new BitSet[graph.node_hi];
+		for (int uid = 0; uid < graph.node_hi; uid++) support[uid] = new BitSet(nfeatures);
+		int size = 0;
+		for (int t=0; t<depth; t++) {
+			BitSet[] next = new BitSet[graph.node_hi];
+			for (int vid = 0; vid < graph.node_hi; vid++) next[vid] = new BitSet(nfeatures);
+			for (int uid = 0; uid < graph.node_hi; uid++) {
+				for(int eid = graph.node_near_lo[uid]; eid < graph.node_near_hi[uid]; eid++) {
+					int vid = graph.edge_dest[eid];
+					next[vid].or(outgoing[uid]);
+					next[vid].or(support[uid]);
+				}
+			}
+			support = next;
+			// rows only ever grow, so an unchanged total means we've hit the fixpoint
+			int nextSize = 0;
+			for (BitSet s : support) nextSize += s.cardinality();
+			if (nextSize == size) break;
+			size = nextSize;
+		}
+
+		this.dp_lo = new int[graph.node_hi];
+		this.dp_hi = new int[graph.node_hi];
+		this.dp_feature_id = new int[size];
+		int cursor=0;
+		for (int vid = 0; vid < graph.node_hi; vid++) {
+			dp_lo[vid] = cursor;
+			for (int i = support[vid].nextSetBit(0); i >= 0; i = support[vid].nextSetBit(i+1)) {
+				dp_feature_id[cursor++] = features[i];
+			}
+			dp_hi[vid] = cursor;
+		}
+		allocateDp(size);
+		this.supportDepth = depth;
+	}
+
+	/** Allocate the current and next values of dp, with size entries each */
+	protected void allocateDp(int size) {
+		this.dp_value = new double[size];
+		this.dNext_value = new double[size];
+	}
+
+	/** Swap the current and next buffers for p and dp */
+	public void swap() {
+		double[] tmp = p;
+		p = pNext;
+		pNext = tmp;
+		tmp = dp_value;
+		dp_value = dNext_value;
+		dNext_value = tmp;
+	}
+
+	/**
+	 * Copy the nonzero entries of dp for labeled nodes into the map representation
+	 * read by the loss functions.
+	 */
+	public void exportDp() {
+		exportDp(posList);
+		exportDp(negList);
+	}
+	protected void exportDp(int[] nodes) {
+		for (int a : nodes) {
+			if (dp[a] == null) dp[a] = new TIntDoubleHashMap(dp_hi[a] - dp_lo[a]);
+			else dp[a].clear();
+			for (int k = dp_lo[a]; k < dp_hi[a]; k++) {
+				if (dp_value[k] != 0) dp[a].put(dp_feature_id[k], dp_value[k]);
+			}
+		}
+	}
+}
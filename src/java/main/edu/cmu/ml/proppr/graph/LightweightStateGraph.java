@@ -30,6 +30,16 @@ public class LightweightStateGraph implements InferenceGraph {
 	private static final Logger log = Logger.getLogger(LightweightStateGraph.class);
 	private static final Map<Feature,Double> DEFAULT_FD = Collections.emptyMap();
 	private final List<State> DEFAULT_NEAR = Collections.emptyList();
+	/** Identifies states by their canonical code; see State.setCanonicalHash() */
+	public static final HashingStrategy<State> CANONICAL_STATES = new HashingStrategy<State>() {
+		@Override
+		public int computeHashCode(State s) {
+			return s.canonicalHash();
+		}
+		@Override
+		public boolean equals(State s1, State s2) {
+			return s1.canonicallyEquals(s2);
+		}};
 	private SymbolTable<State> nodeTab;
 	private SymbolTable<Feature> featureTab;
 	private TIntObjectHashMap<TIntArrayList> near = new TIntObjectHashMap<TIntArrayList>();
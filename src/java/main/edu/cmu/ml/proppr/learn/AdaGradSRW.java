@@ -9,6 +9,7 @@ import edu.cmu.ml.proppr.examples.PosNegRWExample;
 import edu.cmu.ml.proppr.util.math.ParamVector;
 import edu.cmu.ml.proppr.util.SRWOptions;
 import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.SymbolTable;
 import edu.cmu.ml.proppr.util.math.SimpleParamVector;
 import gnu.trove.iterator.TIntDoubleIterator;
 import gnu.trove.map.TIntDoubleMap;
@@ -77,7 +78,8 @@ public class AdaGradSRW extends SRW {
 		regularizer.prepareForExample(params, example.getGraph(), params);
 		load(params, example);
 		inference(params, example, status);
-		agd(params, example);
+		if (c.minibatch > 1) batchSgd(params, example);
+		else agd(params, example);
 	}
 
     @Override
@@ -86,6 +88,12 @@ public class AdaGradSRW extends SRW {
 		return c.eta / Math.sqrt(this.totSqGrad.get(feature));
 	}
 
+	@Override
+	protected double learningRate(SymbolTable<String> features, int id) {
+		if (!totSqGrad.containsKey(features, id)) return 0.0;
+		return c.eta / Math.sqrt(this.totSqGrad.get(features, id));
+	}
+
 	/**
 	 * AdaGrad Descent Algo
 	 * 
@@ -98,29 +106,29 @@ public class AdaGradSRW extends SRW {
 		// apply gradient to param vector
 		for (TIntDoubleIterator grad = gradient.iterator(); grad.hasNext(); ) {
 			grad.advance();
-			// avoid underflow since we're summing the square
-			if (Math.abs(grad.value())<MIN_GRADIENT) continue;
-			String feature = ex.getGraph().featureLibrary.getSymbol(grad.key());
+			SymbolTable<String> features = ex.getGraph().featureLibrary;
+			if (trainable(features, grad.key())) descend(params, features, grad.key(), grad.value());
+		}
+	}
+
+	/**
+	 * AdaGrad step for one feature, used both per example and for the summed
+	 * gradient of a minibatch.
+	 */
+	@Override
+	protected void descend(ParamVector<String,?> params, SymbolTable<String> features, int id, double g) {
+		// avoid underflow since we're summing the square
+		if (Math.abs(g)<MIN_GRADIENT) return;
+
+		//first update the running total of the square of the gradient
+		totSqGrad.adjustValue(features, id, g * g);
 
-			if (trainable(feature)){
-				Double g = grad.value();
-				
-				//first update the running total of the square of the gradient
-				totSqGrad.adjustValue(feature, g * g);
-				
-				//now get the running total
-//				Double rt = totSqGrad.get(feature);
-				
-				//w_{t+1, i} = w_{t, i} - \eta * g_{t,i} / \sqrt{ G,i }
-				
-//				Double descentVal = - c.eta * g / Math.sqrt(rt);
+		//w_{t+1, i} = w_{t, i} - \eta * g_{t,i} / \sqrt{ G,i }
+		params.adjustValue(features, id, - learningRate(features, id) * g);
 
-				params.adjustValue(feature, - learningRate(feature) * g);
-				
-				if (params.get(feature).isInfinite()) {
-					log.warn("Infinity at "+feature+"; gradient "+grad.value()+"; rt "+totSqGrad.get(feature));
-				}
-			}
+		if (Double.isInfinite(params.get(features, id))) {
+			String feature = features.getSymbol(id);
+			log.warn("Infinity at "+feature+"; gradient "+g+"; rt "+totSqGrad.get(feature));
 		}
 	}
 
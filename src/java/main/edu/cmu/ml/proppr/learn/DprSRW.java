@@ -61,7 +61,7 @@ public class DprSRW extends SRW {
 	private double dotP(LearningGraph g, int eid, ParamVector<String,?> paramVec) {
 		double dotP = 0;
 		for (int fid = g.edge_labels_lo[eid]; fid<g.edge_labels_hi[eid]; fid++) {
-			dotP += paramVec.get(g.featureLibrary.getSymbol(g.label_feature_id[fid])) 
+			dotP += paramVec.get(g.featureLibrary, g.label_feature_id[fid])
 					* g.label_feature_weight[fid];
 		}
 		return dotP;
@@ -122,7 +122,7 @@ public class DprSRW extends SRW {
 			int flid = ex.getGraph().featureLibrary.getId(feature);
 //			log.debug("dru["+feature+"] = "+dru.get(feature));
 			// simultaneously update the dp for the pushed node:
-			if (trainable(feature)) {
+			if (trainable(ex.getGraph().featureLibrary, flid)) {
 				if (ex.dp[u] == null) ex.dp[u] = new TIntDoubleHashMap();
 				Dictionary.increment(ex.dp[u], flid, c.apr.alpha * dru.get(flid));
 			}
@@ -177,9 +177,10 @@ public class DprSRW extends SRW {
 		
 		for (String f : regularizer.localFeatures(params, ex.getGraph())) {
 			double value = Dictionary.safeGet(params, f);
-			double ret = fixedWeightRules.isFixed(f) ? 0.0 : 2*c.mu*value;
+			int flid = ex.getGraph().featureLibrary.getId(f);
+			double ret = trainable(ex.getGraph().featureLibrary, flid) ? 2*c.mu*value : 0.0;
 			this.cumloss.add(LOSS.REGULARIZATION, c.mu * Math.pow(value,2));
-			gradient.adjustOrPutValue(ex.getGraph().featureLibrary.getId(f), ret, ret);
+			gradient.adjustOrPutValue(flid, ret, ret);
 		}
 	}
 	
@@ -25,7 +25,7 @@ public class LocalRegularizationSchedule extends RegularizationSchedule {
 	public void prepareForExample(ParamVector<String,?> params, LearningGraph graph, ParamVector<String,?> apply) {
 		if (!(params instanceof MuParamVector)) throw new IllegalArgumentException("LocalRegularizationSchedule requires a MuParamVector");
 		for (String f : localFeatures(params, graph)) {
-			if (!parent.trainable(f)) continue;
+			if (!parent.trainable(graph.featureLibrary, graph.featureLibrary.getId(f))) continue;
 			this.reg.lazyUpdate(parent.c, (MuParamVector<String>) params, apply, f, parent._cumulativeLoss(), parent.learningRate(f));
 		}
 	}
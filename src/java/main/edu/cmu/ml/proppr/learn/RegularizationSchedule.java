@@ -5,6 +5,8 @@ import java.util.Set;
 import edu.cmu.ml.proppr.examples.PosNegRWExample;
 import edu.cmu.ml.proppr.examples.RWExample;
 import edu.cmu.ml.proppr.graph.LearningGraph;
+import edu.cmu.ml.proppr.util.SymbolTable;
+import edu.cmu.ml.proppr.util.math.ArrayParamVector;
 import edu.cmu.ml.proppr.util.math.ParamVector;
 import gnu.trove.map.TIntDoubleMap;
 
@@ -18,6 +20,16 @@ public class RegularizationSchedule {
 	}
 
 	public void regularization(ParamVector<String,?> params, RWExample ex, TIntDoubleMap gradient) {
+		SymbolTable<String> features = ex.getGraph().featureLibrary;
+		if (params.isIndexedBy(features) && params instanceof ArrayParamVector) {
+			// walk the ids directly instead of hashing every feature name
+			for (ArrayParamVector<?>.IdIterator it = ((ArrayParamVector<?>) params).new IdIterator(); it.hasNext(); ) {
+				int id = it.next();
+				if (!parent.trainable(features, id)) continue;
+				reg.synchronousUpdate(parent.c, params, id, gradient, parent._cumulativeLoss(), features);
+			}
+			return;
+		}
 		for (String f : localFeatures(params, ex.getGraph())) {
 			if (!parent.trainable(f)) continue;
 			reg.synchronousUpdate(parent.c, params, f, gradient, parent._cumulativeLoss(), ex.getGraph().featureLibrary);
@@ -25,6 +25,14 @@ public class Regularize {
 	 */
 	protected void synchronousUpdate(SRWOptions c, ParamVector<String,?> params, String f, 
 			TIntDoubleMap gradient, LossData loss, SymbolTable<String> featureLibrary) {}
+	/**
+	 * As above, for feature #id of the featureLibrary. Override to skip
+	 * the feature name lookup.
+	 */
+	protected void synchronousUpdate(SRWOptions c, ParamVector<String,?> params, int id, 
+			TIntDoubleMap gradient, LossData loss, SymbolTable<String> featureLibrary) {
+		synchronousUpdate(c, params, featureLibrary.getSymbol(id), gradient, loss, featureLibrary);
+	}
 	/**
 	 * This is a lazy update, where the features in a particular
 	 * example are regularized in a batch, applying the regularization
@@ -33,6 +33,14 @@ public class RegularizeL1 extends Regularize {
 			loss.add(LOSS.REGULARIZATION, c.mu * Math.abs(value));
 			gradient.adjustOrPutValue(featureLibrary.getId(f), ret, ret);
 	}
+	@Override
+	protected void synchronousUpdate(SRWOptions c, ParamVector<String,?> params, int id, 
+			TIntDoubleMap gradient, LossData loss, SymbolTable<String> featureLibrary) {
+			double value = params.get(featureLibrary, id);
+			double ret = Math.signum(value) * Math.min( Math.abs(value), c.mu);
+			loss.add(LOSS.REGULARIZATION, c.mu * Math.abs(value));
+			gradient.adjustOrPutValue(id, ret, ret);
+	}
 	
 	/**
 	 * We want to do g regularization updates simultaneously, as if they had been applied in previous gradient updates.
@@ -35,6 +35,16 @@ public class RegularizeL2 extends Regularize {
 		loss.add(LOSS.REGULARIZATION, c.mu * Math.pow(value,2));
 		gradient.adjustOrPutValue(featureLibrary.getId(f), ret, ret);
 	}
+	@Override
+	protected void synchronousUpdate(SRWOptions c, ParamVector<String,?> params, int id,
+			TIntDoubleMap gradient, LossData loss,
+			SymbolTable<String> featureLibrary) {
+		double value = params.get(featureLibrary, id);
+		double ret = 2*c.mu*value;
+		if (log.isDebugEnabled()) log.debug("Regularizing "+featureLibrary.getSymbol(id)+" += "+ret);
+		loss.add(LOSS.REGULARIZATION, c.mu * Math.pow(value,2));
+		gradient.adjustOrPutValue(id, ret, ret);
+	}
 	/**
 	 * Remember - this update modifies the PARAMETER VECTOR, so we have to include learningRate() by hand.
 	 * 
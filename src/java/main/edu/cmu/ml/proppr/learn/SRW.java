@@ -17,8 +17,10 @@ import java.util.TreeSet;
 import org.apache.log4j.Logger;
 
 import edu.cmu.ml.proppr.Trainer;
+import edu.cmu.ml.proppr.examples.FloatPprExample;
 import edu.cmu.ml.proppr.examples.PosNegRWExample;
 import edu.cmu.ml.proppr.examples.PprExample;
+import edu.cmu.ml.proppr.examples.SparsePprExample;
 import edu.cmu.ml.proppr.graph.LearningGraph;
 import edu.cmu.ml.proppr.learn.tools.ClippedExp;
 import edu.cmu.ml.proppr.learn.tools.FixedWeightRules;
@@ -28,6 +30,7 @@ import edu.cmu.ml.proppr.learn.tools.SquashingFunction;
 import edu.cmu.ml.proppr.util.Dictionary;
 import edu.cmu.ml.proppr.util.SRWOptions;
 import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.SymbolTable;
 import edu.cmu.ml.proppr.util.math.ParamVector;
 import edu.cmu.ml.proppr.util.math.SimpleParamVector;
 import gnu.trove.iterator.TIntDoubleIterator;
@@ -68,6 +71,10 @@ public class SRW {
 	protected int zeroLogsThisEpoch=0;
 	protected RegularizationSchedule regularizer;
 	protected LossFunction lossf=new PosNegLoss();
+	// summed minibatch gradient not yet applied to the params, by id in batchFeatures
+	protected TIntDoubleMap batch = new TIntDoubleHashMap();
+	protected SymbolTable<String> batchFeatures;
+	protected int batchSize=0;
 	public SRW() { this(new SRWOptions()); }
 	public SRW(SRWOptions params) {
 		this.c = params;
@@ -101,7 +108,8 @@ public class SRW {
 		regularizer.prepareForExample(params, example.getGraph(), params);
 		load(params, example);
 		inference(params, example, status);
-		sgd(params, example);
+		if (c.minibatch > 1) batchSgd(params, example);
+		else sgd(params, example);
 	}
 
 	public void accumulateGradient(ParamVector<String,?> params, PosNegRWExample example, ParamVector<String,?> accumulator, StatusLogger status) {
@@ -120,8 +128,8 @@ public class SRW {
 		}
 		for (TIntDoubleIterator it = gradient.iterator(); it.hasNext(); ) {
 			it.advance();
-			String feature = example.getGraph().featureLibrary.getSymbol(it.key());
-			if (trainable(feature)) accumulator.adjustValue(example.getGraph().featureLibrary.getSymbol(it.key()), it.value() / example.length());
+			SymbolTable<String> features = example.getGraph().featureLibrary;
+			if (trainable(features, it.key())) accumulator.adjustValue(features.getSymbol(it.key()), it.value() / example.length());
 		}
 	}
 
@@ -129,83 +137,132 @@ public class SRW {
 	/** fills M, dM in ex **/
 	protected void load(ParamVector<String,?> params, PosNegRWExample example) {
 		PprExample ex = (PprExample) example;
+		FloatPprExample fex = ex instanceof FloatPprExample ? (FloatPprExample) ex : null;
+		LearningGraph g = ex.getGraph();
+		LoadScratch scratch = LOAD_SCRATCH.get();
+		scratch.reserve(g.featureLibrary.size());
 		int dM_cursor=0;
-		for (int uid = 0; uid < ex.getGraph().node_hi; uid++) {
+		for (int uid = 0; uid < g.node_hi; uid++) {
 			// (a); (b): initialization
+			int lo = g.node_near_lo[uid], udeg = g.node_near_hi[uid] - lo;
+			int labels = 0;
+			for (int eid = lo; eid < lo+udeg; eid++) labels += g.edge_labels_hi[eid] - g.edge_labels_lo[eid];
+			scratch.startNode(udeg, labels);
 			double tu = 0;
-			TIntDoubleMap dtu = new TIntDoubleHashMap();
-			int udeg = ex.getGraph().node_near_hi[uid] - ex.getGraph().node_near_lo[uid];
-			double[] suv = new double[udeg];
-			double[][] dfu = new double[udeg][];
 			// begin (c): for each neighbor v of u,
-			for(int eid = ex.getGraph().node_near_lo[uid], xvi = 0; eid < ex.getGraph().node_near_hi[uid]; eid++, xvi++) {
-				int vid = ex.getGraph().edge_dest[eid];
+			for(int eid = lo, xvi = 0; xvi < udeg; eid++, xvi++) {
 				// i. s_{uv} = w * phi_{uv}, a scalar:
-				suv[xvi] = 0;
-				for (int lid = ex.getGraph().edge_labels_lo[eid]; lid < ex.getGraph().edge_labels_hi[eid]; lid++) {
-					suv[xvi] += params.get(ex.getGraph().featureLibrary.getSymbol(ex.getGraph().label_feature_id[lid])) * ex.getGraph().label_feature_weight[lid];
+				double suv = 0;
+				for (int lid = g.edge_labels_lo[eid]; lid < g.edge_labels_hi[eid]; lid++) {
+					suv += params.get(g.featureLibrary, g.label_feature_id[lid]) * g.label_feature_weight[lid];
 				}
 				// ii. t_u += f(s_{uv}), a scalar:
-				tu += c.squashingFunction.edgeWeight(suv[xvi]);
+				scratch.fuv[xvi] = c.squashingFunction.edgeWeight(suv);
+				tu += scratch.fuv[xvi];
 				// iii. df_{uv} = f'(s_{uv})* phi_{uv}, a vector, as sparse as phi_{uv}
-				// by looping over features i in phi_{uv}
-				double [] dfuv = new double[ex.getGraph().edge_labels_hi[eid] - ex.getGraph().edge_labels_lo[eid]] ;
-				double cee = c.squashingFunction.computeDerivative(suv[xvi]);
-				for (int lid = ex.getGraph().edge_labels_lo[eid], dfuvi = 0; lid < ex.getGraph().edge_labels_hi[eid]; lid++, dfuvi++) {
-					// iii. again
-					dfuv[dfuvi] = cee * ex.getGraph().label_feature_weight[lid];
-					// iv. dt_u += df_{uv}, a vector, as sparse as sum_{v'} phi_{uv'}
-					// by looping over features i in df_{uv} 
-					// (identical to features i in phi_{uv}, so we use the same loop)
-					dtu.adjustOrPutValue(ex.getGraph().label_feature_id[lid], dfuv[dfuvi], dfuv[dfuvi]);
+				double cee = c.squashingFunction.computeDerivative(suv);
+				scratch.cee[xvi] = cee;
+				// iv. dt_u += df_{uv}, a vector, as sparse as sum_{v'} phi_{uv'},
+				// kept densely over the union of the features on u's edges
+				for (int lid = g.edge_labels_lo[eid]; lid < g.edge_labels_hi[eid]; lid++) {
+					scratch.dtu[scratch.slot(g.label_feature_id[lid])] += cee * g.label_feature_weight[lid];
 				}
-				dfu[xvi] = dfuv;
 			}
 			// end (c)
 
 			// begin (d): for each neighbor v of u,
-			double scale = (1 / (tu*tu));
-			for(int eid = ex.getGraph().node_near_lo[uid], xvi = 0; eid < ex.getGraph().node_near_hi[uid]; eid++, xvi++) {
-				int vid = ex.getGraph().edge_dest[eid];
-				ex.dM_lo[uid][xvi] = dM_cursor;//dM_features.size();
-				// create the vector dM_{uv} = (1/t^2_u) * (t_u * df_{uv} - f(s_{uv}) * dt_u)
-				// by looping over features i in dt_u
-				
-				// getting the df offset for features in dt_u is awkward, so we'll first iterate over features in df_uv,
-				// then fill in the rest
-				int[] seenFeatures = new int[ex.getGraph().edge_labels_hi[eid] - ex.getGraph().edge_labels_lo[eid]];
-				for (int lid = ex.getGraph().edge_labels_lo[eid], dfuvi = 0; lid < ex.getGraph().edge_labels_hi[eid]; lid++, dfuvi++) {
-					int fid = ex.getGraph().label_feature_id[lid];
-					ex.dM_feature_id[dM_cursor] = fid; //dM_features.add(fid);
-					double dMuvi = (tu * dfu[xvi][dfuvi] - c.squashingFunction.edgeWeight(suv[xvi]) * dtu.get(fid));
-					if (tu == 0) { 
-						if (dMuvi != 0)
-							throw new IllegalStateException("tu=0 at u="+uid+"; example "+ex.toString()); 
-					} else dMuvi *= scale; 
-					ex.dM_value[dM_cursor] = dMuvi; //dM_values.add(dMuvi);
-					dM_cursor++;
-					seenFeatures[dfuvi] = fid; //save this feature so we can skip it later
+			// dM_{uv} = (1/t^2_u) * (t_u * df_{uv} - f(s_{uv}) * dt_u), over every feature of dt_u
+			double scale = tu==0 ? 1 : 1 / (tu*tu);
+			int n = scratch.unionSize;
+			double[] row = scratch.row;
+			for(int eid = lo, xvi = 0; xvi < udeg; eid++, xvi++) {
+				ex.dM_lo[uid][xvi] = dM_cursor;
+				System.arraycopy(scratch.union, 0, ex.dM_feature_id, dM_cursor, n);
+				// the f(s_{uv}) * dt_u term: a flat loop over the union
+				double a = - scale * scratch.fuv[xvi];
+				for (int k=0; k<n; k++) row[k] = a * scratch.dtu[k];
+				// the t_u * df_{uv} term, only on the features of this edge
+				double b = scale * tu * scratch.cee[xvi];
+				for (int lid = g.edge_labels_lo[eid]; lid < g.edge_labels_hi[eid]; lid++) {
+					row[scratch.pos[g.label_feature_id[lid]]] += b * g.label_feature_weight[lid];
 				}
-				Arrays.sort(seenFeatures);
-				// we've hit all the features in df_uv, now we do the remaining features in dt_u:
-				for (TIntDoubleIterator it = dtu.iterator(); it.hasNext(); ) {
-					it.advance();
-					// skip features we already added in the df_uv loop
-					if (Arrays.binarySearch(seenFeatures, it.key())>=0) continue;
-					ex.dM_feature_id[dM_cursor] = it.key();//dM_features.add(it.key());
-					// zero the first term, since df_uv doesn't cover this feature
-					double dMuvi = scale * ( - c.squashingFunction.edgeWeight(suv[xvi]) * it.value());
-					ex.dM_value[dM_cursor] = dMuvi; //dM_values.add(dMuvi);
-					dM_cursor++;
+				if (tu == 0) {
+					for (int k=0; k<n; k++) if (row[k] != 0) 
+						throw new IllegalStateException("tu=0 at u="+uid+"; example "+ex.toString());
 				}
-				ex.dM_hi[uid][xvi] = dM_cursor;//dM_features.size();
+				if (fex == null) System.arraycopy(row, 0, ex.dM_value, dM_cursor, n);
+				else for (int k=0; k<n; k++) fex.dM_value_float[dM_cursor+k] = (float) row[k];
+				dM_cursor += n;
+				ex.dM_hi[uid][xvi] = dM_cursor;
 				// also create the scalar M_{uv} = f(s_{uv}) / t_u
-				ex.M[uid][xvi] = c.squashingFunction.edgeWeight(suv[xvi]);
+				double muv = scratch.fuv[xvi];
 				if (tu==0) {
-					if (ex.M[uid][xvi] != 0) throw new IllegalStateException("tu=0 at u="+uid+"; example "+ex.toString());
-				} else ex.M[uid][xvi] /= tu;
+					if (muv != 0) throw new IllegalStateException("tu=0 at u="+uid+"; example "+ex.toString());
+				} else muv /= tu;
+				if (fex == null) ex.M[uid][xvi] = muv;
+				else fex.M_float[uid][xvi] = (float) muv;
 			}
 		}
+		if (ex instanceof SparsePprExample) ((SparsePprExample) ex).index(c.apr.maxDepth);
+	}
+
+	private static final ThreadLocal<LoadScratch> LOAD_SCRATCH = new ThreadLocal<LoadScratch>() {
+		@Override
+		protected LoadScratch initialValue() { return new LoadScratch(); }
+	};
+	/**
+	 * Per-thread working space for load(), reused from node to node and
+	 * example to example so that loading doesn't allocate once the buffers
+	 * are big enough.
+	 * 
+	 * The features on the edges of the current node are numbered 0..unionSize-1
+	 * in the order we first see them; pos[fid] is the number of feature fid,
+	 * valid only where mark[fid] is the current node's stamp. Each edge's dM
+	 * row is built in row before it's stored in the example.
+	 */
+	static class LoadScratch {
+		int[] pos = new int[0];
+		int[] mark = new int[0];
+		int stamp = 0;
+		int[] union = new int[16];
+		double[] dtu = new double[16];
+		double[] row = new double[16];
+		int unionSize;
+		double[] fuv = new double[16];
+		double[] cee = new double[16];
+		/** Make room for feature ids 1..nfeatures */
+		void reserve(int nfeatures) {
+			if (pos.length > nfeatures) return;
+			int size = Math.max(nfeatures+1, 2*pos.length);
+			pos = Arrays.copyOf(pos, size);
+			mark = Arrays.copyOf(mark, size);
+		}
+		/** Clear the union for a node with degree edges and at most labels features among them */
+		void startNode(int degree, int labels) {
+			if (++stamp == Integer.MAX_VALUE) {
+				Arrays.fill(mark, 0);
+				stamp = 1;
+			}
+			unionSize = 0;
+			if (fuv.length < degree) {
+				fuv = new double[Math.max(degree, 2*fuv.length)];
+				cee = new double[fuv.length];
+			}
+			if (union.length < labels) {
+				union = new int[Math.max(labels, 2*union.length)];
+				dtu = new double[union.length];
+				row = new double[union.length];
+			}
+		}
+		/** The number of feature fid in the current node's union, adding it if needed */
+		int slot(int fid) {
+			if (mark[fid] == stamp) return pos[fid];
+			mark[fid] = stamp;
+			pos[fid] = unionSize;
+			union[unionSize] = fid;
+			dtu[unionSize] = 0;
+			return unionSize++;
+		}
 	}
 
 	/** adds new features to params vector @ 1% random perturbation */
@@ -221,6 +278,14 @@ public class SRW {
 	/** fills p, dp 
 	 * @param params */
 	protected void inference(ParamVector<String,?> params, PosNegRWExample example, StatusLogger status) {
+		if (example instanceof FloatPprExample) {
+			floatInference((FloatPprExample) example, status);
+			return;
+		}
+		if (example instanceof SparsePprExample) {
+			sparseInference((SparsePprExample) example, status);
+			return;
+		}
 		PosNegRWExample ex = (PosNegRWExample) example;
 		ex.p = new double[ex.getGraph().node_hi];
 		ex.dp = new TIntDoubleMap[ex.getGraph().node_hi];
@@ -237,6 +302,14 @@ public class SRW {
 
 	}
 	protected void inferenceUpdate(PosNegRWExample example, StatusLogger status) {
+		if (example instanceof FloatPprExample) {
+			floatInferenceUpdate((FloatPprExample) example, status);
+			return;
+		}
+		if (example instanceof SparsePprExample) {
+			sparseInferenceUpdate((SparsePprExample) example, status);
+			return;
+		}
 		PprExample ex = (PprExample) example;
 		double[] pNext = new double[ex.getGraph().node_hi];
 		TIntDoubleMap[] dNext = new TIntDoubleMap[ex.getGraph().node_hi];
@@ -285,6 +358,128 @@ public class SRW {
 		ex.dp = dNext;
 	}
 
+	/** fills p, dp using the preallocated buffers of a SparsePprExample */
+	protected void sparseInference(SparsePprExample ex, StatusLogger status) {
+		Arrays.fill(ex.p,0.0);
+		Arrays.fill(ex.dp_value,0.0);
+		// copy query into p
+		for (TIntDoubleIterator it = ex.getQueryVec().iterator(); it.hasNext(); ) {
+			it.advance();
+			ex.p[it.key()] = it.value();
+		}
+		for (int i=0; i<c.apr.maxDepth; i++) {
+			if (log.isInfoEnabled() && status.due(3)) log.info("APR: iter "+(i+1)+" of "+(c.apr.maxDepth));
+			sparseInferenceUpdate(ex,status);
+		}
+		ex.exportDp();
+	}
+	/** 
+	 * Same arithmetic in the same order as the map version, so the resulting gradient
+	 * is identical; the dp row of u is a subset of the dp row of each v it links to, 
+	 * so we can merge d_u into d_v in a single pass.
+	 */
+	protected void sparseInferenceUpdate(SparsePprExample ex, StatusLogger status) {
+		Arrays.fill(ex.pNext,0.0);
+		Arrays.fill(ex.dNext_value,0.0);
+		// p: 2. for each node u
+		for (int uid = 0; uid < ex.getGraph().node_hi; uid++) {
+			if (log.isInfoEnabled() && status.due(4)) log.info("Inference: node "+(uid+1)+" of "+(ex.getGraph().node_hi));
+			// p: 2(a) p_u^{t+1} += alpha * s_u
+			ex.pNext[uid] += c.apr.alpha * Dictionary.safeGet(ex.getQueryVec(), uid, 0.0);
+			// p: 2(b) for each neighbor v of u:
+			for(int eid = ex.getGraph().node_near_lo[uid], xvi = 0; eid < ex.getGraph().node_near_hi[uid]; eid++, xvi++) {
+				int vid = ex.getGraph().edge_dest[eid];
+				// p: 2(b)i. p_v^{t+1} += (1-alpha) * p_u^t * M_uv
+				ex.pNext[vid] += (1-c.apr.alpha) * ex.p[uid] * ex.M[uid][xvi];
+				// d: i. for each feature i in dM_uv:
+				for (int dmi = ex.dM_lo[uid][xvi]; dmi < ex.dM_hi[uid][xvi]; dmi++) {
+					// d_vi^{t+1} += (1-alpha) * p_u^{t} * dM_uvi
+					if (ex.dM_value[dmi]==0) continue;
+					ex.dNext_value[ex.dM_slot[dmi]] += (1-c.apr.alpha) * ex.p[uid] * ex.dM_value[dmi];
+				}
+				// d: ii. for each feature i in d_u^t
+				for (int k = ex.dp_lo[uid], j = ex.dp_lo[vid]; k < ex.dp_hi[uid]; k++) {
+					if (ex.dp_value[k]==0) continue;
+					while (j < ex.dp_hi[vid] && ex.dp_feature_id[j] != ex.dp_feature_id[k]) j++;
+					if (j == ex.dp_hi[vid]) 
+						throw new IllegalStateException("feature "+ex.dp_feature_id[k]+" at u="+uid+" missing from dp row at v="+vid+"; example "+ex.toString());
+					// d_vi^{t+1} += (1-alpha) * d_ui^t * M_uv
+					ex.dNext_value[j] += (1-c.apr.alpha) * ex.dp_value[k] * ex.M[uid][xvi];
+				}
+			}
+		}
+		
+		// sanity check on p
+		if (log.isDebugEnabled()) {
+			double sum = 0;
+			for (double d : ex.pNext) sum += d;
+			if (Math.abs(sum - 1.0) > c.apr.epsilon)
+				log.error("invalid p computed: "+sum);
+		}
+		ex.swap();
+	}
+
+	/** fills p, dp using the single-precision buffers of a FloatPprExample */
+	protected void floatInference(FloatPprExample ex, StatusLogger status) {
+		Arrays.fill(ex.p,0.0);
+		Arrays.fill(ex.dp_value_float,0.0f);
+		// copy query into p
+		for (TIntDoubleIterator it = ex.getQueryVec().iterator(); it.hasNext(); ) {
+			it.advance();
+			ex.p[it.key()] = it.value();
+		}
+		for (int i=0; i<c.apr.maxDepth; i++) {
+			if (log.isInfoEnabled() && status.due(3)) log.info("APR: iter "+(i+1)+" of "+(c.apr.maxDepth));
+			floatInferenceUpdate(ex,status);
+		}
+		ex.exportDp();
+	}
+	/** 
+	 * sparseInferenceUpdate() on single-precision M, dM and dp; each
+	 * increment is computed in double and rounded as it's added.
+	 */
+	protected void floatInferenceUpdate(FloatPprExample ex, StatusLogger status) {
+		Arrays.fill(ex.pNext,0.0);
+		Arrays.fill(ex.dNext_value_float,0.0f);
+		// p: 2. for each node u
+		for (int uid = 0; uid < ex.getGraph().node_hi; uid++) {
+			if (log.isInfoEnabled() && status.due(4)) log.info("Inference: node "+(uid+1)+" of "+(ex.getGraph().node_hi));
+			// p: 2(a) p_u^{t+1} += alpha * s_u
+			ex.pNext[uid] += c.apr.alpha * Dictionary.safeGet(ex.getQueryVec(), uid, 0.0);
+			// p: 2(b) for each neighbor v of u:
+			for(int eid = ex.getGraph().node_near_lo[uid], xvi = 0; eid < ex.getGraph().node_near_hi[uid]; eid++, xvi++) {
+				int vid = ex.getGraph().edge_dest[eid];
+				double muv = ex.M_float[uid][xvi];
+				// p: 2(b)i. p_v^{t+1} += (1-alpha) * p_u^t * M_uv
+				ex.pNext[vid] += (1-c.apr.alpha) * ex.p[uid] * muv;
+				// d: i. for each feature i in dM_uv:
+				for (int dmi = ex.dM_lo[uid][xvi]; dmi < ex.dM_hi[uid][xvi]; dmi++) {
+					// d_vi^{t+1} += (1-alpha) * p_u^{t} * dM_uvi
+					if (ex.dM_value_float[dmi]==0) continue;
+					ex.dNext_value_float[ex.dM_slot[dmi]] += (1-c.apr.alpha) * ex.p[uid] * ex.dM_value_float[dmi];
+				}
+				// d: ii. for each feature i in d_u^t
+				for (int k = ex.dp_lo[uid], j = ex.dp_lo[vid]; k < ex.dp_hi[uid]; k++) {
+					if (ex.dp_value_float[k]==0) continue;
+					while (j < ex.dp_hi[vid] && ex.dp_feature_id[j] != ex.dp_feature_id[k]) j++;
+					if (j == ex.dp_hi[vid]) 
+						throw new IllegalStateException("feature "+ex.dp_feature_id[k]+" at u="+uid+" missing from dp row at v="+vid+"; example "+ex.toString());
+					// d_vi^{t+1} += (1-alpha) * d_ui^t * M_uv
+					ex.dNext_value_float[j] += (1-c.apr.alpha) * ex.dp_value_float[k] * muv;
+				}
+			}
+		}
+		
+		// sanity check on p
+		if (log.isDebugEnabled()) {
+			double sum = 0;
+			for (double d : ex.pNext) sum += d;
+			if (Math.abs(sum - 1.0) > c.apr.epsilon)
+				log.error("invalid p computed: "+sum);
+		}
+		ex.swap();
+	}
+
 	/** edits params */
 	protected void sgd(ParamVector<String,?> params, PosNegRWExample ex) {
 		TIntDoubleMap gradient = gradient(params,ex);
@@ -292,16 +487,53 @@ public class SRW {
 		for (TIntDoubleIterator grad = gradient.iterator(); grad.hasNext(); ) {
 			grad.advance();
 			if (grad.value()==0) continue;
-			String feature = ex.getGraph().featureLibrary.getSymbol(grad.key());
-			if (trainable(feature)) {
-				params.adjustValue(feature, - learningRate(feature) * grad.value());
-				if (params.get(feature).isInfinite()) {
-					log.warn("Infinity at "+feature+"; gradient "+grad.value());
-				}
-			}
+			SymbolTable<String> features = ex.getGraph().featureLibrary;
+			if (trainable(features, grad.key())) descend(params, features, grad.key(), grad.value());
 		}
 	}
 
+	/** Take a step against gradient component g for feature #id in features; edits params */
+	protected void descend(ParamVector<String,?> params, SymbolTable<String> features, int id, double g) {
+		params.adjustValue(features, id, - learningRate(features, id) * g);
+		if (Double.isInfinite(params.get(features, id))) {
+			log.warn("Infinity at "+features.getSymbol(id)+"; gradient "+g);
+		}
+	}
+
+	/**
+	 * Add this example's gradient to the minibatch, and descend along the summed
+	 * gradient once the minibatch holds c.minibatch examples.
+	 * 
+	 * Each thread trains on its own SRW, so the batch is private to the thread
+	 * until it's applied, and the shared params see one update per feature per
+	 * batch instead of one per feature per example.
+	 */
+	protected void batchSgd(ParamVector<String,?> params, PosNegRWExample ex) {
+		TIntDoubleMap gradient = gradient(params,ex);
+		SymbolTable<String> features = ex.getGraph().featureLibrary;
+		// feature ids only mean the same thing within one feature table
+		if (features != batchFeatures) {
+			flushBatch(params);
+			batchFeatures = features;
+		}
+		for (TIntDoubleIterator grad = gradient.iterator(); grad.hasNext(); ) {
+			grad.advance();
+			if (grad.value()==0) continue;
+			if (trainable(features, grad.key())) batch.adjustOrPutValue(grad.key(), grad.value(), grad.value());
+		}
+		if (++batchSize >= c.minibatch) flushBatch(params);
+	}
+
+	/** Apply any minibatch gradient not yet applied to params */
+	public void flushBatch(ParamVector<String,?> params) {
+		for (TIntDoubleIterator grad = batch.iterator(); grad.hasNext(); ) {
+			grad.advance();
+			descend(params, batchFeatures, grad.key(), grad.value());
+		}
+		batch.clear();
+		batchSize = 0;
+	}
+
 	protected TIntDoubleMap gradient(ParamVector<String,?> params, PosNegRWExample example) {
 		PosNegRWExample ex = (PosNegRWExample) example;
 		Set<String> features = this.regularizer.localFeatures(params, ex.getGraph());
@@ -386,12 +618,20 @@ public class SRW {
 	protected double learningRate(String feature) {
 		return Math.pow(this.epoch,-2) * c.eta;
 	}
+	/** Learning rate for feature #id of the features table */
+	protected double learningRate(SymbolTable<String> features, int id) {
+		return learningRate(features.getSymbol(id));
+	}
 
 
 	public boolean trainable(String feature) {
 //		return !(untrainedFeatures.contains(feature) || feature.startsWith(FIXED_WEIGHT_FUNCTOR));
 		return !fixedWeightRules.isFixed(feature);
 	}
+	/** Whether feature #id of the features table is trained; see FixedWeightRules.compile() */
+	public boolean trainable(SymbolTable<String> features, int id) {
+		return !fixedWeightRules.isFixed(features, id);
+	}
 
 //	/** Allow subclasses to filter feature list **/
 //	public Set<String> localFeatures(ParamVector<String,?> paramVec, LearningGraph graph) {
@@ -442,6 +682,8 @@ public class SRW {
 	}
 	public PosNegRWExample makeExample(String string, LearningGraph g,
 			TIntDoubleMap queryVec, int[] posList, int[] negList) {
+		if (c.floatPrecision) return new FloatPprExample(string, g, queryVec, posList, negList);
+		if (c.sparseInference) return new SparsePprExample(string, g, queryVec, posList, negList);
 		return new PprExample(string, g, queryVec, posList, negList);
 	}
 	public ParamVector setupParams(ParamVector params) {
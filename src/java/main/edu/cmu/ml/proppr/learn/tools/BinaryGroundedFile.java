@@ -0,0 +1,218 @@
+package edu.cmu.ml.proppr.learn.tools;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.Grounder;
+import edu.cmu.ml.proppr.graph.GraphFormatException;
+import edu.cmu.ml.proppr.util.ParsedFile;
+
+/**
+ * Binary version of the grounded file format.
+ *
+ * The file is a header (magic number, version) followed by one length-prefixed
+ * record per example, holding the query/pos/neg node ids and the CSR arrays of
+ * the LearningGraph. See RWExampleParser.encode() for the record layout.
+ *
+ * Iterating over the file memory-maps it a window at a time and returns each
+ * record as a read-only slice of the mapping, for RWExampleParser.parse(ByteBuffer,SRW).
+ *
+ * Usage to convert a text grounded file: BinaryGroundedFile text.grounded binary.grounded
+ */
+public class BinaryGroundedFile implements Iterable<ByteBuffer> {
+	private static final Logger log = Logger.getLogger(BinaryGroundedFile.class);
+	/** Not valid as the start of a text grounded file */
+	public static final int MAGIC = 0x9f475244;
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final long WINDOW = 1 << 28;
+	private File file;
+
+	public BinaryGroundedFile(File file) {
+		this.file = file;
+	}
+
+	/** True if the file starts with the binary grounded header */
+	public static boolean isBinary(File file) {
+		if (file.length() < HEADER_SIZE) return false;
+		try {
+			DataInputStream in = new DataInputStream(new FileInputStream(file));
+			try {
+				return in.readInt() == MAGIC;
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public Iterator<ByteBuffer> iterator() {
+		try {
+			return new RecordIterator();
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Couldn't open "+file.getName(),e);
+		}
+	}
+
+	private class RecordIterator implements Iterator<ByteBuffer> {
+		RandomAccessFile raf;
+		FileChannel channel;
+		long size;
+		long position = HEADER_SIZE;
+		long windowStart;
+		MappedByteBuffer window;
+		public RecordIterator() throws IOException {
+			raf = new RandomAccessFile(file, "r");
+			channel = raf.getChannel();
+			size = channel.size();
+			if (size < HEADER_SIZE || raf.readInt() != MAGIC)
+				throw new IllegalArgumentException(file.getName()+" is not a binary grounded file");
+			int version = raf.readInt();
+			if (version != VERSION)
+				throw new IllegalArgumentException(file.getName()+" has binary format version "+version+"; expected "+VERSION);
+			if (!hasNext()) close();
+		}
+		/** Make sure bytes [pos,pos+n) are in the current mapping */
+		private void map(long pos, int n) throws IOException {
+			if (window != null && pos >= windowStart && pos+n <= windowStart+window.limit()) return;
+			if (pos+n > size) throw new IllegalStateException("Truncated record at byte "+pos+" of "+file.getName());
+			windowStart = pos;
+			window = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(size-pos, Math.max(WINDOW, n)));
+		}
+		@Override
+		public boolean hasNext() {
+			return position < size;
+		}
+		@Override
+		public ByteBuffer next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			try {
+				map(position, 4);
+				int length = window.getInt((int) (position-windowStart));
+				map(position, 4+length);
+				int offset = (int) (position-windowStart) + 4;
+				ByteBuffer record = window.duplicate();
+				// cast for compatibility with the Java 8 Buffer API
+				((Buffer) record).limit(offset+length);
+				((Buffer) record).position(offset);
+				position += 4+length;
+				if (!hasNext()) close();
+				return record.slice();
+			} catch (IOException e) {
+				throw new IllegalStateException("Trouble reading "+file.getName(),e);
+			}
+		}
+		private void close() {
+			try {
+				raf.close();
+			} catch (IOException e) {
+				log.error("Couldn't close "+file.getName(),e);
+			}
+		}
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException("Can't remove from a grounded file");
+		}
+	}
+
+	/**
+	 * Adapts the text grounded output of the Grounder to the binary format:
+	 * each complete line written is encoded as one record.
+	 */
+	public static class GroundedWriter extends Writer {
+		private DataOutputStream out;
+		private StringBuilder line = new StringBuilder();
+		private ByteArrayOutputStream record = new ByteArrayOutputStream();
+		private DataOutputStream recordOut = new DataOutputStream(record);
+		private RWExampleParser parser = new RWExampleParser();
+		public GroundedWriter(File file) throws IOException {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+		}
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			for (int i=off; i<off+len; i++) {
+				if (cbuf[i] == '\n') writeLine();
+				else line.append(cbuf[i]);
+			}
+		}
+		@Override
+		public void write(String str) throws IOException {
+			for (int last=0, next=0; last<str.length(); last=next+1) {
+				next = str.indexOf('\n', last);
+				if (next<0) { line.append(str, last, str.length()); break; }
+				line.append(str, last, next);
+				writeLine();
+			}
+		}
+		private void writeLine() throws IOException {
+			if (line.length() == 0) return;
+			record.reset();
+			try {
+				parser.encode(line.toString(), recordOut);
+			} catch (GraphFormatException e) {
+				throw new IOException("Couldn't encode grounded example "+line.substring(0, Math.min(80, line.length())),e);
+			}
+			recordOut.flush();
+			out.writeInt(record.size());
+			record.writeTo(out);
+			line.setLength(0);
+		}
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+		@Override
+		public void close() throws IOException {
+			writeLine();
+			out.close();
+		}
+	}
+
+	/** Convert a text grounded file to the binary format */
+	public static int convert(File textFile, File binaryFile) throws IOException {
+		GroundedWriter w = new GroundedWriter(binaryFile);
+		int n=0;
+		for (String line : new ParsedFile(textFile)) {
+			w.write(line);
+			w.write("\n");
+			n++;
+		}
+		w.close();
+		return n;
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 2) {
+			System.err.println("Usage:\n\tinput.grounded output.grounded\nConverts a text grounded file to the binary format.");
+			System.exit(1);
+		}
+		long start = System.currentTimeMillis();
+		int n = convert(new File(args[0]), new File(args[1]));
+		File features = new File(args[0]+Grounder.FEATURE_INDEX_EXTENSION);
+		if (features.exists()) 
+			Files.copy(features.toPath(), new File(args[1]+Grounder.FEATURE_INDEX_EXTENSION).toPath(), StandardCopyOption.REPLACE_EXISTING);
+		System.out.println("Converted "+n+" examples in "+(System.currentTimeMillis()-start)+"ms");
+	}
+}
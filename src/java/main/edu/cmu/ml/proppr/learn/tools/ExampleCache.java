@@ -0,0 +1,234 @@
+package edu.cmu.ml.proppr.learn.tools;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.examples.FloatPprExample;
+import edu.cmu.ml.proppr.examples.PosNegRWExample;
+import edu.cmu.ml.proppr.examples.PprExample;
+import edu.cmu.ml.proppr.learn.SRW;
+
+/**
+ * Parsed training examples for CachingTrainer, kept in memory up to a byte
+ * budget, with the rest spilled to disk.
+ *
+ * Examples are kept in memory as they're added until their estimated size
+ * reaches the budget. Examples after that are encoded in the binary grounded
+ * record format (see RWExampleParser.encode()) to a temporary spill file, which
+ * is memory-mapped by freeze(). The spill file is raw and uncompressed, so it
+ * takes about as much disk as the records would take heap. Spilled examples are
+ * decoded again each time they're fetched, so the heap only holds the ones
+ * being trained on.
+ *
+ * Examples are fetched by position in the current order, which starts as the
+ * order they were added and can be shuffled between epochs. Call freeze() once
+ * adding is done and before fetching; after that get() takes no locks and is
+ * threadsafe.
+ */
+public class ExampleCache implements Iterable<PosNegRWExample> {
+	private static final Logger log = Logger.getLogger(ExampleCache.class);
+	/** Largest mapping of the spill file; records never straddle two */
+	private static final long WINDOW = 1 << 28;
+	private final SRW learner;
+	private final long budget;
+	private final RWExampleParser parser = new RWExampleParser();
+	private final Random random = new Random();
+	private long bytesInMemory = 0;
+	private List<PosNegRWExample> inMemory = new ArrayList<PosNegRWExample>();
+	private TIntArrayList order = new TIntArrayList();
+
+	// spilled examples
+	private File spillFile;
+	private DataOutputStream spill;
+	private ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private DataOutputStream recordOut = new DataOutputStream(record);
+	private TLongArrayList spillStart = new TLongArrayList();
+	private TIntArrayList spillLength = new TIntArrayList();
+	private long spillSize = 0;
+	private MappedByteBuffer[] windows;
+	private int[] spillWindow;
+	private int[] spillOffset;
+
+	/**
+	 * @param learner To make examples from spilled records
+	 * @param budget Bytes of examples to keep in memory; Long.MAX_VALUE to never spill
+	 */
+	public ExampleCache(SRW learner, long budget) {
+		this.learner = learner;
+		this.budget = budget;
+	}
+
+	/** Add an example at the end of the current order */
+	public void add(PosNegRWExample ex) throws IOException {
+		if (windows != null) throw new IllegalStateException("Can't add to an ExampleCache once it's been read");
+		long size = estimateBytes(ex);
+		if (spill == null && bytesInMemory + size <= budget) {
+			bytesInMemory += size;
+			inMemory.add(ex);
+			// in-memory examples are numbered from 0 up
+			order.add(inMemory.size()-1);
+			return;
+		}
+		if (spill == null) {
+			spillFile = File.createTempFile("proppr-examples", ".grounded");
+			spillFile.deleteOnExit();
+			spill = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(spillFile)));
+			log.info("Example cache over "+(budget>>20)+"MB after "+inMemory.size()+" examples; spilling to "+spillFile);
+		}
+		record.reset();
+		parser.encode(ex, recordOut);
+		recordOut.flush();
+		record.writeTo(spill);
+		spillStart.add(spillSize);
+		spillLength.add(record.size());
+		spillSize += record.size();
+		// spilled examples are numbered from -1 down
+		order.add(-spillStart.size());
+	}
+
+	/** Finish adding examples, and map the spill file if there is one. Not threadsafe; call it once before handing the cache to workers. */
+	public void freeze() {
+		if (windows != null) return;
+		if (spill == null) {
+			windows = new MappedByteBuffer[0];
+			return;
+		}
+		try {
+			spill.close();
+			spill = null;
+			int n = spillStart.size();
+			spillWindow = new int[n];
+			spillOffset = new int[n];
+			List<MappedByteBuffer> mapped = new ArrayList<MappedByteBuffer>();
+			RandomAccessFile raf = new RandomAccessFile(spillFile, "r");
+			try {
+				FileChannel channel = raf.getChannel();
+				for (int i=0, first=0; i<=n; i++) {
+					// map [first,i) once adding record i would make the window too big
+					long windowStart = first<n ? spillStart.get(first) : spillSize;
+					if (i<n && (i==first || spillStart.get(i) + spillLength.get(i) - windowStart <= WINDOW)) continue;
+					long windowEnd = i<n ? spillStart.get(i) : spillSize;
+					mapped.add(channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart));
+					for (int j=first; j<i; j++) {
+						spillWindow[j] = mapped.size()-1;
+						spillOffset[j] = (int) (spillStart.get(j) - windowStart);
+					}
+					first = i;
+				}
+			} finally {
+				raf.close();
+			}
+			windows = mapped.toArray(new MappedByteBuffer[mapped.size()]);
+			spillStart = null;
+			record = null;
+			recordOut = null;
+			if (log.isInfoEnabled()) log.info("Example cache: "+this);
+		} catch (IOException e) {
+			throw new IllegalStateException("Couldn't map example cache "+spillFile,e);
+		}
+	}
+
+	public int size() {
+		return order.size();
+	}
+
+	public int sizeInMemory() {
+		return inMemory.size();
+	}
+
+	public int sizeSpilled() {
+		return order.size() - inMemory.size();
+	}
+
+	/** Shuffle the order examples are fetched in */
+	public void shuffle() {
+		order.shuffle(random);
+	}
+
+	/** The ith example in the current order */
+	public PosNegRWExample get(int i) {
+		if (windows == null) throw new IllegalStateException("Call freeze() before reading from an ExampleCache");
+		int k = order.get(i);
+		if (k >= 0) return inMemory.get(k);
+		k = -k-1;
+		ByteBuffer b = windows[spillWindow[k]].duplicate();
+		// cast for compatibility with the Java 8 Buffer API
+		((Buffer) b).position(spillOffset[k]);
+		((Buffer) b).limit(spillOffset[k] + spillLength.get(k));
+		return parser.parse(b.slice(), learner);
+	}
+
+	@Override
+	public Iterator<PosNegRWExample> iterator() {
+		return new Iterator<PosNegRWExample>() {
+			int i=0;
+			@Override
+			public boolean hasNext() {
+				return i < size();
+			}
+			@Override
+			public PosNegRWExample next() {
+				if (!hasNext()) throw new NoSuchElementException();
+				return get(i++);
+			}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Can't remove from an ExampleCache");
+			}
+		};
+	}
+
+	/** Drop the examples and delete the spill file */
+	public void close() {
+		try {
+			if (spill != null) spill.close();
+		} catch (IOException e) {
+			log.error("Couldn't close "+spillFile,e);
+		}
+		windows = null;
+		inMemory = null;
+		if (spillFile != null && !spillFile.delete()) log.warn("Couldn't delete "+spillFile);
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d examples in memory (~%dMB), %d spilled (%dMB)",
+				sizeInMemory(), bytesInMemory>>20, sizeSpilled(), spillSize>>20);
+	}
+
+	/** Approximate heap footprint of a parsed example: its graph, p and dp, and M and dM if it has them */
+	public static long estimateBytes(PosNegRWExample ex) {
+		long nodes = ex.getGraph().node_hi;
+		long edges = ex.getGraph().edge_dest.length;
+		long labels = ex.getGraph().label_feature_id.length;
+		// bytes per stored weight
+		long w = ex instanceof FloatPprExample ? 4 : 8;
+		long bytes = 4*(2*nodes + 3*edges) + 12*labels // graph
+				+ 16*nodes; // p, dp
+		if (ex instanceof PprExample) {
+			long deps = Math.max(0, ex.getGraph().labelDependencySize());
+			bytes += 3*16*nodes + (8+w)*edges // M, dM_lo, dM_hi
+					+ (4+w)*deps; // dM
+		}
+		return bytes;
+	}
+}
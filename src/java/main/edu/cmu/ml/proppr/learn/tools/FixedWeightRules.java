@@ -1,7 +1,9 @@
 package edu.cmu.ml.proppr.learn.tools;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 
+import edu.cmu.ml.proppr.util.SymbolTable;
 import edu.cmu.ml.proppr.util.math.ParamVector;
 
 /** A simple programmable procedure to determine if a feature is fixed
@@ -23,9 +25,25 @@ For example:
 "f(*=n:*=y" means tune only features that start with "f("
 
 If no spec matches then the decision return is false.
+
+Learners ask about features by id; once the rules are compiled against
+the master feature table, that's a bit lookup instead of a walk through
+the rules.
 **/
 public class FixedWeightRules {
 	private ArrayList<DecisionRule> ruleList;
+	private volatile Compiled compiled;
+	/** The decisions for ids 1..size of a feature table. Never modified once published. */
+	static class Compiled {
+		final SymbolTable<String> features;
+		final BitSet fixed;
+		final int size;
+		Compiled(SymbolTable<String> features, BitSet fixed, int size) {
+			this.features = features;
+			this.fixed = fixed;
+			this.size = size;
+		}
+	}
 	class DecisionRule {
 		public String spec;
 		public boolean fixed;
@@ -61,8 +79,43 @@ public class FixedWeightRules {
 		return false;
 	}
 
-	public void addExact(String feature) {
+	/** Whether feature #id of the features table is fixed */
+	public boolean isFixed(SymbolTable<String> features, int id) {
+		Compiled c = compiled;
+		if (c == null || c.features != features) return isFixed(features.getSymbol(id));
+		if (id > c.size && (c = extend(features, id)) == null) return isFixed(features.getSymbol(id));
+		return c.fixed.get(id);
+	}
+
+	/** Decide every feature in the table now, and features added later on first lookup */
+	public synchronized void compile(SymbolTable<String> features) {
+		if (compiled != null && compiled.features == features) return;
+		compiled = decide(new Compiled(features, new BitSet(), 0));
+	}
+
+	/** Decide the features interned since the table was compiled, up to at least id; null if it isn't compiled anymore */
+	private synchronized Compiled extend(SymbolTable<String> features, int id) {
+		Compiled c = compiled;
+		// another thread may have gotten here first, or compiled a different table
+		if (c.features != features) return null;
+		if (c.size < id) compiled = c = decide(c);
+		return c;
+	}
+
+	/** Extend c with decisions up to the current size of its table */
+	private Compiled decide(Compiled c) {
+		int size = c.features.size();
+		BitSet fixed = (BitSet) c.fixed.clone();
+		for (int id=c.size+1; id<=size; id++) {
+			if (isFixed(c.features.getSymbol(id))) fixed.set(id);
+		}
+		return new Compiled(c.features, fixed, size);
+	}
+
+	public synchronized void addExact(String feature) {
 		ruleList.add(new DecisionRule(feature,true));
+		// earlier decisions may have changed
+		if (compiled != null) compiled = decide(new Compiled(compiled.features, new BitSet(), 0));
 	}
 	
 	public void initializeFixed(ParamVector<String,?> params, String feature) {
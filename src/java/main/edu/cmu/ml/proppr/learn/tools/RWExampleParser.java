@@ -1,17 +1,25 @@
 package edu.cmu.ml.proppr.learn.tools;
 
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.Iterator;
 import java.util.TreeMap;
 
 import org.apache.log4j.Logger;
 
 import edu.cmu.ml.proppr.examples.PosNegRWExample;
+import edu.cmu.ml.proppr.graph.ArrayLearningGraphBuilder;
 import edu.cmu.ml.proppr.graph.GraphFormatException;
 import edu.cmu.ml.proppr.graph.LearningGraph;
 import edu.cmu.ml.proppr.graph.LearningGraphBuilder;
 import edu.cmu.ml.proppr.learn.SRW;
 import edu.cmu.ml.proppr.util.FileBackedIterable;
 import edu.cmu.ml.proppr.util.ParsedFile;
+import edu.cmu.ml.proppr.util.SimpleSymbolTable;
+import edu.cmu.ml.proppr.util.SymbolTable;
 import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
 
@@ -20,18 +28,13 @@ public class RWExampleParser  {
 	//public static final String MAJOR_DELIM="\t";
 	public static final char MAJOR_DELIM='\t';
 	public static final char MINOR_DELIM = ',';
+	private static final Charset UTF8 = Charset.forName("UTF-8");
 	
 	public PosNegRWExample parse(String line, LearningGraphBuilder builder, SRW learner) throws GraphFormatException {
 		//String[] parts = line.trim().split(MAJOR_DELIM,5);
 		// first parse the query metadata
 		String[] parts = new String[4];//LearningGraphBuilder.split(line,'\t',4);
-		int last = 0,i=0;
-		for (int next = last; i<parts.length; last=next+1,i++) {
-			if (next == -1) 
-				throw new GraphFormatException("Need 8 distinct tsv fields in the grounded example:"+line);
-			next=line.indexOf(MAJOR_DELIM,last);
-			parts[i] = next<0?line.substring(last):line.substring(last,next);
-		}
+		int last = splitMetadata(line, parts);
 
 		TIntDoubleMap queryVec = new TIntDoubleHashMap();
 		//for(String u : parts[1].split(MINOR_DELIM)) queryVec.put(Integer.parseInt(u), 1.0);
@@ -47,6 +50,112 @@ public class RWExampleParser  {
 		return learner.makeExample(parts[0],g,queryVec,posList,negList);
 	}
 
+	/**
+	 * Decode one record of a binary grounded file (see BinaryGroundedFile).
+	 * @param record
+	 * @param learner
+	 * @return
+	 */
+	public PosNegRWExample parse(ByteBuffer record, SRW learner) {
+		ByteBuffer b = record.duplicate();
+		String name = getString(b);
+		TIntDoubleMap queryVec = new TIntDoubleHashMap();
+		for (int u : getInts(b, b.getInt())) queryVec.put(u, 1.0);
+		int[] posList = getInts(b, b.getInt());
+		int[] negList = getInts(b, b.getInt());
+
+		int nodeHi = b.getInt();
+		int index = b.getInt();
+		int edgeSize = b.getInt();
+		int labelSize = b.getInt();
+		int dependencySize = b.getInt();
+		int featureSize = b.getInt();
+		SymbolTable<String> features = null;
+		if (featureSize == 0) features = LearningGraphBuilder.getFeatures();
+		else {
+			features = new SimpleSymbolTable<String>();
+			for (int i=0; i<featureSize; i++) features.insert(getString(b));
+		}
+		LearningGraph g = new LearningGraph(features);
+		g.setIndex(index);
+		g.setLabelDependencies(dependencySize);
+		g.node_hi = nodeHi;
+		g.node_near_lo = getInts(b, nodeHi);
+		g.node_near_hi = getInts(b, nodeHi);
+		g.edge_dest = getInts(b, edgeSize);
+		g.edge_labels_lo = getInts(b, edgeSize);
+		g.edge_labels_hi = getInts(b, edgeSize);
+		g.label_feature_id = getInts(b, labelSize);
+		g.label_feature_weight = getDoubles(b, labelSize);
+		return learner.makeExample(name,g,queryVec,posList,negList);
+	}
+
+	/**
+	 * Convert one line of a text grounded file to a binary record (without the length prefix).
+	 * 
+	 * Graphs which use the master feature index store no features of their own.
+	 * @param line
+	 * @param out
+	 * @throws GraphFormatException
+	 * @throws IOException
+	 */
+	public void encode(String line, DataOutput out) throws GraphFormatException, IOException {
+		String[] parts = new String[4];
+		int last = splitMetadata(line, parts);
+		LearningGraph g = new ArrayLearningGraphBuilder().deserialize(line.substring(last));
+		encode(parts[0],
+				parseNodes(parts[1]),
+				parts[2].length()>0 ? parseNodes(parts[2]) : new int[0],
+				parts[3].length()>0 ? parseNodes(parts[3]) : new int[0],
+				g, out);
+	}
+
+	/**
+	 * Convert a parsed example to a binary record (without the length prefix).
+	 * @param ex
+	 * @param out
+	 * @throws IOException
+	 */
+	public void encode(PosNegRWExample ex, DataOutput out) throws IOException {
+		encode(ex.getName(), ex.getQueryVec().keys(), ex.getPosList(), ex.getNegList(), ex.getGraph(), out);
+	}
+
+	private void encode(String name, int[] query, int[] pos, int[] neg, LearningGraph g, DataOutput out) throws IOException {
+		// graphs without their own feature index use the master one
+		boolean localFeatures = g.featureLibrary != LearningGraphBuilder.getFeatures();
+
+		putString(out, name);
+		putInts(out, query);
+		putInts(out, pos);
+		putInts(out, neg);
+
+		out.writeInt(g.node_hi);
+		out.writeInt(g.node_hi - g.nodeSize());
+		out.writeInt(g.edge_dest.length);
+		out.writeInt(g.label_feature_id.length);
+		out.writeInt(g.labelDependencySize());
+		if (localFeatures) {
+			out.writeInt(g.featureLibrary.size());
+			for (int i=1; i<=g.featureLibrary.size(); i++) putString(out, g.featureLibrary.getSymbol(i));
+		} else out.writeInt(0);
+		for (int[] a : new int[][] {g.node_near_lo, g.node_near_hi, g.edge_dest, g.edge_labels_lo, g.edge_labels_hi, g.label_feature_id}) {
+			for (int x : a) out.writeInt(x);
+		}
+		for (double x : g.label_feature_weight) out.writeDouble(x);
+	}
+
+	/** Fills parts with the query metadata fields and returns the offset of the graph */
+	private int splitMetadata(String line, String[] parts) throws GraphFormatException {
+		int last = 0,i=0;
+		for (int next = last; i<parts.length; last=next+1,i++) {
+			if (next == -1) 
+				throw new GraphFormatException("Need 8 distinct tsv fields in the grounded example:"+line);
+			next=line.indexOf(MAJOR_DELIM,last);
+			parts[i] = next<0?line.substring(last):line.substring(last,next);
+		}
+		return last;
+	}
+
 	private int[] parseNodes(String string) {
 		String[] nodeStrings = LearningGraphBuilder.split(string,MINOR_DELIM);
 		int[] nodes = new int[nodeStrings.length];
@@ -55,4 +164,34 @@ public class RWExampleParser  {
 		}
 		return nodes;
 	}
+
+	/** Bulk-read n ints and move b past them */
+	private static int[] getInts(ByteBuffer b, int n) {
+		int[] ret = new int[n];
+		b.asIntBuffer().get(ret);
+		// cast for compatibility with the Java 8 Buffer API
+		((Buffer) b).position(b.position() + 4*n);
+		return ret;
+	}
+	/** Bulk-read n doubles and move b past them */
+	private static double[] getDoubles(ByteBuffer b, int n) {
+		double[] ret = new double[n];
+		b.asDoubleBuffer().get(ret);
+		((Buffer) b).position(b.position() + 8*n);
+		return ret;
+	}
+	private static String getString(ByteBuffer b) {
+		byte[] bytes = new byte[b.getInt()];
+		b.get(bytes);
+		return new String(bytes, UTF8);
+	}
+	private static void putInts(DataOutput out, int[] a) throws IOException {
+		out.writeInt(a.length);
+		for (int x : a) out.writeInt(x);
+	}
+	private static void putString(DataOutput out, String s) throws IOException {
+		byte[] bytes = s.getBytes(UTF8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
 }
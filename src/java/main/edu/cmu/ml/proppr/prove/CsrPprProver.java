@@ -0,0 +1,244 @@
+package edu.cmu.ml.proppr.prove;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.prove.wam.CachingIdProofGraph;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.math.LongDense;
+
+/**
+ * prover using power iteration over a compressed sparse matrix.
+ *
+ * The proof graph is first expanded breadth-first to apr.maxDepth, a level at
+ * a time with the states of each level expanded in parallel. The weighted,
+ * normalized transitions are then copied out of the graph's outlink rows into
+ * compressed sparse columns: for each state, the states that link to it and
+ * the transition probabilities. Each of the apr.maxDepth iterations is then a
+ * sparse matrix-vector product on primitive arrays, with the states split
+ * across a fork-join pool.
+ *
+ * Computes the same scores as ippr, up to floating-point round-off.
+ *
+ * Usage: --prover cppr[:threads=N]; the default is the common fork-join pool.
+ */
+public class CsrPprProver extends Prover<CachingIdProofGraph> {
+	private static final double SEED_WEIGHT = 1.0;
+	private static final Logger log = Logger.getLogger(CsrPprProver.class);
+	/** States per task when splitting work across the pool */
+	private static final int CHUNK = 1024;
+	protected LongDense.AbstractFloatVector params=null;
+	protected ForkJoinPool pool;
+
+	public CsrPprProver() { super(); }
+	public CsrPprProver(APROptions apr) { super(apr); }
+	public CsrPprProver(FeatureDictWeighter w, APROptions apr) {
+		super(w, apr);
+	}
+
+	@Override
+	public String toString() { return "cppr:"+this.apr.maxDepth; }
+
+	public Prover<CachingIdProofGraph> copy() {
+		CsrPprProver copy = new CsrPprProver(weighter, this.apr);
+		copy.params = this.params;
+		copy.pool = this.pool;
+		return copy;
+	}
+	@Override
+	public Class<CachingIdProofGraph> getProofGraphClass() { return CachingIdProofGraph.class; }
+
+	@Override
+	public void configure(String param) {
+		if (param.startsWith("threads=")) {
+			this.pool = new ForkJoinPool(Integer.parseInt(param.substring(param.indexOf('=')+1)));
+		}
+	}
+
+	public void setMaxDepth(int i) {
+		this.apr.maxDepth = i;
+	}
+
+	protected ForkJoinPool getPool() {
+		return pool != null ? pool : ForkJoinPool.commonPool();
+	}
+
+	private LongDense.AbstractFloatVector getFrozenParams(CachingIdProofGraph pg) {
+		if (params != null) return params;
+		if (this.weighter.weights.size()==0)
+			params = new LongDense.UnitVector();
+		else
+			params = pg.paramsAsVector(this.weighter.weights,this.weighter.squashingFunction.defaultValue()); // FIXME: default value should depend on f
+		return params;
+	}
+
+	@Override
+	public Map<State, Double> prove(CachingIdProofGraph pg, StatusLogger status)
+	{
+		LongDense.FloatVector p = proveVec(pg,status);
+		if (apr.traceDepth!=0) {
+			System.out.println("== proof graph: edges/nodes "+pg.edgeSize()+"/"+pg.nodeSize());
+			System.out.println(pg.treeView(apr.traceDepth,apr.traceRoot,weighter,p));
+		}
+		return pg.asMap(p);
+	}
+
+	protected LongDense.FloatVector proveVec(CachingIdProofGraph pg, StatusLogger status)
+	{
+		LongDense.AbstractFloatVector params = getFrozenParams(pg);
+		int root = pg.getRootId();
+		try {
+			expand(pg, status);
+			Transitions m = new Transitions(pg, params);
+			if (log.isInfoEnabled() && status.due(1)) log.info(Thread.currentThread()+" states "+m.n+" transitions "+m.src.length);
+
+			double[] vec = new double[m.n];
+			double[] nextVec = new double[m.n];
+			vec[root] = SEED_WEIGHT;
+			for (int i=0; i<this.apr.maxDepth; i++) {
+				getPool().invoke(new WalkOnce(m, vec, nextVec, 0, m.n));
+				nextVec[root] += apr.alpha * SEED_WEIGHT;
+				double[] tmp = vec;
+				vec = nextVec;
+				nextVec = tmp;
+				if (log.isInfoEnabled() && status.due(1)) log.info(Thread.currentThread()+" depth "+(i+1)+" size "+m.n);
+			}
+
+			LongDense.FloatVector result = new LongDense.FloatVector(m.n);
+			for (int uid=root; uid<m.n; uid++) result.set(uid, vec[uid]);
+			return result;
+		} catch (LogicProgramException ex) {
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	/**
+	 * Expand states breadth-first from the root, through depth maxDepth-1,
+	 * since only their outlinks are walked in maxDepth iterations.
+	 */
+	protected void expand(final CachingIdProofGraph pg, StatusLogger status) throws LogicProgramException {
+		boolean[] seen = new boolean[pg.nodeSize()+1];
+		TIntArrayList level = new TIntArrayList();
+		level.add(pg.getRootId());
+		seen[pg.getRootId()] = true;
+		for (int depth=0; depth<this.apr.maxDepth && !level.isEmpty(); depth++) {
+			final int[] states = level.toArray();
+			getPool().invoke(new ExpandLevel(pg, states, 0, states.length));
+			TIntArrayList next = new TIntArrayList();
+			seen = Arrays.copyOf(seen, pg.nodeSize()+1);
+			for (int uid : states) {
+				int d = pg.getDegreeById(uid, this.weighter);
+				for (int i=0; i<d; i++) {
+					int vid = pg.getIthNeighborById(uid, i, this.weighter);
+					if (seen[vid]) continue;
+					seen[vid] = true;
+					next.add(vid);
+				}
+			}
+			level = next;
+			if (log.isInfoEnabled() && status.due(1)) log.info(Thread.currentThread()+" expanded depth "+(depth+1)+" states "+pg.nodeSize());
+		}
+	}
+
+	/** Expand states[from,to) of one level of the graph */
+	private class ExpandLevel extends RecursiveAction {
+		final CachingIdProofGraph pg;
+		final int[] states;
+		final int from, to;
+		ExpandLevel(CachingIdProofGraph pg, int[] states, int from, int to) {
+			this.pg = pg;
+			this.states = states;
+			this.from = from;
+			this.to = to;
+		}
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK/8) {
+				int mid = (from+to) >>> 1;
+				invokeAll(new ExpandLevel(pg, states, from, mid), new ExpandLevel(pg, states, mid, to));
+				return;
+			}
+			try {
+				for (int k=from; k<to; k++) pg.getDegreeById(states[k], weighter);
+			} catch (LogicProgramException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+	}
+
+	/**
+	 * The transition matrix, (1-alpha) times the normalized outlink weights,
+	 * stored by column: the transitions into state v are src[k] and prob[k] for
+	 * k in [start[v],start[v+1]).
+	 */
+	protected class Transitions {
+		final int n;
+		final int[] start;
+		final int[] src;
+		final double[] prob;
+		Transitions(CachingIdProofGraph pg, LongDense.AbstractFloatVector params) throws LogicProgramException {
+			this.n = pg.nodeSize()+1;
+			this.start = new int[n+1];
+			// count transitions into each state; states past maxDepth weren't expanded, and have none out
+			int edges = 0;
+			for (int uid=pg.getRootId(); uid<n; uid++) {
+				int d = pg.getDegreeByIdWithoutLazyExpansion(uid);
+				for (int i=0; i<d; i++) start[pg.getIthNeighborById(uid, i, weighter)+1]++;
+				edges += d;
+			}
+			for (int v=0; v<n; v++) start[v+1] += start[v];
+			this.src = new int[edges];
+			this.prob = new double[edges];
+			int[] fill = Arrays.copyOf(start, n);
+			for (int uid=pg.getRootId(); uid<n; uid++) {
+				int d = pg.getDegreeByIdWithoutLazyExpansion(uid);
+				if (d == 0) continue;
+				double z = pg.getTotalWeightOfOutlinks(uid, params, weighter);
+				for (int i=0; i<d; i++) {
+					double wuv = pg.getIthWeightById(uid, i, params, weighter);
+					int k = fill[pg.getIthNeighborById(uid, i, weighter)]++;
+					src[k] = uid;
+					prob[k] = (1.0-apr.alpha)*(wuv/z);
+				}
+			}
+		}
+	}
+
+	/** nextVec[v] = sum of vec[u] * M[u][v], for v in [from,to) */
+	private static class WalkOnce extends RecursiveAction {
+		final Transitions m;
+		final double[] vec, nextVec;
+		final int from, to;
+		WalkOnce(Transitions m, double[] vec, double[] nextVec, int from, int to) {
+			this.m = m;
+			this.vec = vec;
+			this.nextVec = nextVec;
+			this.from = from;
+			this.to = to;
+		}
+		@Override
+		protected void compute() {
+			if (to - from > CHUNK) {
+				int mid = (from+to) >>> 1;
+				invokeAll(new WalkOnce(m, vec, nextVec, from, mid), new WalkOnce(m, vec, nextVec, mid, to));
+				return;
+			}
+			int[] start = m.start, src = m.src;
+			double[] prob = m.prob;
+			for (int v=from; v<to; v++) {
+				double sum = 0;
+				for (int k=start[v]; k<start[v+1]; k++) sum += vec[src[k]] * prob[k];
+				nextVec[v] = sum;
+			}
+		}
+	}
+}
@@ -0,0 +1,317 @@
+package edu.cmu.ml.proppr.prove;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.Outlink;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.prove.wam.StateProofGraph;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.Dictionary;
+import edu.cmu.ml.proppr.util.StatusLogger;
+
+/**
+ * DprProver over dense, id-indexed arrays.
+ *
+ * States are numbered as they are first reached, and p and r are double[]s
+ * indexed by state id. Each state's outlinks are fetched from the proof graph
+ * and weighted once per proof, then kept as arrays of child ids and
+ * weights, along with their total. The depth-first traversal uses an
+ * explicit stack instead of recursion.
+ *
+ * States are pushed in the same order, with the same arithmetic, as in DprProver,
+ * so the results are identical.
+ */
+public class DenseDprProver extends DprProver {
+	private static final Logger log = Logger.getLogger(DenseDprProver.class);
+	private static final int ROOT = 0;
+	private static final boolean TRUELOOP_ON = true;
+
+	// per-proof state; one instance per thread only, as for DprProver
+	private TObjectIntHashMap<State> ids;
+	private List<State> states;
+	private double[] p;
+	private double[] r;
+	private boolean[] hasP;
+	private int[][] children;
+	private double[][] weights;
+	private double[] z;
+
+	@Override
+	public String toString() {
+		return String.format("ddpr:%.6g:%g", apr.epsilon, apr.alpha);
+	}
+
+	public DenseDprProver() { this(false); }
+
+	public DenseDprProver(boolean lazyWalk) {
+		this(lazyWalk,new APROptions());
+	}
+	public DenseDprProver(APROptions apr) {
+		this(false, apr);
+	}
+	public DenseDprProver(boolean lazyWalk, APROptions apr) {
+		this( (lazyWalk?STAYPROB_LAZY:STAYPROB_DEFAULT),apr);
+	}
+	protected DenseDprProver(double stayP, APROptions apr) {
+		super(stayP, apr);
+	}
+
+	@Override
+	public Prover<StateProofGraph> copy() {
+		DenseDprProver copy = new DenseDprProver(this.stayProbability, apr);
+		copy.setWeighter(weighter);
+		copy.maxTreeDepth = this.maxTreeDepth;
+		return copy;
+	}
+
+	@Override
+	public Map<State, Double> prove(StateProofGraph pg, StatusLogger status) {
+		if (this.current != null) throw new IllegalStateException("DenseDprProver not threadsafe -- one instance per thread only, please!");
+		this.current = pg;
+		int capacity = 64;
+		ids = new TObjectIntHashMap<State>(capacity, 0.5f, -1);
+		states = new ArrayList<State>(capacity);
+		p = new double[capacity];
+		r = new double[capacity];
+		hasP = new boolean[capacity];
+		children = new int[capacity][];
+		weights = new double[capacity][];
+		z = new double[capacity];
+
+		int state0 = id(pg.getStartState());
+		r[state0] = 1.0;
+		backtrace.start();
+		int numIterations = 0;
+		double iterEpsilon = 1.0;
+		for(int pushCounter = 0; ;) {
+			iterEpsilon = Math.max(iterEpsilon/10,apr.epsilon);
+			if(log.isDebugEnabled()) log.debug("Starting iteration with eps = "+iterEpsilon);
+			pushCounter = this.proveState(pg,state0,iterEpsilon,status);
+			numIterations++;
+			if(log.isInfoEnabled() && status.due(1))
+				log.info(Thread.currentThread()+" iteration: "+numIterations+" pushes: "+pushCounter+" states: "+states.size());
+			if(iterEpsilon == apr.epsilon && pushCounter==0) break;
+		}
+
+		Map<State,Double> result = new HashMap<State,Double>();
+		for (int uid=0; uid<states.size(); uid++) {
+			if (hasP[uid]) result.put(states.get(uid), p[uid]);
+		}
+		if (apr.traceDepth!=0) {
+			int edges = 0;
+			for (int uid=0; uid<states.size(); uid++) if (children[uid] != null) edges += children[uid].length;
+			System.out.println("== proof graph: edges/nodes "+edges+"/"+states.size());
+			System.out.println(treeView(pg,apr.traceDepth,apr.traceRoot));
+		}
+		//clear state
+		ids = null; states = null; p = null; r = null; hasP = null; children = null; weights = null; z = null;
+		this.current = null;
+		return result;
+	}
+
+	/** One pass of depth-first pushes from state0, in the order DprProver.proveState would make them */
+	protected int proveState(StateProofGraph pg, int state0, double iterEpsilon, StatusLogger status) {
+		int pushCounter = 0;
+		// each frame is a pushed state, and the position of the next child to visit
+		int[] stackState = new int[16];
+		int[] stackNext = new int[16];
+		int top = -1;
+		try {
+			if (push(pg, state0, 1, iterEpsilon, status)) {
+				pushCounter++;
+				stackState[++top] = state0;
+				stackNext[top] = 0;
+			}
+			while (top >= 0) {
+				int uid = stackState[top];
+				int[] kids = children[uid];
+				double[] wts = weights[uid];
+				int i = stackNext[top];
+				// skip the root and 0-weighted links
+				while (i < kids.length && (kids[i] == ROOT || wts[i] == 0)) i++;
+				if (i == kids.length) {
+					backtrace.pop(states.get(uid));
+					top--;
+					continue;
+				}
+				stackNext[top] = i+1;
+				int vid = kids[i];
+				if (push(pg, vid, top+2, iterEpsilon, status)) {
+					pushCounter++;
+					if (++top == stackState.length) {
+						stackState = Arrays.copyOf(stackState, 2*stackState.length);
+						stackNext = Arrays.copyOf(stackNext, 2*stackNext.length);
+					}
+					stackState[top] = vid;
+					stackNext[top] = 0;
+				}
+			}
+		} catch (LogicProgramException e) {
+			backtrace.rethrow(e);
+		}
+		return pushCounter;
+	}
+
+	/** Push uid as far as it will go at this epsilon; return true if it was pushed at all */
+	private boolean push(StateProofGraph pg, int uid, int depth, double iterEpsilon, StatusLogger status) throws LogicProgramException {
+		if (this.maxTreeDepth > 0 && depth > this.maxTreeDepth) {
+			if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d > %d ru %.6f deg %d state %s", iterEpsilon, depth, this.maxTreeDepth, r[uid], -1, states.get(uid)));
+			return false;
+		}
+		expandIfNeeded(pg, uid);
+		int[] kids = children[uid];
+		int deg = kids.length;
+		if (!(r[uid] / deg > iterEpsilon)) {
+			if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d ru %.6f deg %d state %s", iterEpsilon, depth, r[uid], deg, states.get(uid)));
+			return false;
+		}
+		backtrace.push(states.get(uid));
+		double[] wts = weights[uid];
+		double zu = z[uid];
+		while( r[uid] / deg > iterEpsilon ) {
+			double ru = r[uid];
+			if (log.isDebugEnabled())
+				log.debug(String.format("Pushing eps %f @depth %d ru %.6f deg %d z %.6f state %s", iterEpsilon, depth, ru, deg, zu, states.get(uid)));
+			else if (log.isInfoEnabled() && status.due(2))
+				log.info(String.format("Pushing eps %f @depth %d ru %.6f deg %d z %.6f state %s", iterEpsilon, depth, ru, deg, zu, states.get(uid)));
+
+			// p[u] += alpha * ru
+			p[uid] = sanitize(p[uid] + apr.alpha * ru, uid);
+			hasP[uid] = true;
+			// r[u] *= (1-alpha) * stay?
+			r[uid] = (1.0-apr.alpha) * stayProbability * ru;
+
+			// for each v near u:
+			for (int i=0; i<deg; i++) {
+				// skip 0-weighted links
+				if (wts[i] == 0) continue;
+				// r[v] += (1-alpha) * move? * Muv * ru
+				int vid = kids[i];
+				r[vid] = sanitize(r[vid] + (1.0-apr.alpha) * moveProbability * (wts[i] / zu) * ru, vid);
+			}
+		}
+		return true;
+	}
+
+	/** Fetch and weight the outlinks of uid, if we haven't yet during this proof */
+	private void expandIfNeeded(StateProofGraph pg, int uid) throws LogicProgramException {
+		if (children[uid] != null) return;
+		State u = states.get(uid);
+		List<Outlink> outs = pg.pgOutlinks(u, TRUELOOP_ON);
+		int[] kids = new int[outs.size()];
+		double[] wts = new double[outs.size()];
+		double zu = 0.0;
+		int i=0;
+		for (Outlink o : outs) {
+			double wt = this.weighter.w(o.fd);
+			if (Double.isInfinite(wt) || Double.isNaN(wt))
+				log.warn("Illegal weight ("+Double.toString(wt)+") at outlink "+o.child+";"
+					+Dictionary.buildString(o.fd,new StringBuilder(),"\n\t").toString());
+			zu += wt;
+			wts[i] = wt;
+			// id() may grow the arrays, so look them up again afterwards
+			kids[i] = id(o.child);
+			i++;
+		}
+		if (zu==0) {
+			//then we're in trouble
+			log.warn("Illegal graph: weight on this node has nowhere to go");
+			for (Outlink o: outs) {
+				log.warn("Outlink: "+Dictionary.buildString(o.fd, new StringBuilder(), "; "));
+			}
+		}
+		children[uid] = kids;
+		weights[uid] = wts;
+		z[uid] = zu;
+	}
+
+	/** The id of state u, numbering it if it's new */
+	private int id(State u) {
+		int uid = ids.get(u);
+		if (uid >= 0) return uid;
+		uid = states.size();
+		ids.put(u, uid);
+		states.add(u);
+		if (uid == p.length) {
+			int n = 2*p.length;
+			p = Arrays.copyOf(p, n);
+			r = Arrays.copyOf(r, n);
+			hasP = Arrays.copyOf(hasP, n);
+			children = Arrays.copyOf(children, n);
+			weights = Arrays.copyOf(weights, n);
+			z = Arrays.copyOf(z, n);
+		}
+		return uid;
+	}
+
+	/**
+	 * Construct a tree-like ascii representation of the proof graph for
+	 * debugging purposes, as CachingIdProofGraph.treeView does. Nodes are
+	 * numbered from 1 at the start state, so traceRoot means the same thing
+	 * as for the id-based provers; edges show their weight instead of their
+	 * features, since those aren't kept.
+	 */
+	protected String treeView(StateProofGraph pg, int maxDepth, int root) {
+		StringBuilder sb = new StringBuilder();
+		if (root >= 1 && root <= states.size())
+			treeView(pg, 0, maxDepth, sb, new boolean[states.size()], Double.NaN, root-1);
+		return sb.toString();
+	}
+
+	private void treeView(StateProofGraph pg, int depth, int maxDepth, StringBuilder sb, boolean[] previouslyProcessed, double wt, int uid) {
+		if (previouslyProcessed[uid]) {
+			if (uid != ROOT) {
+				for (int i=0; i<depth; i++) sb.append("|  ");
+				sb.append("%repeat%");
+				sb.append(treeViewNodeSummary(uid, wt));
+				sb.append("\n");
+			}
+			return;
+		}
+		previouslyProcessed[uid] = true;
+		for (int i=0; i<depth; i++) sb.append("|  ");
+		State u = states.get(uid);
+		u.setCanonicalForm(pg.getInterpreter(), pg.getStartState());
+		sb.append(u.canonicalForm() + ":");
+		sb.append(treeViewNodeSummary(uid, wt));
+		if (maxDepth>=0 && (depth+1 > maxDepth)) {
+			sb.append(" ...\n");
+			return;
+		}
+		sb.append("\n");
+		// states that were never pushed have no children
+		if (children[uid] == null) return;
+		for (int i=0; i<children[uid].length; i++) {
+			treeView(pg, depth+1, maxDepth, sb, previouslyProcessed, weights[uid][i], children[uid][i]);
+		}
+	}
+
+	private String treeViewNodeSummary(int uid, double wt) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(" #"+(uid+1));
+		sb.append(String.format(" [%f]", p[uid]));
+		if (!Double.isNaN(wt)) sb.append(String.format(" via %f", wt));
+		if (states.get(uid).isCompleted()) sb.append(" [_]");
+		return sb.toString();
+	}
+
+	/** As Dictionary.increment does */
+	private double sanitize(double d, int uid) {
+		if (Double.isInfinite(d)) {
+			log.warn(d+" at "+states.get(uid)+"; truncating");
+			return (d>0) ? Double.MAX_VALUE : -Double.MAX_VALUE;
+		} else if (Double.isNaN(d)) {
+			throw new IllegalArgumentException("NaN encountered at "+states.get(uid));
+		}
+		return d;
+	}
+}
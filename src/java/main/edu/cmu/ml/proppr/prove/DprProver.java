@@ -1,7 +1,9 @@
 package edu.cmu.ml.proppr.prove;
 
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
@@ -31,10 +33,12 @@ public class DprProver extends Prover<StateProofGraph> {
 	private static final boolean TRUELOOP_ON = true;
 	protected final double stayProbability;
 	protected final double moveProbability;
-	private int maxTreeDepth=-1;
+	protected int maxTreeDepth=-1;
 	// for debug
 	protected Backtrace<State> backtrace = new Backtrace<State>(log);
 	protected ProofGraph current;
+	// depth-first traversal stack, reused between passes
+	private List<Frame> stack = new ArrayList<Frame>();
 
 	@Override
 	public String toString() { 
@@ -115,93 +119,137 @@ public class DprProver extends Prover<StateProofGraph> {
 			StatusLogger status) {
 		return proveState(pg, p, r, u, pushCounter, 1, iterEpsilon, status);
 	}
+	/**
+	 * Depth-first pushes from u, on an explicit stack so that deep proofs don't
+	 * need a deep thread stack. States are pushed in the same order as by
+	 * recursing on each child of a pushed state in turn.
+	 */
 	protected int proveState(StateProofGraph pg, Map<State,Double> p, Map<State, Double> r,
 			State u, int pushCounter, int depth, double iterEpsilon,
 			StatusLogger status) {
-		if (this.maxTreeDepth > 0 && depth > this.maxTreeDepth) {
-			if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d > %d ru %.6f deg %d state %s", iterEpsilon, depth, this.maxTreeDepth, r.get(u), -1, u));
-			return pushCounter;
-		}
+		State root = pg.getStartState();
+		int top = -1;
 		try {
-			int deg = pg.pgDegree(u);
-			if (r.get(u) / deg > iterEpsilon) {
-				backtrace.push(u);
+			List<Outlink> outs = push(pg, p, r, u, depth, iterEpsilon, status);
+			if (outs != null) {
 				pushCounter += 1;
-				try {
-					
-					List<Outlink> outs = pg.pgOutlinks(u, TRUELOOP_ON);
-					double z = 0.0;
-					for (Outlink o : outs) {
-						o.wt = this.weighter.w(o.fd);
-						if (Double.isInfinite(o.wt) || Double.isNaN(o.wt)) 
-							log.warn("Illegal weight ("+Double.toString(o.wt)+") at outlink "+o.child+";"
-								+Dictionary.buildString(o.fd,new StringBuilder(),"\n\t").toString());
-						z += o.wt;
-					}
-					if (z==0) {
-						//then we're in trouble
-						log.warn("Illegal graph: weight on this node has nowhere to go");
-						for (Outlink o: outs) {
-							log.warn("Outlink: "+Dictionary.buildString(o.fd, new StringBuilder(), "; "));
-						}
-					}
-					
-					// push this state as far as you can
-					while( r.get(u) / deg > iterEpsilon ) {
-						double ru = r.get(u);
-						if (log.isDebugEnabled()) 
-							log.debug(String.format("Pushing eps %f @depth %d ru %.6f deg %d z %.6f state %s", iterEpsilon, depth, ru, deg, z, u));
-						else if (log.isInfoEnabled() && status.due(2)) 
-							log.info(String.format("Pushing eps %f @depth %d ru %.6f deg %d z %.6f state %s", iterEpsilon, depth, ru, deg, z, u));
-						
-						// p[u] += alpha * ru
-						addToP(p,u,ru);
-						// r[u] *= (1-alpha) * stay?
-						r.put(u, (1.0-apr.alpha) * stayProbability * ru);
-						
-						// for each v near u:
-						for (Outlink o : outs) {
-							// skip 0-weighted links
-							if (o.wt == 0) continue;
-							// r[v] += (1-alpha) * move? * Muv * ru
-							Dictionary.increment(r, o.child, (1.0-apr.alpha) * moveProbability * (o.wt / z) * ru,"(elided)");
-						}
-						
-						if (log.isDebugEnabled()) {
-							// sanity-check r:
-							double sumr = 0;
-							for (Double d : r.values()) { sumr += d; }
-							double sump = 0;
-							for (Double d : p.values()) { sump += d; }
-							if (Math.abs(sump + sumr - 1.0) > apr.epsilon) {
-								log.debug("Should be 1.0 but isn't: after push sum p + r = "+sump+" + "+sumr+" = "+(sump+sumr));
-							}
-						}
-					}
-
-					
-					// for each v near u:
-					for (Outlink o : outs) {
-						// proveState(v):
-						// current pushcounter is passed down, gets incremented and returned, and 
-						// on the next for loop iter is passed down again...
-						if (o.child.equals(pg.getStartState())) continue;
-						if (o.wt == 0) continue;
-						pushCounter = this.proveState(pg,p,r,o.child,pushCounter,depth+1,iterEpsilon,status);
-					}
-				} catch (LogicProgramException e) {
-					backtrace.rethrow(e);
+				top = pushFrame(top, u, outs);
+			}
+			while (top >= 0) {
+				// for each v near u:
+				Frame f = stack.get(top);
+				if (!f.outlinks.hasNext()) {
+					backtrace.pop(f.state);
+					f.clear();
+					top--;
+					continue;
+				}
+				Outlink o = f.outlinks.next();
+				if (o.child.equals(root)) continue;
+				if (o.wt == 0) continue;
+				outs = push(pg, p, r, o.child, depth+top+1, iterEpsilon, status);
+				if (outs != null) {
+					pushCounter += 1;
+					top = pushFrame(top, o.child, outs);
 				}
-				backtrace.pop(u);
-			} else { 
-				if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d ru %.6f deg %d state %s", iterEpsilon, depth, r.get(u), deg, u));
 			}
 		} catch (LogicProgramException e) {
 			this.backtrace.rethrow(e);
+		} finally {
+			for (; top >= 0; top--) stack.get(top).clear();
 		}
 		return pushCounter;
 	}
-	
+
+	private int pushFrame(int top, State u, List<Outlink> outs) {
+		top++;
+		if (top == stack.size()) stack.add(new Frame());
+		Frame f = stack.get(top);
+		f.state = u;
+		f.outlinks = outs.iterator();
+		return top;
+	}
+
+	/**
+	 * Push u as far as it will go at this epsilon.
+	 * @return u's weighted outlinks if u was pushed, or null if it wasn't
+	 */
+	protected List<Outlink> push(StateProofGraph pg, Map<State,Double> p, Map<State, Double> r,
+			State u, int depth, double iterEpsilon,
+			StatusLogger status) throws LogicProgramException {
+		if (this.maxTreeDepth > 0 && depth > this.maxTreeDepth) {
+			if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d > %d ru %.6f deg %d state %s", iterEpsilon, depth, this.maxTreeDepth, r.get(u), -1, u));
+			return null;
+		}
+		int deg = pg.pgDegree(u);
+		if (!(r.get(u) / deg > iterEpsilon)) {
+			if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d ru %.6f deg %d state %s", iterEpsilon, depth, r.get(u), deg, u));
+			return null;
+		}
+		backtrace.push(u);
+
+		List<Outlink> outs = pg.pgOutlinks(u, TRUELOOP_ON);
+		double z = 0.0;
+		for (Outlink o : outs) {
+			o.wt = this.weighter.w(o.fd);
+			if (Double.isInfinite(o.wt) || Double.isNaN(o.wt)) 
+				log.warn("Illegal weight ("+Double.toString(o.wt)+") at outlink "+o.child+";"
+					+Dictionary.buildString(o.fd,new StringBuilder(),"\n\t").toString());
+			z += o.wt;
+		}
+		if (z==0) {
+			//then we're in trouble
+			log.warn("Illegal graph: weight on this node has nowhere to go");
+			for (Outlink o: outs) {
+				log.warn("Outlink: "+Dictionary.buildString(o.fd, new StringBuilder(), "; "));
+			}
+		}
+
+		// push this state as far as you can
+		while( r.get(u) / deg > iterEpsilon ) {
+			double ru = r.get(u);
+			if (log.isDebugEnabled()) 
+				log.debug(String.format("Pushing eps %f @depth %d ru %.6f deg %d z %.6f state %s", iterEpsilon, depth, ru, deg, z, u));
+			else if (log.isInfoEnabled() && status.due(2)) 
+				log.info(String.format("Pushing eps %f @depth %d ru %.6f deg %d z %.6f state %s", iterEpsilon, depth, ru, deg, z, u));
+
+			// p[u] += alpha * ru
+			addToP(p,u,ru);
+			// r[u] *= (1-alpha) * stay?
+			r.put(u, (1.0-apr.alpha) * stayProbability * ru);
+
+			// for each v near u:
+			for (Outlink o : outs) {
+				// skip 0-weighted links
+				if (o.wt == 0) continue;
+				// r[v] += (1-alpha) * move? * Muv * ru
+				Dictionary.increment(r, o.child, (1.0-apr.alpha) * moveProbability * (o.wt / z) * ru,"(elided)");
+			}
+
+			if (log.isDebugEnabled()) {
+				// sanity-check r:
+				double sumr = 0;
+				for (Double d : r.values()) { sumr += d; }
+				double sump = 0;
+				for (Double d : p.values()) { sump += d; }
+				if (Math.abs(sump + sumr - 1.0) > apr.epsilon) {
+					log.debug("Should be 1.0 but isn't: after push sum p + r = "+sump+" + "+sumr+" = "+(sump+sumr));
+				}
+			}
+		}
+		return outs;
+	}
+
+	/** A pushed state, and the outlinks whose children we haven't visited yet */
+	private static class Frame {
+		State state;
+		Iterator<Outlink> outlinks;
+		void clear() {
+			state = null;
+			outlinks = null;
+		}
+	}
+
 	/** Template: Subclasses may add side effects */
 	protected void addToP(Map<State, Double> p, State u, double ru) {
 		Dictionary.increment(p,u,apr.alpha * ru,"(elided)");
@@ -1,6 +1,7 @@
 package edu.cmu.ml.proppr.prove;
 
 
+import java.util.Arrays;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
@@ -32,6 +33,8 @@ public class IdDprProver extends Prover<CachingIdProofGraph> {
 	protected IdDprProver parent=null;
 	public int completedStates = 0;
 	private int maxTreeDepth;
+	// depth-first traversal stack of state ids, with the next child to visit and the degree of each; reused between passes
+	private int[] stackId = new int[16], stackNext = new int[16], stackDeg = new int[16];
 	
 	@Override
 	public String toString() { 
@@ -76,7 +79,7 @@ public class IdDprProver extends Prover<CachingIdProofGraph> {
 		if (this.params == null) this.params = params;
 	}
 	
-	private LongDense.AbstractFloatVector getFrozenParams(CachingIdProofGraph pg) {
+	protected LongDense.AbstractFloatVector getFrozenParams(CachingIdProofGraph pg) {
 		if (params != null) return params;
 		if (this.weighter.weights.size()==0) 
 			params = new LongDense.UnitVector();
@@ -116,11 +119,20 @@ public class IdDprProver extends Prover<CachingIdProofGraph> {
 			    log.info("Stopping early...");
 				break;
 			}
+			if (this.settled(pg,p,r)) {
+				if (log.isDebugEnabled()) log.debug("Stopping after "+numIterations+" iterations: result is settled");
+				break;
+			}
 			numPushes += pushCounter;
 		}
 		//if(log.isInfoEnabled()) log.info(Thread.currentThread()+" total iterations "+numIterations+" total pushes "+numPushes);
 	}
 	
+	/** Subclasses may stop pushing before epsilon is reached, once further pushes can't change what they return. */
+	protected boolean settled(CachingIdProofGraph pg, LongDense.FloatVector p, LongDense.FloatVector r) {
+		return false;
+	}
+	
 	protected int proveState(CachingIdProofGraph cg, LongDense.FloatVector p, LongDense.FloatVector r,
 													 int uid, int pushCounter, double iterEpsilon,LongDense.AbstractFloatVector params,
 													 StatusLogger status) 
@@ -128,81 +140,109 @@ public class IdDprProver extends Prover<CachingIdProofGraph> {
 		return proveState(cg, p, r, uid, pushCounter, 1, iterEpsilon, params, status);
 	}
 
+	/**
+	 * Depth-first pushes from uid, on an explicit stack of state ids so that deep
+	 * proofs don't need a deep thread stack. States are pushed in the same order
+	 * as by recursing on each child of a pushed state in turn.
+	 */
 	protected int proveState(CachingIdProofGraph cg, LongDense.FloatVector p, LongDense.FloatVector r,
 													 int uid, int pushCounter, int depth, double iterEpsilon,
 													 LongDense.AbstractFloatVector params,
 													 StatusLogger status)
 	{
-		if (this.maxTreeDepth > 0 && depth > this.maxTreeDepth) {
-			if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d > %d ru %.6f deg %d state %s", iterEpsilon, depth, this.maxTreeDepth, r.get(uid), -1, uid));
-			return pushCounter;
-		}
 		try {
-			int deg = cg.getDegreeById(uid, this.weighter);
-			if (r.get(uid) / deg > iterEpsilon) {
+			int top = -1;
+			if (push(cg,p,r,uid,depth,iterEpsilon,params,status)) {
 				pushCounter += 1;
-				try {
-					double z = cg.getTotalWeightOfOutlinks(uid, params, this.weighter);
-					// push this state as far as you can
-					while( r.get(uid)/deg > iterEpsilon ) {
-						double ru = r.get(uid);
-						if (log.isDebugEnabled()) 
-							log.debug(String.format("Pushing eps %f @depth %d ru %.6f deg %d state %s", iterEpsilon, depth, ru, deg, uid));
-						else if (log.isInfoEnabled() && status.due(2)) 
-							log.info(String.format("Pushing eps %f @depth %d ru %.6f deg %d state %s", iterEpsilon, depth, ru, deg, uid));
-						
-						// p[u] += alpha * ru
-						//addToP(p,u,ru);
-						p.inc(uid,apr.alpha * ru);
-						// r[u] *= (1-alpha) * stay?
-						//r.put(u, (1.0-apr.alpha) * stayProbability * ru);
-						r.set(uid, (1.0-apr.alpha) * stayProbability * ru);
-						// for each v near u
-						for (int i=0; i<deg; i++) {
-							// r[v] += (1-alpha) * move? * Muv * ru
-							//Dictionary.increment(r, o.child, (1.0-apr.alpha) * moveProbability * (o.wt / z) * ru,"(elided)");
-							double wuv = cg.getIthWeightById(uid,i,params,this.weighter);
-							if (wuv==0) continue;
-							int vid = cg.getIthNeighborById(uid,i,this.weighter);
-							if (cg.isCompleted(vid)) this.completedStates++;
-							r.inc(vid, (1.0-apr.alpha) * moveProbability * (wuv/z) * ru);
-							if (Double.isNaN(r.get(vid))) log.debug("NaN in r at v="+vid+" wuv="+wuv+" z="+z+" ru="+ru);
-						}
-						if (log.isDebugEnabled()) {
-							// sanity-check r:
-							double sumr = 0;
-							for (int i=0;i<r.size();i++) { sumr += r.get(i); }
-							double sump = 0;
-							for (int i=0;i<p.size();i++) { sump += p.get(i); }
-							if (Math.abs(sump + sumr - 1.0) > apr.epsilon) {
-								log.debug("Should be 1.0 but isn't: after push sum p + r = "+sump+" + "+sumr+" = "+(sump+sumr));
-							}
-						}
-					}
-
-					// for each v near u:
-					for (int i=0; i<deg; i++) {
-						// proveState(v):
-						// current pushcounter is passed down, gets incremented and returned, and 
-						// on the next for loop iter is passed down again...
-						int vid = cg.getIthNeighborById(uid,i,this.weighter);
-						if (vid==cg.getRootId()) continue;
-						if (0 == cg.getIthWeightById(uid,i,params,this.weighter)) continue;
-						//pushCounter = this.proveState(pg,p,r,o.child,pushCounter,depth+1,iterEpsilon);
-						pushCounter = proveState(cg,p,r,vid,pushCounter,depth+1,iterEpsilon,params,status);
-						
-					}
-				} catch (LogicProgramException e) {
-					throw new IllegalStateException(e);
+				top = pushFrame(top, uid, cg.getDegreeById(uid, this.weighter));
+			}
+			while (top >= 0) {
+				// for each v near u:
+				int i = stackNext[top];
+				if (i == stackDeg[top]) {
+					top--;
+					continue;
+				}
+				stackNext[top] = i+1;
+				int u = stackId[top];
+				int vid = cg.getIthNeighborById(u,i,this.weighter);
+				if (vid==cg.getRootId()) continue;
+				if (0 == cg.getIthWeightById(u,i,params,this.weighter)) continue;
+				if (push(cg,p,r,vid,depth+top+1,iterEpsilon,params,status)) {
+					pushCounter += 1;
+					top = pushFrame(top, vid, cg.getDegreeById(vid, this.weighter));
 				}
-			} else { 
-				if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d ru %.6f deg %d state %s", iterEpsilon, depth, r.get(uid), deg, uid));
 			}
 		} catch (LogicProgramException e) {
 			throw new IllegalStateException(e);
 		}
 		return pushCounter;
 	}
+
+	private int pushFrame(int top, int uid, int deg) {
+		top++;
+		if (top == stackId.length) {
+			stackId = Arrays.copyOf(stackId, 2*top);
+			stackNext = Arrays.copyOf(stackNext, 2*top);
+			stackDeg = Arrays.copyOf(stackDeg, 2*top);
+		}
+		stackId[top] = uid;
+		stackNext[top] = 0;
+		stackDeg[top] = deg;
+		return top;
+	}
+
+	/** Push uid as far as it will go at this epsilon; return true if it was pushed at all */
+	protected boolean push(CachingIdProofGraph cg, LongDense.FloatVector p, LongDense.FloatVector r,
+			int uid, int depth, double iterEpsilon,
+			LongDense.AbstractFloatVector params,
+			StatusLogger status) throws LogicProgramException
+	{
+		if (this.maxTreeDepth > 0 && depth > this.maxTreeDepth) {
+			if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d > %d ru %.6f deg %d state %s", iterEpsilon, depth, this.maxTreeDepth, r.get(uid), -1, uid));
+			return false;
+		}
+		int deg = cg.getDegreeById(uid, this.weighter);
+		if (!(r.get(uid) / deg > iterEpsilon)) {
+			if (log.isDebugEnabled()) log.debug(String.format("Rejecting eps %f @depth %d ru %.6f deg %d state %s", iterEpsilon, depth, r.get(uid), deg, uid));
+			return false;
+		}
+		double z = cg.getTotalWeightOfOutlinks(uid, params, this.weighter);
+		// push this state as far as you can
+		while( r.get(uid)/deg > iterEpsilon ) {
+			double ru = r.get(uid);
+			if (log.isDebugEnabled()) 
+				log.debug(String.format("Pushing eps %f @depth %d ru %.6f deg %d state %s", iterEpsilon, depth, ru, deg, uid));
+			else if (log.isInfoEnabled() && status.due(2)) 
+				log.info(String.format("Pushing eps %f @depth %d ru %.6f deg %d state %s", iterEpsilon, depth, ru, deg, uid));
+
+			// p[u] += alpha * ru
+			p.inc(uid,apr.alpha * ru);
+			// r[u] *= (1-alpha) * stay?
+			r.set(uid, (1.0-apr.alpha) * stayProbability * ru);
+			// for each v near u
+			for (int i=0; i<deg; i++) {
+				// r[v] += (1-alpha) * move? * Muv * ru
+				double wuv = cg.getIthWeightById(uid,i,params,this.weighter);
+				if (wuv==0) continue;
+				int vid = cg.getIthNeighborById(uid,i,this.weighter);
+				if (cg.isCompleted(vid)) this.completedStates++;
+				r.inc(vid, (1.0-apr.alpha) * moveProbability * (wuv/z) * ru);
+				if (Double.isNaN(r.get(vid))) log.debug("NaN in r at v="+vid+" wuv="+wuv+" z="+z+" ru="+ru);
+			}
+			if (log.isDebugEnabled()) {
+				// sanity-check r:
+				double sumr = 0;
+				for (int i=0;i<r.size();i++) { sumr += r.get(i); }
+				double sump = 0;
+				for (int i=0;i<p.size();i++) { sump += p.get(i); }
+				if (Math.abs(sump + sumr - 1.0) > apr.epsilon) {
+					log.debug("Should be 1.0 but isn't: after push sum p + r = "+sump+" + "+sumr+" = "+(sump+sumr));
+				}
+			}
+		}
+		return true;
+	}
 	
 	public double getAlpha() {
 		return apr.alpha;
@@ -0,0 +1,265 @@
+package edu.cmu.ml.proppr.prove;
+
+import gnu.trove.list.array.TIntArrayList;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.prove.wam.CachingIdProofGraph;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.math.LongDense;
+
+/**
+ * Approximate personalized pagerank prover that pushes in parallel within a
+ * single proof graph, for queries too big to prove on one thread.
+ *
+ * Pushing is bulk-synchronous. Each round expands the candidate states (those
+ * whose residual changed in the last round) in parallel, then pushes every
+ * candidate u with r[u]/deg(u) > epsilon in parallel, once each, adding to the
+ * residuals of its neighbors atomically. A round with nothing to push ends
+ * the pass at that epsilon; as in IdDprProver, epsilon starts at 0.1 and drops
+ * by a factor of 10 per pass down to apr.epsilon. When proving ends every state
+ * has r[u]/deg(u) <= epsilon, the same guarantee IdDprProver gives, though
+ * the order of pushes (and so the scores, within that guarantee) differs.
+ *
+ * Usage: --prover par_idpr[:threads=N][:minChunk=M]; the default is the common fork-join pool,
+ * and rounds with fewer than minChunk states to push run on the calling thread.
+ */
+public class ParallelIdDprProver extends IdDprProver {
+	private static final Logger log = Logger.getLogger(ParallelIdDprProver.class);
+	public static final int DEFAULT_MIN_CHUNK = 64;
+	protected ForkJoinPool pool;
+	/** Rounds with fewer states than this run on the calling thread */
+	protected int minChunk = DEFAULT_MIN_CHUNK;
+
+	@Override
+	public String toString() {
+		return String.format("par_idpr:%.6g:%g", apr.epsilon, apr.alpha);
+	}
+
+	public ParallelIdDprProver() { this(false); }
+
+	public ParallelIdDprProver(boolean lazyWalk) {
+		this(lazyWalk,new APROptions());
+	}
+	public ParallelIdDprProver(APROptions apr) {
+		this(false, apr);
+	}
+	public ParallelIdDprProver(boolean lazyWalk, APROptions apr) {
+		this( (lazyWalk?STAYPROB_LAZY:STAYPROB_DEFAULT),apr);
+	}
+	protected ParallelIdDprProver(double stayP, APROptions apr) {
+		super(stayP, apr);
+	}
+
+	@Override
+	public Prover<CachingIdProofGraph> copy() {
+		ParallelIdDprProver copy = new ParallelIdDprProver(this.stayProbability, apr);
+		copy.setWeighter(weighter);
+		copy.params = this.params;
+		copy.pool = this.pool;
+		copy.minChunk = this.minChunk;
+		if (this.parent != null) copy.parent = this.parent;
+		else copy.parent = this;
+		return copy;
+	}
+
+	@Override
+	public void configure(String param) {
+		if (param.startsWith("threads=")) {
+			this.pool = new ForkJoinPool(Integer.parseInt(param.substring(param.indexOf('=')+1)));
+		} else if (param.startsWith("minChunk=")) {
+			this.minChunk = Integer.parseInt(param.substring(param.indexOf('=')+1));
+		} else super.configure(param);
+	}
+
+	protected ForkJoinPool getPool() {
+		return pool != null ? pool : ForkJoinPool.commonPool();
+	}
+
+	@Override
+	protected void prove(CachingIdProofGraph pg, LongDense.FloatVector p, StatusLogger status) {
+		Residuals res = new Residuals(pg, getFrozenParams(pg));
+		int state0 = pg.getRootId();
+		res.grow(state0+1);
+		res.add(state0, 1.0);
+		TIntArrayList candidates = new TIntArrayList();
+		int numPushes = 0;
+		int round = 0;
+		double iterEpsilon = 1.0;
+		this.completedStates = 0;
+		do {
+			iterEpsilon = Math.max(iterEpsilon/10,apr.epsilon);
+			// anything might be over the new epsilon
+			candidates.clear();
+			for (int uid=state0; uid<res.size(); uid++) {
+				if (res.r(uid) > 0) candidates.add(uid);
+			}
+			while (!candidates.isEmpty()) {
+				round++;
+				TIntArrayList active = res.expand(candidates, iterEpsilon);
+				if (active.isEmpty()) break;
+				res.grow(pg.nodeSize()+1);
+				candidates = res.push(active, round);
+				numPushes += active.size();
+				if(log.isInfoEnabled() && status.due(1)) log.info(Thread.currentThread()+" round: "+round+" pushes: "+active.size()+" states: "+pg.nodeSize());
+			}
+			this.completedStates = res.completed.get();
+			if(apr.stopEarly>=0 && this.completedStates > apr.stopEarly) {
+				log.info("Stopping early...");
+				break;
+			}
+		} while (iterEpsilon > apr.epsilon);
+		if(log.isDebugEnabled()) log.debug("total rounds "+round+" total pushes "+numPushes);
+		for (int uid=state0; uid<res.size(); uid++) {
+			if (res.p[uid] != 0) p.set(uid, res.p[uid]);
+		}
+	}
+
+	/**
+	 * Scores and residuals for one proof. r is updated concurrently, as float
+	 * bits in an atomic array. Each state is pushed by at most one thread in a
+	 * round, so p is a plain array.
+	 */
+	protected class Residuals {
+		final CachingIdProofGraph pg;
+		final LongDense.AbstractFloatVector params;
+		AtomicIntegerArray r = new AtomicIntegerArray(0);
+		/** the last round in which each state was queued as a candidate */
+		AtomicIntegerArray queued = new AtomicIntegerArray(0);
+		float[] p = new float[0];
+		final AtomicInteger completed = new AtomicInteger(0);
+		Residuals(CachingIdProofGraph pg, LongDense.AbstractFloatVector params) {
+			this.pg = pg;
+			this.params = params;
+		}
+		int size() {
+			return p.length;
+		}
+		float r(int uid) {
+			return Float.intBitsToFloat(r.get(uid));
+		}
+		/** r[uid] += delta, atomically */
+		void add(int uid, double delta) {
+			for (;;) {
+				int bits = r.get(uid);
+				if (r.compareAndSet(uid, bits, Float.floatToIntBits((float) (Float.intBitsToFloat(bits) + delta)))) return;
+			}
+		}
+		/** Make room for states [0,n); only between rounds */
+		void grow(int n) {
+			if (n <= p.length) return;
+			n = Math.max(n, 2*p.length);
+			AtomicIntegerArray newR = new AtomicIntegerArray(n), newQueued = new AtomicIntegerArray(n);
+			for (int i=0; i<p.length; i++) {
+				newR.set(i, r.get(i));
+				newQueued.set(i, queued.get(i));
+			}
+			r = newR;
+			queued = newQueued;
+			p = Arrays.copyOf(p, n);
+		}
+
+		/** Expand each candidate in parallel, and return the ones over epsilon */
+		TIntArrayList expand(final TIntArrayList candidates, final double iterEpsilon) {
+			return runChunks(candidates, new ChunkTask() {
+				@Override
+				public TIntArrayList run(int from, int to) throws LogicProgramException {
+					TIntArrayList active = new TIntArrayList();
+					for (int k=from; k<to; k++) {
+						int uid = candidates.get(k);
+						int deg = pg.getDegreeById(uid, weighter);
+						if (r(uid) / deg > iterEpsilon) active.add(uid);
+					}
+					return active;
+				}
+			});
+		}
+
+		/** Push each active state in parallel, and return the states whose residuals changed */
+		TIntArrayList push(final TIntArrayList active, final int round) {
+			return runChunks(active, new ChunkTask() {
+				@Override
+				public TIntArrayList run(int from, int to) throws LogicProgramException {
+					TIntArrayList touched = new TIntArrayList();
+					for (int k=from; k<to; k++) {
+						int uid = active.get(k);
+						int deg = pg.getDegreeById(uid, weighter);
+						double z = pg.getTotalWeightOfOutlinks(uid, params, weighter);
+						// r[u] *= (1-alpha) * stay?, atomically, since neighbors may be adding to it
+						double ru;
+						for (;;) {
+							int bits = r.get(uid);
+							ru = Float.intBitsToFloat(bits);
+							if (r.compareAndSet(uid, bits, Float.floatToIntBits((float) ((1.0-apr.alpha) * stayProbability * ru)))) break;
+						}
+						// p[u] += alpha * ru
+						p[uid] += apr.alpha * ru;
+						if (stayProbability > 0) queue(uid, round, touched);
+						// for each v near u
+						for (int i=0; i<deg; i++) {
+							// r[v] += (1-alpha) * move? * Muv * ru
+							double wuv = pg.getIthWeightById(uid,i,params,weighter);
+							if (wuv==0) continue;
+							int vid = pg.getIthNeighborById(uid,i,weighter);
+							if (pg.isCompleted(vid)) completed.incrementAndGet();
+							add(vid, (1.0-apr.alpha) * moveProbability * (wuv/z) * ru);
+							queue(vid, round, touched);
+						}
+					}
+					return touched;
+				}
+			});
+		}
+
+		private void queue(int uid, int round, TIntArrayList touched) {
+			if (queued.getAndSet(uid, round) != round) touched.add(uid);
+		}
+
+		/** Run task over the list in chunks on the pool, or on this thread if it's short, and concatenate the results */
+		private TIntArrayList runChunks(TIntArrayList list, final ChunkTask task) {
+			int n = list.size();
+			ForkJoinPool pool = getPool();
+			int chunks = Math.min((n + minChunk - 1) / minChunk, 4*pool.getParallelism());
+			try {
+				if (chunks <= 1) return task.run(0, n);
+				List<Callable<TIntArrayList>> jobs = new ArrayList<Callable<TIntArrayList>>(chunks);
+				for (int c=0; c<chunks; c++) {
+					final int from = (int) ((long) n * c / chunks), to = (int) ((long) n * (c+1) / chunks);
+					jobs.add(new Callable<TIntArrayList>() {
+						@Override
+						public TIntArrayList call() throws Exception {
+							return task.run(from, to);
+						}
+					});
+				}
+				TIntArrayList result = new TIntArrayList();
+				for (Future<TIntArrayList> f : pool.invokeAll(jobs)) result.addAll(f.get());
+				return result;
+			} catch (LogicProgramException e) {
+				throw new IllegalStateException(e);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+				throw new IllegalStateException(e.getCause());
+			}
+		}
+	}
+
+	protected interface ChunkTask {
+		public TIntArrayList run(int from, int to) throws LogicProgramException;
+	}
+}
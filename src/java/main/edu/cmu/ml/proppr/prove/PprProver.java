@@ -91,7 +91,7 @@ public class PprProver extends Prover<StateProofGraph> {
 		// p[u in s] += alpha * s[u]
 		Dictionary.increment(nextVec, pg.getStartState(), apr.alpha * SEED_WEIGHT);
 		for (Map.Entry<State, Double> p : vec.entrySet()) {
-			if (log.isInfoEnabled()) log.info("state "+(i++)+" of "+n);
+			if (log.isDebugEnabled()) log.debug("state "+(i++)+" of "+n);
 			try {
 				for (Map.Entry<State,Double> e : this.normalizedOutlinks(pg, p.getKey()).entrySet()) {
 					if (log.isTraceEnabled()) log.trace("walkonce normalizedOutlinks "+p.getKey()+" "+e.getValue()+" "+e.getKey());
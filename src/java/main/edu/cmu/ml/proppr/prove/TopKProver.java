@@ -0,0 +1,146 @@
+package edu.cmu.ml.proppr.prove;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import edu.cmu.ml.proppr.prove.wam.CachingIdProofGraph;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.math.LongDense;
+
+/**
+ * Depth-first approximate personalized pagerank prover that only finds the
+ * top k completed states.
+ * 
+ * After each pass at a given epsilon, the residual mass left in r bounds how
+ * much any state's score can still grow. Once each of the top k completed
+ * states leads the next by more than that, no more pushing can change which
+ * states are in the top k or their order, so we stop.
+ * 
+ * Only the top k completed states are returned, so that normalized scores
+ * don't change, getCompletedMass() gives the total score of all completed states.
+ * 
+ * Usage: --prover topk:k=10, or set k using QueryAnswerer --top.
+ */
+public class TopKProver extends IdDprProver {
+	protected int k = -1;
+	protected double completedMass = 0;
+
+	public TopKProver() { this(false); }
+	public TopKProver(boolean lazyWalk) {
+		this(lazyWalk,new APROptions());
+	}
+	public TopKProver(APROptions apr) {
+		this(false, apr);
+	}
+	public TopKProver(boolean lazyWalk, APROptions apr) {
+		this( (lazyWalk?STAYPROB_LAZY:STAYPROB_DEFAULT),apr);
+	}
+	protected TopKProver(double stayP, APROptions apr) {
+		super(stayP, apr);
+	}
+
+	@Override
+	public String toString() { 
+		return String.format("topk:%d:%.6g:%g", k, apr.epsilon, apr.alpha);
+	}
+
+	@Override
+	public Prover<CachingIdProofGraph> copy() {
+		TopKProver copy = new TopKProver(this.stayProbability, apr);
+		copy.setWeighter(weighter);
+		copy.params = this.params;
+		copy.k = this.k;
+		if (this.parent != null) copy.parent = this.parent;
+		else copy.parent = this;
+		return copy;
+	}
+
+	@Override
+	public void configure(String param) {
+		if (param.startsWith("k=")) {
+			this.k = Integer.parseInt(param.substring(param.indexOf('=')+1));
+		} else super.configure(param);
+	}
+
+	public void setK(int k) {
+		this.k = k;
+	}
+	public int getK() {
+		return k;
+	}
+
+	/** Total score of the completed states found by the last call to prove */
+	public double getCompletedMass() {
+		return completedMass;
+	}
+
+	@Override
+	public Map<State, Double> prove(CachingIdProofGraph pg, StatusLogger status) {
+		LongDense.FloatVector p = new LongDense.FloatVector();
+		prove(pg,p,status);
+		if (apr.traceDepth!=0) {
+			System.out.println("== proof graph: edges/nodes "+pg.edgeSize()+"/"+pg.nodeSize());
+			System.out.println(pg.treeView(apr.traceDepth,apr.traceRoot,weighter,p));
+		}
+		if (k <= 0) {
+			Map<State,Double> result = pg.asMap(p);
+			completedMass = 0;
+			for (Map.Entry<State,Double> e : result.entrySet()) {
+				if (e.getKey().isCompleted()) completedMass += e.getValue();
+			}
+			return result;
+		}
+		PriorityQueue<Integer> top = topCompleted(pg, p, k);
+		Map<State,Double> result = new HashMap<State,Double>();
+		for (int uid : top) result.put(pg.getState(uid), (double) p.get(uid));
+		return result;
+	}
+
+	@Override
+	protected boolean settled(CachingIdProofGraph pg, LongDense.FloatVector p, LongDense.FloatVector r) {
+		if (k <= 0) return false;
+		double residual = 0;
+		for (int i=0; i<r.size(); i++) residual += r.get(i);
+		PriorityQueue<Integer> top = topCompleted(pg, p, k+1);
+		if (top.isEmpty()) return false;
+		// walk up from the lowest score; a missing (k+1)th state scores 0
+		float below = top.size() > k ? p.get(top.poll()) : 0;
+		while (!top.isEmpty()) {
+			float score = p.get(top.poll());
+			if (score - below <= residual) return false;
+			below = score;
+		}
+		return true;
+	}
+
+	/**
+	 * The n highest-scoring completed states, in a bounded min-heap; also sets
+	 * completedMass.
+	 */
+	protected PriorityQueue<Integer> topCompleted(CachingIdProofGraph pg, final LongDense.FloatVector p, int n) {
+		PriorityQueue<Integer> heap = new PriorityQueue<Integer>(n+1, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Float.compare(p.get(a), p.get(b));
+			}
+		});
+		completedMass = 0;
+		for (int uid=pg.getRootId(); uid<p.size(); uid++) {
+			float pu = p.get(uid);
+			if (pu <= 0) continue;
+			State s = pg.getState(uid);
+			if (s == null || !s.isCompleted()) continue;
+			completedMass += pu;
+			if (heap.size() < n) heap.add(uid);
+			else if (pu > p.get(heap.peek())) {
+				heap.poll();
+				heap.add(uid);
+			}
+		}
+		return heap;
+	}
+}
@@ -34,6 +34,13 @@ public class CachingIdProofGraph extends ProofGraph implements InferenceGraph {
 	private ConcurrentSymbolTable<State> nodeTab;
 	private SymbolTable<Feature> featureTab;
 	private int edgeCount=0;
+	private final Thread owner = Thread.currentThread();
+	private final ThreadLocal<WamInterpreter> workerInterpreters = new ThreadLocal<WamInterpreter>() {
+		@Override
+		protected WamInterpreter initialValue() {
+			return newInterpreter();
+		}
+	};
 
 	public CachingIdProofGraph(Query query, APROptions apr, WamProgram program, WamPlugin ... plugins) throws LogicProgramException { 
 		super(query, apr, program, plugins);
@@ -61,14 +68,11 @@ public class CachingIdProofGraph extends ProofGraph implements InferenceGraph {
 		nodeTab = new ConcurrentSymbolTable<State>(new ConcurrentSymbolTable.HashingStrategy<State>() {
 			@Override
 			public Object computeKey(State s) {
-				return s.canonicalHash();
+				return s.canonicalHash64();
 			}
 			@Override
 			public boolean equals(State s1, State s2) {
-				if (s1.canonicalHash() != s2.canonicalHash()) return false;
-				s1.setCanonicalForm(interpreter, startState);
-				s2.setCanonicalForm(interpreter, startState);
-				return s1.canonicalForm().equals(s2.canonicalForm());
+				return s1.canonicallyEquals(s2);
 			}});
 		this.nodeTab.insert(this.getStartState());
 	}
@@ -86,8 +90,7 @@ public class CachingIdProofGraph extends ProofGraph implements InferenceGraph {
 		return nodeTab.getId(u); 
 	}
 	public int getDegreeById(int ui, FeatureDictWeighter weighter) throws LogicProgramException { 
-		expandIfNeeded(ui, weighter);
-		return nodeVec.get(ui).index.length; 
+		return expandIfNeeded(ui, weighter).index.length; 
 	}
 	public int getDegreeByIdWithoutLazyExpansion(int ui) 
 	{
@@ -96,12 +99,10 @@ public class CachingIdProofGraph extends ProofGraph implements InferenceGraph {
 		else return outlinks.index.length; 
 	}
 	public int getIthNeighborById(int ui,int i, FeatureDictWeighter weighter)  throws LogicProgramException {
-		expandIfNeeded(ui, weighter);
-		return nodeVec.get(ui).index[i]; 
+		return expandIfNeeded(ui, weighter).index[i]; 
 	}
 	public double getIthWeightById(int ui,int i,LongDense.AbstractFloatVector params,FeatureDictWeighter weighter)  throws LogicProgramException {
-		expandIfNeeded(ui, weighter);
-		SimpleSparse.FloatVector phi = nodeVec.get(ui).val[i]; 
+		SimpleSparse.FloatVector phi = expandIfNeeded(ui, weighter).val[i]; 
 		return Math.max(0,weighter.getSquashingFunction().compute(phi.dot(params, (float) weighter.getSquashingFunction().defaultValue())));
 	}
 	public double getTotalWeightOfOutlinks(int ui,LongDense.AbstractFloatVector params,FeatureDictWeighter weighter) throws LogicProgramException {
@@ -128,22 +129,44 @@ public class CachingIdProofGraph extends ProofGraph implements InferenceGraph {
 		return result;
 	}
 
-	/* produce and cache outlinks if you haven't yet */
-	private void expandIfNeeded(int uid, FeatureDictWeighter weighter) throws LogicProgramException {
-		if (nodeVec.get(uid)==null) {
+	/* produce and cache outlinks if you haven't yet; safe to call from several threads at once */
+	private SimpleSparse.FloatMatrix expandIfNeeded(int uid, FeatureDictWeighter weighter) throws LogicProgramException {
+		SimpleSparse.FloatMatrix mat = nodeVec.get(uid);
+		if (mat==null) {
 			State u = nodeTab.getSymbol(uid);
 			if (u!=null) {
-				List<Outlink> outlinks = this.computeOutlinks(u,true);
-				setOutlinks(uid,outlinks,weighter);
+				List<Outlink> outlinks = this.computeOutlinks(u,true,interpreter());
+				mat = outlinksAsMatrix(outlinks, weighter);
+				synchronized(nodeVec) {
+					// another thread may have beaten us to it
+					SimpleSparse.FloatMatrix old = nodeVec.setIfAbsent(uid, mat);
+					if (old == mat) edgeCount += outlinks.size();
+					mat = old;
+				}
 			}
 		}
+		return mat;
+	}
+
+	/* the graph's own interpreter on the thread that made the graph, and a new one on any other thread */
+	private WamInterpreter interpreter() {
+		if (Thread.currentThread() == owner) return this.interpreter;
+		return workerInterpreters.get();
+	}
+
+	@Override
+	protected SymbolTable<String> newConstantTable() {
+		return new ConcurrentSymbolTable<String>();
 	}
 
 
 	public void setOutlinks(int uid, List<Outlink> outlinks) { setOutlinks(uid,outlinks,null); }
 	public void setOutlinks(int uid, List<Outlink> outlinks, FeatureDictWeighter weighter) {
-		edgeCount += outlinks.size();
-		nodeVec.set(uid, outlinksAsMatrix(outlinks, weighter));
+		SimpleSparse.FloatMatrix mat = outlinksAsMatrix(outlinks, weighter);
+		synchronized(nodeVec) {
+			edgeCount += outlinks.size();
+			nodeVec.set(uid, mat);
+		}
 	}
 
 	public SimpleSparse.FloatMatrix outlinksAsMatrix(List<Outlink> outlinks, FeatureDictWeighter weighter) {
@@ -159,7 +182,7 @@ public class CachingIdProofGraph extends ProofGraph implements InferenceGraph {
 			int j=0;
 			for (Map.Entry<Feature,Double> e : o.fd.entrySet()) {
 				if (weighter != null) weighter.countFeature(e.getKey());
-				featBuf[j] = featureTab.getId(e.getKey());
+				featBuf[j] = featureId(e.getKey());
 				featVal[j] = e.getValue().floatValue();
 				j++;
 			}
@@ -171,6 +194,13 @@ public class CachingIdProofGraph extends ProofGraph implements InferenceGraph {
 		return mat;
 	}
 	
+	private int featureId(Feature f) {
+		if (featureTab instanceof ConcurrentSymbolTable) return featureTab.getId(f);
+		synchronized(featureTab) {
+			return featureTab.getId(f);
+		}
+	}
+	
 	public LongDense.FloatVector paramsAsVector(Map<Feature, Double> weights,Double dflt) {
 		return paramsAsVector(weights,dflt,featureTab);
 	}
@@ -569,7 +599,9 @@ public class CachingIdProofGraph extends ProofGraph implements InferenceGraph {
 			}
 		} else {
 			for (int i=0; i<depth; i++) sb.append("|  ");
-			sb.append(getState(ui).canonicalForm() + ":");
+			State u = getState(ui);
+			u.setCanonicalForm(interpreter, startState);
+			sb.append(u.canonicalForm() + ":");
 			sb.append(treeViewNodeSummary(p,ui,featureVec,weighter));
 			if (maxDepth>=0  && (depth+1 > maxDepth)) {
 				sb.append(" ...\n");
@@ -618,7 +650,9 @@ public class CachingIdProofGraph extends ProofGraph implements InferenceGraph {
 		} else {
 			sb.append("{"+ui+"} ");			
 		}
-		sb.append(getState(ui).canonicalForm() + " ");
+		State u = getState(ui);
+		u.setCanonicalForm(interpreter, startState);
+		sb.append(u.canonicalForm() + " ");
 		System.out.println(sb.toString());
 	}
 
@@ -0,0 +1,90 @@
+package edu.cmu.ml.proppr.prove.wam;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Stack of CallStackFrames, stored as an immutable linked list so that
+ * copying a stack (when saving or restoring interpreter states) is O(1) and
+ * states share their common frames. Push and pop only move this stack's
+ * pointer to the top frame.
+ */
+public class CallStack implements Iterable<CallStackFrame> {
+	private static final class Node {
+		final CallStackFrame frame;
+		final Node next;
+		final int size;
+		Node(CallStackFrame frame, Node next) {
+			this.frame = frame;
+			this.next = next;
+			this.size = next == null ? 1 : next.size+1;
+		}
+	}
+	private Node head;
+
+	public CallStack() {}
+	/** A copy of the stack, sharing its frames */
+	public CallStack(CallStack stack) {
+		this.head = stack.head;
+	}
+	/** Make this stack a copy of another, sharing its frames */
+	public void setTo(CallStack stack) {
+		this.head = stack.head;
+	}
+
+	public void push(CallStackFrame frame) {
+		head = new Node(frame, head);
+	}
+	public CallStackFrame pop() {
+		if (head == null) throw new NoSuchElementException();
+		CallStackFrame ret = head.frame;
+		head = head.next;
+		return ret;
+	}
+	/** The top frame, or null if the stack is empty */
+	public CallStackFrame peek() {
+		return head == null ? null : head.frame;
+	}
+	public CallStackFrame peekFirst() {
+		return peek();
+	}
+	/** The bottom frame, or null if the stack is empty */
+	public CallStackFrame peekLast() {
+		if (head == null) return null;
+		Node n = head;
+		while (n.next != null) n = n.next;
+		return n.frame;
+	}
+	public boolean isEmpty() {
+		return head == null;
+	}
+	public int size() {
+		return head == null ? 0 : head.size;
+	}
+	public void clear() {
+		head = null;
+	}
+
+	/** Iterates from the top of the stack to the bottom */
+	@Override
+	public Iterator<CallStackFrame> iterator() {
+		return new Iterator<CallStackFrame>() {
+			Node next = head;
+			@Override
+			public boolean hasNext() {
+				return next != null;
+			}
+			@Override
+			public CallStackFrame next() {
+				if (next == null) throw new NoSuchElementException();
+				CallStackFrame ret = next.frame;
+				next = next.next;
+				return ret;
+			}
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException("Can't remove from the middle of a call stack");
+			}
+		};
+	}
+}
@@ -10,12 +10,12 @@ public class CallStackFrame {
 	private int heapPointer;
 	private int registerPointer;
 	private int programCounter;
-	private String jumpTo;
+	private int jumpTo;
 	public CallStackFrame(State state) {
 		this.heapPointer = state.getHeapSize();
 		this.registerPointer = state.getRegisterSize();
 		this.programCounter = state.getProgramCounter();
-		this.jumpTo = state.getJumpTo();
+		this.jumpTo = state.getJumpToId();
 	}
 
 	public int getHeapPointer() {
@@ -31,6 +31,10 @@ public class CallStackFrame {
 	}
 
 	public String getJumpTo() {
+		return FunctorTable.getSymbol(jumpTo);
+	}
+	/** FunctorTable id of the jumpTo, or 0 if there isn't one */
+	public int getJumpToId() {
 		return jumpTo;
 	}
 	@Override
@@ -39,7 +43,7 @@ public class CallStackFrame {
 		sb.append(this.heapPointer).append(", ");
 		sb.append(this.registerPointer).append(", ");
 		sb.append(this.programCounter).append(", ");
-		sb.append(this.jumpTo);
+		sb.append(getJumpTo());
 		sb.append("]");
 		return sb.toString();
 	}
@@ -50,7 +54,7 @@ public class CallStackFrame {
 		if (heapPointer != c.heapPointer ||
 				registerPointer != c.registerPointer ||
 				programCounter != c.programCounter ||
-				!(jumpTo == null ? c.jumpTo == null : jumpTo.equals(c.jumpTo)))
+				jumpTo != c.jumpTo)
 			return false;
 		return true;
 	}
@@ -0,0 +1,82 @@
+package edu.cmu.ml.proppr.prove.wam;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.cmu.ml.proppr.prove.wam.plugins.WamPlugin;
+
+/**
+ * Interned table of jumpTo strings ("functor/arity"), shared by all programs,
+ * interpreters and plugins, so that compiled code, interpreter states and
+ * plugin claims can refer to predicates by int id.
+ *
+ * Ids start at 1; 0 means "no jumpTo". The arity, and the unweighted
+ * version of weighted predicates like "foo#/3", are computed once, when the
+ * jumpTo is first interned.
+ */
+public class FunctorTable {
+	private static final ConcurrentHashMap<String,Integer> ids = new ConcurrentHashMap<String,Integer>();
+	// arrays are replaced (never modified in place) once published, except for unused slots
+	private static volatile String[] symbols = new String[64];
+	private static volatile int[] arities = new int[64];
+	private static volatile int[] unweighted = new int[64];
+	private static int size = 0;
+
+	private FunctorTable() {}
+
+	/** Id of a jumpTo string, interning it if needed. */
+	public static int getId(String jumpTo) {
+		Integer id = ids.get(jumpTo);
+		if (id != null) return id;
+		return intern(jumpTo);
+	}
+	/** True if the jumpTo string has been interned; unlike getId, never interns it. */
+	public static boolean hasId(String jumpTo) {
+		return ids.containsKey(jumpTo);
+	}
+	private static synchronized int intern(String jumpTo) {
+		Integer known = ids.get(jumpTo);
+		if (known != null) return known;
+		int delim = jumpTo.lastIndexOf(WamInterpreter.JUMPTO_DELIMITER);
+		// bare names (no arity) are tolerated, as arity 0
+		int arity = delim < 0 ? 0 : Integer.parseInt(jumpTo.substring(delim+1));
+		int unweightedId = 0;
+		if (jumpTo.indexOf(WamInterpreter.WEIGHTED_JUMPTO_DELIMITER) >= 0)
+			unweightedId = getId(WamPlugin.unweightedJumpto(jumpTo));
+
+		int id = ++size;
+		if (id >= symbols.length) {
+			int n = 2*symbols.length;
+			symbols = Arrays.copyOf(symbols, n);
+			arities = Arrays.copyOf(arities, n);
+			unweighted = Arrays.copyOf(unweighted, n);
+		}
+		symbols[id] = jumpTo;
+		arities[id] = arity;
+		unweighted[id] = unweightedId == 0 ? id : unweightedId;
+		// publishing the id makes the entries above visible to anyone who looks it up
+		ids.put(jumpTo, id);
+		return id;
+	}
+
+	/** The jumpTo string for an id, or null for id 0. */
+	public static String getSymbol(int id) {
+		if (id == 0) return null;
+		return symbols[id];
+	}
+	public static int getArity(int id) {
+		return arities[id];
+	}
+	/** True if this is a weighted predicate like "foo#/3" */
+	public static boolean isWeighted(int id) {
+		return unweighted[id] != id;
+	}
+	/** For "foo#/3", the id of "foo/2"; otherwise, the id itself */
+	public static int getUnweighted(int id) {
+		return unweighted[id];
+	}
+	/** Number of jumpTo strings interned so far */
+	public static int size() {
+		return ids.size();
+	}
+}
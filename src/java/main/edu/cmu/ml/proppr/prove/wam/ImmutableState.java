@@ -1,7 +1,6 @@
 package edu.cmu.ml.proppr.prove.wam;
 
 import java.util.Arrays;
-import java.util.LinkedList;
 
 /**
  * An immutable, hashable version of an interpreter state.
@@ -16,15 +15,15 @@ public class ImmutableState extends State {
 //		for (int i=0; i<state.getHeapSize(); i++) this.heap[i] = state.heap[i];
 		this.registers = Arrays.copyOf(state.registers, state.getRegisterSize()); //new int[state.getRegisterSize()];
 //		for (int i=0; i<state.getRegisterSize(); i++) this.registers[i] = state.registers[i];
-		this.calls = new LinkedList<CallStackFrame>(); this.calls.addAll(state.calls);
+		this.calls = new CallStack(state.calls);
 		// TODO: varNameList
 		
 		this.pc = state.getProgramCounter();
-		this.jumpTo = state.getJumpTo();
+		this.jumpTo = state.getJumpToId();
 		this.completed = state.isCompleted();
 		this.failed = state.isFailed();
 		
-		this.hash = ((Arrays.hashCode(heap) ^ Arrays.hashCode(registers) ^ pc ^ (jumpTo!=null ? jumpTo.hashCode() : 0)) << 2) ^ (completed?1:0) ^ (failed?2:0);
+		this.hash = ((Arrays.hashCode(heap) ^ Arrays.hashCode(registers) ^ pc ^ jumpTo) << 2) ^ (completed?1:0) ^ (failed?2:0);
 	}
 	
 	@Override
@@ -1,32 +1,46 @@
 package edu.cmu.ml.proppr.prove.wam;
 
+import edu.cmu.ml.proppr.util.SymbolTable;
+
 public class Instruction {
+	/** Number of ints per instruction in the flat code array; see encode() */
+	public static final int WIDTH = 4;
+	/** Opcodes in the flat code array, for WamInterpreter to switch on; 0 is never a valid instruction */
+	public static final int COMMENT=1, ALLOCATE=2, CALLP=3, RETURNP=4, PUSHCONST=5, PUSHFREEVAR=6,
+			PUSHBOUNDVAR=7, INITFREEVAR=8, FCLEAR=9, FPUSHSTART=10, FPUSHCONST=11, FPUSHBOUNDVAR=12,
+			FREPORT=13, FFINDALL=14, FPUSHWEIGHT=15, UNIFYCONST=16, UNIFYBOUNDVAR=17;
 	public static enum OP {
-		comment,
-		allocate,
-		callp,
-		returnp,
-		pushconst,
-		pushfreevar,
-		pushboundvar,
-		initfreevar,
-		fclear (true),
-		fpushstart (true),
-		fpushconst (true),
-		fpushboundvar (true),
-		freport (true),
-		ffindall (true), 
-		fpushweight (true),
-		unifyconst,
-		unifyboundvar;
+		comment (COMMENT),
+		allocate (ALLOCATE),
+		callp (CALLP),
+		returnp (RETURNP),
+		pushconst (PUSHCONST),
+		pushfreevar (PUSHFREEVAR),
+		pushboundvar (PUSHBOUNDVAR),
+		initfreevar (INITFREEVAR),
+		fclear (FCLEAR, true),
+		fpushstart (FPUSHSTART, true),
+		fpushconst (FPUSHCONST, true),
+		fpushboundvar (FPUSHBOUNDVAR, true),
+		freport (FREPORT, true),
+		ffindall (FFINDALL, true), 
+		fpushweight (FPUSHWEIGHT, true),
+		unifyconst (UNIFYCONST),
+		unifyboundvar (UNIFYBOUNDVAR);
+		/** opcode in the flat code array; ordinal()+1 */
+		public final int code;
 		private final boolean feature;
-		OP() {this(false);}
-		OP(boolean isFeature) {this.feature = isFeature;}
+		OP(int code) {this(code, false);}
+		OP(int code, boolean isFeature) {this.code = code; this.feature = isFeature;}
 		public boolean isFeature() { return this.feature; }
 	};
+	/** OPCODES[code-1] is the OP with that code */
+	public static final OP[] OPCODES = OP.values();
 	public final OP opcode;
 	public final int i1,i2;
 	public final String s;
+	/** s, pre-linked: a FunctorTable id for callp; constants and feature functors are linked by encode() */
+	public final int sid;
 	public static Instruction parseInstruction(String line) {
 		String[] parts = line.split("\t",2);
 		String[] args;
@@ -61,18 +75,21 @@ public class Instruction {
 		this.opcode = o;
 		i1=i2=0;
 		s=null;
+		sid=0;
 	}
 	/** allocate,pushfreevar, pushboundvar, fpushboundvar, ffindall */
 	public Instruction(OP o, int i) {
 		this.opcode = o;
 		this.i1=i;
 		i2=0; s=null;
+		sid=0;
 	}
 	/** callp, pushconst, fpushconst */
 	public Instruction(OP o, String s) {
 		this.opcode = o;
 		this.s = s;
 		i1=i2=0;
+		this.sid = link(o,s);
 	}
 	/** initfreevar, unifyboundvar */
 	public Instruction(OP o, int i1, int i2) {
@@ -80,6 +97,7 @@ public class Instruction {
 		this.i1=i1;
 		this.i2=i2;
 		s=null;
+		sid=0;
 	}
 	/** unifyconst, fpushstart */
 	public Instruction(OP o, String s, int i) {
@@ -87,6 +105,30 @@ public class Instruction {
 		this.s = s;
 		this.i1 = i;
 		i2=0;
+		this.sid = link(o,s);
+	}
+	private static int link(OP o, String s) {
+		switch(o) {
+		case callp: return FunctorTable.getId(s);
+		default: return 0;
+		}
+	}
+	/**
+	 * Write this instruction to code[k..k+WIDTH) as
+	 * opcode.code (so that 0 is never a valid instruction), i1, i2, and then
+	 * the id of s in operands for constants and feature functors, or sid otherwise.
+	 */
+	public void encode(int[] code, int k, SymbolTable<String> operands) {
+		code[k] = opcode.code;
+		code[k+1] = i1;
+		code[k+2] = i2;
+		switch(opcode) {
+		case pushconst:
+		case unifyconst:
+		case fpushconst:
+		case fpushstart: code[k+3] = operands.getId(s); break;
+		default: code[k+3] = sid;
+		}
 	}
 	@Override
 	public String toString() {
@@ -2,7 +2,6 @@ package edu.cmu.ml.proppr.prove.wam;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.log4j.Logger;
@@ -30,7 +29,7 @@ public class MutableState extends State {
 		
 		this.pc = -1;
 		
-		this.calls = new LinkedList<CallStackFrame>();
+		this.calls = new CallStack();
 	}
 
 	public MutableState(ImmutableState state) {
@@ -42,7 +41,7 @@ public class MutableState extends State {
 
 		this.heap = Arrays.copyOf(state.heap, state.getHeapSize());
 		this.registers = Arrays.copyOf(state.registers, state.getRegisterSize());
-		this.calls = new LinkedList<CallStackFrame>(); this.calls.addAll(state.calls);
+		this.calls = new CallStack(state.calls);
 		
 		this.hn = this.heap.length;
 		this.rn = this.registers.length;
@@ -53,6 +52,32 @@ public class MutableState extends State {
 		this.failed = state.failed;
 	}
 
+	/**
+	 * Overwrite this state with a copy of s, reusing this state's heap and
+	 * register buffers where they're big enough. Call stack frames are shared.
+	 */
+	public void restore(State s) {
+		int n = s.getHeapSize();
+		if (heap.length < n) heap = new int[Math.max(n, 2*heap.length)];
+		System.arraycopy(s.heap, 0, heap, 0, n);
+		this.hn = n;
+		n = s.getRegisterSize();
+		if (registers.length < n) registers = new int[Math.max(n, 2*registers.length)];
+		System.arraycopy(s.registers, 0, registers, 0, n);
+		this.rn = n;
+		this.calls.setTo(s.calls);
+		
+		this.pc = s.pc;
+		this.jumpTo = s.jumpTo;
+		this.completed = s.completed;
+		this.failed = s.failed;
+		this.wt = 0;
+		this.canon = 0;
+		this.canonF = null;
+		this.canonCode = null;
+		this.canonHash = 0;
+	}
+
 	@Override
 	public ImmutableState immutableVersion() {
 		return new ImmutableState(this);
@@ -82,12 +107,16 @@ public class MutableState extends State {
 	}
 
 
-	public LinkedList<CallStackFrame> getCalls() {
+	public CallStack getCalls() {
 		return this.calls;
 	}
 
 	public void setJumpTo(String pred) {
-		this.jumpTo = pred;
+		this.jumpTo = pred==null ? 0 : FunctorTable.getId(pred);
+	}
+	/** Set the jumpTo by FunctorTable id */
+	public void setJumpTo(int functor) {
+		this.jumpTo = functor;
 	}
 
 	public void incrementProgramCounter() {
@@ -43,6 +43,7 @@ public abstract class ProofGraph {
 	protected InferenceExample example;
 	protected WamProgram program;
 	protected final WamInterpreter interpreter;
+	protected WamPlugin[] plugins;
 	private int queryStartAddress;
 	protected final ImmutableState startState;
 	private int[] variableIds;
@@ -60,8 +61,8 @@ public abstract class ProofGraph {
 		this.example = ex; 
 		this.apr = apr;
 		this.program = new WamQueryProgram(program);
-		WamPlugin[] fullPluginList = addBuiltinPlugins(plugins);
-		this.interpreter = new WamInterpreter(this.program, fullPluginList);
+		this.plugins = addBuiltinPlugins(plugins);
+		this.interpreter = new WamInterpreter(newConstantTable(), this.program, this.plugins);
 		this.startState = this.createStartState();
 		
 		this.trueLoopFD = new HashMap<Feature,Double>(); this.trueLoopFD.put(TRUELOOP,1.0);
@@ -69,6 +70,14 @@ public abstract class ProofGraph {
 		this.init(featureTab);
 	}
 	protected abstract void init(SymbolTable<Feature> featureTab);
+	/** Template: subclasses which expand states from several threads need a threadsafe constant table */
+	protected SymbolTable<String> newConstantTable() {
+		return new SimpleSymbolTable<String>();
+	}
+	/** A new interpreter for this graph's program, sharing its plugins and constant table, for use on another thread */
+	protected WamInterpreter newInterpreter() {
+		return new WamInterpreter(this.interpreter.getConstantTable(), this.program, this.plugins);
+	}
 	private ImmutableState createStartState() throws LogicProgramException {
 		// execute to the first call
 		this.example.getQuery().variabilize();
@@ -114,13 +123,16 @@ public abstract class ProofGraph {
 	
 
 	protected List<Outlink> computeOutlinks(State state, boolean trueLoop) throws LogicProgramException {
+		return computeOutlinks(state, trueLoop, this.interpreter);
+	}
+	protected List<Outlink> computeOutlinks(State state, boolean trueLoop, WamInterpreter interpreter) throws LogicProgramException {
 		List<Outlink> result = new ArrayList<Outlink>();
 		if (state.isCompleted()) {
 			if (trueLoop) {
 				result.add(new Outlink(this.trueLoopFD, state));
 			}
 		} else if (!state.isFailed()) {
-			result = this.interpreter.wamOutlinks(state);
+			result = interpreter.wamOutlinks(state);
 		}
 		
 		// add restart
@@ -130,7 +142,7 @@ public abstract class ProofGraph {
 		
 		// generate canonical versions of each state
 		for (Outlink o : result) {
-			o.child.setCanonicalHash(this.interpreter, this.startState);
+			o.child.setCanonicalHash(interpreter, this.startState);
 		}
 		return result;
 	}
@@ -2,8 +2,6 @@ package edu.cmu.ml.proppr.prove.wam;
 
 import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 
 import org.apache.log4j.Logger;
 
@@ -28,12 +26,14 @@ public abstract class State {
 	protected int[] heap;
 	protected int[] registers;
 	protected int pc;
-	protected String jumpTo;
+	protected int jumpTo;     // FunctorTable id; 0 if none
 	protected boolean completed;
 	protected boolean failed;
-	protected LinkedList<CallStackFrame> calls;
+	protected CallStack calls;
 	protected int canon;      // canonical hash code - for duplicate checking
 	protected String canonF;  // canonical format - canon is hash of this
+	protected int[] canonCode; // compact canonical format
+	protected long canonHash; // 64-bit hash of canonCode
 	/** True iff there is a constant at heap position i. */
 	public boolean hasConstantAt(int i) { return heap[i]<0; }
 	/** True iff there is a variable at heap position i. */
@@ -102,10 +102,15 @@ public abstract class State {
 
 	
 	public String getJumpTo() {
+		return FunctorTable.getSymbol(jumpTo);
+	}
+
+	/** FunctorTable id of the jumpTo, or 0 if there isn't one */
+	public int getJumpToId() {
 		return jumpTo;
 	}
 	
-	public List<CallStackFrame> getCalls() {
+	public CallStack getCalls() {
 		return calls;
 	}
 
@@ -118,7 +123,7 @@ public abstract class State {
 		sb.append(" ");
 		buildCallStackString(sb);
 		sb.append(" ");
-		sb.append(pc).append(" ").append(jumpTo);
+		sb.append(pc).append(" ").append(getJumpTo());
 		sb.append(">");
 		if (completed) sb.append("*");
 		if (failed) sb.append("!");
@@ -173,15 +178,49 @@ public abstract class State {
 	public String canonicalForm() {
 		return canonF;
 	}
+	/** 64-bit hash of the canonical code, if it has been set */
+	public long canonicalHash64() {
+		return canonHash;
+	}
+	public int[] canonicalCode() {
+		return canonCode;
+	}
+	/**
+	 * True if the two states have the same canonical code. States whose code
+	 * hasn't been set are compared by their canonical form strings instead, if
+	 * both have them, and otherwise by their canonical hash alone.
+	 */
+	public boolean canonicallyEquals(State s) {
+		if (this == s) return true;
+		if (this.canon != s.canon) return false;
+		if (this.canonCode == null || s.canonCode == null) {
+			if (this.canonF == null || s.canonF == null) return true;
+			return this.canonF.equals(s.canonF);
+		}
+		return this.canonHash == s.canonHash && Arrays.equals(this.canonCode, s.canonCode);
+	}
+	/** Compute the canonical code, and the hashes derived from it, unless we already have them. */
 	public void setCanonicalHash(WamInterpreter interpreter, State startState) {
+		if (this.canonCode != null) return;
 		try {
-//			this.canon = interpreter.canonicalForm(startState, this).hashCode();
-			 setCanonicalHash(interpreter.canonicalHash(startState, this));
+			setCanonicalCode(interpreter.canonicalCode(startState, this));
 		} catch (LogicProgramException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
 	}
+	public void setCanonicalCode(int[] code) {
+		long h = 0x9E3779B97F4A7C15L ^ code.length;
+		for (int c : code) {
+			h = (h ^ c) * 0xBF58476D1CE4E5B9L;
+			h ^= h >>> 31;
+		}
+		h = (h ^ (h >>> 30)) * 0x94D049BB133111EBL;
+		h ^= h >>> 31;
+		this.canonCode = code;
+		this.canonHash = h;
+		this.canon = (int) (h ^ (h >>> 32));
+	}
 	public void setCanonicalHash(int i) {
 		this.canon = i;
 	}
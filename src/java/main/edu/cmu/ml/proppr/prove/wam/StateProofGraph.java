@@ -18,7 +18,6 @@ import edu.cmu.ml.proppr.prove.wam.plugins.WamPlugin;
 import edu.cmu.ml.proppr.util.APROptions;
 import edu.cmu.ml.proppr.util.SimpleSymbolTable;
 import edu.cmu.ml.proppr.util.SymbolTable;
-import gnu.trove.strategy.HashingStrategy;
 
 public class StateProofGraph extends ProofGraph {
 	private static final Logger log = Logger.getLogger(ProofGraph.class);
@@ -34,20 +33,7 @@ public class StateProofGraph extends ProofGraph {
 //	}
 	@Override
 	protected void init(SymbolTable<Feature> featureTab) {
-		this.graph = new LightweightStateGraph(new HashingStrategy<State>() {
-			@Override
-			public int computeHashCode(State s) {
-				return s.canonicalHash();
-			}
-
-			@Override
-			public boolean equals(State s1, State s2) {
-				if (s1.canonicalHash() != s2.canonicalHash()) return false;
-				s1.setCanonicalForm(interpreter, startState);
-				s2.setCanonicalForm(interpreter, startState);
-				return s1.canonicalForm().equals(s2.canonicalForm());
-			}},
-			featureTab);
+		this.graph = new LightweightStateGraph(LightweightStateGraph.CANONICAL_STATES, featureTab);
 	}
 	@Override
 	public int getId(State s) {
@@ -7,10 +7,15 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import edu.cmu.ml.proppr.util.SimpleSymbolTable;
+import edu.cmu.ml.proppr.util.SymbolTable;
+import gnu.trove.map.hash.TIntObjectHashMap;
+
 
 /**
  * Holds a modified Warran abstract machine program, consisting of:
@@ -23,6 +28,10 @@ import java.util.Map;
 
     3) instLabels = a dict such that instLabels[i] is the label
     given to instruction i, if there is such a label.
+
+    The instructions are also kept pre-linked in a flat int array, with
+    labels resolved to FunctorTable ids and constants to ids in the
+    program's own operand table, for the interpreter.
  * @author "William Cohen <wcohen@cs.cmu.edu>"
  * @author "Kathryn Mazaitis <krivard@cs.cmu.edu>"
  *
@@ -31,17 +40,26 @@ public class WamBaseProgram extends WamProgram {
 	private List<Instruction> instructions;
 	private Map<Integer,String> instLabels;
 	private Map<String,List<Integer>> labels;
+	private TIntObjectHashMap<int[]> addresses;
+	private int[] code;
+	private SymbolTable<String> operands;
 	private int saveLength;
 	public WamBaseProgram() {
 		instructions = new ArrayList<Instruction>();
 		instLabels = new HashMap<Integer,String>();
 		labels = new HashMap<String,List<Integer>>();
+		addresses = new TIntObjectHashMap<int[]>();
+		code = new int[16*Instruction.WIDTH];
+		operands = new SimpleSymbolTable<String>();
 	}
 	/* (non-Javadoc)
 	 * @see edu.cmu.ml.proppr.prove.wam.IWamProgram#append(edu.cmu.ml.proppr.prove.wam.Instruction)
 	 */
 	@Override
 	public void append(Instruction inst) {
+		int k = instructions.size() * Instruction.WIDTH;
+		if (k + Instruction.WIDTH > code.length) code = Arrays.copyOf(code, 2*code.length);
+		inst.encode(code, k, operands);
 		instructions.add(inst);
 	}
 
@@ -51,6 +69,7 @@ public class WamBaseProgram extends WamProgram {
 	@Override
 	public void setInstruction(int placeToPatch, Instruction instruction) {
 		this.instructions.set(placeToPatch, instruction);
+		instruction.encode(code, placeToPatch * Instruction.WIDTH, operands);
 	}
 	/* (non-Javadoc)
 	 * @see edu.cmu.ml.proppr.prove.wam.IWamProgram#size()
@@ -73,6 +92,11 @@ public class WamBaseProgram extends WamProgram {
 		instLabels.put(i, label);
 		if (!labels.containsKey(label)) labels.put(label, new ArrayList<Integer>());
 		labels.get(label).add(i);
+		int functor = FunctorTable.getId(label);
+		int[] old = addresses.get(functor);
+		int[] addrs = old == null ? new int[1] : Arrays.copyOf(old, old.length+1);
+		addrs[addrs.length-1] = i;
+		addresses.put(functor, addrs);
 	}
 	/* (non-Javadoc)
 	 * @see edu.cmu.ml.proppr.prove.wam.IWamProgram#hasLabel(java.lang.String)
@@ -88,6 +112,30 @@ public class WamBaseProgram extends WamProgram {
 	public List<Integer> getAddresses(String jumpTo) {
 		return labels.get(jumpTo);
 	}
+	@Override
+	public boolean hasLabel(int functor) {
+		return addresses.containsKey(functor);
+	}
+	@Override
+	public int[] getAddresses(int functor) {
+		return addresses.get(functor);
+	}
+	@Override
+	public int[] getCode(int addr) {
+		return code;
+	}
+	@Override
+	public int getCodeBase(int addr) {
+		return 0;
+	}
+	@Override
+	public int getCodeEnd(int addr) {
+		return instructions.size();
+	}
+	@Override
+	public SymbolTable<String> getOperands(int addr) {
+		return operands;
+	}
 	/* (non-Javadoc)
 	 * @see edu.cmu.ml.proppr.prove.wam.IWamProgram#save()
 	 */
@@ -103,6 +151,7 @@ public class WamBaseProgram extends WamProgram {
 		for (int i=this.instructions.size()-1; i>=this.saveLength; i--) {
 			this.instructions.remove(i);
 		}
+		Arrays.fill(code, this.saveLength * Instruction.WIDTH, code.length, 0);
 	}
 	
 	public static WamProgram load(File file) throws IOException {
@@ -10,9 +10,12 @@ import java.util.Set;
 
 import org.apache.log4j.Logger;
 
+import edu.cmu.ml.proppr.prove.wam.plugins.CachingPlugin;
 import edu.cmu.ml.proppr.prove.wam.plugins.WamPlugin;
 import edu.cmu.ml.proppr.util.SimpleSymbolTable;
 import edu.cmu.ml.proppr.util.SymbolTable;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TIntIntHashMap;
 
 
 /* wwcmod: how can { f(W,Y) : hasWord(X,W) } do something for weighted features?
@@ -47,11 +50,17 @@ public class WamInterpreter {
 	private static final Logger log = Logger.getLogger(WamInterpreter.class);
 	private static final int MAXDEPTH = 5;
 	private MutableState state;
+	private MutableState scratch;
 	private SymbolTable<String> constantTable;
 	private List<FeatureBuilder> featureStack;
 	private Map<Feature,Double> reportedFeatures;
 	private WamProgram program;
 	private WamPlugin[] plugins;
+	// constant table ids of operands, one map per operand table; cleared with the constant table
+	private List<Operands> operandMaps = new ArrayList<Operands>();
+	private Operands lastOperands;
+	// told about plugin bindings, while a CachingPlugin is recording them
+	private CachingPlugin.Recorder recorder;
 	public static final String WEIGHTED_JUMPTO_DELIMITER="#/";
 	public static final String JUMPTO_DELIMITER = "/";
 	private static final int MAX_HASH = 1 << (Integer.SIZE-2);
@@ -73,8 +82,20 @@ public class WamInterpreter {
 		return this.program;
 	}
 	public ImmutableState saveState() {return this.state.immutableVersion();}
+	/** 
+	 * Make s the current state. Immutable states are copied into a scratch 
+	 * MutableState which is reused from one call to the next, unless it has 
+	 * been handed out by getState().
+	 */
 	public void restoreState(State s) {
-		this.state = s.mutableVersion();
+		if (recorder != null) recorder.restored(s);
+		if (s instanceof MutableState) {
+			this.state = (MutableState) s;
+			return;
+		}
+		if (this.scratch == null) this.scratch = new MutableState();
+		this.scratch.restore(s);
+		this.state = this.scratch;
 	}
 
 	public Map<Feature,Double> executeWithoutBranching() { return executeWithoutBranching(-1); }
@@ -101,14 +122,56 @@ public class WamInterpreter {
 
 		//execute opcodes until we fail, the program completes, or we hit a callp opcode (indicated by setting pc=-1)
 		// or we hit a freport opcode (indicated by setting reportedFeatures to a non-empty set)
+		boolean debug = log.isDebugEnabled();
+		int[] code = null;
+		Operands operands = null;
+		int base = 0, end = 0;
 		while( !state.isFailed() && !state.isCompleted() && this.reportedFeatures.isEmpty() && state.getProgramCounter()>=0) {
-			Instruction inst = this.program.getInstruction(state.getProgramCounter());
-			execute(inst,computeFeatures);
+			int pc = state.getProgramCounter();
+			if (pc < base || pc >= end) {
+				code = this.program.getCode(pc);
+				base = this.program.getCodeBase(pc);
+				end = this.program.getCodeEnd(pc);
+				operands = operands(this.program.getOperands(pc));
+			}
+			if (debug) log.debug(this.program.getInstruction(pc));
+			execute(code, (pc-base)*Instruction.WIDTH, operands);
+			if (debug) log.debug("at "+this.state.getProgramCounter()+": state "+state);
 		}
 		//if(state.isCompleted() && log.isDebugEnabled()) log.debug(this.constantTable.toString());
 		return this.reportedFeatures;
 	}
 
+	/** Execute the pre-linked instruction at code[k..k+Instruction.WIDTH); see Instruction.encode() */
+	private void execute(int[] code, int k, Operands operands) {
+		int op = code[k];
+		int i1 = code[k+1], i2 = code[k+2], sid = code[k+3];
+		try {
+			switch(op) {
+			case Instruction.ALLOCATE: allocate(i1); break;
+			case Instruction.CALLP: callp(sid); break;
+			case Instruction.RETURNP: returnFromCall(); break;
+			case Instruction.PUSHCONST: pushconst(operands, sid); break;
+			case Instruction.PUSHFREEVAR: pushfreevar(i1); break;
+			case Instruction.PUSHBOUNDVAR: pushboundvar(i1); break;
+			case Instruction.UNIFYCONST: unifyconst(operands, sid, i1); break;
+			case Instruction.INITFREEVAR: initfreevar(i1, i2); break;
+			case Instruction.UNIFYBOUNDVAR: unifyboundvar(i1, i2); break;
+			case Instruction.FCLEAR: fclear(); break;
+			case Instruction.FPUSHSTART: fpushstart(operands.table.getSymbol(sid), i1); break;
+			case Instruction.FPUSHCONST: fpushconst(operands, sid); break;
+			case Instruction.FPUSHBOUNDVAR: fpushboundvar(i1); break;
+			case Instruction.FPUSHWEIGHT: fpushweight(); break;
+			case Instruction.FREPORT: freport(); break;
+			case Instruction.FFINDALL: ffindall(i1); break;
+			case Instruction.COMMENT: break;
+			default: throw new IllegalStateException("No instruction at "+state.getProgramCounter());
+			}
+		} catch(LogicProgramException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
 	public void execute(Instruction inst, boolean computeFeatures) {
 		if (log.isDebugEnabled()) log.debug(inst);
 		if (!computeFeatures && inst.opcode.isFeature()) {
@@ -118,7 +181,7 @@ public class WamInterpreter {
 			switch(inst.opcode) {
 			case allocate: allocate(inst.i1); break;
 			case callp: callp(inst.s); break;
-			case returnp: returnp(); break;
+			case returnp: returnFromCall(); break;
 			case pushconst: pushconst(inst.s);break;
 			case pushfreevar: pushfreevar(inst.i1);break;
 			case pushboundvar: pushboundvar(inst.i1); break;
@@ -162,8 +225,9 @@ public class WamInterpreter {
 	public List<Outlink> wamOutlinks(State s, boolean computeFeatures) throws LogicProgramException {
 		if (s.isCompleted()) return Collections.emptyList();
 		List<Outlink> result = new ArrayList<Outlink>();
+		int functor = s.getJumpToId();
 		for (WamPlugin plugin : this.plugins) {
-			if (plugin.claim(s.getJumpTo())) {
+			if (plugin.claim(functor)) {
 				if (log.isDebugEnabled()) log.debug("Executing "+s.getJumpTo()+" from "+plugin.about());
 				this.restoreState(s);
 				//if (log.isDebugEnabled()) log.debug(this.constantTable.toString());
@@ -173,9 +237,10 @@ public class WamInterpreter {
 				return result;
 			}
 		}
-		if (!this.program.hasLabel(s.getJumpTo())) 
+		int[] addresses = this.program.getAddresses(functor);
+		if (addresses == null) 
 			throw new LogicProgramException("Unknown predicate "+s.getJumpTo());
-		for (Integer address : program.getAddresses(s.getJumpTo())) {
+		for (int address : addresses) {
 			if (log.isDebugEnabled()) log.debug("Executing "+s.getJumpTo()+" from "+address);
 			this.restoreState(s);
 			//if (log.isDebugEnabled()) log.debug(this.constantTable.toString());
@@ -195,16 +260,65 @@ public class WamInterpreter {
 		return result;
 	}
 	public MutableState getState() {
+		// the caller may hold on to this, so don't reuse it
+		if (this.state == this.scratch) this.scratch = null;
 		return this.state;
 	}	
 	public void setState(MutableState child) {
 		this.state = child;
 	}
+	/** Report plugin bindings made through setArg, setWt, and returnp to this recorder; null to stop */
+	public void setRecorder(CachingPlugin.Recorder recorder) {
+		this.recorder = recorder;
+	}
 	public SymbolTable<String> getConstantTable() {
 		return constantTable;
 	}
 	public void setConstantTable(SimpleSymbolTable<String> ct) {
 		this.constantTable = ct;
+		this.operandMaps.clear();
+		this.lastOperands = null;
+	}
+	/**
+	 * Operand ids in one operand table, mapped to and from constant table ids.
+	 * The maps are sparse, so they only grow with the operands this interpreter
+	 * actually uses, not with the size of the operand table.
+	 */
+	private static class Operands {
+		final SymbolTable<String> table;
+		final TIntIntHashMap constantIds = new TIntIntHashMap();
+		final TIntIntHashMap operandIds = new TIntIntHashMap();
+		Operands(SymbolTable<String> table) {
+			this.table = table;
+		}
+		void cache(int operand, int id) {
+			constantIds.put(operand, id);
+			operandIds.put(id, operand);
+		}
+	}
+	private Operands operands(SymbolTable<String> table) {
+		if (lastOperands != null && lastOperands.table == table) return lastOperands;
+		for (Operands o : operandMaps) {
+			if (o.table == table) return lastOperands = o;
+		}
+		lastOperands = new Operands(table);
+		operandMaps.add(lastOperands);
+		return lastOperands;
+	}
+	/** Constant table id for an operand, inserting it if needed */
+	private int constantId(Operands operands, int operand) {
+		int id = operands.constantIds.get(operand);
+		if (id > 0) return id;
+		id = constantTable.getId(operands.table.getSymbol(operand));
+		operands.cache(operand, id);
+		return id;
+	}
+	/** Constant table id for an operand, or 0 if it isn't in the table */
+	private int knownConstantId(Operands operands, int operand) {
+		int id = operands.constantIds.get(operand);
+		if (id > 0) return id;
+		if (!constantTable.hasId(operands.table.getSymbol(operand))) return 0;
+		return constantId(operands, operand);
 	}
 	public List<FeatureBuilder> getFeatureStack() {
 		return featureStack;
@@ -223,14 +337,22 @@ public class WamInterpreter {
 		state.incrementProgramCounter();
 	}
 	public void callp(String predicate) {
+		callp(FunctorTable.getId(predicate));
+	}
+	private void callp(int functor) {
 		state.incrementProgramCounter();
 		state.getCalls().push(new CallStackFrame(state));
-		state.setJumpTo(predicate);
+		state.setJumpTo(functor);
 		state.setProgramCounter(-1);
 	}
 	/** Mark as completed if we're at the top level, and otherwise, pop a
-        CallStackFrame and return to that state. */
+        CallStackFrame and return to that state. For plugins, which call 
+        this once per answer. */
 	public void returnp() {
+		if (recorder != null) recorder.returned();
+		returnFromCall();
+	}
+	private void returnFromCall() {
 		if (state.getCalls().isEmpty()) { 
 			state.setCompleted(true);
 			return;
@@ -241,13 +363,17 @@ public class WamInterpreter {
 		state.truncateRegisters(frame.getRegisterPointer());
 		//		state.truncateVarNameList(frame.getRegisterPointer());
 		state.setProgramCounter(frame.getProgramCounter());
-		state.setJumpTo(frame.getJumpTo());
+		state.setJumpTo(frame.getJumpToId());
 	}
 	public void pushconst(String a) {
 		int id=getConstantTable().getId(a);
 		state.appendHeap(state.createConstantCell(id));
 		state.incrementProgramCounter();
 	}
+	private void pushconst(Operands operands, int operand) {
+		state.appendHeap(state.createConstantCell(constantId(operands, operand)));
+		state.incrementProgramCounter();
+	}
 	public void pushfreevar(int a) {
 		if (a>=0) throw new IllegalArgumentException("a must be <0");
 		int i=state.getHeapSize();
@@ -262,19 +388,27 @@ public class WamInterpreter {
 		state.incrementProgramCounter();
 	}
 	public void unifyconst(String a, int relativeHeapIndex) throws LogicProgramException {
+		int aid = getConstantTable().hasId(a) ? getConstantTable().getId(a) : 0;
+		unifyconstId(aid, a, relativeHeapIndex);
+	}
+	private void unifyconst(Operands operands, int operand, int relativeHeapIndex) throws LogicProgramException {
+		unifyconstId(knownConstantId(operands, operand), operands.table.getSymbol(operand), relativeHeapIndex);
+	}
+	/** aid is the constant table id of a, or 0 if a isn't in the table yet */
+	private void unifyconstId(int aid, String a, int relativeHeapIndex) throws LogicProgramException {
 		if (relativeHeapIndex>=0) throw new IllegalStateException("relative heap index must be <0");
 		int i = state.getHeapSize() + relativeHeapIndex;
 		int ri = state.dereference(i);
 		if (state.hasConstantAt(ri)) {
-			if (!getConstantTable().hasId(a)) {
+			if (aid == 0) {
 				state.setFailed(true);
 			} else {
-				int aid = getConstantTable().getId(a);
 				state.setFailed(state.getIdOfConstantAt(ri) != aid);
 			}
 		} else {
 			if (!state.hasFreeAt(ri)) throw new LogicProgramException("ri(="+ri+") is neither free nor constant?");
-			state.setHeap(ri, state.createConstantCell(getConstantTable().getId(a)));
+			if (aid == 0) aid = getConstantTable().getId(a);
+			state.setHeap(ri, state.createConstantCell(aid));
 			state.collapsePointers(i, ri);
 		}
 		state.incrementProgramCounter();
@@ -332,6 +466,10 @@ public class WamInterpreter {
 		getFeaturePeek().append(getConstantTable().getId(a));
 		this.state.incrementProgramCounter();
 	}
+	private void fpushconst(Operands operands, int operand) {
+		getFeaturePeek().append(constantId(operands, operand));
+		this.state.incrementProgramCounter();
+	}
 	public void fpushboundvar(int a) throws LogicProgramException {
 		if (a >= 0) throw new IllegalArgumentException("a must be <0");
 		int ra = state.dereference(state.getRegister(a));
@@ -377,6 +515,23 @@ public class WamInterpreter {
 		if (state.hasFreeAt(rj)) return null;
 		return heapIndexToConstant(rj);
 	}
+	/** Like getConstantArg, but return the id of the constant in the operands table, 
+	 * -1 if it is an unbound variable, or 0 if the constant isn't in the table.
+	 * @throws LogicProgramException */
+	public int getConstantArgOperand(int k, int i, SymbolTable<String> operands) throws LogicProgramException {
+		int rj = this.dereferenceArgument(k,i);
+		if (state.hasFreeAt(rj)) return -1;
+		if (!state.hasConstantAt(rj)) throw new LogicProgramException("Expected constant at "+rj);
+		int id = state.getIdOfConstantAt(rj);
+		Operands o = operands(operands);
+		int operand = o.operandIds.get(id);
+		if (operand > 0) return operand;
+		String a = constantTable.getSymbol(id);
+		if (!operands.hasId(a)) return 0;
+		operand = operands.getId(a);
+		o.cache(operand, id);
+		return operand;
+	}
 	private String heapIndexToConstant(int rj) throws LogicProgramException {
 		if (!state.hasConstantAt(rj)) throw new LogicProgramException("Expected constant at "+rj);
 		int id = state.getIdOfConstantAt(rj);
@@ -400,10 +555,23 @@ public class WamInterpreter {
 		if (!state.hasFreeAt(rj)) throw new LogicProgramException("var "+rj+" is not free in setArg("+k+","+i+","+value+"):\n"+state.toString());
 		if (log.isDebugEnabled()) log.debug("setArg("+k+","+i+","+value+")");
 		int id = constantTable.getId(value);
+		if (recorder != null) recorder.setArg(i, value);
 		state.setHeap(rj, state.createConstantCell(id));
 		state.collapsePointers(j, rj);
 		if (log.isDebugEnabled()) log.debug("at _: state "+state);
 	}
+	/** Like setArg, but with the id of the value in the operands table. 
+	 * @throws LogicProgramException */
+	public void setArgOperand(int k, int i, SymbolTable<String> operands, int operand) throws LogicProgramException {
+		int j = getHeapwiseIndex(k, i);
+		int rj = state.dereference(j);
+		if (!state.hasFreeAt(rj)) throw new LogicProgramException("var "+rj+" is not free in setArg("+k+","+i+","+operands.getSymbol(operand)+"):\n"+state.toString());
+		if (log.isDebugEnabled()) log.debug("setArg("+k+","+i+","+operands.getSymbol(operand)+")");
+		if (recorder != null) recorder.setArg(i, operands.getSymbol(operand));
+		state.setHeap(rj, state.createConstantCell(constantId(operands(operands), operand)));
+		state.collapsePointers(j, rj);
+		if (log.isDebugEnabled()) log.debug("at _: state "+state);
+	}
 	/** Special accessor to the current state: set the weight associated
     with the i-th argument, starting at 1, of a arity-k predicate. 
 	 * @throws LogicProgramException */
@@ -412,6 +580,7 @@ public class WamInterpreter {
 		int rj = state.dereference(j);
 		if (!state.hasFreeAt(rj)) throw new LogicProgramException("var "+rj+" is not free in setArg("+k+","+i+","+value+"):\n"+state.toString());
 		if (log.isDebugEnabled()) log.debug("setArg("+k+","+i+","+value+")");
+		if (recorder != null) recorder.setWt(i, value);
 		// use 1 as a placeholder in the heap
 		state.setHeap(rj, state.createConstantCell(1));
 		state.setWeight(value);
@@ -458,7 +627,7 @@ public class WamInterpreter {
 				// call information
 				hash = hash << 1;
 				hash = hash ^ this.state.getJumpTo().hashCode();
-				int arity = Integer.parseInt(this.state.getJumpTo().split(WamInterpreter.JUMPTO_DELIMITER)[1]);
+				int arity = FunctorTable.getArity(this.state.getJumpToId());
 				for (int i=0; i<arity; i++) {
 					hash = hash ^ this.getArg(arity, i+1).hashCode();
 				}
@@ -468,6 +637,49 @@ public class WamInterpreter {
 		this.restoreState(saved);
 		return hash;
 	}
+	/**
+	 * Compact version of canonicalForm(): the same information, as a list of ints.
+	 * 
+	 * Bindings of the root state's registers come first, then each pending goal as
+	 * its FunctorTable id followed by
+	 * its arguments. Constants are encoded as negative constant ids, and variables
+	 * are renumbered 0,1,2... in order of first appearance, so that states which
+	 * differ only in the heap positions of their free variables get the same code.
+	 */
+	public int[] canonicalCode(State root, State from) throws LogicProgramException {
+		TIntArrayList code = new TIntArrayList(root.getRegisterSize()*2);
+		TIntIntHashMap vars = new TIntIntHashMap();
+		// first get binding information for vars in the root state
+		for (int k : root.getRegisters()) {
+			code.add(canonicalCell(from, from.dereference(k), vars));
+		}
+		// next get pending goal information
+		// back up the current state
+		State saved = this.saveState();
+		this.restoreState(from);
+		// simulate executing the remainder of the program, till completion, but
+		// when there is a 'callp', just emit the current goal and return
+		while(!this.state.completed) {
+			this.executeWithoutBranching(false);
+			if (this.state.getJumpTo() != null) {
+				// call information
+				int functor = this.state.getJumpToId();
+				code.add(functor);
+				int arity = FunctorTable.getArity(functor);
+				for (int i=0; i<arity; i++) {
+					code.add(canonicalCell(this.state, this.dereferenceArgument(arity, i+1), vars));
+				}
+				this.returnp();
+			}
+		}
+		this.restoreState(saved);
+		return code.toArray();
+	}
+	private int canonicalCell(State s, int j, TIntIntHashMap vars) {
+		if (s.hasConstantAt(j)) return -s.getIdOfConstantAt(j);
+		if (!vars.containsKey(j)) vars.put(j, vars.size());
+		return vars.get(j);
+	}
 	public String canonicalForm(State root, State from) throws LogicProgramException {
 		// buffer to hold canonical version of the state
 		StringBuilder sb = new StringBuilder();
@@ -494,7 +706,7 @@ public class WamInterpreter {
 			if (this.state.getJumpTo() != null) {
 				// call information
 				sb.append(this.state.getJumpTo()).append(" ");
-				int arity = Integer.parseInt(this.state.getJumpTo().split(WamInterpreter.JUMPTO_DELIMITER)[1]);
+				int arity = FunctorTable.getArity(this.state.getJumpToId());
 				for (int i=0; i<arity; i++) {
 					if (i>0) sb.append(" ");
 					sb.append(this.getArg(arity, i+1));
@@ -530,12 +742,12 @@ public class WamInterpreter {
 	 * @throws LogicProgramException */
 	private Goal nextPendingGoal() throws LogicProgramException {
 		State s = this.state;
-		String[] parts = state.getJumpTo().split(WamInterpreter.JUMPTO_DELIMITER);
-		int arity = Integer.parseInt(parts[1]);
+		String jumpTo = state.getJumpTo();
+		int arity = FunctorTable.getArity(state.getJumpToId());
 		Argument[] args = new Argument[arity];
 		for (int i=1; i<arity+1; i++) {
 			args[i-1] = this.getArg(arity, i);
 		}
-		return new Goal(parts[0],args);
+		return new Goal(jumpTo.substring(0,jumpTo.lastIndexOf(WamInterpreter.JUMPTO_DELIMITER)),args);
 	}
 }
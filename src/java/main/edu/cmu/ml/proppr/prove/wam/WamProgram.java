@@ -5,6 +5,8 @@ import java.io.IOException;
 import java.io.LineNumberReader;
 import java.util.List;
 
+import edu.cmu.ml.proppr.util.SymbolTable;
+
 public abstract class WamProgram {
 	protected Compiler compiler;
 	public WamProgram() {
@@ -29,6 +31,30 @@ public abstract class WamProgram {
 
 	public abstract List<Integer> getAddresses(String jumpTo);
 
+	/** True if there are clauses for this FunctorTable id */
+	public abstract boolean hasLabel(int functor);
+
+	/** Start addresses of the clauses for this FunctorTable id, or null if there are none */
+	public abstract int[] getAddresses(int functor);
+
+	/** 
+	 * Pre-linked code holding the instruction at addr, Instruction.WIDTH ints per instruction 
+	 * (see Instruction.encode()). Unused slots are 0.
+	 */
+	public abstract int[] getCode(int addr);
+
+	/** Address of the first instruction in getCode(addr) */
+	public abstract int getCodeBase(int addr);
+
+	/** Address just past the last instruction in getCode(addr) */
+	public abstract int getCodeEnd(int addr);
+
+	/** 
+	 * Constants and feature functors of getCode(addr), by the ids used in that code. 
+	 * Each program has its own, so a query's constants go away with the query.
+	 */
+	public abstract SymbolTable<String> getOperands(int addr);
+
 	public abstract void save();
 
 	public abstract void revert();
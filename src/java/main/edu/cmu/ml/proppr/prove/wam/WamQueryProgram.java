@@ -1,8 +1,11 @@
 package edu.cmu.ml.proppr.prove.wam;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import edu.cmu.ml.proppr.util.SymbolTable;
+
 public class WamQueryProgram extends WamProgram {
 	private WamProgram masterProgram;
 	private WamProgram queryProgram;
@@ -46,6 +49,43 @@ public class WamQueryProgram extends WamProgram {
 		return ret;
 	}
 	@Override
+	public boolean hasLabel(int functor) {
+		return masterProgram.hasLabel(functor) || queryProgram.hasLabel(functor);
+	}
+	@Override
+	public int[] getAddresses(int functor) {
+		int[] master = masterProgram.getAddresses(functor);
+		int[] query = queryProgram.getAddresses(functor);
+		if (query==null) return master;
+		int m = master==null ? 0 : master.length;
+		int[] ret = master==null ? new int[query.length] : Arrays.copyOf(master, m + query.length);
+		int offset = masterProgram.size();
+		for (int i=0; i<query.length; i++) ret[m+i] = offset + query[i];
+		return ret;
+	}
+	@Override
+	public int[] getCode(int addr) {
+		if (addr < masterProgram.size()) return masterProgram.getCode(addr);
+		return queryProgram.getCode(addr-masterProgram.size());
+	}
+	@Override
+	public int getCodeBase(int addr) {
+		int m = masterProgram.size();
+		if (addr < m) return masterProgram.getCodeBase(addr);
+		return m + queryProgram.getCodeBase(addr-m);
+	}
+	@Override
+	public int getCodeEnd(int addr) {
+		int m = masterProgram.size();
+		if (addr < m) return masterProgram.getCodeEnd(addr);
+		return m + queryProgram.getCodeEnd(addr-m);
+	}
+	@Override
+	public SymbolTable<String> getOperands(int addr) {
+		if (addr < masterProgram.size()) return masterProgram.getOperands(addr);
+		return queryProgram.getOperands(addr-masterProgram.size());
+	}
+	@Override
 	public void save() {
 		// do nothing
 	}
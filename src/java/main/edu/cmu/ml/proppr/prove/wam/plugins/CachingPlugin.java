@@ -0,0 +1,227 @@
+package edu.cmu.ml.proppr.prove.wam.plugins;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import com.googlecode.concurrentlinkedhashmap.ConcurrentLinkedHashMap;
+import com.googlecode.concurrentlinkedhashmap.Weigher;
+
+import edu.cmu.ml.proppr.prove.wam.Feature;
+import edu.cmu.ml.proppr.prove.wam.FunctorTable;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.Outlink;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.prove.wam.WamInterpreter;
+
+/**
+ * Wraps another plugin with a cache of its answers, shared by every query and
+ * thread that uses the plugin, so that goals repeated across queries (like the
+ * same hasWord(doc,W) fanout under many predict(doc,Y) queries) only hit the
+ * underlying index once.
+ *
+ * Outlink states depend on the whole proof that led to them, so what's cached
+ * is what the plugin did to produce each outlink: the arguments it bound with
+ * setArg, the weight it set with setWt, and the features on the outlink. The
+ * key is the goal's functor and its bound arguments. On a hit, the answers are
+ * replayed onto the current state.
+ *
+ * The cache is LRU, bounded by the total number of answers held.
+ */
+public class CachingPlugin extends WamPlugin {
+	private static final Logger log = Logger.getLogger(CachingPlugin.class);
+	protected WamPlugin plugin;
+	protected ConcurrentLinkedHashMap<GoalKey,List<Answer>> cache;
+	protected AtomicLong hits = new AtomicLong(0), misses = new AtomicLong(0);
+
+	/**
+	 * @param plugin
+	 * @param capacity Maximum total number of answers in the cache
+	 */
+	public CachingPlugin(WamPlugin plugin, long capacity) {
+		super(plugin.apr);
+		this.plugin = plugin;
+		this.cache = new ConcurrentLinkedHashMap.Builder<GoalKey,List<Answer>>()
+				.maximumWeightedCapacity(capacity)
+				.weigher(new Weigher<List<Answer>>() {
+					@Override
+					public int weightOf(List<Answer> value) {
+						return Math.max(1, value.size());
+					}
+				})
+				.build();
+	}
+
+	public WamPlugin getPlugin() {
+		return plugin;
+	}
+
+	@Override
+	public String about() {
+		return "cached("+plugin.about()+")";
+	}
+
+	@Override
+	public boolean _claim(String jumpto) {
+		return plugin._claim(jumpto);
+	}
+
+	@Override
+	public boolean claim(String rawJumpto) {
+		return plugin.claim(rawJumpto);
+	}
+
+	@Override
+	public List<Outlink> outlinks(State state, WamInterpreter wamInterp,
+			boolean computeFeatures) throws LogicProgramException {
+		int functor = state.getJumpToId();
+		int arity = FunctorTable.getArity(functor);
+		String[] args = new String[arity];
+		for (int i=0; i<arity; i++) args[i] = wamInterp.getConstantArg(arity, i+1);
+		GoalKey key = new GoalKey(functor, args);
+		List<Answer> answers = cache.get(key);
+		if (answers != null) {
+			hits.incrementAndGet();
+			return replay(answers, state, wamInterp, computeFeatures, arity);
+		}
+		misses.incrementAndGet();
+
+		Recorder recorder = new Recorder(state, arity);
+		wamInterp.setRecorder(recorder);
+		List<Outlink> result;
+		try {
+			result = plugin.outlinks(state, wamInterp, computeFeatures);
+		} finally {
+			wamInterp.setRecorder(null);
+		}
+		// without features we can't replay them later; and if the plugin didn't
+		// make exactly one return per outlink, we don't know what it did
+		if (!computeFeatures || recorder.answers.size() != result.size()) return result;
+		int i=0;
+		for (Outlink o : result) recorder.answers.get(i++).fd = o.fd;
+		cache.putIfAbsent(key, recorder.answers);
+		return result;
+	}
+
+	private List<Outlink> replay(List<Answer> answers, State state, WamInterpreter wamInterp, boolean computeFeatures, int arity) throws LogicProgramException {
+		List<Outlink> result = new ArrayList<Outlink>(answers.size());
+		for (Answer a : answers) {
+			wamInterp.restoreState(state);
+			for (int i=0; i<arity; i++) {
+				if (a.args[i] != null) wamInterp.setArg(arity, i+1, a.args[i]);
+			}
+			if (a.wtPosition > 0) wamInterp.setWt(arity, a.wtPosition, a.wt);
+			wamInterp.returnp();
+			wamInterp.executeWithoutBranching();
+			result.add(new Outlink(computeFeatures ? a.fd : null, wamInterp.saveState()));
+		}
+		return result;
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public double getHitRate() {
+		long h = hits.get(), n = h + misses.get();
+		return n == 0 ? 0 : (double) h / n;
+	}
+
+	/** Number of answers currently in the cache */
+	public long getWeightedSize() {
+		return cache.weightedSize();
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: hit rate %.3f (%d hits, %d misses), %d of %d answers cached",
+				about(), getHitRate(), getHits(), getMisses(), getWeightedSize(), cache.capacity());
+	}
+
+	/** Cache statistics for any CachingPlugins in the list, one per line */
+	public static String report(WamPlugin[] plugins) {
+		StringBuilder sb = new StringBuilder();
+		if (plugins == null) return sb.toString();
+		for (WamPlugin p : plugins) {
+			if (p instanceof CachingPlugin) sb.append(p.toString()).append("\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Told by the WamInterpreter about the bindings a plugin makes, so they can be
+	 * replayed later.
+	 *
+	 * Bindings accumulate until the plugin restores the original goal state, so
+	 * that a plugin which binds an argument, saves the state, and then makes
+	 * several answers from the saved state (as GraphlikePlugin does) records the
+	 * early binding in each of them.
+	 */
+	public static class Recorder {
+		private final State goal;
+		private String[] args;
+		private int wtPosition = 0;
+		private double wt;
+		List<Answer> answers = new ArrayList<Answer>();
+		Recorder(State goal, int arity) {
+			this.goal = goal;
+			this.args = new String[arity];
+		}
+		public void restored(State s) {
+			if (s != goal) return;
+			Arrays.fill(args, null);
+			wtPosition = 0;
+		}
+		public void setArg(int i, String value) {
+			args[i-1] = value;
+		}
+		public void setWt(int i, double value) {
+			wtPosition = i;
+			wt = value;
+		}
+		public void returned() {
+			answers.add(new Answer(Arrays.copyOf(args, args.length), wtPosition, wt));
+		}
+	}
+
+	protected static class Answer {
+		final String[] args;
+		final int wtPosition;
+		final double wt;
+		Map<Feature,Double> fd;
+		Answer(String[] args, int wtPosition, double wt) {
+			this.args = args;
+			this.wtPosition = wtPosition;
+			this.wt = wt;
+		}
+	}
+
+	protected static class GoalKey {
+		final int functor;
+		final String[] args;
+		final int hash;
+		GoalKey(int functor, String[] args) {
+			this.functor = functor;
+			this.args = args;
+			this.hash = 31*functor + Arrays.hashCode(args);
+		}
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof GoalKey)) return false;
+			GoalKey k = (GoalKey) o;
+			return functor == k.functor && Arrays.equals(args, k.args);
+		}
+	}
+}
@@ -0,0 +1,251 @@
+package edu.cmu.ml.proppr.prove.wam.plugins;
+
+import gnu.trove.map.hash.TIntObjectHashMap;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.prove.wam.Feature;
+import edu.cmu.ml.proppr.prove.wam.FunctorTable;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.Outlink;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.prove.wam.WamInterpreter;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.ConcurrentSymbolTable;
+import edu.cmu.ml.proppr.util.SymbolTable;
+
+/**
+ * Facts plugin with a compact, column-wise fact store.
+ *
+ * Constants are interned in the plugin's own operand table, which the
+ * interpreter maps to its constant table as constants come up. Each functor keeps its facts as one
+ * int[] column per argument (plus a double[] of weights, only if some
+ * fact has a non-default weight), and two permutations of
+ * the rows sorted by (arg1,row) and by (arg2,row). Lookups on a bound first
+ * or second argument are binary searches over those permutations, so no keys
+ * are allocated at query time. Lookups on both scan the shorter of the two
+ * ranges, as FactsPlugin does without its ternary index. Within a range, rows
+ * stay in the order the facts were added, so outlinks come back in the same
+ * order as from FactsPlugin.
+ *
+ * The sort permutations are built the first time a functor is queried; facts
+ * must all be added before the plugin is used.
+ */
+public class CompactFactsPlugin extends FactsPlugin {
+	private static final Logger log = Logger.getLogger(CompactFactsPlugin.class);
+	protected TIntObjectHashMap<FactColumns> columns = new TIntObjectHashMap<FactColumns>();
+	protected SymbolTable<String> constants = new ConcurrentSymbolTable<String>(ConcurrentSymbolTable.HASHING_STRATEGIES.identity);
+	public CompactFactsPlugin(APROptions apr, String name) {
+		super(apr, name, false);
+		// same feature as FactsPlugin, so that trained parameters work with either store
+		this.fd.clear();
+		this.fd.put(new Feature(FACTS_FUNCTOR+FactsPlugin.class.getSimpleName()+","+name+")"), 1.0);
+	}
+
+	@Override
+	public void addWeightedFact(String functor, double wt, String ... args) {
+		int jump = FunctorTable.getId(functor + "/" + args.length);
+		FactColumns facts = columns.get(jump);
+		if (facts == null) {
+			facts = new FactColumns(args.length);
+			columns.put(jump, facts);
+		}
+		int[] ops = new int[args.length];
+		for (int i=0; i<args.length; i++) ops[i] = constants.getId(args[i]);
+		facts.add(ops, wt);
+	}
+
+	@Override
+	public boolean _claim(String jumpto) {
+		// don't intern jumpTos just to find out we don't have them
+		return FunctorTable.hasId(jumpto) && this.columns.containsKey(FunctorTable.getId(jumpto));
+	}
+
+	@Override
+	public List<Outlink> outlinks(State state, WamInterpreter wamInterp,
+			boolean computeFeatures) throws LogicProgramException {
+		List<Outlink> result = new LinkedList<Outlink>();
+		int functor = state.getJumpToId();
+		int arity = FunctorTable.getArity(functor);
+		boolean returnWeights = FunctorTable.isWeighted(functor);
+		// -1 for free arguments, 0 for constants no fact mentions
+		int[] argOps = new int[arity];
+		for (int i=0; i<arity; i++) argOps[i]=wamInterp.getConstantArgOperand(arity,i+1,constants);
+		if (returnWeights && argOps[arity-1] != -1) {
+			throw new LogicProgramException("predicate "+state.getJumpTo()+" called with bound last argument!");
+		}
+		FactColumns facts = columns.get(FunctorTable.getUnweighted(functor));
+		if (facts == null) return result;
+		int nargs = facts.arity;
+		for (int i=0; i<nargs; i++) if (argOps[i] == 0) return result;
+		facts.index();
+
+		// fill the range of rows according to the query
+		int[] rows = null;
+		int lo=0, hi=facts.size;
+		boolean bound1 = argOps[0] > 0, bound2 = nargs > 1 && argOps[1] > 0;
+		if (bound1) {
+			rows = facts.byArg1;
+			lo = facts.lowerBound(rows, facts.args[0], argOps[0]);
+			hi = facts.lowerBound(rows, facts.args[0], argOps[0]+1);
+		}
+		if (bound2) {
+			int lo2 = facts.lowerBound(facts.byArg2, facts.args[1], argOps[1]);
+			int hi2 = facts.lowerBound(facts.byArg2, facts.args[1], argOps[1]+1);
+			if (!bound1 || hi2-lo2 < hi-lo) {
+				rows = facts.byArg2;
+				lo = lo2;
+				hi = hi2;
+			}
+		}
+		if (log.isDebugEnabled()) log.debug("Fetching "+(hi-lo)+" outlinks for "+state.getJumpTo());
+
+		// then iterate through what you got
+		for (int r=lo; r<hi; r++) {
+			int row = rows == null ? r : rows[r];
+			if (!facts.check(argOps, row)) continue;
+			double wt = facts.getWeight(row);
+			wamInterp.restoreState(state);
+			for (int i=0; i<arity; i++) {
+				if (argOps[i] != -1) continue;
+				if (i<nargs) {
+					wamInterp.setArgOperand(arity,i+1,constants,facts.args[i][row]);
+				} else if (returnWeights) {
+					wamInterp.setWt(arity, i+1, wt);
+				}
+			}
+			wamInterp.returnp();
+			wamInterp.executeWithoutBranching();
+			if (computeFeatures) {
+				result.add(new Outlink(scaleFD(this.fd,wt), wamInterp.saveState()));
+			} else {
+				result.add(new Outlink(null, wamInterp.saveState()));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * The facts for a single functor, column-wise.
+	 */
+	protected static class FactColumns {
+		final int arity;
+		int size = 0;
+		/** args[i][row] is the constants id of argument i of a fact */
+		int[][] args;
+		/** null as long as all facts have the default weight */
+		double[] wts;
+		/** rows sorted by (arg1,row) and by (arg2,row); null until indexed */
+		volatile int[] byArg1;
+		int[] byArg2;
+		FactColumns(int arity) {
+			this.arity = arity;
+			this.args = new int[arity][16];
+		}
+		synchronized void add(int[] ops, double wt) {
+			if (size == args[0].length) {
+				int n = 2*size;
+				for (int i=0; i<arity; i++) args[i] = Arrays.copyOf(args[i], n);
+				if (wts != null) wts = Arrays.copyOf(wts, n);
+			}
+			for (int i=0; i<arity; i++) args[i][size] = ops[i];
+			if (wt != WamPlugin.DEFAULT_DSTWEIGHT && wts == null) {
+				wts = new double[args[0].length];
+				Arrays.fill(wts, WamPlugin.DEFAULT_DSTWEIGHT);
+			}
+			if (wts != null) wts[size] = wt;
+			size++;
+			byArg1 = null;
+		}
+		double getWeight(int row) {
+			return wts == null ? WamPlugin.DEFAULT_DSTWEIGHT : wts[row];
+		}
+		/** True if every bound argument matches this row */
+		boolean check(int[] argOps, int row) {
+			for (int i=0; i<arity; i++) {
+				if (argOps[i] > 0 && args[i][row] != argOps[i]) return false;
+			}
+			return true;
+		}
+		/** First position in rows whose key is at least key */
+		int lowerBound(int[] rows, int[] keys, int key) {
+			int lo=0, hi=size;
+			while (lo < hi) {
+				int mid = (lo+hi) >>> 1;
+				if (keys[rows[mid]] < key) lo = mid+1;
+				else hi = mid;
+			}
+			return lo;
+		}
+		void index() {
+			if (byArg1 != null) return;
+			synchronized(this) {
+				if (byArg1 != null) return;
+				for (int i=0; i<arity; i++) args[i] = Arrays.copyOf(args[i], size);
+				if (wts != null) wts = Arrays.copyOf(wts, size);
+				if (arity > 1) byArg2 = sortedRows(args[1]);
+				byArg1 = sortedRows(args[0]);
+			}
+		}
+		/** Rows sorted by key, and then by row, so that facts keep their file order within a key */
+		int[] sortedRows(int[] key) {
+			long[] keys = new long[size];
+			int[] rows = new int[size];
+			for (int row=0; row<size; row++) {
+				keys[row] = key[row];
+				rows[row] = row;
+			}
+			sort(keys, rows, 0, size);
+			return rows;
+		}
+		/** Quicksort keys[lo,hi) and rows[lo,hi) together, ordering by key and then by row */
+		private static void sort(long[] keys, int[] rows, int lo, int hi) {
+			while (hi - lo > 16) {
+				int mid = (lo+hi) >>> 1;
+				// median of three as the pivot
+				if (less(keys, rows, mid, lo)) swap(keys, rows, mid, lo);
+				if (less(keys, rows, hi-1, lo)) swap(keys, rows, hi-1, lo);
+				if (less(keys, rows, hi-1, mid)) swap(keys, rows, hi-1, mid);
+				long pk = keys[mid]; int pr = rows[mid];
+				int i=lo, j=hi-1;
+				while (i <= j) {
+					while (keys[i] < pk || (keys[i] == pk && rows[i] < pr)) i++;
+					while (keys[j] > pk || (keys[j] == pk && rows[j] > pr)) j--;
+					if (i <= j) swap(keys, rows, i++, j--);
+				}
+				// recurse on the smaller side to bound the stack
+				if (j - lo < hi - i) {
+					sort(keys, rows, lo, j+1);
+					lo = i;
+				} else {
+					sort(keys, rows, i, hi);
+					hi = j+1;
+				}
+			}
+			for (int i=lo+1; i<hi; i++) {
+				for (int j=i; j>lo && less(keys, rows, j, j-1); j--) swap(keys, rows, j, j-1);
+			}
+		}
+		private static boolean less(long[] keys, int[] rows, int a, int b) {
+			return keys[a] < keys[b] || (keys[a] == keys[b] && rows[a] < rows[b]);
+		}
+		private static void swap(long[] keys, int[] rows, int a, int b) {
+			long k = keys[a]; keys[a] = keys[b]; keys[b] = k;
+			int r = rows[a]; rows[a] = rows[b]; rows[b] = r;
+		}
+	}
+
+	public static CompactFactsPlugin load(APROptions apr, File f) {
+		return load(apr,f,-1);
+	}
+	public static CompactFactsPlugin load(APROptions apr, File f, int duplicates) {
+		CompactFactsPlugin p = new CompactFactsPlugin(apr, f.getName());
+		p.load(f,duplicates);
+		return p;
+	}
+}
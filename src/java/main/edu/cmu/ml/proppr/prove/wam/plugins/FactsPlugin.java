@@ -12,6 +12,7 @@ import org.apache.log4j.Logger;
 import com.skjegstad.utils.BloomFilter;
 
 import edu.cmu.ml.proppr.prove.wam.Feature;
+import edu.cmu.ml.proppr.prove.wam.FunctorTable;
 import edu.cmu.ml.proppr.prove.wam.Goal;
 import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
 import edu.cmu.ml.proppr.prove.wam.Outlink;
@@ -92,11 +93,10 @@ public class FactsPlugin extends WamPlugin {
 	public List<Outlink> outlinks(State state, WamInterpreter wamInterp,
 			boolean computeFeatures) throws LogicProgramException {
 		List<Outlink> result = new LinkedList<Outlink>();
-		String jumpTo = state.getJumpTo();
-		int delim = jumpTo.indexOf(WamInterpreter.JUMPTO_DELIMITER);
-		int arity = Integer.parseInt(jumpTo.substring(delim+1));
-		boolean returnWeights = jumpTo.substring(0,delim).endsWith(WamPlugin.WEIGHTED_SUFFIX);
-		if (returnWeights) jumpTo = unweightedJumpto(state.getJumpTo());
+		int functor = state.getJumpToId();
+		int arity = FunctorTable.getArity(functor);
+		boolean returnWeights = FunctorTable.isWeighted(functor);
+		String jumpTo = FunctorTable.getSymbol(FunctorTable.getUnweighted(functor));
 		String[] argConst = new String[arity];
 		for (int i=0; i<arity; i++) argConst[i]=wamInterp.getConstantArg(arity,i+1);
 		if (returnWeights && argConst[arity-1] != null) {
@@ -9,6 +9,7 @@ import java.util.Map;
 import org.apache.log4j.Logger;
 
 import edu.cmu.ml.proppr.prove.wam.Feature;
+import edu.cmu.ml.proppr.prove.wam.FunctorTable;
 import edu.cmu.ml.proppr.prove.wam.Goal;
 import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
 import edu.cmu.ml.proppr.prove.wam.Outlink;
@@ -70,16 +71,16 @@ public abstract class GraphlikePlugin extends WamPlugin {
 	public List<Outlink> outlinks(State state, WamInterpreter wamInterp,
 			boolean computeFeatures) throws LogicProgramException {
 		List<Outlink> result = new LinkedList<Outlink>();
+		int functor = state.getJumpToId();
 		String indexKey = state.getJumpTo();
-		int delim = indexKey.indexOf(WamInterpreter.JUMPTO_DELIMITER);
-		int arity = Integer.parseInt(indexKey.substring(delim+1));
-		boolean returnWeights = indexKey.substring(0,delim).endsWith(WamPlugin.WEIGHTED_SUFFIX);
+		int arity = FunctorTable.getArity(functor);
+		boolean returnWeights = FunctorTable.isWeighted(functor);
 		
 		String srcConst = wamInterp.getConstantArg(arity,1);
 		String dstConst = wamInterp.getConstantArg(arity,2);
 		String weightConst = null;
 		if (returnWeights) {
-			indexKey = unweightedJumpto(indexKey);
+			indexKey = FunctorTable.getSymbol(FunctorTable.getUnweighted(functor));
 			weightConst = wamInterp.getConstantArg(arity,3);
 			if (weightConst!=null) {
 				throw new LogicProgramException("predicate "+state.getJumpTo()+" called with bound third argument!");
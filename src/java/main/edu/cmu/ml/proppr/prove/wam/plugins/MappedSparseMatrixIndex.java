@@ -0,0 +1,198 @@
+package edu.cmu.ml.proppr.prove.wam.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import edu.cmu.ml.proppr.util.ParsedFile;
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+
+/**
+ * SparseMatrixIndex over the binary sparse graph format, memory-mapped
+ * instead of read into the heap, so that opening a large graph is quick
+ * and its pages are shared by every JVM on the host that opens it.
+ *
+ * Each [functor]_[arg1type]_[arg2type].csr file holds, all little-endian:
+ *  - MAGIC, VERSION, rows, columns, entries
+ *  - int[rows+1] rowOffsets, ending with entries
+ *  - int[entries] colIndices
+ *  - float[entries] values
+ * and row and column names come from the SortedStringTable for each arg type.
+ *
+ * Usage to add the binary format to a .sparse directory built by sparseGraphTools:
+ * MappedSparseMatrixIndex dir.sparse
+ */
+public class MappedSparseMatrixIndex extends SparseMatrixIndex {
+	private static final Logger log = Logger.getLogger(MappedSparseMatrixIndex.class);
+	public static final String FILE_EXTENSION = ".csr";
+	public static final int MAGIC = 0x9f435352;
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 20;
+	SortedStringTable arg1Table, arg2Table;
+	IntBuffer rowOffsetBuffer, colIndexBuffer;
+	FloatBuffer valueBuffer;
+
+	public MappedSparseMatrixIndex(File matrixDir, String functor_arg1type_arg2type, SortedStringTable arg1, SortedStringTable arg2) throws IOException {
+		this.arg1Table = arg1;
+		this.arg2Table = arg2;
+		this.name = matrixDir+":"+functor_arg1type_arg2type;
+		File file = new File(matrixDir, functor_arg1type_arg2type+FILE_EXTENSION);
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC) throw new IllegalArgumentException(file.getName()+" is not a binary sparse matrix");
+			if (header.getInt(4) != VERSION) throw new IllegalArgumentException(file.getName()+" has binary format version "+header.getInt(4)+"; expected "+VERSION);
+			this.rows = header.getInt(8);
+			this.cols = header.getInt(12);
+			this.entries = header.getInt(16);
+			if (cols > arg2.size())
+				throw new IllegalArgumentException("Malformed sparsegraph! For index "+this.name+", #cols="+cols+"; arg2 table size is only "+arg2.size());
+			long pos = HEADER_SIZE;
+			this.rowOffsetBuffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L*(rows+1)).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			pos += 4L*(rows+1);
+			this.colIndexBuffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L*entries).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			pos += 4L*entries;
+			this.valueBuffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L*entries).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+		} finally {
+			// the mappings stay valid after the channel is closed
+			raf.close();
+		}
+		log.info("Mapped matrix "+functor_arg1type_arg2type+" from "+matrixDir.getName()+" ("+entries+" entries)");
+	}
+
+	/** Row for key, or -1 if there isn't one */
+	private int row(String key) {
+		int r = arg1Table.id(key);
+		if (r >= rows) return -1;
+		return r;
+	}
+
+	@Override
+	public List<String> allSrc() {
+		ArrayList<String> ret = new ArrayList<String>();
+		for (int r=0; r<rows; r++) {
+			if (rowOffsetBuffer.get(r+1)-rowOffsetBuffer.get(r) > 0) ret.add(arg1Table.get(r));
+		}
+		return ret;
+	}
+
+	@Override
+	public TObjectDoubleMap<String> near(String key) {
+		int r = arg1Table.id(key);
+		if (r < 0 || r >= rows) return null;
+		int start = rowOffsetBuffer.get(r), end = rowOffsetBuffer.get(r+1);
+		TObjectDoubleMap<String> ret = new TObjectDoubleHashMap<String>(end-start);
+		for (int k=start; k<end; k++) {
+			ret.put(arg2Table.get(colIndexBuffer.get(k)), valueBuffer.get(k));
+		}
+		return ret;
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return arg1Table.id(key) >= 0;
+	}
+
+	@Override
+	public int degree(String key) {
+		int r = row(key);
+		if (r < 0) return 0;
+		return rowOffsetBuffer.get(r+1)-rowOffsetBuffer.get(r);
+	}
+
+	/** True if the matrix and the string tables for both its arg types are available in binary */
+	public static boolean isAvailable(File matrixDir, String functor_arg1type_arg2type) {
+		String[] parts = functor_arg1type_arg2type.split("_");
+		return new File(matrixDir, functor_arg1type_arg2type+FILE_EXTENSION).exists()
+				&& new File(matrixDir, parts[1]+SortedStringTable.FILE_EXTENSION).exists()
+				&& new File(matrixDir, parts[2]+SortedStringTable.FILE_EXTENSION).exists();
+	}
+
+	/** Write the binary version of a text matrix, streaming the text files */
+	public static void write(File matrixDir, String functor_arg1type_arg2type) throws IOException {
+		int rows, cols, entries;
+		ParsedFile rce = new ParsedFile(new File(matrixDir,functor_arg1type_arg2type+".rce"));
+		{
+			Iterator<String> it = rce.iterator();
+			rows = Integer.parseInt(it.next().trim());
+			cols = Integer.parseInt(it.next().trim());
+			entries = Integer.parseInt(it.next().trim());
+			rce.close();
+		}
+		DataOutputStream w = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(matrixDir, functor_arg1type_arg2type+FILE_EXTENSION))));
+		try {
+			SortedStringTable.writeInt(w, MAGIC);
+			SortedStringTable.writeInt(w, VERSION);
+			SortedStringTable.writeInt(w, rows);
+			SortedStringTable.writeInt(w, cols);
+			SortedStringTable.writeInt(w, entries);
+			int n=0;
+			for (String line : new ParsedFile(new File(matrixDir,functor_arg1type_arg2type+".rowOffset"))) {
+				SortedStringTable.writeInt(w, Integer.parseInt(line.trim()));
+				n++;
+			}
+			if (n != rows) throw new IllegalArgumentException("Malformed sparsegraph! "+functor_arg1type_arg2type+".rowOffset has "+n+" lines; expected "+rows);
+			SortedStringTable.writeInt(w, entries);
+			// two passes over the colIndex file, for the indices and then the values
+			n=0;
+			for (String line : new ParsedFile(new File(matrixDir,functor_arg1type_arg2type+".colIndex"))) {
+				int j = Integer.parseInt(line.split(WEIGHT_DELIMITER,2)[0]);
+				if (j >= cols) throw new IllegalArgumentException("Malformed sparsegraph! For index "+functor_arg1type_arg2type+", colIndices["+n+"]="+j+"; #cols is only "+cols);
+				SortedStringTable.writeInt(w, j);
+				n++;
+			}
+			if (n != entries) throw new IllegalArgumentException("Malformed sparsegraph! "+functor_arg1type_arg2type+".colIndex has "+n+" lines; expected "+entries);
+			for (String line : new ParsedFile(new File(matrixDir,functor_arg1type_arg2type+".colIndex"))) {
+				String[] parts = line.split(WEIGHT_DELIMITER);
+				float value = (float) (parts.length>1?Float.parseFloat(parts[1]):1.0);
+				SortedStringTable.writeInt(w, Float.floatToIntBits(value));
+			}
+		} finally {
+			w.close();
+		}
+	}
+
+	/** Write the binary version of every matrix and arg type listed in a .sparse directory's manifest */
+	public static void convert(File matrixDir) throws IOException {
+		Set<String> types = new HashSet<String>();
+		for (String matrix : new ParsedFile(new File(matrixDir,SparseGraphPlugin.MANIFEST))) {
+			String[] parts = matrix.split("_");
+			for (int i=1; i<3; i++) {
+				if (types.add(parts[i])) {
+					log.info("Writing "+parts[i]+SortedStringTable.FILE_EXTENSION);
+					SortedStringTable.write(new File(matrixDir,parts[i]+SparseGraphPlugin.INDEX_EXTENSION),
+							new File(matrixDir,parts[i]+SortedStringTable.FILE_EXTENSION));
+				}
+			}
+			log.info("Writing "+matrix+FILE_EXTENSION);
+			write(matrixDir, matrix);
+		}
+	}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length != 1) {
+			System.err.println("Usage:\n\tdir.sparse\nAdds the binary format to a sparse graph directory.");
+			System.exit(1);
+		}
+		long start = System.currentTimeMillis();
+		convert(new File(args[0]));
+		System.out.println("Converted "+args[0]+" in "+(System.currentTimeMillis()-start)+"ms");
+	}
+}
@@ -0,0 +1,148 @@
+package edu.cmu.ml.proppr.prove.wam.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import edu.cmu.ml.proppr.util.ParsedFile;
+
+/**
+ * Memory-mapped, read-only table of the names in a sparse graph [argtype].i file.
+ *
+ * Layout, all ints little-endian:
+ *  - MAGIC, VERSION, n
+ *  - int[n]: the ids, sorted by the UTF-8 bytes of their names, for lookup by binary search
+ *  - int[n+1]: the byte offset of each id's name in the string data, plus the total length
+ *  - byte[]: the UTF-8 names, in id order
+ * Ids are line numbers in the .i file, as in the text format.
+ */
+public class SortedStringTable {
+	public static final String FILE_EXTENSION = ".istr";
+	public static final int MAGIC = 0x9f495354;
+	public static final int VERSION = 1;
+	private static final int HEADER_SIZE = 12;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private String name;
+	private int size;
+	private IntBuffer sorted;
+	private IntBuffer offsets;
+	private ByteBuffer data;
+
+	public SortedStringTable(File file) throws IOException {
+		this.name = file.getName();
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			if (header.getInt(0) != MAGIC) throw new IllegalArgumentException(name+" is not a binary string table");
+			if (header.getInt(4) != VERSION) throw new IllegalArgumentException(name+" has binary format version "+header.getInt(4)+"; expected "+VERSION);
+			this.size = header.getInt(8);
+			long pos = HEADER_SIZE;
+			this.sorted = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L*size).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			pos += 4L*size;
+			this.offsets = channel.map(FileChannel.MapMode.READ_ONLY, pos, 4L*(size+1)).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+			pos += 4L*(size+1);
+			this.data = channel.map(FileChannel.MapMode.READ_ONLY, pos, offsets.get(size));
+		} finally {
+			// the mappings stay valid after the channel is closed
+			raf.close();
+		}
+	}
+
+	/** Number of names in the table */
+	public int size() {
+		return size;
+	}
+
+	/** The name with this id */
+	public String get(int id) {
+		int start = offsets.get(id), end = offsets.get(id+1);
+		byte[] b = new byte[end-start];
+		for (int k=0; k<b.length; k++) b[k] = data.get(start+k);
+		return new String(b, UTF8);
+	}
+
+	/** The id of this name, or -1 if it's not in the table */
+	public int id(String key) {
+		byte[] b = key.getBytes(UTF8);
+		int lo=0, hi=size-1;
+		while (lo <= hi) {
+			int mid = (lo+hi) >>> 1;
+			int id = sorted.get(mid);
+			int c = compare(id, b);
+			if (c < 0) lo = mid+1;
+			else if (c > 0) hi = mid-1;
+			else return id;
+		}
+		return -1;
+	}
+
+	/** Compare the name with this id to key, bytewise and unsigned */
+	private int compare(int id, byte[] key) {
+		int start = offsets.get(id), len = offsets.get(id+1)-start;
+		int n = Math.min(len, key.length);
+		for (int k=0; k<n; k++) {
+			int c = (data.get(start+k) & 0xff) - (key[k] & 0xff);
+			if (c != 0) return c;
+		}
+		return len - key.length;
+	}
+
+	/** Write the names in a text .i file as a binary string table */
+	public static void write(File iFile, File out) throws IOException {
+		final List<byte[]> names = new ArrayList<byte[]>();
+		ParsedFile parsed = new ParsedFile(iFile);
+		for (String line : parsed) {
+			// ids are line numbers, as in SparseGraphPlugin.loadArgs
+			while (names.size() < parsed.getLineNumber()) names.add(new byte[0]);
+			names.add(line.trim().getBytes(UTF8));
+		}
+		parsed.close();
+		Integer[] sorted = new Integer[names.size()];
+		for (int i=0; i<sorted.length; i++) sorted[i] = i;
+		Arrays.sort(sorted, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				byte[] x = names.get(a), y = names.get(b);
+				int n = Math.min(x.length, y.length);
+				for (int k=0; k<n; k++) {
+					int c = (x[k] & 0xff) - (y[k] & 0xff);
+					if (c != 0) return c;
+				}
+				return x.length - y.length;
+			}
+		});
+		DataOutputStream w = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(out)));
+		try {
+			writeInt(w, MAGIC);
+			writeInt(w, VERSION);
+			writeInt(w, names.size());
+			for (Integer id : sorted) writeInt(w, id);
+			int offset = 0;
+			for (byte[] b : names) {
+				writeInt(w, offset);
+				offset += b.length;
+			}
+			writeInt(w, offset);
+			for (byte[] b : names) w.write(b);
+		} finally {
+			w.close();
+		}
+	}
+
+	static void writeInt(DataOutputStream w, int i) throws IOException {
+		w.writeInt(Integer.reverseBytes(i));
+	}
+}
@@ -36,6 +36,7 @@ public class SparseGraphPlugin extends GraphlikePlugin {
 	protected TIntObjectMap<SparseMatrixIndex> index;
 	protected TIntObjectMap<TObjectIntMap<String>> arg1s;
 	protected TIntObjectMap<String[]> arg2s;
+	protected TIntObjectMap<SortedStringTable> argTables;
 	
 	public SparseGraphPlugin(APROptions apr, File matrixDir) {
 		super(apr);
@@ -45,6 +46,7 @@ public class SparseGraphPlugin extends GraphlikePlugin {
 		long start = System.currentTimeMillis();
 		arg1s = new TIntObjectHashMap<TObjectIntMap<String>>();
 		arg2s = new TIntObjectHashMap<String[]>();
+		argTables = new TIntObjectHashMap<SortedStringTable>();
 
 		index=new TIntObjectHashMap<SparseMatrixIndex>();
 		for(String matrix: new ParsedFile(new File(matrixDir,MANIFEST))) {
@@ -54,6 +56,19 @@ public class SparseGraphPlugin extends GraphlikePlugin {
 			if (index.containsKey(partIDs[0])) {
 				throw new IllegalArgumentException("Only one matrix allowed per functor. You've already used '"+partIDs[0]+"'");
 			}
+			if (MappedSparseMatrixIndex.isAvailable(matrixDir, matrix)) {
+				try {
+					for (int i=1; i<3; i++) {
+						if (!argTables.containsKey(partIDs[i]))
+							argTables.put(partIDs[i], new SortedStringTable(new File(matrixDir,parts[i]+SortedStringTable.FILE_EXTENSION)));
+					}
+					index.put(partIDs[0], new MappedSparseMatrixIndex(matrixDir,matrix,argTables.get(partIDs[1]),argTables.get(partIDs[2])));
+				} catch (Exception e) {
+					log.error("Problem mapping sparse matrix "+matrix+MappedSparseMatrixIndex.FILE_EXTENSION+" in "+matrixDir,e);
+					throw new RuntimeException(e);
+				}
+				continue;
+			}
 			if (!arg1s.containsKey(partIDs[1])) { // read arg1.i 
 				arg1s.put(partIDs[1], new TObjectIntHashMap<String>());
 				loadArgs(arg1s.get(partIDs[1]),new File(matrixDir,parts[1]+INDEX_EXTENSION));
@@ -25,6 +25,8 @@ import gnu.trove.procedure.TObjectIntProcedure;
  *  - [arg2type].i: The jth line stores the name of column j.
  * All nonzero matrix values are set to 1.0.
  * 
+ * See MappedSparseMatrixIndex for the binary, memory-mapped version of this format.
+ * 
  * The lengths of files are thus constrained:
  *  - *.rowOffsets has #rows lines
  *  - *.colIndex has #entries lines
@@ -32,7 +34,7 @@ import gnu.trove.procedure.TObjectIntProcedure;
  */
 public class SparseMatrixIndex {
 	private static final Logger log = Logger.getLogger(SparseMatrixIndex.class);
-	private static final String WEIGHT_DELIMITER = "\t";
+	static final String WEIGHT_DELIMITER = "\t";
 	private static final int LOGUPDATE_MS=5000;
 	String name;
 	/** counts */
@@ -1,11 +1,13 @@
 package edu.cmu.ml.proppr.prove.wam.plugins;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 import edu.cmu.ml.proppr.prove.wam.ConstantArgument;
 import edu.cmu.ml.proppr.prove.wam.Feature;
+import edu.cmu.ml.proppr.prove.wam.FunctorTable;
 import edu.cmu.ml.proppr.prove.wam.Goal;
 import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
 import edu.cmu.ml.proppr.prove.wam.Outlink;
@@ -58,6 +60,29 @@ public abstract class WamPlugin {
 		return _claim(unweightedJumpto(rawJumpto));
 	}
 	
+	// claim() results by FunctorTable id: 0 unknown, 1 claimed, 2 not claimed
+	private volatile byte[] claims = new byte[0];
+	/** Return True if this plugin should be called to implement this FunctorTable id.
+	 * 
+	 * The answer is computed with claim(String) the first time a functor is seen, 
+	 * and remembered after that; plugins must not change what they claim once
+	 * they are in use.
+	 * @param functor
+	 * @return
+	 */
+	public boolean claim(int functor) {
+		byte[] c = claims;
+		if (functor < c.length && c[functor] != 0) return c[functor] == 1;
+		boolean ret = claim(FunctorTable.getSymbol(functor));
+		synchronized(this) {
+			c = claims;
+			if (functor >= c.length) c = Arrays.copyOf(c, Math.max(functor+1, 2*c.length));
+			c[functor] = (byte) (ret ? 1 : 2);
+			claims = c;
+		}
+		return ret;
+	}
+	
 	/** Yield a list of successor states, not including the restart state.
 	 * 
 	 * @param state
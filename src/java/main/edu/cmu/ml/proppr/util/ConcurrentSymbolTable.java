@@ -1,15 +1,18 @@
 package edu.cmu.ml.proppr.util;
 
-import java.util.Arrays;
-import java.util.Map;
-import java.util.Iterator;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * A "symbol table" mapping arbitrary objects (called 'symbols' in a
  * nod to LISP) to and from 'ids', i.e., integers in the range 1..N
- * (inclusive.)  This is based on ConcurrentHashMap objects so it will
- * hopefully be easy to share among different threads.
+ * (inclusive.)  Lookups and inserts are lock-free, so it can be
+ * shared among many threads: symbols live in an open-addressed table
+ * which is migrated to a bigger one (cooperatively, by the threads
+ * using it) as it fills, and ids map back to symbols through an
+ * append-only log. No thread ever waits for another to finish an
+ * insert or a migration; it helps instead.
  *
  * @author wcohen
  *
@@ -40,10 +43,59 @@ public class ConcurrentSymbolTable<T> implements SymbolTable<T>
 	}
 
 
-	protected ConcurrentHashMap<Object,Integer[]> symbol2Id = new ConcurrentHashMap<Object,Integer[]>();
-	protected ConcurrentHashMap<Integer,T> id2symbol  = new ConcurrentHashMap<Integer,T>();
+	private static final int MIN_CAPACITY = 16;
+	private static final int MIGRATE_STRIDE = 1024;
+	// id log chunk k holds BASE<<k entries
+	private static final int BASE_BITS = 4;
+	private static final int BASE = 1 << BASE_BITS;
+
+	/**
+	 * A symbol, and (as the value of the AtomicInteger) its id: 0 from when the
+	 * entry is put in the table until it is appended to the id log.
+	 */
+	private static final class Entry<T> extends AtomicInteger {
+		final int hash;
+		final Object key;
+		final T symbol;
+		Entry(int hash, Object key, T symbol) {
+			this.hash = hash;
+			this.key = key;
+			this.symbol = symbol;
+		}
+	}
+
+	/**
+	 * Open-addressed, linear-probing table of Entries. Slots go from null to an Entry
+	 * or to the moved marker, and never change after that. When a table gets half full we
+	 * start a bigger one: empty slots of the old table are marked moved (so searches and
+	 * inserts which hit them continue in the new table), and old entries are copied over.
+	 *
+	 * No thread waits for a migration to finish. A search which reaches a moved slot has
+	 * already passed every place the symbol could be in the old table, and an entry
+	 * still waiting to be copied is found in the old table by anyone who searches
+	 * for it. The root only moves on to the new table once every chunk of the old one
+	 * has been copied.
+	 */
+	private static final class Table<T> {
+		final AtomicReferenceArray<Entry<T>> slots;
+		final int mask;
+		final AtomicInteger count = new AtomicInteger(0);
+		final AtomicReference<Table<T>> next = new AtomicReference<Table<T>>();
+		final AtomicInteger claimed = new AtomicInteger(0);
+		final AtomicInteger migrated = new AtomicInteger(0);
+		Table(int capacity) {
+			this.slots = new AtomicReferenceArray<Entry<T>>(capacity);
+			this.mask = capacity - 1;
+		}
+	}
+
+	private final Entry<T> moved = new Entry<T>(0, null, null);
+	private final AtomicReference<Table<T>> root = new AtomicReference<Table<T>>(new Table<T>(MIN_CAPACITY));
+	// entries by id, in append-only chunks; id i is at position i
+	private final AtomicReferenceArray<AtomicReferenceArray<Entry<T>>> idLog = new AtomicReferenceArray<AtomicReferenceArray<Entry<T>>>(32 - BASE_BITS);
+	// the largest id whose entry is in the log with its id set
+	private final AtomicInteger nextId = new AtomicInteger(0);
 	protected HashingStrategy<T> hashingStrategy;
-	protected int nextId = 0;
 	
 	public ConcurrentSymbolTable(HashingStrategy<T> strategy) {
 		this.init(strategy);
@@ -66,48 +118,138 @@ public class ConcurrentSymbolTable<T> implements SymbolTable<T>
 		return hashingStrategy;
 	}
 
-	private void putSymbol(Object h,int id) {
-//		symbol2Id.put(h,id);
-		if (!symbol2Id.containsKey(h)) {
-			symbol2Id.put(h, new Integer[] {0,id});
-		} else {
-			Integer[] cur = symbol2Id.get(h);
-			if (cur[0] == 0) {
-				// then there are no more free slots and we need to retabulate
-				Integer[] now = new Integer[(cur.length-1)*2 + 1];
-				for (int i=0;i<cur.length;i++) {now[i] = cur[i];}
-				now[0]=now.length-cur.length;
-				symbol2Id.put(h, now);
-				cur=now;
+	private static int spread(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+	private boolean matches(Entry<T> e, int hash, Object key, T symbol) {
+		return e.hash == hash 
+				&& (e.key == key || e.key.equals(key)) 
+				&& hashingStrategy.equals(e.symbol, symbol);
+	}
+	
+	/**
+	 * Find the id of a symbol, optionally inserting it.
+	 * @return the id, or 0 if the symbol is absent and create is false
+	 */
+	private int intern(T symbol, boolean create) {
+		Object key = hashingStrategy.computeKey(symbol);
+		int hash = spread(key.hashCode());
+		Entry<T> fresh = null;
+		Table<T> t = root.get();
+		while (true) {
+			int i = hash & t.mask;
+			int probes = 0;
+			while (probes <= t.mask) {
+				Entry<T> e = t.slots.get(i);
+				if (e == null) {
+					if (!create) return 0;
+					if (fresh == null) fresh = new Entry<T>(hash, key, symbol);
+					// on failure, re-read the same slot
+					if (!t.slots.compareAndSet(i, null, fresh)) continue;
+					// this is the linearization point of the insert
+					if (t.count.incrementAndGet() > (t.mask+1) >> 1) resize(t);
+					return assignId(fresh);
+				}
+				if (e == moved) break;
+				if (matches(e, hash, key, symbol)) return assignId(e);
+				i = (i+1) & t.mask;
+				probes++;
+			}
+			// we hit a moved slot or fell off the end of a full table:
+			// help with the migration, but don't wait for it
+			t = resize(t);
+		}
+	}
+
+	/**
+	 * Get the id of an entry, giving it one if it doesn't have one yet.
+	 *
+	 * Ids are handed out by appending entries to the id log: the entry in
+	 * position size()+1 gets that id, and size() only moves past it once it
+	 * has it. Any thread can finish appending any other thread's entry, so
+	 * nobody waits on a stalled inserter, and getSymbol() never sees an id
+	 * before its symbol. An entry can briefly land in the log a second time,
+	 * from a thread which hadn't seen it get its id; whoever finds such a stale
+	 * copy at the end of the log clears it, so ids stay dense.
+	 */
+	private int assignId(Entry<T> e) {
+		while (e.get() == 0) {
+			int n = nextId.get();
+			int id = n+1;
+			AtomicReferenceArray<Entry<T>> chunk = logChunk(id);
+			int j = logOffset(id);
+			Entry<T> x = chunk.get(j);
+			if (x == null) {
+				chunk.compareAndSet(j, null, e);
+				continue;
+			}
+			if (x.compareAndSet(0, id) || x.get() == id) nextId.compareAndSet(n, id);
+			else chunk.compareAndSet(j, x, null);
+		}
+		return e.get();
+	}
+
+	/** Start or help with the migration of t, returning the table it is migrating to */
+	private Table<T> resize(Table<T> t) {
+		Table<T> next = t.next.get();
+		if (next == null) {
+			t.next.compareAndSet(null, new Table<T>((t.mask+1) << 1));
+			next = t.next.get();
+		}
+		int n = t.mask+1;
+		for (int lo; (lo = t.claimed.getAndAdd(MIGRATE_STRIDE)) < n; ) {
+			int hi = Math.min(n, lo+MIGRATE_STRIDE);
+			for (int i=lo; i<hi; i++) {
+				Entry<T> e = t.slots.get(i);
+				while (e == null) {
+					if (t.slots.compareAndSet(i, null, moved)) break;
+					e = t.slots.get(i);
+				}
+				if (e != null && e != moved) copy(e, next);
 			}
-			cur[cur.length - cur[0]]=id;
-			cur[0]--;
+			if (t.migrated.addAndGet(hi-lo) == n) advanceRoot();
 		}
+		return next;
 	}
-	private int symbolGet(T symbol) {
-		Object h = hashingStrategy.computeKey(symbol);
-		Integer[] ids = symbol2Id.get(h);
-		for (int i=ids.length-1-ids[0];i>0;i--) {
-			if (hashingStrategy.equals(id2symbol.get(ids[i]), symbol)) return ids[i];
+	private void copy(Entry<T> e, Table<T> t) {
+		while (true) {
+			int i = e.hash & t.mask;
+			int probes = 0;
+			while (probes <= t.mask) {
+				Entry<T> o = t.slots.get(i);
+				if (o == e) return;
+				if (o == null) {
+					if (!t.slots.compareAndSet(i, null, e)) continue;
+					if (t.count.incrementAndGet() > (t.mask+1) >> 1) resize(t);
+					return;
+				}
+				if (o == moved) break;
+				i = (i+1) & t.mask;
+				probes++;
+			}
+			t = resize(t);
 		}
-		throw new IllegalStateException("Symbol "+symbol+" not found in ConcurrentSymbolTable");
-	}
-	private boolean symbolContains(T symbol) {
-		Object h = hashingStrategy.computeKey(symbol);
-		if (!symbol2Id.containsKey(h)) return false;
-		Integer[] ids = symbol2Id.get(h);
-		for (int i=ids.length-1-ids[0];i>0;i--) {
-			T candidate = id2symbol.get(ids[i]);
-			// occasionally the value here comes up null, even though
-			// the synchronized block on update means that should
-			// never happen (?)
-			// skipping the id may generate a false negative, but
-			// it's been harmless in tests so far.
-			// worth revisiting if bugs return.
-			if (candidate == null) continue;
-			if (hashingStrategy.equals(candidate, symbol)) return true;
+	}
+	private void advanceRoot() {
+		Table<T> r;
+		while ((r = root.get()).migrated.get() == r.mask+1) {
+			root.compareAndSet(r, r.next.get());
 		}
-		return false;
+	}
+
+	private AtomicReferenceArray<Entry<T>> logChunk(int id) {
+		int k = 31 - Integer.numberOfLeadingZeros(id - 1 + BASE) - BASE_BITS;
+		AtomicReferenceArray<Entry<T>> chunk = idLog.get(k);
+		if (chunk == null) {
+			idLog.compareAndSet(k, null, new AtomicReferenceArray<Entry<T>>(BASE << k));
+			chunk = idLog.get(k);
+		}
+		return chunk;
+	}
+	private static int logOffset(int id) {
+		int n = id - 1 + BASE;
+		return n - Integer.highestOneBit(n);
 	}
 
 	/**
@@ -116,16 +258,7 @@ public class ConcurrentSymbolTable<T> implements SymbolTable<T>
 	 * @param symbol
 	 */
 	public void insert(T symbol) {
-		//check collision
-		if (symbolContains(symbol)) return;
-		synchronized(this) {
-			if (symbolContains(symbol)) return;
-			Object h = hashingStrategy.computeKey(symbol);
-			int newId = ++nextId;
-//				symbol2Id.put(h,newId);
-			putSymbol(h,newId);
-			id2symbol.put(newId,symbol);
-		}
+		intern(symbol, true);
 	}
 	
 	/**
@@ -135,34 +268,35 @@ public class ConcurrentSymbolTable<T> implements SymbolTable<T>
 	 * @param symbol
 	 */
 	public int getId(T symbol) {
-		insert(symbol);
-		return symbolGet(symbol);
+		return intern(symbol, true);
 	}
 
 	
 	/** Test if the symbol has been previously inserted.
 	 */
 	public boolean hasId(T symbol) {
-		return symbolContains(symbol);
+		return intern(symbol, false) != 0;
 	}
 
 	/** Get the symbol that corresponds to an id.  Returns null of the
 	 * symbol has not yet been inserted.
 	 */
 	public T getSymbol(int id) {
-		return this.id2symbol.get(id);
+		if (id < 1 || id > nextId.get()) return null;
+		return logChunk(id).get(logOffset(id)).symbol;
 	}
 
-	/** Return N, the largest id.
+	/** Return N, the largest id. Every id up to N has its symbol, so
+	 * getSymbol(size()) is never null.
 	 */
 	public int size() {
-		return this.id2symbol.size();
+		return this.nextId.get();
 	}
 
 	// simple command-line test 
 	static public void main(String[] argv) 
 	{
-		ConcurrentSymbolTable stab = new ConcurrentSymbolTable<String>();
+		ConcurrentSymbolTable<String> stab = new ConcurrentSymbolTable<String>();
 		for (int i=0; i<argv.length; i++) {
 			if (stab.hasId(argv[i])) {
 				System.out.println("duplicate: "+argv[i]+" has id "+stab.getId(argv[i]));
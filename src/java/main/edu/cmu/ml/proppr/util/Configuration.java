@@ -1,6 +1,8 @@
 package edu.cmu.ml.proppr.util;
 
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.cli.CommandLine;
@@ -14,6 +16,8 @@ import org.apache.log4j.Logger;
 import edu.cmu.ml.proppr.learn.tools.FixedWeightRules;
 import edu.cmu.ml.proppr.prove.wam.WamProgram;
 import edu.cmu.ml.proppr.prove.wam.WamBaseProgram;
+import edu.cmu.ml.proppr.prove.wam.plugins.CachingPlugin;
+import edu.cmu.ml.proppr.prove.wam.plugins.CompactFactsPlugin;
 import edu.cmu.ml.proppr.prove.wam.plugins.FactsPlugin;
 import edu.cmu.ml.proppr.prove.wam.plugins.GraphlikePlugin;
 import edu.cmu.ml.proppr.prove.wam.plugins.LightweightGraphPlugin;
@@ -56,7 +60,7 @@ public class Configuration {
 	public static final String GRADIENT_FILE_OPTION = "gradient";
 
 	/* set constants */
-	/** constant. programFiles, ternaryIndex */
+	/** constant. programFiles, ternaryIndex, compactFacts, outlinkCache */
 	public static final int USE_WAM = 0x1;
 	/** constant. */
 	public static final int USE_THREADS = 0x2;
@@ -70,6 +74,8 @@ public class Configuration {
 	public static final int USE_COUNTFEATURES = 0x400;
 	private static final String PROGRAMFILES_CONST_OPTION = "programFiles";
 	private static final String TERNARYINDEX_CONST_OPTION = "ternaryIndex";
+	private static final String COMPACTFACTS_CONST_OPTION = "compactFacts";
+	private static final String OUTLINKCACHE_CONST_OPTION = "outlinkCache";
 	private static final String APR_CONST_OPTION = "apr";
 	private static final String THREADS_CONST_OPTION = "threads";
 	private static final String EPOCHS_CONST_OPTION = "epochs";
@@ -114,6 +120,9 @@ public class Configuration {
 	public int epochs = 5;
 	public boolean force = false;
 	public boolean ternaryIndex = false;
+	public boolean compactFacts = false;
+	/** answers to cache, by programFiles entry; see CachingPlugin */
+	public Map<String,Long> outlinkCache = new HashMap<String,Long>();
 	public boolean maintainOrder = true;
 	public boolean includeEmptyGraphs = false;
 	public int duplicates = (int) 1e6;
@@ -233,6 +242,14 @@ public class Configuration {
 		if (isOn(flags,USE_WAM)) {
 			if (line.hasOption(PROGRAMFILES_CONST_OPTION)) this.programFiles = line.getOptionValues(PROGRAMFILES_CONST_OPTION);
 			if (line.hasOption(TERNARYINDEX_CONST_OPTION)) this.ternaryIndex = Boolean.parseBoolean(line.getOptionValue(TERNARYINDEX_CONST_OPTION));
+			if (line.hasOption(COMPACTFACTS_CONST_OPTION)) this.compactFacts = Boolean.parseBoolean(line.getOptionValue(COMPACTFACTS_CONST_OPTION));
+			if (line.hasOption(OUTLINKCACHE_CONST_OPTION)) {
+				for (String spec : line.getOptionValues(OUTLINKCACHE_CONST_OPTION)) {
+					String[] parts = spec.split("=",2);
+					if (parts.length != 2) usageOptions(options,allFlags,OUTLINKCACHE_CONST_OPTION+": expected file=size, got "+spec);
+					this.outlinkCache.put(parts[0], (long) Double.parseDouble(parts[1]));
+				}
+			}
 			if (line.hasOption(PRUNEDPREDICATE_CONST_OPTION)) {
 				this.prunedPredicateRules = new FixedWeightRules(line.getOptionValues(PRUNEDPREDICATE_CONST_OPTION));
 			}
@@ -278,7 +295,13 @@ public class Configuration {
 		int wam,graph,facts;
 		wam = graph = facts = 0;
 		int iFacts = -1;
+		long[] cacheSizes = new long[nplugins];
 		for (String s : programFiles) {
+			if (!s.endsWith(".wam") && i<cacheSizes.length) {
+				// facts files after the first all go into the same plugin
+				int j = (s.endsWith(FactsPlugin.FILE_EXTENSION) && iFacts>=0) ? iFacts : i;
+				cacheSizes[j] = Math.max(cacheSizes[j], outlinkCacheSize(s));
+			}
 			if (s.endsWith(".wam")) {
 				if (this.program != null) usageOptions(options,flags,PROGRAMFILES_CONST_OPTION+": Multiple WAM programs not supported");
 				this.program = WamBaseProgram.load(this.getExistingFile(s));
@@ -289,7 +312,9 @@ public class Configuration {
 				this.plugins[i++] = LightweightGraphPlugin.load(this.apr, this.getExistingFile(s), this.duplicates);
 				graph++;
 			} else if (s.endsWith(FactsPlugin.FILE_EXTENSION)) {
-				FactsPlugin p = FactsPlugin.load(this.apr, this.getExistingFile(s), this.ternaryIndex, this.duplicates);
+				FactsPlugin p = this.compactFacts ?
+						CompactFactsPlugin.load(this.apr, this.getExistingFile(s), this.duplicates) :
+						FactsPlugin.load(this.apr, this.getExistingFile(s), this.ternaryIndex, this.duplicates);
 				if (iFacts<0) {
 					iFacts = i;
 					this.plugins[i++] = p;
@@ -312,11 +337,21 @@ public class Configuration {
 		if (facts>1) { // trim array
 			this.plugins = Arrays.copyOfRange(this.plugins,0,i);
 		}
+		for (int j=0; j<this.plugins.length; j++) {
+			if (cacheSizes[j] > 0) this.plugins[j] = new CachingPlugin(this.plugins[j], cacheSizes[j]);
+		}
 		if (graph>1) {
 			log.warn("Consolidated graph files not yet supported! If the same functor exists in two files, facts in the later file will be hidden from the prover!");
 		}
 	}
 	
+	/** Size of the outlink cache for a programFiles entry, by its path or its name; 0 for none */
+	private long outlinkCacheSize(String programFile) {
+		Long size = this.outlinkCache.get(programFile);
+		if (size == null) size = this.outlinkCache.get(new File(programFile).getName());
+		return size == null ? 0 : size;
+	}
+	
 	protected Option checkOption(Option o) {
 		return o;
 	}
@@ -472,6 +507,20 @@ public class Configuration {
 					.hasArg()
 					.withDescription("Turn on A1A2 index for facts of arity >= 3.")
 					.create()));
+			options.addOption(checkOption(
+					OptionBuilder
+					.withLongOpt(COMPACTFACTS_CONST_OPTION)
+					.withArgName("true|false")
+					.hasArg()
+					.withDescription("Store facts in sorted primitive arrays instead of hash indexes. Uses much less memory on large .cfacts files; the A1A2 index is always on.")
+					.create()));
+			options.addOption(checkOption(
+					Option.builder(OUTLINKCACHE_CONST_OPTION)
+					.hasArgs()
+					.argName("file=size:...:file=size")
+					.valueSeparator(':')
+					.desc("Cache answers from these programFiles plugins across queries, keeping up to size answers for each.")
+					.build()));
 			options.addOption(checkOption(
 					Option.builder(PRUNEDPREDICATE_CONST_OPTION)
           .hasArgs()
@@ -594,6 +643,8 @@ public class Configuration {
 		flags = constants(allFlags);
 		if (isOn(flags, USE_WAM)) syntax.append(" --").append(PROGRAMFILES_CONST_OPTION).append(" file.wam:file.cfacts:file.graph");
 		if (isOn(flags, USE_WAM)) syntax.append(" [--").append(TERNARYINDEX_CONST_OPTION).append(" true|false]");
+		if (isOn(flags, USE_WAM)) syntax.append(" [--").append(COMPACTFACTS_CONST_OPTION).append(" true|false]");
+		if (isOn(flags, USE_WAM)) syntax.append(" [--").append(OUTLINKCACHE_CONST_OPTION).append(" file=size:...:file=size]");
 		if (isOn(flags, USE_WAM)) syntax.append(" [--").append(PRUNEDPREDICATE_CONST_OPTION).append(" predicate1:predicate2]");
 		if (isOn(flags, USE_THREADS)) syntax.append(" [--").append(THREADS_CONST_OPTION).append(" integer]");
 		if (isOn(flags, USE_EPOCHS)) syntax.append(" [--").append(EPOCHS_CONST_OPTION).append(" integer]");
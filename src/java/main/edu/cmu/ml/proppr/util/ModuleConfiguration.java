@@ -20,16 +20,21 @@ import edu.cmu.ml.proppr.learn.tools.SquashingFunction;
 import edu.cmu.ml.proppr.learn.tools.StoppingCriterion;
 import edu.cmu.ml.proppr.learn.tools.Tanh;
 import edu.cmu.ml.proppr.learn.tools.Tanh1;
+import edu.cmu.ml.proppr.prove.CsrPprProver;
+import edu.cmu.ml.proppr.prove.DenseDprProver;
 import edu.cmu.ml.proppr.prove.DfsProver;
 import edu.cmu.ml.proppr.prove.DprProver;
 import edu.cmu.ml.proppr.prove.IdDprProver;
 import edu.cmu.ml.proppr.prove.IdPprProver;
 import edu.cmu.ml.proppr.prove.PruningIdDprProver;
+import edu.cmu.ml.proppr.prove.ParallelIdDprProver;
 import edu.cmu.ml.proppr.prove.PathDprProver;
 import edu.cmu.ml.proppr.prove.PprProver;
 import edu.cmu.ml.proppr.prove.PriorityQueueProver;
 import edu.cmu.ml.proppr.prove.Prover;
+import edu.cmu.ml.proppr.prove.TopKProver;
 import edu.cmu.ml.proppr.prove.TracingDfsProver;
+import edu.cmu.ml.proppr.util.math.ParamVector;
 import edu.cmu.ml.proppr.util.multithreading.Multithreading;
 import org.apache.log4j.Logger;
 
@@ -42,7 +47,7 @@ public class ModuleConfiguration extends Configuration {
 	private static final String OLD_SQUASHFUNCTION_MODULE_OPTION = "weightingScheme";
 	private static final String PROVER_MODULE_OPTION = "prover";
 
-	private enum PROVERS { ippr, ppr, qpr, idpr, p_idpr, dpr, pdpr, dfs, tr };
+	private enum PROVERS { ippr, cppr, ppr, qpr, idpr, p_idpr, par_idpr, topk, dpr, ddpr, pdpr, dfs, tr };
 	private enum SQUASHFUNCTIONS { linear, sigmoid, tanh, tanh1, ReLU, LReLU, exp, clipExp };
 	private enum TRAINERS { cached, caching, streaming, adagrad };
 	private enum SRWS { ppr, dpr, adagrad }
@@ -122,12 +127,15 @@ public class ModuleConfiguration extends Configuration {
 					.withValueSeparator(':')
 					.withDescription("Default: cached:shuff=true:pct=1.0:stableEpochs=3\n"
 							+ "Available trainers:\n"
-							+ "cached[:shuff={true|false}] (faster)\n"
+							+ "cached[:shuff={true|false}][:cacheMB=N]\n"
+							+ "                            (faster; examples past N MB spill to disk)\n"
 							+ "streaming                   (large dataset)\n"
 							+ "adagrad\n"
 							+ "Available parameters:\n"
 							+ "pct - stopping criterion max % improvement\n"
-							+ "stableEpochs - stopping criterion")
+							+ "stableEpochs - stopping criterion\n"
+							+ "update - parameter update mode: safe|hogwild|striped (default safe)\n"
+							+ "arrayParams - key params by feature id: true|false (default false)")
 							.create()));
 		if (isOn(flags, USE_SRW))
 			options.addOption(checkOption(
@@ -143,9 +151,12 @@ public class ModuleConfiguration extends Configuration {
 							 + "Available [sched]ules: global,local\n"
 							 + "Available [loss] functions: "+Dictionary.buildString(LOSSFUNCTIONS.values(),new StringBuilder(),",").toString()+"\n"
 							 + "Other parameters:\n"
-							 + "mu,eta,delta,zeta,affinityFile\n"
+							 + "mu,eta,delta,zeta,affinityFile,sparseInference,floatPrecision,minibatch\n"
 							+ "Default mu=.001\n"
-							+ "Default eta=1.0")
+							+ "Default eta=1.0\n"
+							+ "Default sparseInference=false\n"
+							+ "Default floatPrecision=false\n"
+							+ "Default minibatch=1")
 							.create()));
 		if (isOn(flags, USE_SRW))
 			options.addOption(checkOption(
@@ -182,12 +193,18 @@ public class ModuleConfiguration extends Configuration {
 				case ippr:
 					this.prover = new IdPprProver(apr);
 					break;
+				case cppr:
+					this.prover = new CsrPprProver(apr);
+					break;
 				case ppr:
 					this.prover = new PprProver(apr);
 					break;
 				case dpr:
 					this.prover = new DprProver(apr);
 					break;
+				case ddpr:
+					this.prover = new DenseDprProver(apr);
+					break;
 				case idpr:
 					this.prover = new IdDprProver(apr);
 					break;
@@ -196,6 +213,12 @@ public class ModuleConfiguration extends Configuration {
 					this.prover = new PruningIdDprProver(apr,prunedPredicateRules);
 					proverSupportsPruning = true;
 					break;
+				case par_idpr:
+					this.prover = new ParallelIdDprProver(apr);
+					break;
+				case topk:
+					this.prover = new TopKProver(apr);
+					break;
 				case qpr:
 					this.prover = new PriorityQueueProver(apr);
 					break;
@@ -272,12 +295,14 @@ public class ModuleConfiguration extends Configuration {
 				case caching: //fallthrough
 				case cached:
 					boolean shuff = CachingTrainer.DEFAULT_SHUFFLE;
+					long cacheBudget = CachingTrainer.DEFAULT_CACHE_BUDGET;
 					if (line.hasOption(TRAINER_MODULE_OPTION)) {
 						for (String val : line.getOptionValues(TRAINER_MODULE_OPTION)) {
 							if (val.startsWith("shuff")) shuff = Boolean.parseBoolean(val.substring(val.indexOf("=")+1));
+							else if (val.startsWith("cacheMB")) cacheBudget = Long.parseLong(val.substring(val.indexOf("=")+1)) << 20;
 						}
 					}
-					this.trainer = new CachingTrainer(this.srw, this.nthreads, this.throttle, shuff); 
+					this.trainer = new CachingTrainer(this.srw, this.nthreads, this.throttle, shuff, cacheBudget); 
 					break;
 				case adagrad:
 					this.usageOptions(options, allFlags, "Trainer 'adagrad' no longer necessary. Use '--srw adagrad' for adagrad descent method.");
@@ -292,6 +317,8 @@ public class ModuleConfiguration extends Configuration {
 					for (String val : line.getOptionValues(TRAINER_MODULE_OPTION)) {
 						if (val.startsWith("pct")) percent = Double.parseDouble(val.substring(val.indexOf("=")+1));
 						else if (val.startsWith("stableEpochs")) stableEpochs = Integer.parseInt(val.substring(val.indexOf("=")+1));
+						else if (val.startsWith("update")) this.trainer.setUpdateMode(ParamVector.UpdateMode.valueOf(val.substring(val.indexOf("=")+1)));
+						else if (val.startsWith("arrayParams")) this.trainer.setArrayParams(Boolean.parseBoolean(val.substring(val.indexOf("=")+1)));
 					}
 				}
 				this.trainer.setStoppingCriteria(stableEpochs, percent);
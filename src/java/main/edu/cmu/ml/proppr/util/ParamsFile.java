@@ -16,6 +16,8 @@ import java.util.Properties;
 
 import org.apache.log4j.Logger;
 
+import edu.cmu.ml.proppr.util.math.ArrayParamVector;
+
 public class ParamsFile extends ParsedFile {
 	private static final Logger log = Logger.getLogger(ParamsFile.class);
 	public static final String HEADER_PREFIX="#! ";
@@ -94,8 +96,16 @@ public class ParamsFile extends ParsedFile {
 			// write header
 			if (config != null) saveHeader(writer,config);
 			// write params
-			for (Map.Entry<String,Double>e : params.entrySet()) {
-				saveParameter(writer,String.valueOf(e.getKey()),e.getValue());
+			if (params instanceof ArrayParamVector) {
+				ArrayParamVector<String> array = (ArrayParamVector<String>) params;
+				for (ArrayParamVector<String>.IdIterator it = array.new IdIterator(); it.hasNext(); ) {
+					int id = it.next();
+					saveParameter(writer,array.getFeatures().getSymbol(id),array.get(id));
+				}
+			} else {
+				for (Map.Entry<String,Double>e : params.entrySet()) {
+					saveParameter(writer,String.valueOf(e.getKey()),e.getValue());
+				}
 			}
 			writer.close();
 		} catch (IOException e) {
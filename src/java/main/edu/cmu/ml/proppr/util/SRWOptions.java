@@ -15,6 +15,9 @@ public class SRWOptions {
 	public static final double DEFAULT_DELTA=0.5;
 	public static final double DEFAULT_ZETA=0;
 	public static final File DEFAULT_AFFGRAPH=null;
+	public static final boolean DEFAULT_SPARSE_INFERENCE=false;
+	public static final boolean DEFAULT_FLOAT_PRECISION=false;
+	public static final int DEFAULT_MINIBATCH=1;
 	public static SquashingFunction DEFAULT_SQUASHING_FUNCTION() { return new ReLU(); }
 
 	
@@ -25,7 +28,10 @@ public class SRWOptions {
 		zeta,
 		affinityFile,
 		squashingFunction,
-		apr
+		apr,
+		sparseInference,
+		floatPrecision,
+		minibatch
 	}
 	
 	/** regularization */
@@ -51,6 +57,12 @@ public class SRWOptions {
 	public SquashingFunction squashingFunction;
 	/** minalpha projection */
 	public APROptions apr;
+	/** store dp in preallocated sparse rows instead of per-node maps (ppr only) */
+	public boolean sparseInference = DEFAULT_SPARSE_INFERENCE;
+	/** store graph weights, M, dM and dp in single precision, for about half the memory per example (ppr only; implies sparseInference) */
+	public boolean floatPrecision = DEFAULT_FLOAT_PRECISION;
+	/** examples each training thread sums gradient steps over before applying them to the shared params */
+	public int minibatch = DEFAULT_MINIBATCH;
 	
 	/** */
 	public SRWOptions(APROptions options, SquashingFunction fn) {
@@ -110,7 +122,10 @@ public class SRWOptions {
 			if (!value.exists()) throw new IllegalArgumentException("File '"+value.getName()+"' must exist");
 			this.affinityFile = value; 
 			return;
-		case apr: this.apr.set(new String[] { setting[1], setting[2] });
+		case apr: this.apr.set(new String[] { setting[1], setting[2] }); return;
+		case sparseInference: this.sparseInference = Boolean.parseBoolean(setting[1]); return;
+		case floatPrecision: this.floatPrecision = Boolean.parseBoolean(setting[1]); return;
+		case minibatch: this.minibatch = Integer.parseInt(setting[1]); return;
 		}
 	}
 }
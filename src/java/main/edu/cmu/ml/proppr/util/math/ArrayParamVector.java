@@ -0,0 +1,402 @@
+package edu.cmu.ml.proppr.util.math;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+
+import edu.cmu.ml.proppr.util.SymbolTable;
+
+/**
+ * A parameter vector keyed by the ids of a feature symbol table (usually the master
+ * feature index from LearningGraphBuilder.getFeatures()).
+ *
+ * Weights are stored as raw double bits in chunks of atomic long arrays, so updates
+ * are lock-free compare-and-set operations with no boxing, and the vector can grow as
+ * new features are added to the symbol table without copying (and thereby losing
+ * concurrent updates to) existing weights.
+ *
+ * In striped update mode, adjustValue() adds into a DoubleAdder cell per feature
+ * instead, kept in chunks alongside the weights, and flush() merges the cells into
+ * the weights.
+ *
+ * String-keyed Map access still works, but goes through the symbol table. A feature
+ * with no weight reads as null from get(key), as for any Map, and as 0.0 from the
+ * id-based get(), which learners treat as the default weight; containsKey()
+ * distinguishes the two.
+ */
+public class ArrayParamVector<F> extends ParamVector<F,Double> {
+	private static final int CHUNK_BITS = 12;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	/** A signalling NaN; never produced by arithmetic, so safe to use as an 'absent' marker */
+	private static final long ABSENT = 0x7ff4000000000001L;
+
+	private final SymbolTable<F> features;
+	private volatile AtomicLongArray[] chunks = new AtomicLongArray[1];
+	private final AtomicInteger size = new AtomicInteger(0);
+	// striped update cells; pending is set once any cell exists, so the other modes never look at them
+	private volatile CellChunk[] cells = new CellChunk[0];
+	private volatile boolean pending = false;
+
+	private static final class CellChunk extends AtomicReferenceArray<DoubleAdder> {
+		CellChunk() { super(CHUNK_SIZE); }
+	}
+
+	public ArrayParamVector(SymbolTable<F> features) {
+		this.features = features;
+	}
+	public ArrayParamVector(SymbolTable<F> features, Map<F,Double> init) {
+		this(features);
+		this.putAll(init);
+	}
+
+	public SymbolTable<F> getFeatures() {
+		return this.features;
+	}
+
+	/////////////////////// storage ///////////////////////
+
+	private AtomicLongArray chunk(int id, boolean create) {
+		int c = id >>> CHUNK_BITS;
+		AtomicLongArray[] cs = chunks;
+		if (c < cs.length && cs[c] != null) return cs[c];
+		if (!create) return null;
+		synchronized(this) {
+			cs = chunks;
+			if (c >= cs.length) cs = Arrays.copyOf(cs, Math.max(c+1, 2*cs.length));
+			if (cs[c] == null) {
+				long[] empty = new long[CHUNK_SIZE];
+				Arrays.fill(empty, ABSENT);
+				cs[c] = new AtomicLongArray(empty);
+			}
+			chunks = cs;
+			return cs[c];
+		}
+	}
+	private long bits(int id) {
+		AtomicLongArray a = chunk(id, false);
+		if (a == null) return ABSENT;
+		return a.get(id & CHUNK_MASK);
+	}
+	private DoubleAdder cell(int id) {
+		int c = id >>> CHUNK_BITS;
+		CellChunk[] cs = cells;
+		if (c >= cs.length || cs[c] == null) {
+			synchronized(this) {
+				cs = cells;
+				if (c >= cs.length) cs = Arrays.copyOf(cs, Math.max(c+1, 2*cs.length));
+				if (cs[c] == null) cs[c] = new CellChunk();
+				cells = cs;
+			}
+		}
+		CellChunk chunk = cs[c];
+		int i = id & CHUNK_MASK;
+		DoubleAdder cell = chunk.get(i);
+		if (cell == null) {
+			DoubleAdder fresh = new DoubleAdder();
+			cell = chunk.compareAndSet(i, null, fresh) ? fresh : chunk.get(i);
+		}
+		return cell;
+	}
+	/** Remove and return the striped cell of feature #id, if it has one */
+	private DoubleAdder takeCell(int id) {
+		int c = id >>> CHUNK_BITS;
+		CellChunk[] cs = cells;
+		if (c >= cs.length || cs[c] == null) return null;
+		return cs[c].getAndSet(id & CHUNK_MASK, null);
+	}
+	/** Sum of the updates to feature #id not yet merged by flush() */
+	private double pendingValue(int id) {
+		int c = id >>> CHUNK_BITS;
+		CellChunk[] cs = cells;
+		if (c >= cs.length || cs[c] == null) return 0.0;
+		DoubleAdder cell = cs[c].get(id & CHUNK_MASK);
+		return cell == null ? 0.0 : cell.sum();
+	}
+	/** Upper bound (exclusive) on the ids currently stored */
+	public int maxId() {
+		return chunks.length << CHUNK_BITS;
+	}
+	private int idOf(Object key) {
+		// Map methods take Object keys; a key of some other type is just not in the table
+		@SuppressWarnings("unchecked")
+		F f = (F) key;
+		if (!features.hasId(f)) return -1;
+		return features.getId(f);
+	}
+
+	/////////////////////// id-based access ///////////////////////
+
+	/** True if feature #id has a weight, including a weight of 0.0 */
+	public boolean containsKey(int id) {
+		return bits(id) != ABSENT;
+	}
+	/**
+	 * @return the weight of feature #id, or 0.0 if it has no weight (containsKey(id)
+	 * tells the two apart). Ids are only meaningful for the features table this vector
+	 * was made with; use get(features,id) with ids from any other table.
+	 */
+	public double get(int id) {
+		long b = bits(id);
+		if (b == ABSENT) return 0.0;
+		double w = Double.longBitsToDouble(b);
+		if (pending) w += pendingValue(id);
+		return w;
+	}
+	public void put(int id, double value) {
+		if (pending) takeCell(id);
+		AtomicLongArray a = chunk(id, true);
+		long old = a.getAndSet(id & CHUNK_MASK, Double.doubleToRawLongBits(value));
+		if (old == ABSENT) size.incrementAndGet();
+	}
+	public void adjustValue(int id, double value) {
+		AtomicLongArray a = chunk(id, true);
+		int i = id & CHUNK_MASK;
+		switch(getUpdateMode()) {
+		case hogwild:
+			long old = a.get(i);
+			double w = old == ABSENT ? 0.0 : Double.longBitsToDouble(old);
+			a.lazySet(i, Double.doubleToRawLongBits(w + value));
+			if (old == ABSENT) size.incrementAndGet();
+			return;
+		case striped:
+			// make sure the feature shows up in keySet() etc right away
+			if (a.get(i) == ABSENT && a.compareAndSet(i, ABSENT, Double.doubleToRawLongBits(0.0))) size.incrementAndGet();
+			pending = true;
+			cell(id).add(value);
+			return;
+		default:
+			casAdd(a, i, value);
+		}
+	}
+	private void casAdd(AtomicLongArray a, int i, double value) {
+		for (int tries=0; ; tries++) {
+			long old = a.get(i);
+			double w = old == ABSENT ? 0.0 : Double.longBitsToDouble(old);
+			if (a.compareAndSet(i, old, Double.doubleToRawLongBits(w + value))) {
+				if (old == ABSENT) size.incrementAndGet();
+				countRetries(tries);
+				return;
+			}
+		}
+	}
+
+	@Override
+	public void flush() {
+		if (!pending) return;
+		pending = false;
+		CellChunk[] cs = cells;
+		for (int c=0; c<cs.length; c++) {
+			if (cs[c] == null) continue;
+			for (int i=0; i<CHUNK_SIZE; i++) {
+				DoubleAdder cell = cs[c].getAndSet(i, null);
+				if (cell != null) casAdd(chunk((c << CHUNK_BITS) | i, true), i, cell.sum());
+			}
+		}
+	}
+
+	@Override
+	public boolean isIndexedBy(SymbolTable<F> features) {
+		return this.features == features;
+	}
+	/**
+	 * Ids from this vector's own features table are read directly, with the same
+	 * contract as get(id); ids from any other table are translated through their
+	 * feature names.
+	 */
+	@Override
+	public double get(SymbolTable<F> features, int id) {
+		if (this.features != features) return super.get(features, id);
+		return get(id);
+	}
+	@Override
+	public boolean containsKey(SymbolTable<F> features, int id) {
+		if (this.features != features) return super.containsKey(features, id);
+		return containsKey(id);
+	}
+	@Override
+	public Double put(SymbolTable<F> features, int id, double value) {
+		if (this.features != features) return super.put(features, id, value);
+		put(id, value);
+		return value;
+	}
+	@Override
+	public void adjustValue(SymbolTable<F> features, int id, double value) {
+		if (this.features != features) super.adjustValue(features, id, value);
+		else adjustValue(id, value);
+	}
+
+	/////////////////////// Map access ///////////////////////
+
+	@Override
+	public boolean containsKey(Object key) {
+		int id = idOf(key);
+		return id >= 0 && containsKey(id);
+	}
+	@Override
+	public Double get(Object key) {
+		int id = idOf(key);
+		if (id < 0) return null;
+		if (!containsKey(id)) return null;
+		return get(id);
+	}
+	@Override
+	public Double put(F key, Double value) {
+		put(features.getId(key), value.doubleValue());
+		return value;
+	}
+	@Override
+	public void adjustValue(F key, double value) {
+		adjustValue(features.getId(key), value);
+	}
+	@Override
+	public Double remove(Object key) {
+		int id = idOf(key);
+		if (id < 0) return null;
+		if (pending) takeCell(id);
+		AtomicLongArray a = chunk(id, false);
+		if (a == null) return null;
+		long old = a.getAndSet(id & CHUNK_MASK, ABSENT);
+		if (old == ABSENT) return null;
+		size.decrementAndGet();
+		return Double.longBitsToDouble(old);
+	}
+	@Override
+	public synchronized void putAll(Map<? extends F, ? extends Double> m) {
+		for (Map.Entry<? extends F, ? extends Double> e : m.entrySet()) {
+			put(features.getId(e.getKey()), e.getValue().doubleValue());
+		}
+	}
+	@Override
+	public synchronized void clear() {
+		cells = new CellChunk[0];
+		pending = false;
+		for (AtomicLongArray a : chunks) {
+			if (a == null) continue;
+			for (int i=0; i<CHUNK_SIZE; i++) a.set(i, ABSENT);
+		}
+		size.set(0);
+	}
+	@Override
+	public int size() {
+		return size.get();
+	}
+	@Override
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+	@Override
+	public boolean containsValue(Object value) {
+		for (IdIterator it = new IdIterator(); it.hasNext(); ) {
+			if (value.equals(get(it.next()))) return true;
+		}
+		return false;
+	}
+	@Override
+	public Collection<Double> values() {
+		ArrayList<Double> result = new ArrayList<Double>(size());
+		for (IdIterator it = new IdIterator(); it.hasNext(); ) result.add(get(it.next()));
+		return result;
+	}
+	@Override
+	public Set<F> keySet() {
+		return new AbstractSet<F>() {
+			@Override
+			public Iterator<F> iterator() {
+				final IdIterator it = new IdIterator();
+				return new Iterator<F>() {
+					@Override
+					public boolean hasNext() { return it.hasNext(); }
+					@Override
+					public F next() { return features.getSymbol(it.next()); }
+				};
+			}
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+			@Override
+			public int size() {
+				return ArrayParamVector.this.size();
+			}
+		};
+	}
+	@Override
+	public Set<Map.Entry<F, Double>> entrySet() {
+		return new AbstractSet<Map.Entry<F,Double>>() {
+			@Override
+			public Iterator<Map.Entry<F, Double>> iterator() {
+				final IdIterator it = new IdIterator();
+				return new Iterator<Map.Entry<F,Double>>() {
+					@Override
+					public boolean hasNext() { return it.hasNext(); }
+					@Override
+					public Map.Entry<F, Double> next() { return new IdEntry(it.next()); }
+				};
+			}
+			@Override
+			public int size() {
+				return ArrayParamVector.this.size();
+			}
+		};
+	}
+
+	@Override
+	public ParamVector<F, Double> copy() {
+		ArrayParamVector<F> copy = new ArrayParamVector<F>(features);
+		for (IdIterator it = new IdIterator(); it.hasNext(); ) {
+			int id = it.next();
+			copy.put(id, get(id));
+		}
+		return copy;
+	}
+
+	/** Walks the ids with weights, in increasing order */
+	public class IdIterator {
+		private int next=0;
+		public IdIterator() { advance(); }
+		private void advance() {
+			int max = maxId();
+			for (next++; next<max; next++) {
+				if (bits(next) != ABSENT) return;
+			}
+		}
+		public boolean hasNext() {
+			return next < maxId();
+		}
+		public int next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			int ret = next;
+			advance();
+			return ret;
+		}
+	}
+
+	private class IdEntry implements Map.Entry<F,Double> {
+		int id;
+		IdEntry(int id) { this.id = id; }
+		@Override
+		public F getKey() {
+			return features.getSymbol(id);
+		}
+		@Override
+		public Double getValue() {
+			return get(id);
+		}
+		@Override
+		public Double setValue(Double value) {
+			double old = get(id);
+			put(id, value.doubleValue());
+			return old;
+		}
+	}
+}
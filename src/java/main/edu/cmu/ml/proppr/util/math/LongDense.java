@@ -1,6 +1,7 @@
 package edu.cmu.ml.proppr.util.math;
 
 import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 import edu.cmu.ml.proppr.util.Dictionary;
 
@@ -113,10 +114,11 @@ public class LongDense
 		}
 	}
 
-	/** A vector of arbitrary objects. **/
+	/** A vector of arbitrary objects. Reads are safe while
+	 * another thread writes; writes are synchronized. **/
 	static public class ObjVector<T> {
-		public Object[] val = new Object[10];
-		int maxIndex = 0;
+		private volatile AtomicReferenceArray<T> val = new AtomicReferenceArray<T>(10);
+		private volatile int maxIndex = 0;
 
 		/** The size of the smallest array that could store this
 		 * information.
@@ -126,26 +128,35 @@ public class LongDense
 		{ 
 			return maxIndex+1;
 		}
-		/** Return V[k] **/
+		/** Return V[k], or null if it hasn't been stored **/
 		public T get(int k) 
 		{
-			growIfNeededTo(k);
-			return (T)val[k];
+			AtomicReferenceArray<T> v = val;
+			return k < v.length() ? v.get(k) : null;
 		}
 		/** Store newval in V[k] **/
-		public void set(int k, T newval) 
+		public synchronized void set(int k, T newval) 
 		{
 			growIfNeededTo(k);
-			val[k] = newval;
+			val.set(k, newval);
 			maxIndex = Math.max(maxIndex,k);
 		}
+		/** Store newval in V[k] unless something is there already; return what V[k] ends up holding **/
+		public synchronized T setIfAbsent(int k, T newval) 
+		{
+			T old = get(k);
+			if (old != null) return old;
+			set(k, newval);
+			return newval;
+		}
 		/** Resize the underlying storage as needed **/
 		private void growIfNeededTo(int k) 
 		{
-			if (val.length <= k) {
-				int n = Math.max(2*val.length, k+1);
-				Object[] tmp = new Object[n];
-				System.arraycopy(val,0, tmp,0, maxIndex+1);
+			AtomicReferenceArray<T> v = val;
+			if (v.length() <= k) {
+				int n = Math.max(2*v.length(), k+1);
+				AtomicReferenceArray<T> tmp = new AtomicReferenceArray<T>(n);
+				for (int i=0; i<=maxIndex && i<v.length(); i++) tmp.set(i, v.get(i));
 				val = tmp;
 			}
 		}
@@ -0,0 +1,140 @@
+package edu.cmu.ml.proppr.util.math;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * A parameter vector backed by a ConcurrentHashMap from features to stored
+ * values; subclasses choose what a stored value holds besides the weight.
+ */
+public abstract class MapParamVector<F,T> extends ParamVector<F,T> {
+	private final ConcurrentHashMap<F,DoubleAdder> cells = new ConcurrentHashMap<F,DoubleAdder>();
+
+	protected abstract ConcurrentHashMap<F,T> getBackingStore();
+	protected abstract Double getWeight(T value);
+	protected abstract T newValue(Double value);
+
+	@Override
+	public Set<F> keySet() {
+		return getBackingStore().keySet();
+	}
+
+	@Override
+	public boolean containsKey(Object arg0) {
+		return getBackingStore().containsKey(arg0);
+	}
+	@Override
+	public boolean containsValue(Object value) {
+		return getBackingStore().containsValue(value);
+	}
+
+	@Override
+	public Double get(Object key) {
+		Double w = getWeight(getBackingStore().get(key));
+		if (w != null && !cells.isEmpty()) {
+			DoubleAdder cell = cells.get(key);
+			if (cell != null) w += cell.sum();
+		}
+		return w;
+	}
+	@Override
+	public boolean isEmpty() {
+		return getBackingStore().isEmpty();
+	}
+	@Override
+	public int size() {
+		return getBackingStore().size();
+	}
+	@Override
+	public Collection<Double> values() {
+		Map<F,T> back = getBackingStore();
+		ArrayList<Double> result = new ArrayList<Double>(back.size());
+		for (T value : back.values()) result.add(getWeight(value));
+		return result;
+	}
+
+	@Override
+	public void clear() {
+		cells.clear();
+		getBackingStore().clear();
+	}
+	@Override
+	public Double put(F key, Double value) {
+		if (!cells.isEmpty()) cells.remove(key);
+		T nv = this.newValue(value);
+		this.getBackingStore().put(key,nv);
+		return getWeight(nv);
+	}
+	@Override
+	public synchronized void putAll(Map<? extends F, ? extends Double> m) {
+		// synchronized to match the behavior of ConcurrentHashMap.putAll()
+		Map<F,T> back = getBackingStore();
+		for (Map.Entry<? extends F, ? extends Double> e : m.entrySet()) {
+			back.put(e.getKey(), newValue(e.getValue()));
+		}
+	}
+	@Override
+	public Double remove(Object key) {
+		if (!cells.isEmpty()) cells.remove(key);
+		return getWeight(getBackingStore().remove(key));
+	}
+
+	@Override
+	public void adjustValue(F key, double value) {
+		switch(getUpdateMode()) {
+		case hogwild: this.hogwildAdjustValue(key,value); break;
+		case striped: this.stripedAdjustValue(key,value); break;
+		default: this.safeAdjustValue(key,value);
+		}
+	}
+
+	private void hogwildAdjustValue(F key, double value) {
+		Double old = this.get(key);
+		this.put(key, (old == null ? 0.0 : old) + value);
+	}
+
+	private void safeAdjustValue(F key, double value) {
+		ConcurrentHashMap<F,T> store = getBackingStore();
+		T oldvalue = store.get(key);
+		if (oldvalue == null) {
+			oldvalue = store.putIfAbsent(key, newValue(value));
+			if (oldvalue == null) return;
+		}
+		int tries = 0;
+		while( !store.replace(key, oldvalue, newValue(getWeight(oldvalue)+value))) {
+			tries++;
+			oldvalue = store.get(key);
+			if (oldvalue == null) {
+				oldvalue = store.putIfAbsent(key, newValue(value));
+				if (oldvalue == null) break;
+			}
+		}
+		countRetries(tries);
+	}
+
+	private void stripedAdjustValue(F key, double value) {
+		DoubleAdder cell = cells.get(key);
+		if (cell == null) {
+			// make sure the key shows up in keySet() etc right away
+			if (!getBackingStore().containsKey(key)) getBackingStore().putIfAbsent(key, newValue(0.0));
+			DoubleAdder fresh = new DoubleAdder();
+			cell = cells.putIfAbsent(key, fresh);
+			if (cell == null) cell = fresh;
+		}
+		cell.add(value);
+	}
+
+	@Override
+	public void flush() {
+		for (Iterator<Map.Entry<F,DoubleAdder>> it = cells.entrySet().iterator(); it.hasNext(); ) {
+			Map.Entry<F,DoubleAdder> e = it.next();
+			it.remove();
+			safeAdjustValue(e.getKey(), e.getValue().sum());
+		}
+	}
+}
@@ -14,7 +14,7 @@ import edu.cmu.ml.proppr.util.TimestampedWeight;
  * @author "Kathryn Mazaitis <krivard@cs.cmu.edu>"
  *
  */
-public class MuParamVector<F> extends ParamVector<F,TimestampedWeight> {
+public class MuParamVector<F> extends MapParamVector<F,TimestampedWeight> {
 	private ConcurrentHashMap<F,TimestampedWeight> backingStore;
 	private long count=0;
 	
@@ -70,7 +70,7 @@ public class MuParamVector<F> extends ParamVector<F,TimestampedWeight> {
 	
 	@Override
 	public ParamVector<F,TimestampedWeight> copy () {
-		MuParamVector copy = new MuParamVector();
+		MuParamVector<F> copy = new MuParamVector<F>();
         copy.putAll(this);
         return copy;
     }
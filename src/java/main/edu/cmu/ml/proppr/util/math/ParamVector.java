@@ -1,104 +1,94 @@
 package edu.cmu.ml.proppr.util.math;
 
-import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.Map;
-import java.util.Set;
-import java.util.TreeMap;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
+import edu.cmu.ml.proppr.util.SymbolTable;
+
+/**
+ * A map from features to weights which supports concurrent adjustValue()
+ * updates. MapParamVector keeps the weights in a ConcurrentHashMap;
+ * ArrayParamVector keeps them in arrays indexed by feature id.
+ */
 public abstract class ParamVector<F,T> implements Map<F,Double> {
-	
-	protected abstract ConcurrentHashMap<F,T> getBackingStore();
-	protected abstract Double getWeight(T value);
-	protected abstract T newValue(Double value);
-	
-	@Override
-	public Set<F> keySet() {
-		return getBackingStore().keySet();
+	/** How adjustValue() resolves concurrent updates to the same key */
+	public enum UpdateMode {
+		/** compare-and-set on the stored weight, retrying on collision */
+		safe,
+		/** unsynchronized read-add-write; collisions lose updates */
+		hogwild,
+		/** accumulate into striped adder cells, merged into the stored weights by flush() */
+		striped
 	}
-	
-	@Override
-	public boolean containsKey(Object arg0) {
-		return getBackingStore().containsKey(arg0);
+	private UpdateMode updateMode = UpdateMode.safe;
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder collisions = new LongAdder();
+
+	public abstract ParamVector<F,T> copy ();
+
+	/** Add value to the weight of key, resolving collisions according to the update mode */
+	public abstract void adjustValue(F key, double value);
+
+	/**
+	 * Merge any pending striped updates into the stored weights. get() always includes
+	 * pending updates, but entrySet(), values() etc do not, so call this before iterating
+	 * over the vector. Not safe to call while other threads are updating the vector.
+	 */
+	public abstract void flush();
+
+	/**
+	 * Feature-id access, for learners working from a LearningGraph.
+	 *
+	 * The id-based methods translate the id through the graph's feature library;
+	 * subclasses keyed by that same library can skip the translation.
+	 * @return the weight of feature #id in the features table, or 0.0 if the feature has no weight.
+	 */
+	public double get(SymbolTable<F> features, int id) {
+		F key = features.getSymbol(id);
+		if (!containsKey(key)) return 0.0;
+		return get(key);
 	}
-	@Override
-	public boolean containsValue(Object value) {
-		return getBackingStore().containsValue(value);
+	public boolean containsKey(SymbolTable<F> features, int id) {
+		return containsKey(features.getSymbol(id));
 	}
-	@Override
-	public abstract Set<java.util.Map.Entry<F, Double>> entrySet();
-	
-	@Override
-	public Double get(Object key) {
-		return getWeight(getBackingStore().get(key));
+	public Double put(SymbolTable<F> features, int id, double value) {
+		return put(features.getSymbol(id), value);
 	}
-	@Override
-	public boolean isEmpty() {
-		return getBackingStore().isEmpty();
+	public void adjustValue(SymbolTable<F> features, int id, double value) {
+		adjustValue(features.getSymbol(id), value);
 	}
-	@Override
-	public int size() {
-		return getBackingStore().size();
+	/** True if ids in this features table can be used as keys into this vector directly */
+	public boolean isIndexedBy(SymbolTable<F> features) {
+		return false;
 	}
-	@Override
-	public Collection<Double> values() {
-		Map<F,T> back = getBackingStore();
-		ArrayList<Double> result = new ArrayList<Double>(back.size());
-		for (T value : back.values()) result.add(getWeight(value));
-		return result;
+
+	public UpdateMode getUpdateMode() {
+		return updateMode;
 	}
-	
-	@Override
-	public void clear() {
-		getBackingStore().clear();
+	public void setUpdateMode(UpdateMode mode) {
+		if (mode != UpdateMode.striped) flush();
+		this.updateMode = mode;
 	}
-	@Override
-	public Double put(F key, Double value) {
-		T nv = this.newValue(value);
-		this.getBackingStore().put(key,nv);
-		return getWeight(nv);
+
+	/** Record an update which took this many failed compare-and-sets */
+	protected void countRetries(int tries) {
+		if (tries == 0) return;
+		collisions.increment();
+		retries.add(tries);
 	}
-	@Override
-	public synchronized void putAll(Map<? extends F, ? extends Double> m) {
-		// synchronized to match the behavior of ConcurrentHashMap.putAll()
-		Map<F,T> back = getBackingStore();
-		for (Map.Entry<? extends F, ? extends Double> e : m.entrySet()) {
-			back.put(e.getKey(), newValue(e.getValue()));
-		}
+	/** @return number of updates which collided with another thread since the last reset */
+	public long getCollisions() {
+		return collisions.sum();
 	}
-	@Override
-	public Double remove(Object key) {
-		return getWeight(getBackingStore().remove(key));
+	/** @return number of failed compare-and-sets since the last reset */
+	public long getRetries() {
+		return retries.sum();
 	}
-
-	public abstract ParamVector<F,T> copy ();
-	
-	public void adjustValue(F key, double value) {
-		this.safeAdjustValue(key,value);
-		//this.hogwildAdjustValue(key, value);
+	public void resetUpdateStatistics() {
+		collisions.reset();
+		retries.reset();
 	}
 
-	private void hogwildAdjustValue(F key, double value) {
-	    this.put(key, this.get(key)+value);
-	}
-		
-	private void safeAdjustValue(F key, double value) {
-		T oldvalue = getBackingStore().get(key);
-		if (oldvalue == null) {
-			getBackingStore().putIfAbsent(key, newValue(0.0));
-			oldvalue = getBackingStore().get(key);
-		}
-		while( !getBackingStore().replace(key, oldvalue, newValue(getWeight(oldvalue)+value))) {
-			oldvalue = getBackingStore().get(key);
-			if (oldvalue == null) oldvalue = newValue(0.0);
-			try {
-				Thread.sleep(1);
-			} catch (InterruptedException e) {}
-		}
-	}
 	@Override
 	public String toString() {
 		StringBuilder sb = new StringBuilder("{");
@@ -4,7 +4,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-public class SimpleParamVector<F> extends ParamVector<F,Double> {
+public class SimpleParamVector<F> extends MapParamVector<F,Double> {
 	private ConcurrentHashMap<F,Double> backingStore;
 	public SimpleParamVector() {
 		this.backingStore = new ConcurrentHashMap<F,Double>();
@@ -5,14 +5,12 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.Writer;
-import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
-import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
@@ -24,6 +22,8 @@ public class Multithreading<In,Out> {
 	public static final int DEFAULT_THROTTLE=NO_THROTTLE;
 	public static final boolean ORDER_MAINTAIN=true;
 	public static final boolean DEFAULT_ORDER=ORDER_MAINTAIN;
+	/** Items waiting for a thread, per thread, before reading stops */
+	public static final int QUEUE_PER_THREAD=4;
 	/** Note this log is NOT static to the class, but is 
 	 * passed in by the caller. 
 	 */
@@ -40,7 +40,7 @@ public class Multithreading<In,Out> {
 		this.maintainOrder = ordered;
 	}
 
-	/** Runs the specified transformer on each item in the streamer and blocks until complete (no throttling).
+	/** Runs the specified transformer on each item in the streamer and blocks until complete (default throttling).
 	 * Output is written to the specified file; make sure transformer transforms to String.
 	 * 
 	 * @param nThreads
@@ -78,6 +78,13 @@ public class Multithreading<In,Out> {
 	}
 	
 	/**
+	 * Runs the transformer on each item in the streamer on nThreads threads, and
+	 * the cleanup on each result on one more, and blocks until complete.
+	 * 
+	 * Reading blocks while throttle items are between the streamer and the end of
+	 * their cleanup; with NO_THROTTLE, that's QUEUE_PER_THREAD items per thread.
+	 * Unless the order is maintained, each result is cleaned up as soon as it's
+	 * ready.
 	 * 
 	 * @param nThreads
 	 * @param streamer
@@ -85,49 +92,48 @@ public class Multithreading<In,Out> {
 	 * @param cleanup
 	 * @param throttle
 	 */
-	public void executeJob(int nThreads,Iterable<In> streamer,Transformer<In,Out> transformer,Cleanup<Out> cleanup,int throttle) 
+	public void executeJob(int nThreads,Iterable<In> streamer,Transformer<In,Out> transformer,final Cleanup<Out> cleanup,int throttle) 
 	{
 		log.info("Executing Multithreading job:"
 						 +" streamer: "+streamer.getClass().getCanonicalName()
 						 +" transformer: "+transformer.getClass().getCanonicalName()
 						 +" throttle: "+throttle);
 		ExecutorService transformerPool = Executors.newFixedThreadPool(nThreads, new NamedThreadFactory("transformer"));
-		ExecutorService cleanupPool = Executors.newFixedThreadPool(1, new NamedThreadFactory("cleanup"));
+		final ExecutorService cleanupPool = Executors.newFixedThreadPool(1, new NamedThreadFactory("cleanup"));
 
-		ArrayDeque<Future<?>> transformerQueue = new ArrayDeque<Future<?>>();
+		Pipeline pipeline = new Pipeline(throttle > 0 ? throttle : nThreads * (1+QUEUE_PER_THREAD));
+		Pipeline.Stage read = pipeline.stage("read", 1);
+		Pipeline.Stage transform = pipeline.stage("transform", nThreads);
+		final Pipeline.Stage clean = pipeline.stage("cleanup", 1);
 		
 		int id=0;
 		if (log.isDebugEnabled()) log.debug("Adding start "+(id+1));
-		for (In item : streamer) {
+		Iterator<In> items = streamer.iterator();
+		while (true) {
+			long start = System.nanoTime();
+			if (!items.hasNext()) break;
+			In item = items.next();
+			read.add(System.nanoTime() - start);
 			id++;
 
-			if (throttle > 0) {
-				tidyQueue(transformerQueue);
-				if(transformerQueue.size() > throttle) {
-					int wait = 100;
-					if (log.isDebugEnabled()) log.debug("Throttling @"+id+"...");
-					while(transformerQueue.size() > throttle) {
-						try {
-							Thread.sleep(wait);
-						} catch (InterruptedException e) {
-							log.error("Interrupted while throttling tasks");
-						}
-						tidyQueue(transformerQueue);
-						wait *= 1.5;
-					}
-					if (log.isDebugEnabled()) log.debug("Throttling complete "+wait);
-				}
-			}
-			
-			Future<Out> transformerFuture = transformerPool.submit(transformer.transformer(item, id));
-			if (log.isDebugEnabled()) log.debug("Adding done "+(id));
+			pipeline.enter();
+			Callable<Out> task = transform.wrap(transformer.transformer(item, id));
 			if (maintainOrder) {
-				cleanupPool.submit(cleanup.cleanup(transformerFuture, null, id));
+				Future<Out> transformerFuture = transformerPool.submit(task);
+				cleanupPool.submit(clean.last(cleanup.cleanup(transformerFuture, id)));
 			} else {
-				if (log.isDebugEnabled()) log.debug("Permitting rescheduling of #"+id);
-				cleanupPool.submit(cleanup.cleanup(transformerFuture, cleanupPool, id));
+				// hand each result to the cleanup thread as soon as it's done
+				final FutureTask<Out> transformerFuture = new FutureTask<Out>(task);
+				final int cleanupId = id;
+				transformerPool.submit(new Runnable() {
+					@Override
+					public void run() {
+						transformerFuture.run();
+						cleanupPool.submit(clean.last(cleanup.cleanup(transformerFuture, cleanupId)));
+					}
+				});
 			}
-			if (throttle > 0) transformerQueue.add(transformerFuture);
+			if (log.isDebugEnabled()) log.debug("Adding done "+(id));
 			if (log.isDebugEnabled()) log.debug("Adding start "+(id+1));
 		}
 		
@@ -138,7 +144,7 @@ public class Multithreading<In,Out> {
 		} catch (InterruptedException e) {
 			log.error("Interrupted?",e);
 		}
-		// at this point all transformers are complete, so no task in the cleanup pool will need to be rescheduled
+		// at this point all transformers are complete, and have submitted their cleanups
 		cleanupPool.shutdown();
 		try {
 			if (log.isDebugEnabled()) log.debug("Finishing cleanup...");
@@ -149,14 +155,6 @@ public class Multithreading<In,Out> {
 		}
 		
 		log.info("Total items: "+id);
-	}
-	
-	private void tidyQueue(ArrayDeque queue) {
-		synchronized(queue) {
-			for (Iterator<Future<?>> it = queue.iterator(); it.hasNext();) {
-				Future<?> f = it.next();
-				if (f.isDone()) it.remove();
-			}
-		}
+		log.info("Pipeline: "+pipeline.report());
 	}
 }
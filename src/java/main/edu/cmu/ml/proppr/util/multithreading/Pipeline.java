@@ -0,0 +1,140 @@
+package edu.cmu.ml.proppr.util.multithreading;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Backpressure and bookkeeping for a job run as a pipeline of stages on thread
+ * pools: read, then parse/train/ground/etc, then cleanup.
+ *
+ * The reading thread calls enter() before handing each item to the first stage,
+ * and the last stage calls exit() when it's done with the item (see
+ * Stage.last()). enter() blocks while capacity items are in flight, so a slow
+ * stage holds up reading instead of piling tasks and results up in the
+ * executors' queues.
+ *
+ * Each stage records the time its tasks spend running. report() gives the
+ * utilization of each stage (busy time over wall time, per thread of the stage)
+ * and the fraction of time the reader spent blocked.
+ */
+public class Pipeline {
+	public static final int UNBOUNDED = -1;
+	private final Semaphore inFlight;
+	private final int capacity;
+	private final long startTime = System.nanoTime();
+	private final AtomicLong blocked = new AtomicLong(0);
+	private final List<Stage> stages = new ArrayList<Stage>();
+
+	/**
+	 * @param capacity Maximum number of items in flight; UNBOUNDED for no limit
+	 */
+	public Pipeline(int capacity) {
+		this.capacity = capacity;
+		this.inFlight = capacity > 0 ? new Semaphore(capacity) : null;
+	}
+
+	/** Add a stage run on the given number of threads */
+	public Stage stage(String name, int threads) {
+		Stage s = new Stage(name, threads);
+		stages.add(s);
+		return s;
+	}
+
+	/** Wait for room for one more item */
+	public void enter() {
+		if (inFlight == null) return;
+		if (inFlight.tryAcquire()) return;
+		long start = System.nanoTime();
+		inFlight.acquireUninterruptibly();
+		blocked.addAndGet(System.nanoTime() - start);
+	}
+
+	/** Finish one item */
+	public void exit() {
+		if (inFlight != null) inFlight.release();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/** Fraction of wall time the reader spent waiting in enter() */
+	public double blockedFraction() {
+		return (double) blocked.get() / Math.max(1, System.nanoTime() - startTime);
+	}
+
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for (Stage s : stages) {
+			sb.append(String.format("%s %d items %.1f%% busy; ", s.name, s.items.get(), 100*s.utilization()));
+		}
+		sb.append(String.format("reader blocked %.1f%%", 100*blockedFraction()));
+		return sb.toString();
+	}
+
+	public class Stage {
+		final String name;
+		final int threads;
+		final AtomicLong busy = new AtomicLong(0);
+		final AtomicLong items = new AtomicLong(0);
+		Stage(String name, int threads) {
+			this.name = name;
+			this.threads = Math.max(1, threads);
+		}
+		/** Record one item taking nanos to run on this stage */
+		public void add(long nanos) {
+			busy.addAndGet(nanos);
+			items.incrementAndGet();
+		}
+		/** Busy time over wall time, per thread */
+		public double utilization() {
+			return (double) busy.get() / Math.max(1, System.nanoTime() - startTime) / threads;
+		}
+		/** Time c as one item of this stage */
+		public <T> Callable<T> wrap(final Callable<T> c) {
+			return new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					long start = System.nanoTime();
+					try {
+						return c.call();
+					} finally {
+						add(System.nanoTime() - start);
+					}
+				}
+			};
+		}
+		/** Time r as one item of this stage */
+		public Runnable wrap(final Runnable r) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					try {
+						r.run();
+					} finally {
+						add(System.nanoTime() - start);
+					}
+				}
+			};
+		}
+		/** Time r as one item of this stage, and then let the next item into the pipeline */
+		public Runnable last(final Runnable r) {
+			return new Runnable() {
+				@Override
+				public void run() {
+					long start = System.nanoTime();
+					try {
+						r.run();
+					} finally {
+						add(System.nanoTime() - start);
+						exit();
+					}
+				}
+			};
+		}
+	}
+}
@@ -0,0 +1,13 @@
+package edu.cmu.ml.proppr;
+
+import edu.cmu.ml.proppr.util.multithreading.Multithreading;
+
+/**
+ * Trains as TrainerTest does, with every example spilled to disk.
+ */
+public class CachingTrainerTest extends TrainerTest {
+	@Override
+	public void initTrainer() {
+		this.trainer = new CachingTrainer(this.srw, 2, Multithreading.DEFAULT_THROTTLE, true, 0);
+	}
+}
@@ -0,0 +1,14 @@
+package edu.cmu.ml.proppr;
+
+import edu.cmu.ml.proppr.util.multithreading.Multithreading;
+
+/**
+ * Trains as TrainerTest does, with each thread applying its gradient steps in minibatches.
+ */
+public class MinibatchTrainerTest extends TrainerTest {
+	@Override
+	public void initTrainer() {
+		this.srw.getOptions().set("minibatch","4");
+		this.trainer = new Trainer(this.srw, 2, Multithreading.DEFAULT_THROTTLE);
+	}
+}
@@ -0,0 +1,131 @@
+package edu.cmu.ml.proppr;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.prove.DprProver;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.Query;
+import edu.cmu.ml.proppr.prove.wam.WamBaseProgram;
+import edu.cmu.ml.proppr.prove.wam.plugins.FactsPlugin;
+import edu.cmu.ml.proppr.prove.wam.plugins.WamPlugin;
+import edu.cmu.ml.proppr.util.APROptions;
+
+public class QueryServerTest {
+	private static final String[] QUERIES = {"predict(howard,Y)", "predict(william,Y)", "predict(george,Y)", "predict(howard,Y)"};
+	QueryAnswerer qa;
+	
+	@Before
+	public void setup() throws IOException {
+		APROptions apr = new APROptions();
+		qa = new QueryAnswerer(apr, WamBaseProgram.load(new File(GrounderTest.RULES)), 
+				new WamPlugin[] {FactsPlugin.load(apr, new File(GrounderTest.FACTS), false)}, 
+				new DprProver(apr), true, 2, -1);
+	}
+	
+	/** Solutions to each query, by query id, without the "# proved" line */
+	private Map<Integer,String> answers(BufferedReader in, int n) throws IOException {
+		Map<Integer,String> ret = new HashMap<Integer,String>();
+		StringBuilder sb = null;
+		int id=0;
+		for (String line; ret.size() < n && (line = in.readLine()) != null; ) {
+			if (line.startsWith("# proved")) {
+				id = Integer.parseInt(line.split("\t")[0].substring("# proved ".length()));
+				sb = new StringBuilder();
+			} else if (line.startsWith("#")) {
+				sb = null;
+			} else if (line.length() == 0) {
+				if (sb != null) ret.put(id, sb.toString());
+			} else {
+				sb.append(line).append("\n");
+			}
+		}
+		return ret;
+	}
+	
+	private String expected(int id) throws LogicProgramException {
+		String answer = qa.findSolutions(Query.parse(QUERIES[id-1]), id);
+		return answer.substring(answer.indexOf("\n")+1);
+	}
+
+	@Test
+	public void testServe() throws IOException, LogicProgramException {
+		QueryServer server = new QueryServer(qa);
+		StringBuilder input = new StringBuilder();
+		for (String q : QUERIES) input.append(q).append("\tignored\n");
+		input.append(QueryServer.STATS_COMMAND).append("\n");
+		StringWriter output = new StringWriter();
+		server.serve(new StringReader(input.toString()), output);
+		server.shutdown();
+		
+		Map<Integer,String> answers = answers(new BufferedReader(new StringReader(output.toString())), QUERIES.length);
+		assertEquals(QUERIES.length, answers.size());
+		for (int i=1; i<=QUERIES.length; i++) assertEquals(expected(i), answers.get(i));
+		assertTrue("at least 2 solutions", answers.get(1).split("\n").length >= 2);
+		assertEquals(QUERIES.length, server.getStats().getCount());
+		assertTrue(output.toString().contains("# stats\tqueries "));
+	}
+	
+	@Test
+	public void testSocket() throws Exception {
+		final QueryServer server = new QueryServer(qa);
+		final ServerSocket socket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		final AtomicBoolean stopped = new AtomicBoolean(false);
+		Thread listener = new Thread() {
+			@Override
+			public void run() {
+				try {
+					server.listen(socket);
+					stopped.set(true);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		};
+		listener.setDaemon(true);
+		listener.start();
+		
+		Socket client = new Socket(InetAddress.getLoopbackAddress(), socket.getLocalPort());
+		Writer out = new OutputStreamWriter(client.getOutputStream(), "UTF-8");
+		BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), "UTF-8"));
+		// answers arrive while the connection is still open
+		out.write(QUERIES[0]+"\n");
+		out.flush();
+		assertEquals(expected(1), answers(in, 1).get(1));
+		for (int i=1; i<QUERIES.length; i++) out.write(QUERIES[i]+"\n");
+		out.flush();
+		Map<Integer,String> answers = answers(in, QUERIES.length-1);
+		for (int i=2; i<=QUERIES.length; i++) assertEquals(expected(i), answers.get(i));
+		client.close();
+		server.shutdown();
+		listener.join(10000);
+		assertTrue("listen() returns after shutdown()", stopped.get());
+		assertTrue(socket.isClosed());
+	}
+
+	@Test
+	public void testAfterShutdown() throws IOException {
+		QueryServer server = new QueryServer(qa);
+		server.shutdown();
+		StringWriter output = new StringWriter();
+		server.serve(new StringReader(QUERIES[0]+"\n"), output);
+		assertTrue(output.toString(), output.toString().startsWith("# error 1\t"));
+	}
+}
@@ -4,6 +4,8 @@ import static org.junit.Assert.*;
 
 import java.util.ArrayList;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -16,6 +18,7 @@ import edu.cmu.ml.proppr.learn.SRW;
 import edu.cmu.ml.proppr.learn.tools.ReLU;
 import edu.cmu.ml.proppr.util.Dictionary;
 import edu.cmu.ml.proppr.util.SimpleSymbolTable;
+import edu.cmu.ml.proppr.util.math.ArrayParamVector;
 import edu.cmu.ml.proppr.util.math.ParamVector;
 import gnu.trove.map.TIntDoubleMap;
 import gnu.trove.map.hash.TIntDoubleHashMap;
@@ -70,4 +73,22 @@ public class TrainerTest extends RedBlueGraph {
 		}
 	}
 
+	@Test
+	public void testLoadArrayParams() throws IOException {
+		File paramsFile = File.createTempFile("TrainerTest", ".params");
+		paramsFile.deleteOnExit();
+		FileWriter w = new FileWriter(paramsFile);
+		w.write("tob\t0.5\nnosuch\t1.0\n");
+		w.close();
+		SimpleSymbolTable<String> features = new SimpleSymbolTable<String>();
+		features.insert("tob");
+		assertFalse(this.trainer.loadParamVector(features, paramsFile) instanceof ArrayParamVector);
+		this.trainer.setArrayParams(true);
+		ParamVector<String,?> params = this.trainer.loadParamVector(features, paramsFile);
+		assertTrue(params instanceof ArrayParamVector);
+		assertEquals(0.5, params.get("tob"), 0);
+		assertEquals(1, params.size());
+		assertFalse("loading interned an unknown feature", features.hasId("nosuch"));
+	}
+
 }
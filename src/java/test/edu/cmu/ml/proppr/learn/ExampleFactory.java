@@ -1,8 +1,10 @@
 package edu.cmu.ml.proppr.learn;
 
 import edu.cmu.ml.proppr.examples.DprExample;
+import edu.cmu.ml.proppr.examples.FloatPprExample;
 import edu.cmu.ml.proppr.examples.PosNegRWExample;
 import edu.cmu.ml.proppr.examples.PprExample;
+import edu.cmu.ml.proppr.examples.SparsePprExample;
 import edu.cmu.ml.proppr.graph.LearningGraph;
 import gnu.trove.map.TIntDoubleMap;
 
@@ -23,4 +25,18 @@ public abstract class ExampleFactory {
 			return new DprExample(name,graph, query, pos, neg);
 		}
 	}
+	public static class SparsePprExampleFactory extends ExampleFactory {
+		@Override
+		public PosNegRWExample makeExample(String name, LearningGraph graph,
+				TIntDoubleMap query, int[] pos, int[] neg) {
+			return new SparsePprExample(name, graph, query, pos, neg);
+		}
+	}
+	public static class FloatPprExampleFactory extends ExampleFactory {
+		@Override
+		public PosNegRWExample makeExample(String name, LearningGraph graph,
+				TIntDoubleMap query, int[] pos, int[] neg) {
+			return new FloatPprExample(name, graph, query, pos, neg);
+		}
+	}
 }
@@ -0,0 +1,178 @@
+package edu.cmu.ml.proppr.learn;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.Grounder;
+import edu.cmu.ml.proppr.examples.FloatPprExample;
+import edu.cmu.ml.proppr.examples.PosNegRWExample;
+import edu.cmu.ml.proppr.graph.ArrayLearningGraphBuilder;
+import edu.cmu.ml.proppr.graph.LearningGraphBuilder;
+import edu.cmu.ml.proppr.learn.ExampleFactory.FloatPprExampleFactory;
+import edu.cmu.ml.proppr.learn.ExampleFactory.PprExampleFactory;
+import edu.cmu.ml.proppr.learn.tools.Exp;
+import edu.cmu.ml.proppr.learn.tools.RWExampleParser;
+import edu.cmu.ml.proppr.prove.DprProver;
+import edu.cmu.ml.proppr.prove.wam.WamBaseProgram;
+import edu.cmu.ml.proppr.prove.wam.WamProgram;
+import edu.cmu.ml.proppr.prove.wam.plugins.FactsPlugin;
+import edu.cmu.ml.proppr.prove.wam.plugins.LightweightGraphPlugin;
+import edu.cmu.ml.proppr.prove.wam.plugins.WamPlugin;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.ParsedFile;
+import edu.cmu.ml.proppr.util.SRWOptions;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.SymbolTable;
+import edu.cmu.ml.proppr.util.SimpleSymbolTable;
+import edu.cmu.ml.proppr.util.math.ParamVector;
+import edu.cmu.ml.proppr.util.math.SimpleParamVector;
+
+/**
+ * The float-precision path stores M, dM and dp as floats, so its results
+ * differ from the double path by rounding. These tests bound that difference:
+ *
+ * Gradients agree to 1e-5 relative to the largest gradient component, about
+ * 100x float epsilon, to allow for the rounding accumulated over maxDepth
+ * steps of inference.
+ *
+ * Parameters trained for several epochs on the textcattoy examples (grounded
+ * from examples/textcattoy) agree to 1e-4, and so do the resulting losses,
+ * relative to their size.
+ */
+public class FloatSRWTest extends L2PosNegLossSRWTest {
+	private static final double GRADIENT_TOLERANCE = 1e-5;
+	private static final double TRAINING_TOLERANCE = 1e-4;
+	private static final File TEXTCAT = new File("examples/textcattoy");
+	private static final int EPOCHS = 5;
+
+	@Override
+	public void initSrw() {
+		super.initSrw();
+		srw.getOptions().set("floatPrecision","true");
+		factory = new FloatPprExampleFactory();
+	}
+
+	@Test
+	public void testSameGradient() {
+		int[] pos = new int[blues.size()]; { int i=0; for (String k : blues) pos[i++] = nodes.getId(k); }
+		int[] neg = new int[reds.size()];  { int i=0; for (String k : reds)  neg[i++] = nodes.getId(k); }
+		ParamVector<String,?> params = makeBiasedVec();
+
+		ParamVector<String,?> floatGradient = makeGradient(srw, params, startVec, pos, neg);
+		factory = new PprExampleFactory();
+		ParamVector<String,?> doubleGradient = makeGradient(srw, params, startVec, pos, neg);
+
+		assertEquals(doubleGradient.keySet(), floatGradient.keySet());
+		double scale = 0;
+		for (String f : doubleGradient.keySet()) scale = Math.max(scale, Math.abs(doubleGradient.get(f)));
+		for (String f : doubleGradient.keySet()) {
+			assertEquals(f, doubleGradient.get(f), floatGradient.get(f), GRADIENT_TOLERANCE * scale);
+		}
+	}
+
+	@Test
+	public void testSharedGraph() {
+		double[] weights = brGraph.label_feature_weight.clone();
+		int[] pos = new int[blues.size()]; { int i=0; for (String k : blues) pos[i++] = nodes.getId(k); }
+		int[] neg = new int[reds.size()];  { int i=0; for (String k : reds)  neg[i++] = nodes.getId(k); }
+		factory.makeExample("float", brGraph, startVec, pos, neg);
+		assertArrayEquals(weights, brGraph.label_feature_weight, 0);
+		// and double-precision readers of the same graph still work
+		assertFalse(myRWR(startVec, brGraph, 10, makeBiasedVec(), new Exp()).isEmpty());
+	}
+
+	@Test
+	public void testTextcatExamples() throws Exception {
+		SymbolTable<String> master = LearningGraphBuilder.getFeatures();
+		try {
+			List<String> lines = ground();
+			SRWOptions doubleOptions = new SRWOptions();
+			SRWOptions floatOptions = new SRWOptions();
+			floatOptions.floatPrecision = true;
+			SRW doubleSrw = trainer(doubleOptions);
+			SRW floatSrw = trainer(floatOptions);
+			List<PosNegRWExample> doubleExamples = parse(lines, doubleSrw);
+			List<PosNegRWExample> floatExamples = parse(lines, floatSrw);
+			assertTrue(floatExamples.get(0) instanceof FloatPprExample);
+
+			ParamVector<String,?> doubleParams = new SimpleParamVector<String>(new ConcurrentHashMap<String,Double>());
+			ParamVector<String,?> floatParams = new SimpleParamVector<String>(new ConcurrentHashMap<String,Double>());
+			for (PosNegRWExample ex : doubleExamples) {
+				for (String f : ex.getGraph().getFeatureSet()) {
+					// the same start for both, away from the defaults so the walk isn't uniform
+					double w = 1.0 + 0.1*((f.hashCode() & 0xff)/255.0);
+					doubleParams.put(f, w);
+					floatParams.put(f, w);
+				}
+			}
+			StatusLogger status = new StatusLogger();
+			for (int epoch=1; epoch<=EPOCHS; epoch++) {
+				doubleSrw.setEpoch(epoch);
+				floatSrw.setEpoch(epoch);
+				for (int i=0; i<doubleExamples.size(); i++) {
+					doubleSrw.trainOnExample(doubleParams, doubleExamples.get(i), status);
+					floatSrw.trainOnExample(floatParams, floatExamples.get(i), status);
+				}
+			}
+
+			assertEquals(doubleParams.keySet(), floatParams.keySet());
+			for (String f : doubleParams.keySet()) {
+				double d = doubleParams.get(f);
+				assertEquals(f, d, floatParams.get(f), TRAINING_TOLERANCE * Math.max(1, Math.abs(d)));
+			}
+			double doubleLoss = doubleSrw.cumulativeLoss().total();
+			double floatLoss = floatSrw.cumulativeLoss().total();
+			assertEquals("loss", doubleLoss, floatLoss, TRAINING_TOLERANCE * Math.abs(doubleLoss));
+		} finally {
+			LearningGraphBuilder.setFeatures(master);
+		}
+	}
+
+	private SRW trainer(SRWOptions options) {
+		SRW ret = new SRW(options);
+		ret.setRegularizer(new RegularizationSchedule(ret, new RegularizeL2()));
+		ret.setLossFunction(new PosNegLoss());
+		return ret;
+	}
+
+	/** Ground the textcattoy training examples, and make their feature index the master one */
+	private List<String> ground() throws Exception {
+		APROptions apr = new APROptions();
+		DprProver p = new DprProver(apr);
+		WamProgram program = WamBaseProgram.load(new File(TEXTCAT,"textcat.wam"));
+		WamPlugin plugins[] = new WamPlugin[] {
+				FactsPlugin.load(apr, new File(TEXTCAT,"toylabels.cfacts"), false),
+				LightweightGraphPlugin.load(apr, new File(TEXTCAT,"toywords.graph"), -1)};
+		File grounded = File.createTempFile("floatSRWTest", ".grounded");
+		grounded.deleteOnExit();
+		File index = new File(grounded.getParent(), grounded.getName()+Grounder.FEATURE_INDEX_EXTENSION);
+		index.deleteOnExit();
+		new Grounder(apr, p, program, plugins).groundExamples(new File(TEXTCAT,"train.examples"), grounded, true);
+
+		SymbolTable<String> features = new SimpleSymbolTable<String>();
+		for (String line : new ParsedFile(index)) features.insert(line.trim());
+		LearningGraphBuilder.setFeatures(features);
+		List<String> ret = new ArrayList<String>();
+		ParsedFile file = new ParsedFile(grounded);
+		try {
+			for (String line : file) ret.add(line);
+		} finally {
+			file.close();
+		}
+		assertTrue("no grounded examples", ret.size() > 0);
+		return ret;
+	}
+
+	private List<PosNegRWExample> parse(List<String> lines, SRW learner) throws Exception {
+		List<PosNegRWExample> ret = new ArrayList<PosNegRWExample>();
+		RWExampleParser parser = new RWExampleParser();
+		for (String line : lines) ret.add(parser.parse(line, new ArrayLearningGraphBuilder(), learner));
+		return ret;
+	}
+}
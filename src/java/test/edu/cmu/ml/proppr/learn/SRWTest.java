@@ -264,4 +264,30 @@ public class SRWTest extends RedBlueGraph {
 				preLoss == 0 || preLoss > postLoss);
 	}
 	
-}
\ No newline at end of file
+	/**
+	 * check that a minibatch holds its steps until it's full, and then takes the same step as sgd
+	 */
+	@Test
+	public void testMinibatch() {
+		TIntDoubleMap query = new TIntDoubleHashMap();
+		query.put(nodes.getId("r0"), 1.0);
+		int[] pos = new int[blues.size()]; { int i=0; for (String k : blues) pos[i++] = nodes.getId(k); }
+		int[] neg = new int[reds.size()];  { int i=0; for (String k : reds)  neg[i++] = nodes.getId(k); }
+
+		ParamVector<String,?> sgdParams = uniformParams.copy();
+		srw.trainOnExample(sgdParams, factory.makeExample("minibatch",brGraph, query, pos, neg), new StatusLogger());
+
+		ParamVector<String,?> batchParams = uniformParams.copy();
+		srw.getOptions().set("minibatch","2");
+		try {
+			srw.trainOnExample(batchParams, factory.makeExample("minibatch",brGraph, query, pos, neg), new StatusLogger());
+			for (String f : new String[] {"fromb","tob","fromr","tor"})
+				assertEquals(f, uniformParams.get(f), batchParams.get(f), 0.0);
+			srw.flushBatch(batchParams);
+		} finally {
+			srw.getOptions().set("minibatch","1");
+		}
+		assertEquals(sgdParams.keySet(), batchParams.keySet());
+		for (String f : sgdParams.keySet()) assertEquals(f, sgdParams.get(f), batchParams.get(f), 1e-12);
+	}
+}
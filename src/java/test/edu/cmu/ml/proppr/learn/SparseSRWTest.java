@@ -0,0 +1,47 @@
+package edu.cmu.ml.proppr.learn;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.examples.PosNegRWExample;
+import edu.cmu.ml.proppr.learn.ExampleFactory.PprExampleFactory;
+import edu.cmu.ml.proppr.learn.ExampleFactory.SparsePprExampleFactory;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.math.ParamVector;
+import edu.cmu.ml.proppr.util.math.SimpleParamVector;
+
+public class SparseSRWTest extends L2PosNegLossSRWTest {
+	@Override
+	public void initSrw() {
+		super.initSrw();
+		srw.getOptions().set("sparseInference","true");
+		factory = new SparsePprExampleFactory();
+	}
+
+	/**
+	 * The sparse engine should produce exactly the same gradient as the map engine.
+	 */
+	@Test
+	public void testSameGradient() {
+		int[] pos = new int[blues.size()]; { int i=0; for (String k : blues) pos[i++] = nodes.getId(k); }
+		int[] neg = new int[reds.size()];  { int i=0; for (String k : reds)  neg[i++] = nodes.getId(k); }
+		ParamVector<String,?> params = makeBiasedVec();
+
+		ParamVector<String,?> sparseGradient = makeGradient(srw, params, startVec, pos, neg);
+		// run twice more on the same example to make sure buffer reuse doesn't leak state between calls
+		ParamVector<String,?> reusedGradient = new SimpleParamVector<String>();
+		PosNegRWExample ex = factory.makeExample("reuse", brGraph, startVec, pos, neg);
+		srw.accumulateGradient(params, ex, new SimpleParamVector<String>(), new StatusLogger());
+		srw.accumulateGradient(params, ex, reusedGradient, new StatusLogger());
+
+		factory = new PprExampleFactory();
+		ParamVector<String,?> mapGradient = makeGradient(srw, params, startVec, pos, neg);
+
+		assertEquals(mapGradient.keySet(), sparseGradient.keySet());
+		for (String f : mapGradient.keySet()) {
+			assertEquals(f, mapGradient.get(f), sparseGradient.get(f), 0.0);
+			assertEquals(f, mapGradient.get(f), reusedGradient.get(f), 0.0);
+		}
+	}
+}
@@ -0,0 +1,79 @@
+package edu.cmu.ml.proppr.learn.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.RedBlueGraph;
+import edu.cmu.ml.proppr.examples.PosNegRWExample;
+import edu.cmu.ml.proppr.graph.ArrayLearningGraphBuilder;
+import edu.cmu.ml.proppr.graph.GraphFormatException;
+import edu.cmu.ml.proppr.graph.LearningGraph;
+import edu.cmu.ml.proppr.learn.SRW;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+public class BinaryGroundedFileTest extends RedBlueGraph {
+	public ArrayList<String> examples;
+
+	public BinaryGroundedFileTest() {
+		super(4);
+	}
+
+	@Before
+	public void setup() {
+		super.setup();
+		TIntDoubleMap query = new TIntDoubleHashMap();
+		query.put(nodes.getId("r0"),1.0);
+		examples = new ArrayList<String>();
+		for (int k=0;k<this.magicNumber;k++) {
+			examples.add(new PosNegRWExample(brGraph, query,
+					new int[]{nodes.getId("b"+k)},
+					new int[]{nodes.getId("r"+k)}).serialize());
+		}
+	}
+
+	@Test
+	public void testRoundTrip() throws IOException, GraphFormatException {
+		File file = File.createTempFile("binaryGroundedFileTest", ".grounded");
+		file.deleteOnExit();
+		BinaryGroundedFile.GroundedWriter w = new BinaryGroundedFile.GroundedWriter(file);
+		for (String s : examples) w.write(s+"\n");
+		w.close();
+
+		assertTrue(BinaryGroundedFile.isBinary(file));
+		SRW srw = new SRW();
+		RWExampleParser parser = new RWExampleParser();
+		Iterator<String> text = examples.iterator();
+		int n=0;
+		for (ByteBuffer record : new BinaryGroundedFile(file)) {
+			PosNegRWExample expected = parser.parse(text.next(), new ArrayLearningGraphBuilder(), srw);
+			PosNegRWExample actual = parser.parse(record, srw);
+			assertArrayEquals(expected.getPosList(), actual.getPosList());
+			assertArrayEquals(expected.getNegList(), actual.getNegList());
+			assertEquals(expected.getQueryVec(), actual.getQueryVec());
+			LearningGraph eg = expected.getGraph(), ag = actual.getGraph();
+			assertEquals(eg.node_hi, ag.node_hi);
+			assertEquals(eg.nodeSize(), ag.nodeSize());
+			assertEquals(eg.labelDependencySize(), ag.labelDependencySize());
+			assertArrayEquals(eg.node_near_lo, ag.node_near_lo);
+			assertArrayEquals(eg.node_near_hi, ag.node_near_hi);
+			assertArrayEquals(eg.edge_dest, ag.edge_dest);
+			assertArrayEquals(eg.edge_labels_lo, ag.edge_labels_lo);
+			assertArrayEquals(eg.edge_labels_hi, ag.edge_labels_hi);
+			assertArrayEquals(eg.label_feature_id, ag.label_feature_id);
+			assertArrayEquals(eg.label_feature_weight, ag.label_feature_weight, 0);
+			assertEquals(eg.getFeatureSet(), ag.getFeatureSet());
+			n++;
+		}
+		assertEquals(examples.size(), n);
+		assertFalse(text.hasNext());
+	}
+}
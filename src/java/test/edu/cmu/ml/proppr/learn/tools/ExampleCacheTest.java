@@ -0,0 +1,114 @@
+package edu.cmu.ml.proppr.learn.tools;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.RedBlueGraph;
+import edu.cmu.ml.proppr.examples.PosNegRWExample;
+import edu.cmu.ml.proppr.graph.LearningGraph;
+import edu.cmu.ml.proppr.learn.SRW;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+
+public class ExampleCacheTest extends RedBlueGraph {
+	public ArrayList<PosNegRWExample> examples;
+	public SRW srw;
+
+	public ExampleCacheTest() {
+		super(4);
+	}
+
+	@Before
+	public void setup() {
+		super.setup();
+		srw = new SRW();
+		TIntDoubleMap query = new TIntDoubleHashMap();
+		query.put(nodes.getId("r0"),1.0);
+		examples = new ArrayList<PosNegRWExample>();
+		for (int k=0;k<this.magicNumber;k++) {
+			examples.add(srw.makeExample("ex"+k, brGraph, query,
+					new int[]{nodes.getId("b"+k)},
+					new int[]{nodes.getId("r"+k)}));
+		}
+	}
+
+	@Test
+	public void testInMemory() throws IOException {
+		ExampleCache cache = fill(Long.MAX_VALUE);
+		assertEquals(examples.size(), cache.sizeInMemory());
+		assertEquals(0, cache.sizeSpilled());
+		for (int i=0; i<examples.size(); i++) assertSame(examples.get(i), cache.get(i));
+		cache.close();
+	}
+
+	@Test
+	public void testSpilled() throws IOException {
+		// room for the first two
+		ExampleCache cache = fill(2*ExampleCache.estimateBytes(examples.get(0)));
+		assertEquals(2, cache.sizeInMemory());
+		assertEquals(examples.size()-2, cache.sizeSpilled());
+		int i=0;
+		for (PosNegRWExample actual : cache) assertExampleEquals(examples.get(i++), actual);
+		assertEquals(examples.size(), i);
+		cache.close();
+	}
+
+	@Test
+	public void testShuffle() throws IOException {
+		ExampleCache cache = fill(0);
+		for (int epoch=0; epoch<3; epoch++) {
+			cache.shuffle();
+			Set<String> names = new HashSet<String>();
+			for (PosNegRWExample actual : cache) {
+				assertTrue("duplicate "+actual.getName(), names.add(actual.getName()));
+				assertExampleEquals(examples.get(Integer.parseInt(actual.getName().substring(2))), actual);
+			}
+			assertEquals(examples.size(), names.size());
+		}
+		cache.close();
+	}
+
+	@Test(expected=IllegalStateException.class)
+	public void testUnfrozen() throws IOException {
+		ExampleCache cache = new ExampleCache(srw, 0);
+		cache.add(examples.get(0));
+		try {
+			cache.get(0);
+		} finally {
+			cache.close();
+		}
+	}
+
+	private ExampleCache fill(long budget) throws IOException {
+		ExampleCache cache = new ExampleCache(srw, budget);
+		for (PosNegRWExample ex : examples) cache.add(ex);
+		cache.freeze();
+		return cache;
+	}
+
+	private void assertExampleEquals(PosNegRWExample expected, PosNegRWExample actual) {
+		assertEquals(expected.getName(), actual.getName());
+		assertArrayEquals(expected.getPosList(), actual.getPosList());
+		assertArrayEquals(expected.getNegList(), actual.getNegList());
+		assertEquals(expected.getQueryVec(), actual.getQueryVec());
+		LearningGraph eg = expected.getGraph(), ag = actual.getGraph();
+		assertEquals(eg.node_hi, ag.node_hi);
+		assertEquals(eg.nodeSize(), ag.nodeSize());
+		assertEquals(eg.labelDependencySize(), ag.labelDependencySize());
+		assertArrayEquals(eg.node_near_lo, ag.node_near_lo);
+		assertArrayEquals(eg.node_near_hi, ag.node_near_hi);
+		assertArrayEquals(eg.edge_dest, ag.edge_dest);
+		assertArrayEquals(eg.edge_labels_lo, ag.edge_labels_lo);
+		assertArrayEquals(eg.edge_labels_hi, ag.edge_labels_hi);
+		assertArrayEquals(eg.label_feature_id, ag.label_feature_id);
+		assertArrayEquals(eg.label_feature_weight, ag.label_feature_weight, 0);
+		assertEquals(eg.getFeatureSet(), ag.getFeatureSet());
+	}
+}
@@ -6,6 +6,8 @@ import org.junit.Test;
 
 import edu.cmu.ml.proppr.util.Configuration;
 import edu.cmu.ml.proppr.util.ModuleConfiguration;
+import edu.cmu.ml.proppr.util.SimpleSymbolTable;
+import edu.cmu.ml.proppr.util.SymbolTable;
 
 public class FixedWeightRulesTest {
 
@@ -32,4 +34,32 @@ public class FixedWeightRulesTest {
 		assertFalse("f(* rules", c.fixedWeightRules.isFixed("f(x,12,15)"));
 	}
 
+	@Test
+	public void testCompiled() {
+		FixedWeightRules rules = new FixedWeightRules("f(*=n:*=y".split(":"));
+		SymbolTable<String> features = new SimpleSymbolTable<String>();
+		features.insert("id(x,12,15)");
+		features.insert("f(x,12,15)");
+		rules.compile(features);
+		assertTrue("Most rules", rules.isFixed(features, features.getId("id(x,12,15)")));
+		assertFalse("f(* rules", rules.isFixed(features, features.getId("f(x,12,15)")));
+		
+		// interned after compiling
+		features.insert("f(y)");
+		features.insert("g(y)");
+		assertFalse("new f(* feature", rules.isFixed(features, features.getId("f(y)")));
+		assertTrue("new feature", rules.isFixed(features, features.getId("g(y)")));
+		
+		// some other table
+		SymbolTable<String> local = new SimpleSymbolTable<String>();
+		local.insert("f(z)");
+		assertFalse("uncompiled table", rules.isFixed(local, local.getId("f(z)")));
+		
+		FixedWeightRules exact = new FixedWeightRules();
+		exact.compile(features);
+		assertFalse("no rules", exact.isFixed(features, features.getId("g(y)")));
+		exact.addExact("g(y)");
+		assertTrue("rules added after compiling", exact.isFixed(features, features.getId("g(y)")));
+	}
+
 }
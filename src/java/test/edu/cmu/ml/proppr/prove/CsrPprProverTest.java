@@ -0,0 +1,75 @@
+package edu.cmu.ml.proppr.prove;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.examples.InferenceExample;
+import edu.cmu.ml.proppr.prove.wam.CachingIdProofGraph;
+import edu.cmu.ml.proppr.prove.wam.Feature;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.Query;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.prove.wam.WamProgram;
+import edu.cmu.ml.proppr.prove.wam.plugins.FactsPlugin;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.ConcurrentSymbolTable;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.SymbolTable;
+
+public class CsrPprProverTest extends ProverTestTemplate {
+	@Override
+	public void setup() throws IOException {
+		super.setup();
+		this.prover = new CsrPprProver();
+	}
+
+	@Override @Test
+	public void testProveState() throws LogicProgramException {
+		((CsrPprProver)prover).setMaxDepth(1);
+		super.testProveState();
+	}
+
+	@Test
+	public void testSameAsIdPpr() throws LogicProgramException {
+		APROptions apr = new APROptions(new String[] {"alph=.03","depth=8"});
+		CsrPprProver csr = new CsrPprProver(apr);
+		csr.configure("threads=4");
+		assertClose(new IdPprProver(apr), csr, apr, lpMilk, fMilk, "isa(dundee,X)");
+		assertClose(new IdPprProver(apr), csr, apr, lpMem, fMem, "mem2(X,Y,l_zabcde)");
+		assertClose(new IdPprProver(apr), csr, apr, lpMem, fMem, "mem3(X,Y,Z,l_zabcde)");
+	}
+
+	private void assertClose(Prover<CachingIdProofGraph> expected, Prover<CachingIdProofGraph> actual, APROptions apr, WamProgram program, FactsPlugin facts, String query) throws LogicProgramException {
+		Map<String,Double> e = prove(expected, apr, program, facts, query);
+		Map<String,Double> a = prove(actual, apr, program, facts, query);
+		assertTrue(query+" solutions",e.size() > 0);
+		assertEquals(query+" solutions",e.keySet(),a.keySet());
+		for (Map.Entry<String,Double> s : e.entrySet()) {
+			assertEquals(query+" "+s.getKey(),s.getValue(),a.get(s.getKey()),1e-5);
+		}
+	}
+
+	private Map<String,Double> prove(Prover<CachingIdProofGraph> p, APROptions apr, WamProgram program, FactsPlugin facts, String query) throws LogicProgramException {
+		InnerProductWeighter w = new InnerProductWeighter();
+		SymbolTable<Feature> featureTab = new ConcurrentSymbolTable<Feature>();
+		int milk = featureTab.getId(new Feature("milk"));
+		w.put(featureTab.getSymbol(milk),2);
+		p.setWeighter(w);
+		CachingIdProofGraph pg = (CachingIdProofGraph) p.makeProofGraph(new InferenceExample(Query.parse(query),null,null), apr, featureTab, program, facts);
+		Map<String,Double> solutions = new TreeMap<String,Double>();
+		for (Map.Entry<State,Double> s : p.prove(pg, new StatusLogger()).entrySet()) {
+			// sum over the proofs of each solution
+			if (s.getKey().isCompleted() && s.getValue() > 0) {
+				String key = pg.fill(s.getKey()).toString();
+				Double old = solutions.get(key);
+				solutions.put(key, (old == null ? 0 : old) + s.getValue());
+			}
+		}
+		return solutions;
+	}
+}
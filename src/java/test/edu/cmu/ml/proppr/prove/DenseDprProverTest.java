@@ -0,0 +1,77 @@
+package edu.cmu.ml.proppr.prove;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.examples.InferenceExample;
+import edu.cmu.ml.proppr.prove.wam.Feature;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.ProofGraph;
+import edu.cmu.ml.proppr.prove.wam.Query;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.prove.wam.StateProofGraph;
+import edu.cmu.ml.proppr.prove.wam.WamProgram;
+import edu.cmu.ml.proppr.prove.wam.plugins.FactsPlugin;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.SimpleSymbolTable;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.SymbolTable;
+
+public class DenseDprProverTest extends ProverTestTemplate {
+	@Override
+	public void setup() throws IOException {
+		super.setup();
+		this.prover = new DenseDprProver(new APROptions(new String[] {"eps=.00001","alph=.03"}));
+	}
+
+	@Test
+	public void testSameAsDpr() throws LogicProgramException {
+		APROptions apr = new APROptions(new String[] {"eps=.00001","alph=.03","depth=6"});
+		assertSame(new DprProver(apr), new DenseDprProver(apr), apr, lpMilk, fMilk, "isa(elsie,X)");
+		assertSame(new DprProver(apr), new DenseDprProver(apr), apr, lpMilk, fMilk, "isa(dundee,X)");
+		assertSame(new DprProver(apr), new DenseDprProver(apr), apr, lpMem, fMem, "mem(X,l_abcde)");
+		assertSame(new DprProver(apr), new DenseDprProver(apr), apr, lpMem, fMem, "mem2(X,Y,l_abcde)");
+	}
+
+	@Test
+	public void testTrace() throws LogicProgramException {
+		APROptions apr = new APROptions(new String[] {"eps=.00001","alph=.03","depth=6","traceDepth=2"});
+		PrintStream stdout = System.out;
+		ByteArrayOutputStream trace = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(trace));
+		try {
+			prove(new DenseDprProver(apr), apr, lpMilk, fMilk, "isa(elsie,X)");
+		} finally {
+			System.setOut(stdout);
+		}
+		String[] lines = trace.toString().split("\n");
+		assertTrue(lines[0], lines[0].startsWith("== proof graph: edges/nodes "));
+		assertTrue(lines[1], lines[1].contains(" #1 ["));
+		assertTrue(lines[2], lines[2].startsWith("|  ") && lines[2].contains(" via "));
+	}
+
+	private void assertSame(DprProver expected, DprProver actual, APROptions apr, WamProgram program, FactsPlugin facts, String query) throws LogicProgramException {
+		Map<State,Double> e = prove(expected, apr, program, facts, query);
+		Map<State,Double> a = prove(actual, apr, program, facts, query);
+		assertEquals(query+" states",e.keySet(),a.keySet());
+		for (Map.Entry<State,Double> s : e.entrySet()) {
+			assertEquals(query+" "+s.getKey(),s.getValue(),a.get(s.getKey()),0);
+		}
+	}
+
+	private Map<State,Double> prove(DprProver p, APROptions apr, WamProgram program, FactsPlugin facts, String query) throws LogicProgramException {
+		InnerProductWeighter w = new InnerProductWeighter();
+		SymbolTable<Feature> featureTab = new SimpleSymbolTable<Feature>();
+		int milk = featureTab.getId(new Feature("milk"));
+		w.put(featureTab.getSymbol(milk),2);
+		p.setWeighter(w);
+		ProofGraph pg = p.makeProofGraph(new InferenceExample(Query.parse(query),null,null), apr, featureTab, program, facts);
+		return p.prove((StateProofGraph) pg, new StatusLogger());
+	}
+}
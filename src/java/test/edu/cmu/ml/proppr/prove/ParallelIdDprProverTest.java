@@ -0,0 +1,66 @@
+package edu.cmu.ml.proppr.prove;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.examples.InferenceExample;
+import edu.cmu.ml.proppr.prove.wam.CachingIdProofGraph;
+import edu.cmu.ml.proppr.prove.wam.Feature;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.Query;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.prove.wam.WamProgram;
+import edu.cmu.ml.proppr.prove.wam.plugins.FactsPlugin;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.ConcurrentSymbolTable;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.SymbolTable;
+
+public class ParallelIdDprProverTest extends ProverTestTemplate {
+	@Override
+	public void setup() throws IOException {
+		super.setup();
+		this.prover = new ParallelIdDprProver(new APROptions(new String[] {"eps=.00001","alph=.03"}));
+	}
+
+	@Test
+	public void testSameAsIdDpr() throws LogicProgramException {
+		APROptions apr = new APROptions(new String[] {"eps=.00001","alph=.03","depth=8"});
+		ParallelIdDprProver par = new ParallelIdDprProver(apr);
+		// push every round on the pool
+		par.configure("threads=4");
+		par.configure("minChunk=1");
+		assertClose(new IdDprProver(apr), par, apr, lpMilk, fMilk, "isa(dundee,X)");
+		assertClose(new IdDprProver(apr), par, apr, lpMem, fMem, "mem2(X,Y,l_zabcde)");
+		assertClose(new IdDprProver(apr), par, apr, lpMem, fMem, "mem3(X,Y,Z,l_zabcde)");
+	}
+
+	private void assertClose(IdDprProver expected, IdDprProver actual, APROptions apr, WamProgram program, FactsPlugin facts, String query) throws LogicProgramException {
+		Map<String,Double> e = prove(expected, apr, program, facts, query);
+		Map<String,Double> a = prove(actual, apr, program, facts, query);
+		assertTrue(query+" solutions",e.size() > 0);
+		assertEquals(query+" solutions",e.keySet(),a.keySet());
+		for (Map.Entry<String,Double> s : e.entrySet()) {
+			assertEquals(query+" "+s.getKey(),s.getValue(),a.get(s.getKey()),1e-3);
+		}
+	}
+
+	private Map<String,Double> prove(IdDprProver p, APROptions apr, WamProgram program, FactsPlugin facts, String query) throws LogicProgramException {
+		InnerProductWeighter w = new InnerProductWeighter();
+		SymbolTable<Feature> featureTab = new ConcurrentSymbolTable<Feature>();
+		int milk = featureTab.getId(new Feature("milk"));
+		w.put(featureTab.getSymbol(milk),2);
+		p.setWeighter(w);
+		CachingIdProofGraph pg = (CachingIdProofGraph) p.makeProofGraph(new InferenceExample(Query.parse(query),null,null), apr, featureTab, program, facts);
+		Map<String,Double> solutions = new TreeMap<String,Double>();
+		for (Map.Entry<State,Double> s : p.prove(pg, new StatusLogger()).entrySet()) {
+			if (s.getKey().isCompleted()) solutions.put(pg.fill(s.getKey()).toString(), s.getValue());
+		}
+		return solutions;
+	}
+}
@@ -18,6 +18,7 @@ import edu.cmu.ml.proppr.prove.wam.Goal;
 import edu.cmu.ml.proppr.prove.wam.StateProofGraph;
 import edu.cmu.ml.proppr.prove.wam.WamProgram;
 import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.MutableState;
 import edu.cmu.ml.proppr.prove.wam.Outlink;
 import edu.cmu.ml.proppr.prove.wam.ProofGraph;
 import edu.cmu.ml.proppr.prove.wam.Query;
@@ -106,6 +107,46 @@ public class SimpleProgramProofGraphTest {
 		for (Map.Entry<String,Integer> e : solutions.entrySet()) assertEquals(e.getKey(),1,e.getValue().intValue());
 		
 	}
+	@Test
+	public void testCanonicalCode() throws LogicProgramException, IOException {
+		WamProgram program = WamBaseProgram.load(new File(SimpleProgramProverTest.PROGRAM));
+		Query q = new Query(new Goal("coworker",new ConstantArgument("steve"),new ConstantArgument("X")));
+		StateProofGraph pg = new StateProofGraph(q,new APROptions(), program);
+		State start = pg.getStartState();
+		assertNotNull(start.canonicalCode());
+
+		// coworker :- employee,boss; plus the restart link
+		List<Outlink> outlinks = pg.pgOutlinks(start,false);
+		assertEquals(2,outlinks.size());
+		State child = outlinks.get(0).child;
+		assertFalse(child.canonicallyEquals(start));
+		assertEquals(1,pg.getId(start));
+		assertEquals(2,pg.getId(child));
+
+		// states from a second graph over the same query get the same codes
+		Query q2 = new Query(new Goal("coworker",new ConstantArgument("steve"),new ConstantArgument("X")));
+		StateProofGraph pg2 = new StateProofGraph(q2,new APROptions(), program);
+		State child2 = pg2.pgOutlinks(pg2.getStartState(),false).get(0).child;
+		assertArrayEquals(child.canonicalCode(), child2.canonicalCode());
+		assertEquals(child.canonicalHash64(), child2.canonicalHash64());
+		assertTrue(child.canonicallyEquals(child2));
+	}
+	@Test
+	public void testCanonicallyEqualsWithoutCode() {
+		MutableState a = new MutableState();
+		a.setCanonicalHash(7);
+		assertTrue(a.canonicallyEquals(a));
+		MutableState b = new MutableState();
+		b.setCanonicalHash(7);
+		assertTrue(a.canonicallyEquals(b));
+		a.setCanonicalForm("f");
+		b.setCanonicalForm("f");
+		assertTrue(a.canonicallyEquals(b));
+		b.setCanonicalForm("g");
+		assertFalse(a.canonicallyEquals(b));
+		b.setCanonicalHash(8);
+		assertFalse(a.canonicallyEquals(b));
+	}
 	private Map<State,Double> normalized(List<Outlink> outlinks) {
 		Map<State,Double> normalized = new HashMap<State,Double>();
 		double total = 0;
@@ -0,0 +1,62 @@
+package edu.cmu.ml.proppr.prove;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.examples.InferenceExample;
+import edu.cmu.ml.proppr.prove.wam.CachingIdProofGraph;
+import edu.cmu.ml.proppr.prove.wam.Feature;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.ProofGraph;
+import edu.cmu.ml.proppr.prove.wam.Query;
+import edu.cmu.ml.proppr.prove.wam.State;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.Dictionary;
+import edu.cmu.ml.proppr.util.SimpleSymbolTable;
+import edu.cmu.ml.proppr.util.StatusLogger;
+import edu.cmu.ml.proppr.util.SymbolTable;
+
+public class TopKProverTest extends ProverTestTemplate {
+	@Override
+	public void setup() throws IOException {
+		super.setup();
+		this.prover = new TopKProver(new APROptions(new String[] {"eps=.00001","alph=.03"}));
+	}
+
+	@Test
+	public void testTopK() throws LogicProgramException {
+		APROptions apr = new APROptions(new String[] {"eps=.00001","alph=.03","depth=6"});
+		List<String> full = ranked(new IdDprProver(apr), apr);
+		TopKProver topk = new TopKProver(apr);
+		topk.configure("k=2");
+		List<String> top = ranked(topk, apr);
+		assertEquals("all solutions",3,full.size());
+		assertEquals("top k size",2,top.size());
+		assertEquals("top k order",full.subList(0, 2),top);
+		assertTrue("completed mass",topk.getCompletedMass() > 0);
+	}
+
+	private List<String> ranked(IdDprProver p, APROptions apr) throws LogicProgramException {
+		InnerProductWeighter w = new InnerProductWeighter();
+		SymbolTable<Feature> featureTab = new SimpleSymbolTable<Feature>();
+		int milk = featureTab.getId(new Feature("milk"));
+		w.put(featureTab.getSymbol(milk),2);
+		p.setWeighter(w);
+		ProofGraph pg = p.makeProofGraph(new InferenceExample(Query.parse("isa(dundee,X)"),null,null), apr, featureTab, lpMilk, fMilk);
+		Map<State,Double> dist = p.prove((CachingIdProofGraph) pg, new StatusLogger());
+		Map<String,Double> solutions = new HashMap<String,Double>();
+		for (Map.Entry<State,Double> s : dist.entrySet()) {
+			if (s.getKey().isCompleted()) solutions.put(pg.fill(s.getKey()).toString(), s.getValue());
+		}
+		List<String> result = new ArrayList<String>();
+		for (Map.Entry<String,Double> e : Dictionary.sort(solutions)) result.add(e.getKey());
+		return result;
+	}
+}
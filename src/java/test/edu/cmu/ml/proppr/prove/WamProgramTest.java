@@ -8,8 +8,11 @@ import java.util.List;
 
 import org.junit.Test;
 
+import edu.cmu.ml.proppr.prove.wam.FunctorTable;
+import edu.cmu.ml.proppr.prove.wam.Instruction;
 import edu.cmu.ml.proppr.prove.wam.WamProgram;
 import edu.cmu.ml.proppr.prove.wam.WamBaseProgram;
+import edu.cmu.ml.proppr.prove.wam.WamQueryProgram;
 import edu.cmu.ml.proppr.prove.wam.Instruction.OP;
 
 public class WamProgramTest {
@@ -93,4 +96,45 @@ public class WamProgramTest {
 		assertEquals("employee/2",18,addr.get(0).intValue());
 	}
 
+	@Test
+	public void testLinkedCode() throws IOException {
+		WamProgram program = WamBaseProgram.load(new File(SimpleProgramProverTest.PROGRAM));
+		int[] code = program.getCode(0);
+		assertEquals(0,program.getCodeBase(0));
+		assertEquals(program.size(),program.getCodeEnd(0));
+		for (int i=0; i<program.size(); i++) {
+			Instruction inst = program.getInstruction(i);
+			int k = i*Instruction.WIDTH;
+			assertEquals("Instruction "+i,inst.opcode,Instruction.OPCODES[code[k]-1]);
+			assertEquals("Instruction "+i,inst.i1,code[k+1]);
+			assertEquals("Instruction "+i,inst.i2,code[k+2]);
+			if (inst.opcode == OP.callp) assertEquals(inst.s,FunctorTable.getSymbol(code[k+3]));
+			if (inst.opcode == OP.pushconst) assertEquals(inst.s,program.getOperands(0).getSymbol(code[k+3]));
+		}
+		int coworker = FunctorTable.getId("coworker/2");
+		assertEquals(2,FunctorTable.getArity(coworker));
+		assertFalse(FunctorTable.isWeighted(coworker));
+		assertTrue(program.hasLabel(coworker));
+		assertArrayEquals(new int[] {1},program.getAddresses(coworker));
+		int weighted = FunctorTable.getId("hasWord#/3");
+		assertTrue(FunctorTable.isWeighted(weighted));
+		assertEquals("hasWord/2",FunctorTable.getSymbol(FunctorTable.getUnweighted(weighted)));
+		for (OP op : OP.values()) assertSame(op,Instruction.OPCODES[op.code-1]);
+	}
+
+	@Test
+	public void testQueryOperands() throws IOException {
+		WamProgram master = WamBaseProgram.load(new File(SimpleProgramProverTest.PROGRAM));
+		WamQueryProgram program = new WamQueryProgram(master);
+		program.revert();
+		program.append(new Instruction(OP.pushconst,"queryOnlyConstant"));
+		int addr = master.size();
+		int[] code = program.getCode(addr);
+		int k = (addr-program.getCodeBase(addr))*Instruction.WIDTH;
+		assertEquals("queryOnlyConstant",program.getOperands(addr).getSymbol(code[k+3]));
+		assertFalse(master.getOperands(0).hasId("queryOnlyConstant"));
+		program.revert();
+		assertFalse(program.getOperands(addr).hasId("queryOnlyConstant"));
+	}
+
 }
@@ -38,4 +38,30 @@ public class StateCallStackTest {
 		
 	}
 
+
+	@Test
+	public void testSharing() {
+		MutableState state = new MutableState();
+		state.setJumpTo("foo/1");
+		state.appendHeap(state.createConstantCell(1));
+		state.getCalls().push(new CallStackFrame(state));
+		ImmutableState saved = state.immutableVersion();
+
+		// changes to the mutable state don't show up in the saved copy
+		state.getCalls().push(new CallStackFrame(state));
+		state.setHeap(0, state.createConstantCell(2));
+		assertEquals(2,state.getCalls().size());
+		assertEquals(1,saved.getCalls().size());
+		assertEquals(1,saved.getIdOfConstantAt(0));
+
+		// restoring reuses the buffers of the scratch state, and shares frames
+		MutableState scratch = new MutableState();
+		scratch.restore(state);
+		scratch.restore(saved);
+		assertEquals(saved,scratch.immutableVersion());
+		assertSame(saved.getCalls().peek(),scratch.getCalls().peek());
+		scratch.getCalls().pop();
+		assertTrue(scratch.getCalls().isEmpty());
+		assertEquals(1,saved.getCalls().size());
+	}
 }
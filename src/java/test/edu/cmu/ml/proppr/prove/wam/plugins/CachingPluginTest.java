@@ -0,0 +1,73 @@
+package edu.cmu.ml.proppr.prove.wam.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.GrounderTest;
+import edu.cmu.ml.proppr.prove.DprProver;
+import edu.cmu.ml.proppr.prove.Prover;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.Query;
+import edu.cmu.ml.proppr.prove.wam.StateProofGraph;
+import edu.cmu.ml.proppr.prove.wam.WamBaseProgram;
+import edu.cmu.ml.proppr.prove.wam.WamProgram;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.StatusLogger;
+
+public class CachingPluginTest {
+	APROptions apr = new APROptions();
+
+	@Test
+	public void testFacts() throws IOException, LogicProgramException {
+		WamProgram program = WamBaseProgram.load(new File(GrounderTest.RULES));
+		FactsPlugin facts = FactsPlugin.load(apr, new File(GrounderTest.FACTS), false);
+		CachingPlugin cached = new CachingPlugin(facts, 1000);
+		for (int pass=0; pass<2; pass++) {
+			for (String q : new String[] {"predict(howard,Y)", "predict(X,bird)", "validClass(X)"}) {
+				assertEquals(q, solutions(program, facts, q), solutions(program, cached, q));
+			}
+		}
+		assertTrue("hits", cached.getHits() > 0);
+		assertTrue("hit rate", cached.getHitRate() >= 0.5);
+		assertTrue(CachingPlugin.report(new WamPlugin[] {facts, cached}).startsWith("cached(facts("));
+	}
+
+	@Test
+	public void testWeightedGraph() throws IOException, LogicProgramException {
+		WamProgram program = WamBaseProgram.load(WeightedEdgeTest.RULES);
+		WamPlugin graph = LightweightGraphPlugin.load(apr, WeightedEdgeTest.GRAPH, 1000);
+		CachingPlugin cached = new CachingPlugin(graph, 1000);
+		for (int pass=0; pass<2; pass++) {
+			// bound and free sources, weighted and unweighted
+			for (String q : new String[] {"words(p1,W)", "words2(p1,W)", "words(D,thing)", "words2(D,W)"}) {
+				Map<String,Double> expected = solutions(program, graph, q);
+				assertFalse(q, expected.isEmpty());
+				assertEquals(q, expected, solutions(program, cached, q));
+			}
+		}
+		assertEquals(4, cached.getMisses());
+		assertEquals(4, cached.getHits());
+	}
+
+	@Test
+	public void testEviction() throws IOException, LogicProgramException {
+		WamProgram program = WamBaseProgram.load(new File(GrounderTest.RULES));
+		FactsPlugin facts = FactsPlugin.load(apr, new File(GrounderTest.FACTS), false);
+		CachingPlugin cached = new CachingPlugin(facts, 2);
+		for (int pass=0; pass<2; pass++) {
+			assertEquals(solutions(program, facts, "predict(howard,Y)"), solutions(program, cached, "predict(howard,Y)"));
+		}
+		assertTrue("bounded", cached.getWeightedSize() <= 2);
+	}
+
+	private Map<String,Double> solutions(WamProgram program, WamPlugin p, String query) throws LogicProgramException {
+		StateProofGraph pg = new StateProofGraph(Query.parse(query),apr,program,p);
+		Prover prover = new DprProver(apr);
+		return prover.solutions(pg, new StatusLogger());
+	}
+}
@@ -0,0 +1,125 @@
+package edu.cmu.ml.proppr.prove.wam.plugins;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.GrounderTest;
+import edu.cmu.ml.proppr.prove.DprProver;
+import edu.cmu.ml.proppr.prove.Prover;
+import edu.cmu.ml.proppr.prove.wam.FunctorTable;
+import edu.cmu.ml.proppr.prove.wam.LogicProgramException;
+import edu.cmu.ml.proppr.prove.wam.Outlink;
+import edu.cmu.ml.proppr.prove.wam.Query;
+import edu.cmu.ml.proppr.prove.wam.StateProofGraph;
+import edu.cmu.ml.proppr.prove.wam.WamBaseProgram;
+import edu.cmu.ml.proppr.prove.wam.WamProgram;
+import edu.cmu.ml.proppr.util.APROptions;
+import edu.cmu.ml.proppr.util.StatusLogger;
+
+public class CompactFactsPluginTest {
+	@Test
+	public void test() throws LogicProgramException {
+		APROptions apr = new APROptions();
+		FactsPlugin p = CompactFactsPlugin.load(apr, new File(GrounderTest.FACTS));
+		FactsPlugin q = FactsPlugin.load(apr, new File(GrounderTest.FACTS), true);
+		assertEquals(2,solutions(apr, p, "validClass(X)").size());
+		for (String query : new String[] {
+				"validClass(X)",
+				"validClass(bird)",
+				"validClass(fish)",
+				"hasFeature(howard,X)",
+				"hasFeature(X,laysEggs)",
+				"hasFeature(X,Y)",
+				"hasFeature(howard,laysEggs)",
+				"hasFeature(howard,hasScales)"}) {
+			assertSameSolutions(query, solutions(apr, q, query), solutions(apr, p, query));
+		}
+	}
+
+	@Test
+	public void testArity3() throws LogicProgramException {
+		APROptions apr = new APROptions();
+		FactsPlugin p = new CompactFactsPlugin(apr, "test");
+		FactsPlugin q = new FactsPlugin(apr, "test", true);
+		// enough facts that the sort goes past insertion sort
+		for (int i=0; i<100; i++) {
+			for (FactsPlugin f : new FactsPlugin[] {p,q}) {
+				f.addFact("triple", "a"+(i%7), "b"+(i%5), "c"+(i%3));
+				f.addFact("edge#", "a"+(i%7), "b"+(i%11), String.valueOf((i+1)/100.0));
+			}
+		}
+		for (String query : new String[] {
+				"triple(a1,X,Y)",
+				"triple(X,b2,Y)",
+				"triple(a1,b1,Y)",
+				"triple(X,Y,c2)",
+				"triple(a3,X,c0)",
+				"triple(a1,b2,c1)",
+				"edge(a2,X)",
+				"edge(X,b4)"}) {
+			Map<String,Double> expected = solutions(apr, q, query);
+			assertFalse(query, expected.isEmpty());
+			assertSameSolutions(query, expected, solutions(apr, p, query));
+		}
+		assertTrue(solutions(apr, p, "triple(a6,b4,c2)").isEmpty());
+	}
+
+	@Test
+	public void testClaimDoesNotIntern() {
+		CompactFactsPlugin p = new CompactFactsPlugin(new APROptions(), "test");
+		p.addFact("pair", "a", "b");
+		assertTrue(p._claim("pair/2"));
+		assertFalse(p._claim("neverAdded/9"));
+		assertFalse(FunctorTable.hasId("neverAdded/9"));
+	}
+
+	@Test
+	public void testOutlinkOrder() throws LogicProgramException {
+		APROptions apr = new APROptions();
+		FactsPlugin p = new CompactFactsPlugin(apr, "test");
+		FactsPlugin q = new FactsPlugin(apr, "test", false);
+		// constants interned out of file order
+		for (int i=0; i<100; i++) {
+			for (FactsPlugin f : new FactsPlugin[] {p,q}) {
+				f.addFact("pair", "a"+(i%3), "b"+((37*i)%50));
+				f.addFact("pair", "a"+((7*i)%5), "b"+(i%4));
+			}
+		}
+		for (String query : new String[] {
+				"pair(a1,X)",
+				"pair(X,b2)",
+				"pair(a2,b3)",
+				"pair(X,Y)"}) {
+			List<String> expected = outlinks(apr, q, query);
+			assertFalse(query, expected.isEmpty());
+			assertEquals(query, expected, outlinks(apr, p, query));
+		}
+	}
+
+	private List<String> outlinks(APROptions apr, FactsPlugin p, String query) throws LogicProgramException {
+		StateProofGraph pg = new StateProofGraph(Query.parse(query),apr,new WamBaseProgram(),p);
+		List<String> result = new ArrayList<String>();
+		for (Outlink o : pg.pgOutlinks(pg.getStartState(), false)) result.add(pg.fill(o.child).toString());
+		return result;
+	}
+
+	// outlinks may come back in a different order, so allow for rounding
+	private void assertSameSolutions(String query, Map<String,Double> expected, Map<String,Double> actual) {
+		assertEquals(query, expected.keySet(), actual.keySet());
+		for (Map.Entry<String,Double> e : expected.entrySet())
+			assertEquals(query+" "+e.getKey(), e.getValue(), actual.get(e.getKey()), 1e-10);
+	}
+
+	private Map<String,Double> solutions(APROptions apr, FactsPlugin p, String query) throws LogicProgramException {
+		WamProgram program = new WamBaseProgram();
+		StateProofGraph pg = new StateProofGraph(Query.parse(query),apr,program,p);
+		Prover prover = new DprProver();
+		return prover.solutions(pg, new StatusLogger());
+	}
+}
@@ -3,6 +3,9 @@ package edu.cmu.ml.proppr.prove.wam.plugins;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashSet;
 
 import org.junit.Before;
 import org.junit.Ignore;
@@ -16,6 +19,7 @@ import edu.cmu.ml.proppr.prove.wam.WamBaseProgram;
 import edu.cmu.ml.proppr.prove.wam.WamProgram;
 import edu.cmu.ml.proppr.prove.wam.plugins.SparseGraphPlugin;
 import edu.cmu.ml.proppr.util.APROptions;
+import gnu.trove.map.TObjectDoubleMap;
 
 
 public class SparseGraphPluginTest {
@@ -53,4 +57,36 @@ public class SparseGraphPluginTest {
 		assertEquals("Theresa should have 1 sister\n",1,pg.pgDegree(pg.getStartState())-1);
 	}
 
+	@Test
+	public void testMapped() throws IOException, LogicProgramException {
+		File dir = Files.createTempDirectory("mapped").resolve("family.sparse").toFile();
+		dir.mkdir();
+		dir.getParentFile().deleteOnExit();
+		for (File f : new File(PLUGIN).listFiles()) {
+			File g = new File(dir, f.getName());
+			Files.copy(f.toPath(), g.toPath());
+			g.deleteOnExit();
+		}
+		MappedSparseMatrixIndex.convert(dir);
+		for (File f : dir.listFiles()) f.deleteOnExit();
+		dir.deleteOnExit();
+		
+		SparseGraphPlugin mapped = SparseGraphPlugin.load(apr, dir);
+		for (String functor : new String[] {"child","sister","spouse"}) {
+			SparseMatrixIndex text = plugin.index.get(plugin.functors.getId(functor));
+			SparseMatrixIndex bin = mapped.index.get(mapped.functors.getId(functor));
+			assertTrue(functor, bin instanceof MappedSparseMatrixIndex);
+			assertEquals(functor, new HashSet<String>(text.allSrc()), new HashSet<String>(bin.allSrc()));
+			for (String src : text.allSrc()) {
+				assertEquals(functor+" "+src, text.degree(src), bin.degree(src));
+				TObjectDoubleMap<String> near = text.near(src);
+				assertEquals(functor+" "+src, near, bin.near(src));
+			}
+			assertFalse(bin.contains("nobody"));
+			assertNull(bin.near("nobody"));
+		}
+		StateProofGraph pg = new StateProofGraph(Query.parse("sister(theresa,X)"),apr,program,mapped);
+		assertEquals("Theresa should have 1 sister\n",1,pg.pgDegree(pg.getStartState())-1);
+	}
+
 }
@@ -0,0 +1,109 @@
+package edu.cmu.ml.proppr.util;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.util.math.ArrayParamVector;
+import edu.cmu.ml.proppr.util.math.ParamVector;
+
+public class ArrayParamVectorTest {
+	private static final double EPS=1e-6;
+
+	@Test
+	public void testMap() {
+		SymbolTable<String> features = new SimpleSymbolTable<String>();
+		ArrayParamVector<String> foo = new ArrayParamVector<String>(features);
+		foo.put("abc",1.0);
+		foo.put("def",10.0);
+
+		assertEquals(2,foo.size());
+		assertEquals(1.0,foo.get("abc"),EPS);
+		assertEquals(10.0,foo.get("def"),EPS);
+		assertNull(foo.get("ghi"));
+		assertFalse(features.hasId("ghi"));
+
+		Map<String,Double> copy = new HashMap<String,Double>(foo);
+		assertEquals(2,copy.size());
+		assertEquals(10.0,copy.get("def"),EPS);
+
+		assertEquals(1.0,foo.remove("abc"),EPS);
+		assertEquals(1,foo.size());
+		assertFalse(foo.containsKey("abc"));
+	}
+
+	@Test
+	public void testIds() {
+		SymbolTable<String> features = new SimpleSymbolTable<String>();
+		features.insert("abc");
+		ArrayParamVector<String> foo = new ArrayParamVector<String>(features);
+		assertTrue(foo.isIndexedBy(features));
+		assertFalse(foo.containsKey(features, 1));
+		assertEquals(0.0,foo.get(features, 1),EPS);
+
+		foo.adjustValue(features, 1, 2.0);
+		foo.adjustValue("abc", 0.5);
+		assertEquals(2.5,foo.get("abc"),EPS);
+
+		// ids well past the first block
+		for (int i=0; i<10000; i++) features.insert("f"+i);
+		int id = features.getId("f9999");
+		foo.adjustValue(features, id, 3.0);
+		assertEquals(3.0,foo.get("f9999"),EPS);
+		assertEquals(2,foo.size());
+
+		// a vector keyed by some other table falls back to feature names
+		SymbolTable<String> other = new SimpleSymbolTable<String>();
+		other.insert("f9999");
+		assertFalse(foo.isIndexedBy(other));
+		assertEquals(3.0,foo.get(other, 1),EPS);
+	}
+
+	@Test
+	public void testAbsent() {
+		SymbolTable<String> features = new SimpleSymbolTable<String>();
+		features.insert("abc");
+		features.insert("def");
+		ArrayParamVector<String> foo = new ArrayParamVector<String>(features);
+		foo.put(features, 2, 0.0);
+
+		// a feature of the table with no weight: 0.0 by id, null by name
+		assertFalse(foo.containsKey(features, 1));
+		assertEquals(0.0,foo.get(features, 1),EPS);
+		assertNull(foo.get("abc"));
+		// a stored 0.0 is a weight
+		assertTrue(foo.containsKey(features, 2));
+		assertEquals(0.0,foo.get("def"),EPS);
+		// ids past anything stored
+		assertFalse(foo.containsKey(1<<20));
+		assertEquals(0.0,foo.get(1<<20),EPS);
+		assertEquals(1,foo.size());
+	}
+
+	@Test
+	public void testMapPaths() {
+		SymbolTable<String> features = new SimpleSymbolTable<String>();
+		ArrayParamVector<String> foo = new ArrayParamVector<String>(features);
+		foo.put("abc",1.0);
+		foo.adjustValue("def",2.0);
+		foo.setUpdateMode(ParamVector.UpdateMode.safe);
+		foo.flush();
+
+		assertEquals(2,foo.keySet().size());
+		assertTrue(foo.keySet().contains("def"));
+		double sum=0;
+		for (Double d : foo.values()) sum += d;
+		assertEquals(3.0,sum,EPS);
+		for (Map.Entry<String,Double> e : foo.entrySet()) assertEquals(foo.get(e.getKey()),e.getValue());
+		assertEquals("{abc:1.0, def:2.0}",foo.toString());
+
+		ParamVector<String,?> copy = foo.copy();
+		assertEquals(2.0,copy.get("def"),EPS);
+		foo.clear();
+		assertTrue(foo.isEmpty());
+		assertEquals(2,copy.size());
+	}
+}
@@ -0,0 +1,96 @@
+package edu.cmu.ml.proppr.util;
+
+import static org.junit.Assert.*;
+
+import java.util.BitSet;
+
+import org.junit.Test;
+
+public class ConcurrentSymbolTableTest {
+	private static final int NTHREADS=4;
+	private static final int NSYMBOLS=50000;
+
+	@Test
+	public void testSingleThread() {
+		ConcurrentSymbolTable<String> tab = new ConcurrentSymbolTable<String>();
+		assertFalse(tab.hasId("abc"));
+		assertEquals(0,tab.size());
+		int abc = tab.getId("abc");
+		assertEquals(1,abc);
+		assertEquals(abc,tab.getId("abc"));
+		assertTrue(tab.hasId("abc"));
+		assertEquals("abc",tab.getSymbol(abc));
+		assertNull(tab.getSymbol(2));
+		assertNull(tab.getSymbol(0));
+
+		// several resizes' worth
+		for (int i=0; i<NSYMBOLS; i++) tab.insert("s"+i);
+		assertEquals(NSYMBOLS+1,tab.size());
+		for (int i=0; i<NSYMBOLS; i++) {
+			int id = tab.getId("s"+i);
+			assertEquals(i+2,id);
+			assertEquals("s"+i,tab.getSymbol(id));
+		}
+		assertEquals(NSYMBOLS+1,tab.size());
+	}
+
+	@Test
+	public void testConcurrentInsert() throws InterruptedException {
+		final ConcurrentSymbolTable<String> tab = new ConcurrentSymbolTable<String>(ConcurrentSymbolTable.HASHING_STRATEGIES.identity);
+		final int[][] ids = new int[NTHREADS][NSYMBOLS];
+		Thread[] threads = new Thread[NTHREADS];
+		for (int t=0; t<NTHREADS; t++) {
+			final int k = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					// each thread walks the symbols from a different starting point
+					for (int i=0; i<NSYMBOLS; i++) {
+						int s = (i + k*NSYMBOLS/NTHREADS) % NSYMBOLS;
+						ids[k][s] = tab.getId("s"+s);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) t.join();
+
+		assertEquals(NSYMBOLS,tab.size());
+		BitSet seen = new BitSet();
+		for (int s=0; s<NSYMBOLS; s++) {
+			for (int t=1; t<NTHREADS; t++) assertEquals("s"+s,ids[0][s],ids[t][s]);
+			int id = ids[0][s];
+			assertTrue(id >= 1 && id <= NSYMBOLS);
+			assertFalse("duplicate id "+id,seen.get(id));
+			seen.set(id);
+			assertEquals("s"+s,tab.getSymbol(id));
+			assertEquals(id,tab.getId("s"+s));
+		}
+	}
+
+	@Test
+	public void testSizeIsPublished() throws InterruptedException {
+		final ConcurrentSymbolTable<String> tab = new ConcurrentSymbolTable<String>();
+		Thread[] threads = new Thread[NTHREADS];
+		for (int t=0; t<NTHREADS; t++) {
+			final int k = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i=0; i<NSYMBOLS; i++) tab.insert(k+"s"+i);
+				}
+			};
+			threads[t].start();
+		}
+		// every id up to size() must already have its symbol
+		int checks = 0;
+		while (checks == 0 || tab.size() < NTHREADS*NSYMBOLS) {
+			int n = tab.size();
+			if (n > 0) assertNotNull("symbol "+n, tab.getSymbol(n));
+			checks++;
+		}
+		for (Thread t : threads) t.join();
+		assertEquals(NTHREADS*NSYMBOLS,tab.size());
+		for (int id=1; id<=tab.size(); id++) assertEquals(id,tab.getId(tab.getSymbol(id)));
+	}
+}
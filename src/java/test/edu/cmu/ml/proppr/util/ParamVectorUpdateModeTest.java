@@ -0,0 +1,107 @@
+package edu.cmu.ml.proppr.util;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.util.math.ArrayParamVector;
+import edu.cmu.ml.proppr.util.math.ParamVector;
+import edu.cmu.ml.proppr.util.math.SimpleParamVector;
+
+public class ParamVectorUpdateModeTest {
+	private static final double EPS=1e-6;
+	private static final int NTHREADS=4;
+	private static final int NUPDATES=20000;
+
+	private void hammer(final ParamVector<String,?> params) throws InterruptedException {
+		Thread[] threads = new Thread[NTHREADS];
+		for (int t=0; t<NTHREADS; t++) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i=0; i<NUPDATES; i++) {
+						params.adjustValue("hot", 1.0);
+						params.adjustValue("cold"+(i%10), 0.5);
+					}
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread t : threads) t.join();
+	}
+
+	private void check(ParamVector<String,?> params) {
+		assertEquals(NTHREADS*NUPDATES,params.get("hot"),EPS);
+		assertEquals(NTHREADS*NUPDATES*0.05,params.get("cold0"),EPS);
+		assertEquals(11,params.size());
+	}
+
+	@Test
+	public void testSafe() throws InterruptedException {
+		ParamVector<String,?> params = new SimpleParamVector<String>();
+		hammer(params);
+		check(params);
+		assertTrue(params.getRetries() >= params.getCollisions());
+		params.resetUpdateStatistics();
+		assertEquals(0,params.getRetries());
+	}
+
+	@Test
+	public void testStriped() throws InterruptedException {
+		ParamVector<String,?> params = new SimpleParamVector<String>();
+		params.setUpdateMode(ParamVector.UpdateMode.striped);
+		hammer(params);
+		// pending updates are visible to get() before the flush
+		check(params);
+		params.flush();
+		check(params);
+		double sum=0;
+		for (Double d : params.values()) sum += d;
+		assertEquals(NTHREADS*NUPDATES*1.5,sum,EPS);
+	}
+
+	@Test
+	public void testArray() throws InterruptedException {
+		ParamVector<String,?> params = new ArrayParamVector<String>(new SimpleSymbolTable<String>());
+		params.put("hot",0.0);
+		for (int i=0; i<10; i++) params.put("cold"+i,0.0);
+		hammer(params);
+		check(params);
+	}
+
+	@Test
+	public void testArrayStriped() throws InterruptedException {
+		ArrayParamVector<String> params = new ArrayParamVector<String>(new SimpleSymbolTable<String>());
+		params.put("hot",0.0);
+		for (int i=0; i<10; i++) params.put("cold"+i,0.0);
+		params.setUpdateMode(ParamVector.UpdateMode.striped);
+		hammer(params);
+		// pending updates are visible to get() before the flush
+		check(params);
+		assertEquals(0,params.getRetries());
+		params.flush();
+		check(params);
+		double sum=0;
+		for (Double d : params.values()) sum += d;
+		assertEquals(NTHREADS*NUPDATES*1.5,sum,EPS);
+
+		// a new feature shows up right away; put() and switching modes settle pending updates
+		params.adjustValue("new", 1.0);
+		assertTrue(params.containsKey("new"));
+		params.adjustValue("hot", 1.0);
+		params.put("hot", 5.0);
+		assertEquals(5.0,params.get("hot"),EPS);
+		params.setUpdateMode(ParamVector.UpdateMode.safe);
+		params.adjustValue("new", 1.0);
+		assertEquals(2.0,params.get("new"),EPS);
+	}
+
+	@Test
+	public void testHogwild() {
+		ParamVector<String,?> params = new SimpleParamVector<String>();
+		params.setUpdateMode(ParamVector.UpdateMode.hogwild);
+		params.adjustValue("abc", 1.0);
+		params.adjustValue("abc", 2.0);
+		assertEquals(3.0,params.get("abc"),EPS);
+	}
+}
@@ -0,0 +1,95 @@
+package edu.cmu.ml.proppr.util.multithreading;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+import edu.cmu.ml.proppr.util.StatusLogger;
+
+public class MultithreadingTest {
+	private static final Logger log = Logger.getLogger(MultithreadingTest.class);
+	private static final int N = 200;
+	private static final int THROTTLE = 3;
+
+	@Test
+	public void testOrdered() {
+		List<Integer> results = run(true);
+		for (int i=0; i<N; i++) assertEquals(2*i, results.get(i).intValue());
+	}
+
+	@Test
+	public void testUnordered() {
+		List<Integer> results = run(false);
+		Collections.sort(results);
+		for (int i=0; i<N; i++) assertEquals(2*i, results.get(i).intValue());
+	}
+
+	/** Double 0..N-1, checking that no more than THROTTLE items are between the reader and cleanup */
+	private List<Integer> run(boolean ordered) {
+		final AtomicInteger inFlight = new AtomicInteger(0);
+		final AtomicInteger maxInFlight = new AtomicInteger(0);
+		final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+		Iterable<Integer> streamer = new Iterable<Integer>() {
+			@Override
+			public Iterator<Integer> iterator() {
+				return new Iterator<Integer>() {
+					int i=0;
+					@Override
+					public boolean hasNext() { return i<N; }
+					@Override
+					public Integer next() {
+						int n = inFlight.incrementAndGet();
+						synchronized(maxInFlight) { maxInFlight.set(Math.max(n, maxInFlight.get())); }
+						return i++;
+					}
+					@Override
+					public void remove() {}
+				};
+			}
+		};
+		new Multithreading<Integer,Integer>(log, new StatusLogger(), ordered).executeJob(4, streamer,
+				new Transformer<Integer,Integer>() {
+					@Override
+					public Callable<Integer> transformer(final Integer in, int id) {
+						return new Callable<Integer>() {
+							@Override
+							public Integer call() throws Exception {
+								// make some of them slow
+								if (in % 7 == 0) Thread.sleep(5);
+								return 2*in;
+							}
+						};
+					}
+				},
+				new Cleanup<Integer>() {
+					@Override
+					public Runnable cleanup(final Future<Integer> in, int id) {
+						return new Runnable() {
+							@Override
+							public void run() {
+								try {
+									results.add(in.get());
+								} catch (InterruptedException | ExecutionException e) {
+									throw new IllegalStateException(e);
+								}
+								inFlight.decrementAndGet();
+							}
+						};
+					}
+				}, THROTTLE);
+		assertEquals(N, results.size());
+		// the reader holds one more item while it waits for room
+		assertTrue("max in flight "+maxInFlight.get(), maxInFlight.get() <= THROTTLE+1);
+		return results;
+	}
+}